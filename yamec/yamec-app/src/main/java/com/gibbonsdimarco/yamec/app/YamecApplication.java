@@ -1,7 +1,7 @@
 package com.gibbonsdimarco.yamec.app;
 
 import com.gibbonsdimarco.yamec.app.data.*;
-import com.gibbonsdimarco.yamec.app.jni.SystemMonitorManagerJNI;
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSource;
 import com.gibbonsdimarco.yamec.app.service.*;
 import jakarta.annotation.PreDestroy;
 import jakarta.websocket.OnClose;
@@ -104,7 +104,7 @@ public class YamecApplication {
      * not to be initialized properly, the application will be exited.
      */
     private static void initializeSystemMonitorManager(ApplicationContext context) {
-        SystemMonitorManagerJNI monitor = context.getBean(SystemMonitorManagerJNI.class);
+        MetricsSource monitor = context.getBean(MetricsSource.class);
         try {
             System.err.println("Verifying System Monitor Manager...");
             if (monitor == null) {
@@ -0,0 +1,21 @@
+package com.gibbonsdimarco.yamec.app.config;
+
+import com.gibbonsdimarco.yamec.app.service.MetricTableMigration;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * <p>Orders the schema migrations before the EntityManagerFactory.</p>
+ * <p>The MetricTableMigration converts the metric tables of an existing database to their
+ * current key when it is created, so Hibernate finds them in their current layout when it
+ * updates the schema.</p>
+ */
+@Configuration
+public class MigrationConfig {
+
+    @Bean
+    public static EntityManagerFactoryDependsOnPostProcessor metricTableMigrationDependency() {
+        return new EntityManagerFactoryDependsOnPostProcessor(MetricTableMigration.class);
+    }
+}
@@ -0,0 +1,42 @@
+package com.gibbonsdimarco.yamec.app.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * <p>The schedulers of the <code>@Scheduled</code> methods.</p>
+ * <p>The collector runs every second on the <code>taskScheduler</code>, which only it uses. The
+ * RetentionService, the RollupService and the compression of the SampleSegmentStore pause between
+ * chunks of work so the metrics writer can take the SQLite write lock, and run on the
+ * <code>maintenanceScheduler</code> instead, so their pauses never delay a collection. With one
+ * maintenance thread (<code>yamec.maintenance.pool-size</code>), they also run one at a time.</p>
+ */
+@Configuration
+public class SchedulingConfig {
+
+    /**
+     * The scheduler name of the maintenance jobs, for <code>@Scheduled(scheduler = ...)</code>
+     */
+    public static final String MAINTENANCE_SCHEDULER = "maintenanceScheduler";
+
+    /**
+     * The default scheduler of <code>@Scheduled</code> methods, used by the collector
+     */
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("collector-");
+        return scheduler;
+    }
+
+    @Bean(MAINTENANCE_SCHEDULER)
+    public ThreadPoolTaskScheduler maintenanceScheduler(@Value("${yamec.maintenance.pool-size:1}") int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix("maintenance-");
+        return scheduler;
+    }
+}
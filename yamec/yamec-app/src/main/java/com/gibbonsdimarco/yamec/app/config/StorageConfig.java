@@ -0,0 +1,153 @@
+package com.gibbonsdimarco.yamec.app.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+import javax.sql.DataSource;
+
+/**
+ * <p>SQLite storage tuned for metrics being written while the dashboard reads them, enabled with
+ * the <code>wal</code> profile (<code>--spring.profiles.active=wal</code>).</p>
+ * <p>The database is switched to write-ahead logging, so readers see the last committed data
+ * without waiting for the writer and the writer does not wait for readers. Commits use
+ * <code>synchronous=NORMAL</code>, which only syncs the log at checkpoints: a power loss can lose
+ * the last few commits, but never corrupts the database. Each connection also gets a larger page
+ * cache and memory-mapped reads.</p>
+ * <p>SQLite allows one writer at a time, so writes go through a pool of one connection and wait
+ * for it in Java rather than retrying on <code>SQLITE_BUSY</code>. Read-only transactions (such
+ * as those of the PercentileService and HistoryService) use a separate pool of read-only
+ * connections. Which pool a transaction uses is decided when its first statement runs, once the
+ * transaction is known to be read-only.</p>
+ */
+@Configuration
+@Profile("wal")
+public class StorageConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageConfig.class);
+
+    /**
+     * The pragmas set on every connection
+     *
+     * @param synchronous The synchronous mode of commits (OFF, NORMAL, FULL or EXTRA)
+     * @param cacheSizeKb The page cache of each connection, in KiB
+     * @param mmapSizeBytes The number of bytes of the database file read through memory mapping
+     * @param busyTimeoutMillis How long a connection waits for a lock before failing
+     */
+    public record Pragmas(String synchronous, int cacheSizeKb, long mmapSizeBytes, int busyTimeoutMillis) {}
+
+    @Bean
+    public Pragmas storagePragmas(@Value("${yamec.storage.synchronous:NORMAL}") String synchronous,
+                                  @Value("${yamec.storage.cache-size-kb:16384}") int cacheSizeKb,
+                                  @Value("${yamec.storage.mmap-size-bytes:268435456}") long mmapSizeBytes,
+                                  @Value("${yamec.storage.busy-timeout-ms:5000}") int busyTimeoutMillis) {
+        return new Pragmas(synchronous, cacheSizeKb, mmapSizeBytes, busyTimeoutMillis);
+    }
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource writeDataSource(@Value("${spring.datasource.url}") String url, Pragmas pragmas) {
+        logger.info("Opening {} in WAL mode with a single writer connection", url);
+        return createWriteDataSource(url, pragmas);
+    }
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource readOnlyDataSource(@Value("${spring.datasource.url}") String url,
+                                               Pragmas pragmas,
+                                               @Value("${yamec.storage.read-pool-size:4}") int readPoolSize,
+                                               @Qualifier("writeDataSource") DataSource writeDataSource) {
+        // The write pool is created first, so the database exists and is in WAL mode
+        return createReadOnlyDataSource(url, pragmas, readPoolSize);
+    }
+
+    /**
+     * The DataSource used by JPA and the JdbcTemplate, which sends read-only transactions to the
+     * read-only pool and everything else to the write pool
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("writeDataSource") DataSource writeDataSource,
+                                 @Qualifier("readOnlyDataSource") DataSource readOnlyDataSource) {
+        return createRoutingDataSource(writeDataSource, readOnlyDataSource);
+    }
+
+    /**
+     * Creates a pool of one connection which switches the database to WAL mode
+     */
+    public static HikariDataSource createWriteDataSource(String url, Pragmas pragmas) {
+        SQLiteConfig config = createSqliteConfig(pragmas);
+        config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        config.setSynchronous(SQLiteConfig.SynchronousMode.valueOf(pragmas.synchronous()));
+
+        HikariConfig poolConfig = createPoolConfig(url, config, "sqlite-writer");
+        poolConfig.setMaximumPoolSize(1);
+        return new HikariDataSource(poolConfig);
+    }
+
+    /**
+     * Creates a pool of read-only connections to a database already in WAL mode
+     */
+    public static HikariDataSource createReadOnlyDataSource(String url, Pragmas pragmas, int poolSize) {
+        SQLiteConfig config = createSqliteConfig(pragmas);
+        config.setReadOnly(true);
+
+        HikariConfig poolConfig = createPoolConfig(url, config, "sqlite-reader");
+        poolConfig.setMaximumPoolSize(poolSize);
+        poolConfig.setReadOnly(true);
+        return new HikariDataSource(poolConfig);
+    }
+
+    /**
+     * Creates a DataSource which uses the read-only DataSource within read-only transactions and
+     * the write DataSource otherwise
+     */
+    public static DataSource createRoutingDataSource(DataSource writeDataSource, DataSource readOnlyDataSource) {
+        AbstractRoutingDataSource routingDataSource = new AbstractRoutingDataSource() {
+            @Override
+            protected Object determineCurrentLookupKey() {
+                return TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+            }
+        };
+        routingDataSource.setTargetDataSources(java.util.Map.of(false, writeDataSource, true, readOnlyDataSource));
+        routingDataSource.setDefaultTargetDataSource(writeDataSource);
+        routingDataSource.afterPropertiesSet();
+
+        // Transactions take their connection when they begin, before they are marked read-only,
+        // so the connection is only chosen when it is first used
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    private static SQLiteConfig createSqliteConfig(Pragmas pragmas) {
+        SQLiteConfig config = new SQLiteConfig();
+        // A negative cache size is in KiB rather than pages
+        config.setCacheSize(-pragmas.cacheSizeKb());
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, Long.toString(pragmas.mmapSizeBytes()));
+        config.setTempStore(SQLiteConfig.TempStore.MEMORY);
+        config.setBusyTimeout(pragmas.busyTimeoutMillis());
+        return config;
+    }
+
+    private static HikariConfig createPoolConfig(String url, SQLiteConfig config, String poolName) {
+        SQLiteDataSource dataSource = new SQLiteDataSource(config);
+        dataSource.setUrl(url);
+
+        HikariConfig poolConfig = new HikariConfig();
+        poolConfig.setPoolName(poolName);
+        poolConfig.setDataSource(dataSource);
+        poolConfig.setConnectionTestQuery("SELECT 1");
+        poolConfig.setValidationTimeout(5000);
+        poolConfig.setLeakDetectionThreshold(30000);
+        return poolConfig;
+    }
+}
@@ -1,6 +1,10 @@
 package com.gibbonsdimarco.yamec.app.config;
 
 import com.gibbonsdimarco.yamec.app.jni.SystemMonitorManagerJNI;
+import com.gibbonsdimarco.yamec.app.monitor.LinuxProcMetricsSource;
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSource;
+import com.gibbonsdimarco.yamec.app.monitor.TimedMetricsSource;
+import com.gibbonsdimarco.yamec.app.service.PipelineTimings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanCreationException;
@@ -12,16 +16,31 @@ public class SystemMonitorConfig {
 
     private static final Logger logger = LoggerFactory.getLogger(SystemMonitorConfig.class);
 
+    /**
+     * Creates the MetricsSource for the operating system the application is running on.
+     * Windows uses the native System Monitor Manager and Linux reads procfs directly. Each call
+     * to the source is timed in the PipelineTimings.
+     */
     @Bean(destroyMethod = "close")
-    public SystemMonitorManagerJNI systemMonitorManager() {
+    public MetricsSource systemMonitorManager(PipelineTimings pipelineTimings) {
+        String osName = System.getProperty("os.name").toLowerCase();
+
         try {
-            logger.info("Creating singleton instance of SystemMonitorManagerJNI");
-            SystemMonitorManagerJNI monitorManager = new SystemMonitorManagerJNI();
+            MetricsSource monitorManager;
+            if (osName.contains("windows")) {
+                logger.info("Creating singleton instance of SystemMonitorManagerJNI");
+                monitorManager = new SystemMonitorManagerJNI();
+            } else if (osName.contains("linux")) {
+                logger.info("Creating singleton instance of LinuxProcMetricsSource");
+                monitorManager = new LinuxProcMetricsSource();
+            } else {
+                throw new UnsupportedOperationException("Metrics collection is not supported on " + osName);
+            }
 
             // Verify it was created properly
-            if (monitorManager == null || !monitorManager.isOpen()) {
-                logger.error("SystemMonitorManagerJNI created but not in open state");
-                throw new RuntimeException("Failed to properly initialize SystemMonitorManagerJNI");
+            if (!monitorManager.isOpen()) {
+                logger.error("{} created but not in open state", monitorManager.getClass().getSimpleName());
+                throw new RuntimeException("Failed to properly initialize " + monitorManager.getClass().getSimpleName());
             }
 
             monitorManager.collectCounterData();
@@ -30,12 +49,12 @@ public class SystemMonitorConfig {
 
 //            monitorManager.collectCounterData();
 
-            return monitorManager;
+            return new TimedMetricsSource(monitorManager, pipelineTimings);
         } catch (Exception e) {
-            logger.error("Failed to create SystemMonitorManagerJNI", e);
+            logger.error("Failed to create the metrics source", e);
             // In a bean creation method, it's better to throw an exception than return null
             // This will cause Spring to fail fast rather than with NPEs later
-            throw new BeanCreationException("SystemMonitorManagerJNI bean creation failed", e);
+            throw new BeanCreationException("MetricsSource bean creation failed", e);
         }
     }
 }
\ No newline at end of file
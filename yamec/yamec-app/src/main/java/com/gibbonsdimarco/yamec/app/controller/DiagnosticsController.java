@@ -0,0 +1,64 @@
+package com.gibbonsdimarco.yamec.app.controller;
+
+import com.gibbonsdimarco.yamec.app.model.ApplicationAdmissionStatistics;
+import com.gibbonsdimarco.yamec.app.model.ApplicationNameCacheStatistics;
+import com.gibbonsdimarco.yamec.app.model.PipelineStatistics;
+import com.gibbonsdimarco.yamec.app.model.StageTimingData;
+import com.gibbonsdimarco.yamec.app.service.ApplicationAdmissionGuard;
+import com.gibbonsdimarco.yamec.app.service.ApplicationNameCache;
+import com.gibbonsdimarco.yamec.app.service.PipelineTimings;
+import com.gibbonsdimarco.yamec.app.service.SystemMetricsCollector;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Exposes internal counters of the collector for troubleshooting
+ */
+@Controller
+public class DiagnosticsController {
+    private final SystemMetricsCollector systemMetricsCollector;
+    private final ApplicationNameCache applicationNameCache;
+    private final ApplicationAdmissionGuard applicationAdmissionGuard;
+    private final PipelineTimings pipelineTimings;
+
+    @Autowired
+    public DiagnosticsController(SystemMetricsCollector systemMetricsCollector,
+                                 ApplicationNameCache applicationNameCache,
+                                 ApplicationAdmissionGuard applicationAdmissionGuard,
+                                 PipelineTimings pipelineTimings) {
+        this.systemMetricsCollector = systemMetricsCollector;
+        this.applicationNameCache = applicationNameCache;
+        this.applicationAdmissionGuard = applicationAdmissionGuard;
+        this.pipelineTimings = pipelineTimings;
+    }
+
+    @GetMapping("/api/diagnostics/pipeline")
+    @ResponseBody
+    public PipelineStatistics getPipelineStatistics() {
+        return systemMetricsCollector.getPipelineStatistics();
+    }
+
+    @GetMapping("/api/diagnostics/application-names")
+    @ResponseBody
+    public ApplicationNameCacheStatistics getApplicationNameCacheStatistics() {
+        return applicationNameCache.getStatistics();
+    }
+
+    @GetMapping("/api/diagnostics/application-admission")
+    @ResponseBody
+    public ApplicationAdmissionStatistics getApplicationAdmissionStatistics() {
+        return applicationAdmissionGuard.getStatistics();
+    }
+
+    /**
+     * Returns the durations of each stage of the collection pipeline since startup, including how
+     * late each collection started
+     */
+    @GetMapping("/api/diagnostics/timings")
+    @ResponseBody
+    public java.util.List<StageTimingData> getStageTimings() {
+        return pipelineTimings.getStatistics();
+    }
+}
@@ -2,16 +2,32 @@ package com.gibbonsdimarco.yamec.app.controller;
 
 import com.gibbonsdimarco.yamec.app.model.ApplicationMetricsData;
 import com.gibbonsdimarco.yamec.app.model.MetricsData;
+import com.gibbonsdimarco.yamec.app.model.PercentileData;
+import com.gibbonsdimarco.yamec.app.model.TopApplicationsData;
+import com.gibbonsdimarco.yamec.app.model.WindowData;
 import com.gibbonsdimarco.yamec.app.service.ApplicationMetricsAdapter;
+import com.gibbonsdimarco.yamec.app.service.HistoryService;
+import com.gibbonsdimarco.yamec.app.service.MetricsStreamService;
+import com.gibbonsdimarco.yamec.app.service.PercentileService;
+import com.gibbonsdimarco.yamec.app.service.SlidingWindowStore;
+import com.gibbonsdimarco.yamec.app.service.TopApplicationsTracker;
 import com.gibbonsdimarco.yamec.app.service.SystemMetricsAdapter;
 import com.gibbonsdimarco.yamec.app.model.mock.MockMetricsDataService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.sql.Timestamp;
 import java.util.UUID;
 
 @Controller
@@ -19,12 +35,27 @@ public class MetricsController {
 //    private final MockMetricsDataService mockMetricsAdapter;
     private final SystemMetricsAdapter systemMetricsAdapter;
     private final ApplicationMetricsAdapter applicationMetricsAdapter;
+    private final MetricsStreamService metricsStreamService;
+    private final PercentileService percentileService;
+    private final SlidingWindowStore slidingWindowStore;
+    private final TopApplicationsTracker topApplicationsTracker;
+    private final HistoryService historyService;
 
     @Autowired
     public MetricsController(SystemMetricsAdapter systemMetricsAdapter,
-                            ApplicationMetricsAdapter applicationMetricsAdapter) {
+                            ApplicationMetricsAdapter applicationMetricsAdapter,
+                            MetricsStreamService metricsStreamService,
+                            PercentileService percentileService,
+                            SlidingWindowStore slidingWindowStore,
+                            TopApplicationsTracker topApplicationsTracker,
+                            HistoryService historyService) {
         this.systemMetricsAdapter = systemMetricsAdapter;
         this.applicationMetricsAdapter = applicationMetricsAdapter;
+        this.metricsStreamService = metricsStreamService;
+        this.percentileService = percentileService;
+        this.slidingWindowStore = slidingWindowStore;
+        this.topApplicationsTracker = topApplicationsTracker;
+        this.historyService = historyService;
     }
 
 //    @Autowired
@@ -49,6 +80,8 @@ public class MetricsController {
     @GetMapping("/applications")
     public String getApplicationMetricsPage(Model model) {
         model.addAttribute("appMetrics", applicationMetricsAdapter.getCurrentApplicationMetrics());
+        model.addAttribute("topCpu", topApplicationsTracker.getTopApplications("cpu", "5m", 5));
+        model.addAttribute("topPhysicalMemory", topApplicationsTracker.getTopApplications("physicalMemory", "5m", 5));
         return "applications";
     }
 
@@ -70,9 +103,128 @@ public class MetricsController {
         return applicationMetricsAdapter.getCurrentApplicationMetrics();
     }
 
+    @GetMapping(path = "/api/stream/metrics", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public SseEmitter streamMetrics() {
+        return metricsStreamService.subscribeToSystemMetrics();
+    }
+
+    @GetMapping(path = "/api/stream/applications", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public SseEmitter streamApplicationMetrics() {
+        return metricsStreamService.subscribeToApplicationMetrics();
+    }
+
+    /**
+     * Returns the applications using the most of a resource on average over a recent window
+     *
+     * @param metric cpu, physicalMemory or virtualMemory
+     * @param window 1m, 5m or 15m
+     * @param limit The maximum number of applications returned
+     */
+    @GetMapping("/api/applications/top")
+    @ResponseBody
+    public TopApplicationsData getTopApplications(@RequestParam(name = "metric", defaultValue = "cpu") String metric,
+                                                  @RequestParam(name = "window", defaultValue = "5m") String window,
+                                                  @RequestParam(name = "limit", defaultValue = "10") int limit) {
+        try {
+            return topApplicationsTracker.getTopApplications(metric, window, limit);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
     @GetMapping("/api/applications/{id}")
     @ResponseBody
     public ApplicationMetricsData getApplicationMetricsById(@PathVariable("id") UUID id) {
         return applicationMetricsAdapter.getApplicationMetricsById(id);
     }
+
+    /**
+     * Returns percentiles of the metrics of each device (or application) of a type over a range
+     * of time
+     *
+     * @param type cpu, memory, disk, nic or applications
+     * @param start The start of the range in milliseconds since the epoch (inclusive)
+     * @param end The end of the range in milliseconds since the epoch (exclusive)
+     * @param quantiles The quantiles to estimate, separated by commas
+     */
+    @GetMapping("/api/percentiles/{type}")
+    @ResponseBody
+    public java.util.List<PercentileData> getPercentiles(@PathVariable("type") String type,
+                                                         @RequestParam("start") long start,
+                                                         @RequestParam("end") long end,
+                                                         @RequestParam(name = "quantiles",
+                                                                 defaultValue = "0.5,0.95,0.99") double[] quantiles) {
+        try {
+            return percentileService.getPercentiles(type, new Timestamp(start), new Timestamp(end), quantiles);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the 1, 5 and 15 minute statistics of every metric series kept in memory
+     *
+     * @param type cpu, memory, disk, nic or applications, or every type if not given
+     */
+    @GetMapping("/api/windows")
+    @ResponseBody
+    public java.util.List<WindowData> getWindows(@RequestParam(name = "type", required = false) String type) {
+        SlidingWindowStore.SeriesType seriesType = null;
+        if (type != null) {
+            seriesType = SlidingWindowStore.SeriesType.fromLabel(type);
+            if (seriesType == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown metric type: " + type);
+            }
+        }
+
+        return slidingWindowStore.getWindows(seriesType);
+    }
+
+    /**
+     * Streams the metrics of a type over a range of time, oldest first. Responses end with a
+     * <code>nextCursor</code> if the limit was reached, which is passed as the <code>cursor</code>
+     * of the next request to continue from there.
+     *
+     * <p>If <code>points</code> is given, one field of each device is instead downsampled to at
+     * most that many points, for a chart of the range.</p>
+     *
+     * @param type cpu, memory, disk, nic or application
+     * @param start The start of the range in milliseconds since the epoch (inclusive)
+     * @param end The end of the range in milliseconds since the epoch (exclusive)
+     * @param resolution The number of seconds between the metrics needed. Metrics which have been
+     *                   rolled up are read from the rolled up metrics if this is at least their duration.
+     * @param cursor The <code>nextCursor</code> of the previous response
+     * @param limit The maximum number of metrics returned
+     * @param points The maximum number of points per device when downsampling
+     * @param method lttb (Largest-Triangle-Three-Buckets) or minmax (the smallest and largest
+     *               value of each bucket) when downsampling
+     * @param field The field downsampled, such as averageUtilization, or the first field of the type
+     * @param id The ID of the only device or application downsampled
+     */
+    @GetMapping("/api/history/{type}")
+    public ResponseEntity<StreamingResponseBody> getHistory(@PathVariable("type") String type,
+                                                            @RequestParam("start") long start,
+                                                            @RequestParam("end") long end,
+                                                            @RequestParam(name = "resolution", defaultValue = "1") int resolution,
+                                                            @RequestParam(name = "cursor", required = false) String cursor,
+                                                            @RequestParam(name = "limit", required = false) Integer limit,
+                                                            @RequestParam(name = "points", required = false) Integer points,
+                                                            @RequestParam(name = "method", defaultValue = "lttb") String method,
+                                                            @RequestParam(name = "field", required = false) String field,
+                                                            @RequestParam(name = "id", required = false) UUID id) {
+        HistoryService.HistoryQuery query;
+        try {
+            query = points == null
+                    ? historyService.prepare(type, new Timestamp(start), new Timestamp(end), resolution, cursor, limit)
+                    : historyService.prepareDownsampled(type, new Timestamp(start), new Timestamp(end), points,
+                                                        method, field, id);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+
+        StreamingResponseBody body = outputStream -> historyService.write(query, outputStream);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
 }
@@ -0,0 +1,28 @@
+package com.gibbonsdimarco.yamec.app.controller;
+
+import com.gibbonsdimarco.yamec.app.service.PrometheusExporter;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+
+import java.io.IOException;
+
+/**
+ * Exposes the latest metrics to Prometheus
+ */
+@Controller
+public class PrometheusController {
+    private final PrometheusExporter prometheusExporter;
+
+    @Autowired
+    public PrometheusController(PrometheusExporter prometheusExporter) {
+        this.prometheusExporter = prometheusExporter;
+    }
+
+    @GetMapping("/metrics")
+    public void getMetrics(HttpServletResponse response) throws IOException {
+        response.setContentType(PrometheusExporter.CONTENT_TYPE);
+        prometheusExporter.writeTo(response.getOutputStream());
+    }
+}
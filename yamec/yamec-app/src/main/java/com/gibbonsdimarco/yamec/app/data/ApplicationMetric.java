@@ -1,5 +1,6 @@
 package com.gibbonsdimarco.yamec.app.data;
 
+import com.gibbonsdimarco.yamec.app.service.MetricSeriesListener;
 import jakarta.persistence.*;
 
 import java.io.Serializable;
@@ -7,9 +8,13 @@ import java.sql.Timestamp;
 import java.util.UUID;
 
 /**
- * Contains metrics for system resources collected on specific applications on the system
+ * <p>Contains metrics for system resources collected on specific applications on the system</p>
+ * <p>Metrics are keyed on their series (the application at the granularity level of the metric)
+ * and their timestamp, like the SystemDeviceMetric.</p>
  */
 @Entity
+@IdClass(MetricKey.class)
+@EntityListeners(MetricSeriesListener.class)
 @Table(name = "application_metrics", indexes = {
         @Index(name = "idx_application_metrics_timestamp", columnList = "timestamp"),
         @Index(name = "idx_application_metrics_application", columnList = "application_id")
@@ -17,11 +22,18 @@ import java.util.UUID;
 public class ApplicationMetric implements Serializable {
 
     /**
-     * A unique identifier for use in the database to represent each application metric on the system
+     * The ID of the series this ApplicationMetric belongs to in the metric_series table
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
-    private UUID id;
+    @Column(name = "series_id", nullable = false)
+    private Long seriesId;
+
+    /**
+     * A locally used String which provides the name of the Application this ApplicationMetric
+     * pertains to, when it is known without loading the Application
+     */
+    @Transient
+    private String applicationName;
 
     /**
      * The Application which this ApplicationMetric refers to
@@ -34,6 +46,7 @@ public class ApplicationMetric implements Serializable {
     /**
      * The time at which this ApplicationMetric is collected/logged
      */
+    @Id
     @Column(name = "timestamp", nullable = false)
     private Timestamp timestamp;
 
@@ -43,6 +56,13 @@ public class ApplicationMetric implements Serializable {
     @Column(name = "duration", nullable = false)
     private Integer duration;
 
+    /**
+     * The granularity of the data collected by this ApplicationMetric. Metrics saved before
+     * application metrics had a granularity level have none and are HIGH granularity metrics.
+     */
+    @Column(name = "granularity_id")
+    private UUID granularityId;
+
     /**
      * The average percentage of CPU utilization of all processes of this Application
      * at the time this ApplicationMetric is collected
@@ -109,6 +129,20 @@ public class ApplicationMetric implements Serializable {
     @Column(name="min_virtual_memory_used")
     private Long minVirtualMemoryUsed;
 
+    /**
+     * The QuantileSketch of the CPU usages measured within this metric, in the format of
+     * <code>QuantileSketch.toBytes()</code>, or null if the metric only covers one second
+     */
+    @Column(name = "cpu_usage_sketch")
+    private byte[] cpuUsageSketch;
+
+    /**
+     * The QuantileSketch of the bytes of physical memory used measured within this metric, in the format of
+     * <code>QuantileSketch.toBytes()</code>, or null if the metric only covers one second
+     */
+    @Column(name = "physical_memory_used_sketch")
+    private byte[] physicalMemoryUsedSketch;
+
 
 
 
@@ -172,12 +206,12 @@ public class ApplicationMetric implements Serializable {
         this.duration = 0; // Default duration
     }
 
-    public UUID getId() {
-        return id;
+    public Long getSeriesId() {
+        return seriesId;
     }
 
-    public void setId(UUID id) {
-        this.id = id;
+    public void setSeriesId(Long seriesId) {
+        this.seriesId = seriesId;
     }
 
     public Application getApplication() {
@@ -188,6 +222,14 @@ public class ApplicationMetric implements Serializable {
         this.application = application;
     }
 
+    public String getApplicationName() {
+        return applicationName;
+    }
+
+    public void setApplicationName(String applicationName) {
+        this.applicationName = applicationName;
+    }
+
     public Timestamp getTimestamp() {
         return timestamp;
     }
@@ -204,6 +246,14 @@ public class ApplicationMetric implements Serializable {
         this.duration = duration;
     }
 
+    public UUID getGranularityId() {
+        return granularityId;
+    }
+
+    public void setGranularityId(UUID granularityId) {
+        this.granularityId = granularityId;
+    }
+
     public Double getAvgCpuUsage() {
         return avgCpuUsage;
     }
@@ -276,6 +326,22 @@ public class ApplicationMetric implements Serializable {
         this.minVirtualMemoryUsed = minVirtualMemoryUsed;
     }
 
+    public byte[] getCpuUsageSketch() {
+        return cpuUsageSketch;
+    }
+
+    public void setCpuUsageSketch(byte[] cpuUsageSketch) {
+        this.cpuUsageSketch = cpuUsageSketch;
+    }
+
+    public byte[] getPhysicalMemoryUsedSketch() {
+        return physicalMemoryUsedSketch;
+    }
+
+    public void setPhysicalMemoryUsedSketch(byte[] physicalMemoryUsedSketch) {
+        this.physicalMemoryUsedSketch = physicalMemoryUsedSketch;
+    }
+
     @Override
     public boolean equals(Object otherApplicationMetric) {
         if ((otherApplicationMetric != null) && (this.getClass() != otherApplicationMetric.getClass())) {
@@ -284,8 +350,18 @@ public class ApplicationMetric implements Serializable {
 
         ApplicationMetric other = (ApplicationMetric) otherApplicationMetric;
 
-        return this.getId().equals(other.getId());
+        // Metrics are only known to be the same once they have a series
+        if (this.getSeriesId() == null) {
+            return this == other;
+        }
+        return other != null && this.getSeriesId().equals(other.getSeriesId())
+                && java.util.Objects.equals(this.getTimestamp(), other.getTimestamp());
+
+    }
 
+    @Override
+    public int hashCode() {
+        return java.util.Objects.hash(seriesId, timestamp);
     }
 }
 
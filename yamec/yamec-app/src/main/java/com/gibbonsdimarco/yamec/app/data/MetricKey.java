@@ -0,0 +1,49 @@
+package com.gibbonsdimarco.yamec.app.data;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.util.Objects;
+
+/**
+ * <p>The primary key of a metric: the series it belongs to and its timestamp.</p>
+ * <p>A series is one device (or application) at one granularity level, numbered by the
+ * <code>metric_series</code> table, so a series has at most one metric per timestamp.</p>
+ */
+public class MetricKey implements Serializable {
+
+    private Long seriesId;
+    private Timestamp timestamp;
+
+    public MetricKey() {
+
+    }
+
+    public MetricKey(Long seriesId, Timestamp timestamp) {
+        this.seriesId = seriesId;
+        this.timestamp = timestamp;
+    }
+
+    public Long getSeriesId() {
+        return seriesId;
+    }
+
+    public Timestamp getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof MetricKey key)) {
+            return false;
+        }
+        return Objects.equals(seriesId, key.seriesId) && Objects.equals(timestamp, key.timestamp);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(seriesId, timestamp);
+    }
+}
@@ -0,0 +1,58 @@
+package com.gibbonsdimarco.yamec.app.data;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Records how far metrics have been rolled up into a Granularity level, so the rollup never
+ * processes the same window twice
+ */
+@Entity
+@Table(name = "rollup_watermark")
+public class RollupWatermark implements Serializable {
+
+    /**
+     * The ID of the Granularity level which metrics are rolled up into
+     */
+    @Id
+    @Column(name = "granularity_id")
+    private UUID granularityId;
+
+    /**
+     * The end of the last window rolled up. Every metric of the finer granularity level with a
+     * timestamp before this time has been rolled up.
+     */
+    @Column(name = "rolled_up_until", nullable = false)
+    private Timestamp rolledUpUntil;
+
+    /**
+     * No-Args constructor required by JPA to allow reflection
+     */
+    public RollupWatermark() {
+
+    }
+
+    public RollupWatermark(UUID granularityId, Timestamp rolledUpUntil) {
+        this.granularityId = granularityId;
+        this.rolledUpUntil = rolledUpUntil;
+    }
+
+    public UUID getGranularityId() {
+        return granularityId;
+    }
+
+    public void setGranularityId(UUID granularityId) {
+        this.granularityId = granularityId;
+    }
+
+    public Timestamp getRolledUpUntil() {
+        return rolledUpUntil;
+    }
+
+    public void setRolledUpUntil(Timestamp rolledUpUntil) {
+        this.rolledUpUntil = rolledUpUntil;
+    }
+}
@@ -45,6 +45,13 @@ public class SystemCpuMetric extends SystemDeviceMetric implements Serializable
     @Column(name = "min_utilization")
     private Double minUtilization;
 
+    /**
+     * The QuantileSketch of the percentages of utilization measured within this metric, in the format of
+     * <code>QuantileSketch.toBytes()</code>, or null if the metric only covers one second
+     */
+    @Column(name = "utilization_sketch")
+    private byte[] utilizationSketch;
+
     public SystemCpuMetric() {}
 
     public SystemCpuMetric(String deviceName, double utilization) {
@@ -73,11 +80,17 @@ public class SystemCpuMetric extends SystemDeviceMetric implements Serializable
                            Double maxUtilization,
                            Double minUtilization) {
         super(duration, granularityId, timestamp);
+        this.cpu = cpuId;
         this.averageUtilization = averageUtilization;
         this.maxUtilization = maxUtilization;
         this.minUtilization = minUtilization;
     }
 
+    @Override
+    public UUID getDeviceId() {
+        return cpu == null ? null : cpu.getId();
+    }
+
     public CpuHardwareInformation getCpu() {
         return cpu;
     }
@@ -110,10 +123,18 @@ public class SystemCpuMetric extends SystemDeviceMetric implements Serializable
         this.minUtilization = minUtilization;
     }
 
+    public byte[] getUtilizationSketch() {
+        return utilizationSketch;
+    }
+
+    public void setUtilizationSketch(byte[] utilizationSketch) {
+        this.utilizationSketch = utilizationSketch;
+    }
+
     @Override
     public String toString() {
         return "SystemCpuMetric{" +
-                "id=" + getId() +
+                "seriesId=" + getSeriesId() +
                 ", timestamp=" + getTimestamp() +
                 ", duration=" + getDuration() +
                 "averageUtilization=" + averageUtilization +
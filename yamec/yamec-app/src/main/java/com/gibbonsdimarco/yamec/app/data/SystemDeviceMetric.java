@@ -1,5 +1,6 @@
 package com.gibbonsdimarco.yamec.app.data;
 
+import com.gibbonsdimarco.yamec.app.service.MetricSeriesListener;
 import jakarta.persistence.*;
 
 import java.io.Serializable;
@@ -7,18 +8,28 @@ import java.sql.Timestamp;
 import java.util.UUID;
 
 /**
- * Base class for all system device metrics
+ * <p>Base class for all system device metrics</p>
+ * <p>Metrics are keyed on their series (the device at the granularity level of the metric) and
+ * their timestamp, and their tables are stored clustered on that key by the
+ * MetricTableMigration. The series is assigned by the MetricSeriesCache when the metric is
+ * saved.</p>
  */
 @MappedSuperclass
+@IdClass(MetricKey.class)
+@EntityListeners(MetricSeriesListener.class)
 public abstract class SystemDeviceMetric implements Serializable {
 
+    /**
+     * The ID of the series this SystemDeviceMetric belongs to in the metric_series table
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
-    private UUID id;
+    @Column(name = "series_id", nullable = false)
+    private Long seriesId;
 
     /**
      * The starting time at which this SystemDeviceMetric was collected
      */
+    @Id
     @Column(nullable = false)
     private Timestamp timestamp;
 
@@ -50,14 +61,20 @@ public abstract class SystemDeviceMetric implements Serializable {
         this.timestamp = timestamp;
     }
 
-    public UUID getId() {
-        return id;
+    public Long getSeriesId() {
+        return seriesId;
     }
 
-    public void setId(UUID id) {
-        this.id = id;
+    public void setSeriesId(Long seriesId) {
+        this.seriesId = seriesId;
     }
 
+    /**
+     * Returns the ID of the device this SystemDeviceMetric was collected from, which identifies
+     * its series together with its granularity level
+     */
+    public abstract UUID getDeviceId();
+
     public Timestamp getTimestamp() {
         return timestamp;
     }
@@ -85,7 +102,7 @@ public abstract class SystemDeviceMetric implements Serializable {
     @Override
     public String toString() {
         return "SystemDeviceMetric{" +
-                "id=" + id +
+                "seriesId=" + seriesId +
                 ", timestamp=" + timestamp +
                 ", duration=" + duration +
                 '}';
@@ -160,6 +160,20 @@ public class SystemDiskMetric extends SystemDeviceMetric {
     @Column(name = "write_bandwidth_is_unsigned")
     private boolean writeBandwidthIsUnsigned;
 
+    /**
+     * The QuantileSketch of the percentages of utilization measured within this metric, in the format of
+     * <code>QuantileSketch.toBytes()</code>, or null if the metric only covers one second
+     */
+    @Column(name = "utilization_sketch")
+    private byte[] utilizationSketch;
+
+    /**
+     * The QuantileSketch of the average times to transfer measured within this metric, in the format of
+     * <code>QuantileSketch.toBytes()</code>, or null if the metric only covers one second
+     */
+    @Column(name = "time_to_transfer_sketch")
+    private byte[] timeToTransferSketch;
+
     public SystemDiskMetric(String deviceName,
                             double utilization,
                             long readBandwidth,
@@ -205,7 +219,7 @@ public class SystemDiskMetric extends SystemDeviceMetric {
                             double minTimeToTransfer,
                             boolean readBandwidthIsUnsigned,
                             boolean writeBandwidthIsUnsigned) {
-        super(duration, granularityId);
+        super(duration, granularityId, timestamp);
         this.deviceName = deviceName;
 
         this.avgUtilization = avgUtilization;
@@ -444,6 +458,11 @@ public class SystemDiskMetric extends SystemDeviceMetric {
         this.minTimeToTransfer = minTimeToTransfer;
     }
 
+    @Override
+    public UUID getDeviceId() {
+        return disk == null ? null : disk.getId();
+    }
+
     public DiskHardwareInformation getDisk() {
         return disk;
     }
@@ -451,4 +470,20 @@ public class SystemDiskMetric extends SystemDeviceMetric {
     public void setDisk(DiskHardwareInformation disk) {
         this.disk = disk;
     }
+
+    public byte[] getUtilizationSketch() {
+        return utilizationSketch;
+    }
+
+    public void setUtilizationSketch(byte[] utilizationSketch) {
+        this.utilizationSketch = utilizationSketch;
+    }
+
+    public byte[] getTimeToTransferSketch() {
+        return timeToTransferSketch;
+    }
+
+    public void setTimeToTransferSketch(byte[] timeToTransferSketch) {
+        this.timeToTransferSketch = timeToTransferSketch;
+    }
 }
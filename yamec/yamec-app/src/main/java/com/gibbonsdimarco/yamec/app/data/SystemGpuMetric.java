@@ -2,6 +2,8 @@ package com.gibbonsdimarco.yamec.app.data;
 
 import jakarta.persistence.*;
 
+import java.util.UUID;
+
 /**
  * Contains collected GPU metrics passed from the SystemMonitorManager
  *
@@ -12,6 +14,12 @@ import jakarta.persistence.*;
 })
 public class SystemGpuMetric extends SystemDeviceMetric {
 
+    /**
+     * GPU metrics are not saved with their device, so the GPU metrics of each granularity level
+     * form one series with this device ID
+     */
+    public static final UUID SERIES_DEVICE_ID = new UUID(0, 0);
+
     /**
      * A locally used String which provides the brand string/friendly name of the GPU
      * this SystemGpuMetric pertains to
@@ -153,6 +161,11 @@ public class SystemGpuMetric extends SystemDeviceMetric {
         this.sharedMemoryUse = sharedMemoryUse;
     }
 
+    @Override
+    public UUID getDeviceId() {
+        return SERIES_DEVICE_ID;
+    }
+
     public String getDeviceName() {
         return deviceName;
     }
@@ -65,6 +65,13 @@ public class SystemMemoryMetric extends SystemDeviceMetric implements Serializab
     @Column(name = "virtual_utilization_is_unsigned")
     private boolean virtualUtilizationIsUnsigned;
 
+    /**
+     * The QuantileSketch of the bytes of physical memory in use measured within this metric, in the format of
+     * <code>QuantileSketch.toBytes()</code>, or null if the metric only covers one second
+     */
+    @Column(name = "physical_utilization_sketch")
+    private byte[] physicalUtilizationSketch;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "memory_id", nullable = false,
             foreignKey = @ForeignKey(name="fk_memory_hardware_information"))
@@ -236,6 +243,11 @@ public class SystemMemoryMetric extends SystemDeviceMetric implements Serializab
         this.minVirtualUtilization = minVirtualUtilization;
     }
 
+    @Override
+    public UUID getDeviceId() {
+        return memory == null ? null : memory.getId();
+    }
+
     public MemoryHardwareInformation getMemory() {
         return memory;
     }
@@ -283,4 +295,12 @@ public class SystemMemoryMetric extends SystemDeviceMetric implements Serializab
     public void setVirtualUtilizationIsUnsigned(boolean virtualUtilizationIsUnsigned) {
         this.virtualUtilizationIsUnsigned = virtualUtilizationIsUnsigned;
     }
+
+    public byte[] getPhysicalUtilizationSketch() {
+        return physicalUtilizationSketch;
+    }
+
+    public void setPhysicalUtilizationSketch(byte[] physicalUtilizationSketch) {
+        this.physicalUtilizationSketch = physicalUtilizationSketch;
+    }
 }
@@ -102,6 +102,20 @@ public class SystemNicMetric extends SystemDeviceMetric {
     @Column(name = "receive_bandwidth_is_unsigned")
     private boolean receiveBandwidthIsUnsigned;
 
+    /**
+     * The QuantileSketch of the send bandwidths measured within this metric, in the format of
+     * <code>QuantileSketch.toBytes()</code>, or null if the metric only covers one second
+     */
+    @Column(name = "send_bandwidth_sketch")
+    private byte[] sendBandwidthSketch;
+
+    /**
+     * The QuantileSketch of the receive bandwidths measured within this metric, in the format of
+     * <code>QuantileSketch.toBytes()</code>, or null if the metric only covers one second
+     */
+    @Column(name = "receive_bandwidth_sketch")
+    private byte[] receiveBandwidthSketch;
+
     /**
      * Constructs a SystemNicMetric object instance with the default duration of 1 second and
      * average, maximum, and minimum fields being set to the same value for all fields reported
@@ -367,6 +381,11 @@ public class SystemNicMetric extends SystemDeviceMetric {
         this.deviceName = deviceName;
     }
 
+    @Override
+    public UUID getDeviceId() {
+        return nic == null ? null : nic.getId();
+    }
+
     public NicHardwareInformation getNic() {
         return nic;
     }
@@ -374,4 +393,20 @@ public class SystemNicMetric extends SystemDeviceMetric {
     public void setNic(NicHardwareInformation nic) {
         this.nic = nic;
     }
+
+    public byte[] getSendBandwidthSketch() {
+        return sendBandwidthSketch;
+    }
+
+    public void setSendBandwidthSketch(byte[] sendBandwidthSketch) {
+        this.sendBandwidthSketch = sendBandwidthSketch;
+    }
+
+    public byte[] getReceiveBandwidthSketch() {
+        return receiveBandwidthSketch;
+    }
+
+    public void setReceiveBandwidthSketch(byte[] receiveBandwidthSketch) {
+        this.receiveBandwidthSketch = receiveBandwidthSketch;
+    }
 }
@@ -0,0 +1,301 @@
+package com.gibbonsdimarco.yamec.app.jni;
+
+import com.gibbonsdimarco.yamec.app.data.*;
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSnapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.gibbonsdimarco.yamec.app.jni.MetricsBufferLayout.*;
+
+/**
+ * <p>A flyweight over a buffer in the {@link MetricsBufferLayout} format.</p>
+ * <p>The decoder reads values directly from the buffer by row index, so iterating over thousands of
+ * processes does not create an object per row. Names are only decoded into Strings when
+ * {@link #processName(int)} (or the disk/NIC equivalent) is called.</p>
+ * <p>A decoder can be re-wrapped around a new buffer (or the same buffer after it is refilled)
+ * at any time. It is not thread-safe. Metrics which must outlive the next refill are copied out
+ * with {@link #toSnapshot(String)}.</p>
+ */
+public final class MetricsBufferDecoder {
+
+    private ByteBuffer buffer;
+    private int processCount;
+    private int diskCount;
+    private int nicCount;
+    private int disksOffset;
+    private int nicsOffset;
+    private int stringsOffset;
+
+    /**
+     * Points this decoder at a buffer and validates its header
+     *
+     * @param buffer A buffer filled by native code
+     * @return This decoder
+     * @throws IllegalArgumentException If the buffer does not contain data in a supported format
+     */
+    public MetricsBufferDecoder wrap(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE) {
+            throw new IllegalArgumentException("Buffer is smaller than the metrics buffer header");
+        }
+
+        buffer.order(BYTE_ORDER);
+
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IllegalArgumentException("Buffer does not contain metrics data (bad magic number)");
+        }
+        if (buffer.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IllegalArgumentException("Unsupported metrics buffer version: "
+                                                + buffer.getInt(VERSION_OFFSET));
+        }
+
+        int length = buffer.getInt(LENGTH_OFFSET);
+        if (length < HEADER_SIZE || length > buffer.capacity()) {
+            throw new IllegalArgumentException("Metrics buffer length " + length
+                                                + " does not fit in a buffer of " + buffer.capacity() + " bytes");
+        }
+
+        this.buffer = buffer;
+        this.processCount = buffer.getInt(PROCESS_COUNT_OFFSET);
+        this.diskCount = buffer.getInt(DISK_COUNT_OFFSET);
+        this.nicCount = buffer.getInt(NIC_COUNT_OFFSET);
+        this.disksOffset = MetricsBufferLayout.disksOffset(processCount);
+        this.nicsOffset = MetricsBufferLayout.nicsOffset(processCount, diskCount);
+        this.stringsOffset = buffer.getInt(STRINGS_OFFSET_OFFSET);
+
+        if (stringsOffset != MetricsBufferLayout.stringsOffset(processCount, diskCount, nicCount)
+                || stringsOffset > length) {
+            throw new IllegalArgumentException("Metrics buffer section counts do not match its length");
+        }
+
+        return this;
+    }
+
+    public long collectionTime() {
+        return buffer.getLong(COLLECTION_TIME_OFFSET);
+    }
+
+    public int length() {
+        return buffer.getInt(LENGTH_OFFSET);
+    }
+
+    /**
+     * Copies the metrics of the buffer into a MetricsSnapshot, which stays valid after the buffer
+     * is refilled
+     *
+     * @param cpuName The name of the CPU, given to its metric
+     * @return A new MetricsSnapshot of the collection. Its CPU or memory metric is null if it was
+     * not collected.
+     */
+    public MetricsSnapshot toSnapshot(String cpuName) {
+        SystemCpuMetric cpuMetric = isCpuCollected() ? new SystemCpuMetric(cpuName, cpuUtilization()) : null;
+
+        // The native counters of physical and committed memory are unsigned
+        SystemMemoryMetric memoryMetric = isMemoryCollected()
+                ? new SystemMemoryMetric(physicalMemoryUsed(), virtualMemoryCommitted(), virtualMemoryUsage(),
+                                         true, true)
+                : null;
+
+        java.util.List<ProcessMetric> processMetrics = new java.util.ArrayList<>(processCount);
+        for (int i = 0; i < processCount; i++) {
+            processMetrics.add(new ProcessMetric(processName(i),
+                    processId(i),
+                    processCpuUsage(i),
+                    processPhysicalMemory(i),
+                    processVirtualMemory(i)));
+        }
+
+        java.util.List<SystemDiskMetric> diskMetrics = new java.util.ArrayList<>(diskCount);
+        for (int i = 0; i < diskCount; i++) {
+            diskMetrics.add(new SystemDiskMetric(diskName(i),
+                    diskUtilization(i),
+                    diskReadBandwidth(i),
+                    diskWriteBandwidth(i),
+                    diskAverageTimeToTransfer(i),
+                    isDiskReadBandwidthUnsigned(i),
+                    isDiskWriteBandwidthUnsigned(i)));
+        }
+
+        java.util.List<SystemNicMetric> nicMetrics = new java.util.ArrayList<>(nicCount);
+        for (int i = 0; i < nicCount; i++) {
+            nicMetrics.add(new SystemNicMetric(nicName(i),
+                    nicOperatingBandwidth(i),
+                    nicSendBandwidth(i),
+                    nicReceiveBandwidth(i),
+                    isNicOperatingBandwidthUnsigned(i),
+                    isNicSendBandwidthUnsigned(i),
+                    isNicReceiveBandwidthUnsigned(i)));
+        }
+
+        return new MetricsSnapshot(collectionTime(), cpuMetric, memoryMetric,
+                diskMetrics, nicMetrics, processMetrics);
+    }
+
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // CPU and memory
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    public boolean isCpuCollected() {
+        return (buffer.getInt(FLAGS_OFFSET) & FLAG_CPU_COLLECTED) != 0;
+    }
+
+    public double cpuUtilization() {
+        return buffer.getDouble(CPU_UTILIZATION_OFFSET);
+    }
+
+    public boolean isMemoryCollected() {
+        return (buffer.getInt(FLAGS_OFFSET) & FLAG_MEMORY_COLLECTED) != 0;
+    }
+
+    public long physicalMemoryUsed() {
+        return buffer.getLong(PHYSICAL_MEMORY_USED_OFFSET);
+    }
+
+    public long virtualMemoryCommitted() {
+        return buffer.getLong(VIRTUAL_MEMORY_COMMITTED_OFFSET);
+    }
+
+    /**
+     * Returns the percentage of the committed virtual memory in use
+     */
+    public double virtualMemoryUsage() {
+        return buffer.getDouble(VIRTUAL_MEMORY_USAGE_OFFSET);
+    }
+
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Processes
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    public int processCount() {
+        return processCount;
+    }
+
+    private int processRow(int index) {
+        return HEADER_SIZE + checkIndex(index, processCount) * PROCESS_ROW_SIZE;
+    }
+
+    public int processId(int index) {
+        return buffer.getInt(processRow(index) + PROCESS_ID_OFFSET);
+    }
+
+    public double processCpuUsage(int index) {
+        return buffer.getDouble(processRow(index) + PROCESS_CPU_USAGE_OFFSET);
+    }
+
+    public long processPhysicalMemory(int index) {
+        return buffer.getLong(processRow(index) + PROCESS_PHYSICAL_MEMORY_OFFSET);
+    }
+
+    public long processVirtualMemory(int index) {
+        return buffer.getLong(processRow(index) + PROCESS_VIRTUAL_MEMORY_OFFSET);
+    }
+
+    /**
+     * Decodes the name of a process into a new String
+     */
+    public String processName(int index) {
+        int row = processRow(index);
+        return string(row + PROCESS_NAME_OFFSET, row + PROCESS_NAME_LENGTH_OFFSET);
+    }
+
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Disks
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    public int diskCount() {
+        return diskCount;
+    }
+
+    private int diskRow(int index) {
+        return disksOffset + checkIndex(index, diskCount) * DISK_ROW_SIZE;
+    }
+
+    public String diskName(int index) {
+        int row = diskRow(index);
+        return string(row + DISK_NAME_OFFSET, row + DISK_NAME_LENGTH_OFFSET);
+    }
+
+    public double diskUtilization(int index) {
+        return buffer.getDouble(diskRow(index) + DISK_UTILIZATION_OFFSET);
+    }
+
+    public long diskReadBandwidth(int index) {
+        return buffer.getLong(diskRow(index) + DISK_READ_BANDWIDTH_OFFSET);
+    }
+
+    public long diskWriteBandwidth(int index) {
+        return buffer.getLong(diskRow(index) + DISK_WRITE_BANDWIDTH_OFFSET);
+    }
+
+    public double diskAverageTimeToTransfer(int index) {
+        return buffer.getDouble(diskRow(index) + DISK_TIME_TO_TRANSFER_OFFSET);
+    }
+
+    public boolean isDiskReadBandwidthUnsigned(int index) {
+        return (buffer.getInt(diskRow(index) + DISK_FLAGS_OFFSET) & FLAG_READ_UNSIGNED) != 0;
+    }
+
+    public boolean isDiskWriteBandwidthUnsigned(int index) {
+        return (buffer.getInt(diskRow(index) + DISK_FLAGS_OFFSET) & FLAG_WRITE_UNSIGNED) != 0;
+    }
+
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // NICs
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    public int nicCount() {
+        return nicCount;
+    }
+
+    private int nicRow(int index) {
+        return nicsOffset + checkIndex(index, nicCount) * NIC_ROW_SIZE;
+    }
+
+    public String nicName(int index) {
+        int row = nicRow(index);
+        return string(row + NIC_NAME_OFFSET, row + NIC_NAME_LENGTH_OFFSET);
+    }
+
+    public long nicOperatingBandwidth(int index) {
+        return buffer.getLong(nicRow(index) + NIC_OPERATING_BANDWIDTH_OFFSET);
+    }
+
+    public long nicSendBandwidth(int index) {
+        return buffer.getLong(nicRow(index) + NIC_SEND_BANDWIDTH_OFFSET);
+    }
+
+    public long nicReceiveBandwidth(int index) {
+        return buffer.getLong(nicRow(index) + NIC_RECEIVE_BANDWIDTH_OFFSET);
+    }
+
+    public boolean isNicOperatingBandwidthUnsigned(int index) {
+        return (buffer.getInt(nicRow(index) + NIC_FLAGS_OFFSET) & FLAG_OPERATING_UNSIGNED) != 0;
+    }
+
+    public boolean isNicSendBandwidthUnsigned(int index) {
+        return (buffer.getInt(nicRow(index) + NIC_FLAGS_OFFSET) & FLAG_SEND_UNSIGNED) != 0;
+    }
+
+    public boolean isNicReceiveBandwidthUnsigned(int index) {
+        return (buffer.getInt(nicRow(index) + NIC_FLAGS_OFFSET) & FLAG_RECEIVE_UNSIGNED) != 0;
+    }
+
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Strings
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    private String string(int nameOffsetPosition, int nameLengthPosition) {
+        int start = stringsOffset + buffer.getInt(nameOffsetPosition);
+        int nameLength = buffer.getInt(nameLengthPosition);
+        byte[] bytes = new byte[nameLength];
+        buffer.get(start, bytes, 0, nameLength);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int checkIndex(int index, int count) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + count);
+        }
+        return index;
+    }
+}
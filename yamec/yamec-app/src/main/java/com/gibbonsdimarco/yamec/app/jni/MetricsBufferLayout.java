@@ -0,0 +1,152 @@
+package com.gibbonsdimarco.yamec.app.jni;
+
+import java.nio.ByteOrder;
+
+/**
+ * <p>The binary layout used to transfer the metrics of one collection from native code in a
+ * direct ByteBuffer.</p>
+ * <p>All values are little-endian. The buffer starts with a fixed-size header, which also holds
+ * the CPU and memory metrics, followed by the
+ * fixed-size rows of each section (processes, then disks, then NICs) and finally a string area
+ * holding the UTF-8 encoded names referenced by the rows:</p>
+ * <pre>
+ * Header (72 bytes)
+ *   0  int    magic ("YMC1")
+ *   4  int    version
+ *   8  int    length of the data in bytes (or the length required, if the status is BUFFER_TOO_SMALL)
+ *  12  int    process count
+ *  16  int    disk count
+ *  20  int    NIC count
+ *  24  int    offset of the string area
+ *  28  int    flags (FLAG_CPU_COLLECTED, FLAG_MEMORY_COLLECTED)
+ *  32  long   collection time in milliseconds since the epoch
+ *  40  double CPU utilization
+ *  48  long   physical memory used in bytes
+ *  56  long   committed virtual memory in bytes
+ *  64  double percentage of the committed virtual memory in use
+ *
+ * Process row (40 bytes)
+ *   0  int    process ID
+ *   4  int    name offset (relative to the string area)
+ *   8  int    name length in bytes
+ *  12  int    reserved
+ *  16  double CPU usage
+ *  24  long   physical memory in bytes
+ *  32  long   virtual memory in bytes
+ *
+ * Disk row (48 bytes)
+ *   0  int    name offset
+ *   4  int    name length
+ *   8  double utilization
+ *  16  long   read bandwidth
+ *  24  long   write bandwidth
+ *  32  double average time to transfer
+ *  40  int    flags (FLAG_READ_UNSIGNED, FLAG_WRITE_UNSIGNED)
+ *  44  int    reserved
+ *
+ * NIC row (40 bytes)
+ *   0  int    name offset
+ *   4  int    name length
+ *   8  long   operating bandwidth
+ *  16  long   send bandwidth
+ *  24  long   receive bandwidth
+ *  32  int    flags (FLAG_OPERATING_UNSIGNED, FLAG_SEND_UNSIGNED, FLAG_RECEIVE_UNSIGNED)
+ *  36  int    reserved
+ * </pre>
+ * <p>The layout must be kept in sync with <code>fillMetricsBuffer</code> in the native library.</p>
+ */
+public final class MetricsBufferLayout {
+
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final int MAGIC = 0x31434D59; // "YMC1" in little-endian
+    public static final int VERSION = 2;
+
+    // Header
+    public static final int HEADER_SIZE = 72;
+    public static final int MAGIC_OFFSET = 0;
+    public static final int VERSION_OFFSET = 4;
+    public static final int LENGTH_OFFSET = 8;
+    public static final int PROCESS_COUNT_OFFSET = 12;
+    public static final int DISK_COUNT_OFFSET = 16;
+    public static final int NIC_COUNT_OFFSET = 20;
+    public static final int STRINGS_OFFSET_OFFSET = 24;
+    public static final int FLAGS_OFFSET = 28;
+    public static final int COLLECTION_TIME_OFFSET = 32;
+    public static final int CPU_UTILIZATION_OFFSET = 40;
+    public static final int PHYSICAL_MEMORY_USED_OFFSET = 48;
+    public static final int VIRTUAL_MEMORY_COMMITTED_OFFSET = 56;
+    public static final int VIRTUAL_MEMORY_USAGE_OFFSET = 64;
+
+    // The CPU or memory fields are only set if their metrics were collected
+    public static final int FLAG_CPU_COLLECTED = 1;
+    public static final int FLAG_MEMORY_COLLECTED = 1 << 1;
+
+    // Process rows
+    public static final int PROCESS_ROW_SIZE = 40;
+    public static final int PROCESS_ID_OFFSET = 0;
+    public static final int PROCESS_NAME_OFFSET = 4;
+    public static final int PROCESS_NAME_LENGTH_OFFSET = 8;
+    public static final int PROCESS_CPU_USAGE_OFFSET = 16;
+    public static final int PROCESS_PHYSICAL_MEMORY_OFFSET = 24;
+    public static final int PROCESS_VIRTUAL_MEMORY_OFFSET = 32;
+
+    // Disk rows
+    public static final int DISK_ROW_SIZE = 48;
+    public static final int DISK_NAME_OFFSET = 0;
+    public static final int DISK_NAME_LENGTH_OFFSET = 4;
+    public static final int DISK_UTILIZATION_OFFSET = 8;
+    public static final int DISK_READ_BANDWIDTH_OFFSET = 16;
+    public static final int DISK_WRITE_BANDWIDTH_OFFSET = 24;
+    public static final int DISK_TIME_TO_TRANSFER_OFFSET = 32;
+    public static final int DISK_FLAGS_OFFSET = 40;
+
+    public static final int FLAG_READ_UNSIGNED = 1;
+    public static final int FLAG_WRITE_UNSIGNED = 1 << 1;
+
+    // NIC rows
+    public static final int NIC_ROW_SIZE = 40;
+    public static final int NIC_NAME_OFFSET = 0;
+    public static final int NIC_NAME_LENGTH_OFFSET = 4;
+    public static final int NIC_OPERATING_BANDWIDTH_OFFSET = 8;
+    public static final int NIC_SEND_BANDWIDTH_OFFSET = 16;
+    public static final int NIC_RECEIVE_BANDWIDTH_OFFSET = 24;
+    public static final int NIC_FLAGS_OFFSET = 32;
+
+    public static final int FLAG_OPERATING_UNSIGNED = 1;
+    public static final int FLAG_SEND_UNSIGNED = 1 << 1;
+    public static final int FLAG_RECEIVE_UNSIGNED = 1 << 2;
+
+    // Status codes returned when filling a buffer
+    /**
+     * The buffer is too small. Only the header is written and its length field holds the
+     * number of bytes needed.
+     */
+    public static final int STATUS_BUFFER_TOO_SMALL = -3;
+    /**
+     * The buffer passed is not a direct buffer or is smaller than the header
+     */
+    public static final int STATUS_INVALID_BUFFER = -2;
+    /**
+     * The counter data or metrics could not be collected
+     */
+    public static final int STATUS_COLLECTION_FAILED = -1;
+
+    private MetricsBufferLayout() {}
+
+    public static int processesOffset() {
+        return HEADER_SIZE;
+    }
+
+    public static int disksOffset(int processCount) {
+        return HEADER_SIZE + processCount * PROCESS_ROW_SIZE;
+    }
+
+    public static int nicsOffset(int processCount, int diskCount) {
+        return disksOffset(processCount) + diskCount * DISK_ROW_SIZE;
+    }
+
+    public static int stringsOffset(int processCount, int diskCount, int nicCount) {
+        return nicsOffset(processCount, diskCount) + nicCount * NIC_ROW_SIZE;
+    }
+}
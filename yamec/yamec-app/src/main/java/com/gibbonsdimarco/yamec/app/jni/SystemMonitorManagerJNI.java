@@ -1,6 +1,8 @@
 package com.gibbonsdimarco.yamec.app.jni;
 
 import com.gibbonsdimarco.yamec.app.data.*;
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSnapshot;
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSource;
 import com.github.fommil.jni.JniLoader;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
@@ -9,6 +11,7 @@ import jakarta.websocket.OnClose;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
@@ -22,8 +25,9 @@ import java.util.ArrayList;
  * re-initiated due to a native dependency's behavior.
  */
 //@Service
-public class SystemMonitorManagerJNI implements AutoCloseable {
+public class SystemMonitorManagerJNI implements MetricsSource {
     private static final Logger logger = LoggerFactory.getLogger(SystemMonitorManagerJNI.class);
+    private static final int INITIAL_METRICS_BUFFER_SIZE = 256 * 1024;
 
 
 
@@ -35,6 +39,11 @@ public class SystemMonitorManagerJNI implements AutoCloseable {
     private boolean closed = false;
     private final ExecutorService jniExecutor = Executors.newSingleThreadExecutor();
     private Timestamp lastCollectionTime = null;
+    private ByteBuffer metricsBuffer = ByteBuffer.allocateDirect(INITIAL_METRICS_BUFFER_SIZE)
+                                                 .order(MetricsBufferLayout.BYTE_ORDER);
+    private final MetricsBufferDecoder metricsBufferDecoder = new MetricsBufferDecoder();
+    // The brand string of the CPU, looked up with the first snapshot
+    private String cpuName = null;
 
     /**
      * Instantiates the System Monitor Manager.
@@ -102,6 +111,66 @@ public class SystemMonitorManagerJNI implements AutoCloseable {
         }
     }
 
+    /**
+     * <p>Collects counter data and retrieves the CPU, memory, disk, NIC and process metrics
+     * in one hand-off to the JNI thread instead of one per subsystem.</p>
+     * <p>Every metric of the collection is written by native code into a reused direct buffer in
+     * the {@link MetricsBufferLayout} format by one native call, the CPU and memory metrics in its
+     * header, so no Java objects are created per process or device through JNI. The rows are then
+     * copied into the snapshot in Java. The buffer grows if the native code reports that it is too
+     * small, which takes a second call.</p>
+     *
+     * @return A MetricsSnapshot of the new collection. If the counter data cannot be collected,
+     * this returns null.
+     */
+    @Override
+    public MetricsSnapshot collectSnapshot() {
+        if (closed) {
+            logger.warn("Attempting to call SystemMonitorManagerJNI#collectSnapshot() when closed");
+            return null;
+        }
+
+        try {
+            Future<MetricsSnapshot> future = jniExecutor.submit(() -> {
+                int status = fillMetricsBuffer(monitorAddress, metricsBuffer, true);
+                if (status == MetricsBufferLayout.STATUS_BUFFER_TOO_SMALL) {
+                    // The header holds the size needed, so grow the buffer and fill it from the
+                    // same collection
+                    int required = metricsBuffer.getInt(MetricsBufferLayout.LENGTH_OFFSET);
+                    metricsBuffer = ByteBuffer.allocateDirect(Math.max(required, metricsBuffer.capacity() * 2))
+                                              .order(MetricsBufferLayout.BYTE_ORDER);
+                    status = fillMetricsBuffer(monitorAddress, metricsBuffer, false);
+                }
+
+                if (status < 0) {
+                    logger.error("System Monitor Manager - Failed to fill metrics buffer: Code: {}", status);
+                    return null;
+                }
+
+                if (cpuName == null) {
+                    CpuHardwareInformation cpu = getHardwareCpuInformation(monitorAddress);
+                    cpuName = cpu == null ? "" : cpu.getFriendlyName();
+                }
+
+                // The buffer is decoded on this thread, so the next collection cannot refill it first
+                return metricsBufferDecoder.wrap(metricsBuffer).toSnapshot(cpuName);
+            });
+            MetricsSnapshot snapshot = future.get();
+
+            if (snapshot != null) {
+                // Only update the last collection time if the collection was successful
+                this.setLastCollectionTime(snapshot.getCollectionTime());
+            } else {
+                logger.error("System Monitor Manager - Failed to collect a metrics snapshot");
+            }
+
+            return snapshot;
+        } catch (Exception e) {
+            logger.error("Error collecting metrics snapshot", e);
+            return null;
+        }
+    }
+
 
     /**
      * Returns a boolean variable containing whether this SystemMonitorManager is closed
@@ -363,6 +432,18 @@ public class SystemMonitorManagerJNI implements AutoCloseable {
 
     private native java.util.ArrayList<ProcessMetric> getProcessMetrics(long ptr);
 
+    /**
+     * Writes the CPU, memory, process, disk and NIC metrics of the last collection into a
+     * direct buffer in the MetricsBufferLayout format
+     *
+     * @param ptr The memory address where the SystemMonitorManager Native object
+     *            is stored
+     * @param buffer A direct ByteBuffer to fill
+     * @param collect Whether to collect new counter data before filling the buffer
+     * @return The number of bytes written, or one of the STATUS codes of MetricsBufferLayout
+     */
+    private native int fillMetricsBuffer(long ptr, ByteBuffer buffer, boolean collect);
+
     private native CpuHardwareInformation getHardwareCpuInformation(long ptr);
 
     private native MemoryHardwareInformation getHardwareMemoryInformation(long ptr);
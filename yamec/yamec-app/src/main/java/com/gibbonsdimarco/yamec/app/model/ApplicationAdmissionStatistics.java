@@ -0,0 +1,114 @@
+package com.gibbonsdimarco.yamec.app.model;
+
+/**
+ * Counters describing which process names were given their own Application and which were folded
+ * into the Application of processes not admitted
+ */
+public class ApplicationAdmissionStatistics {
+    private boolean enabled;
+    private String otherName;
+    private long admittedNames;
+    private long foldedNames;
+    private int pendingNames;
+    private int maxPending;
+    private long foldedSamples;
+    private long untrackedSamples;
+
+    public ApplicationAdmissionStatistics() {}
+
+    public ApplicationAdmissionStatistics(boolean enabled, String otherName, long admittedNames, long foldedNames,
+                                          int pendingNames, int maxPending, long foldedSamples,
+                                          long untrackedSamples) {
+        this.enabled = enabled;
+        this.otherName = otherName;
+        this.admittedNames = admittedNames;
+        this.foldedNames = foldedNames;
+        this.pendingNames = pendingNames;
+        this.maxPending = maxPending;
+        this.foldedSamples = foldedSamples;
+        this.untrackedSamples = untrackedSamples;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the name of the Application the processes not admitted are folded into
+     */
+    public String getOtherName() {
+        return otherName;
+    }
+
+    public void setOtherName(String otherName) {
+        this.otherName = otherName;
+    }
+
+    /**
+     * Returns the number of new names admitted since startup
+     */
+    public long getAdmittedNames() {
+        return admittedNames;
+    }
+
+    public void setAdmittedNames(long admittedNames) {
+        this.admittedNames = admittedNames;
+    }
+
+    /**
+     * Returns the number of names whose processes ended before they were admitted
+     */
+    public long getFoldedNames() {
+        return foldedNames;
+    }
+
+    public void setFoldedNames(long foldedNames) {
+        this.foldedNames = foldedNames;
+    }
+
+    /**
+     * Returns the number of names currently waiting to be admitted
+     */
+    public int getPendingNames() {
+        return pendingNames;
+    }
+
+    public void setPendingNames(int pendingNames) {
+        this.pendingNames = pendingNames;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Returns the number of process samples folded into the other Application
+     */
+    public long getFoldedSamples() {
+        return foldedSamples;
+    }
+
+    public void setFoldedSamples(long foldedSamples) {
+        this.foldedSamples = foldedSamples;
+    }
+
+    /**
+     * Returns the number of process samples folded without tracking their name, because too many
+     * names were pending
+     */
+    public long getUntrackedSamples() {
+        return untrackedSamples;
+    }
+
+    public void setUntrackedSamples(long untrackedSamples) {
+        this.untrackedSamples = untrackedSamples;
+    }
+}
@@ -0,0 +1,79 @@
+package com.gibbonsdimarco.yamec.app.model;
+
+/**
+ * Counters describing how often application names are resolved without querying the database
+ */
+public class ApplicationNameCacheStatistics {
+    private int size;
+    private int capacity;
+    private long hits;
+    private long misses;
+    private long inserts;
+
+    public ApplicationNameCacheStatistics() {}
+
+    public ApplicationNameCacheStatistics(int size, int capacity, long hits, long misses, long inserts) {
+        this.size = size;
+        this.capacity = capacity;
+        this.hits = hits;
+        this.misses = misses;
+        this.inserts = inserts;
+    }
+
+    /**
+     * Returns the number of application names cached
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the number of names resolved from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    public void setHits(long hits) {
+        this.hits = hits;
+    }
+
+    /**
+     * Returns the number of names which had to be looked up in the database
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    public void setMisses(long misses) {
+        this.misses = misses;
+    }
+
+    /**
+     * Returns the number of new Application records created
+     */
+    public long getInserts() {
+        return inserts;
+    }
+
+    public void setInserts(long inserts) {
+        this.inserts = inserts;
+    }
+
+    public double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
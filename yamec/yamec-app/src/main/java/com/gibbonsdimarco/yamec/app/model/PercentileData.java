@@ -0,0 +1,98 @@
+package com.gibbonsdimarco.yamec.app.model;
+
+import java.util.UUID;
+
+/**
+ * Percentiles of one metric of a device or application over a range of time
+ */
+public class PercentileData {
+    private UUID id;
+    private String name;
+    private String metric;
+    private long count;
+    private double min;
+    private double max;
+    private java.util.Map<String, Double> percentiles;
+
+    public PercentileData() {}
+
+    public PercentileData(UUID id, String name, String metric, long count, double min, double max,
+                          java.util.Map<String, Double> percentiles) {
+        this.id = id;
+        this.name = name;
+        this.metric = metric;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.percentiles = percentiles;
+    }
+
+    /**
+     * Returns the ID of the device or application
+     */
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the metric, such as <code>utilization</code>
+     */
+    public String getMetric() {
+        return metric;
+    }
+
+    public void setMetric(String metric) {
+        this.metric = metric;
+    }
+
+    /**
+     * Returns the number of seconds of data the percentiles were estimated from
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public void setMin(double min) {
+        this.min = min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public void setMax(double max) {
+        this.max = max;
+    }
+
+    /**
+     * Returns the estimated percentiles by name (such as <code>p95</code>), each within 1% of
+     * the exact percentile
+     */
+    public java.util.Map<String, Double> getPercentiles() {
+        return percentiles;
+    }
+
+    public void setPercentiles(java.util.Map<String, Double> percentiles) {
+        this.percentiles = percentiles;
+    }
+}
@@ -0,0 +1,132 @@
+package com.gibbonsdimarco.yamec.app.model;
+
+/**
+ * Counters describing how well the persistence stage keeps up with metric collection
+ */
+public class PipelineStatistics {
+    private int queueDepth;
+    private int queueCapacity;
+    private long published;
+    private long dropped;
+    private long persisted;
+    private long failed;
+    private int lastBatchSize;
+    private long lastBatchMillis;
+    private long writerLagMillis;
+
+    public PipelineStatistics() {}
+
+    public PipelineStatistics(int queueDepth,
+                              int queueCapacity,
+                              long published,
+                              long dropped,
+                              long persisted,
+                              long failed,
+                              int lastBatchSize,
+                              long lastBatchMillis,
+                              long writerLagMillis) {
+        this.queueDepth = queueDepth;
+        this.queueCapacity = queueCapacity;
+        this.published = published;
+        this.dropped = dropped;
+        this.persisted = persisted;
+        this.failed = failed;
+        this.lastBatchSize = lastBatchSize;
+        this.lastBatchMillis = lastBatchMillis;
+        this.writerLagMillis = writerLagMillis;
+    }
+
+    /**
+     * Returns the number of snapshots collected but not yet saved, including the batch being written
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Returns the number of snapshots published by the sampling stage
+     */
+    public long getPublished() {
+        return published;
+    }
+
+    public void setPublished(long published) {
+        this.published = published;
+    }
+
+    /**
+     * Returns the number of snapshots dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public void setDropped(long dropped) {
+        this.dropped = dropped;
+    }
+
+    /**
+     * Returns the number of snapshots saved by the writer
+     */
+    public long getPersisted() {
+        return persisted;
+    }
+
+    public void setPersisted(long persisted) {
+        this.persisted = persisted;
+    }
+
+    /**
+     * Returns the number of snapshots the writer failed to save
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public void setLastBatchSize(int lastBatchSize) {
+        this.lastBatchSize = lastBatchSize;
+    }
+
+    /**
+     * Returns how long the writer took to save its last batch in milliseconds
+     */
+    public long getLastBatchMillis() {
+        return lastBatchMillis;
+    }
+
+    public void setLastBatchMillis(long lastBatchMillis) {
+        this.lastBatchMillis = lastBatchMillis;
+    }
+
+    /**
+     * Returns the age in milliseconds of the oldest snapshot waiting to be saved, or 0 if the
+     * writer has caught up
+     */
+    public long getWriterLagMillis() {
+        return writerLagMillis;
+    }
+
+    public void setWriterLagMillis(long writerLagMillis) {
+        this.writerLagMillis = writerLagMillis;
+    }
+}
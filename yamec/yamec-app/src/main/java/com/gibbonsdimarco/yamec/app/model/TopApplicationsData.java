@@ -0,0 +1,122 @@
+package com.gibbonsdimarco.yamec.app.model;
+
+import java.util.UUID;
+
+/**
+ * The applications using the most of a resource on average over a recent window
+ */
+public class TopApplicationsData {
+    private String metric;
+    private String window;
+    private long seconds;
+    private java.util.List<TopApplication> applications;
+
+    public TopApplicationsData() {}
+
+    public TopApplicationsData(String metric, String window, long seconds,
+                               java.util.List<TopApplication> applications) {
+        this.metric = metric;
+        this.window = window;
+        this.seconds = seconds;
+        this.applications = applications;
+    }
+
+    /**
+     * Returns the resource the applications are ranked by (<code>cpu</code>,
+     * <code>physicalMemory</code> or <code>virtualMemory</code>)
+     */
+    public String getMetric() {
+        return metric;
+    }
+
+    public void setMetric(String metric) {
+        this.metric = metric;
+    }
+
+    public String getWindow() {
+        return window;
+    }
+
+    public void setWindow(String window) {
+        this.window = window;
+    }
+
+    /**
+     * Returns the number of seconds of data in the window
+     */
+    public long getSeconds() {
+        return seconds;
+    }
+
+    public void setSeconds(long seconds) {
+        this.seconds = seconds;
+    }
+
+    /**
+     * Returns the applications, highest average first
+     */
+    public java.util.List<TopApplication> getApplications() {
+        return applications;
+    }
+
+    public void setApplications(java.util.List<TopApplication> applications) {
+        this.applications = applications;
+    }
+
+    /**
+     * The estimated average use of a resource by an application over the window
+     */
+    public static class TopApplication {
+        private UUID id;
+        private String applicationName;
+        private double average;
+        private double maxError;
+
+        public TopApplication() {}
+
+        public TopApplication(UUID id, String applicationName, double average, double maxError) {
+            this.id = id;
+            this.applicationName = applicationName;
+            this.average = average;
+            this.maxError = maxError;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public void setId(UUID id) {
+            this.id = id;
+        }
+
+        public String getApplicationName() {
+            return applicationName;
+        }
+
+        public void setApplicationName(String applicationName) {
+            this.applicationName = applicationName;
+        }
+
+        /**
+         * Returns the estimated average, which is never less than the true average
+         */
+        public double getAverage() {
+            return average;
+        }
+
+        public void setAverage(double average) {
+            this.average = average;
+        }
+
+        /**
+         * Returns the most the estimated average may exceed the true average by
+         */
+        public double getMaxError() {
+            return maxError;
+        }
+
+        public void setMaxError(double maxError) {
+            this.maxError = maxError;
+        }
+    }
+}
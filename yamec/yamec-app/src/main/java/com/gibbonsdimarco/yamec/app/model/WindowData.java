@@ -0,0 +1,160 @@
+package com.gibbonsdimarco.yamec.app.model;
+
+import java.util.UUID;
+
+/**
+ * The 1, 5 and 15 minute statistics of one metric series (the CPU, the memory, a disk, a NIC or
+ * an application)
+ */
+public class WindowData {
+    private String type;
+    private UUID id;
+    private String name;
+    private long latestTime;
+    private java.util.Map<String, Window> windows;
+
+    public WindowData() {}
+
+    public WindowData(String type, UUID id, String name, long latestTime, java.util.Map<String, Window> windows) {
+        this.type = type;
+        this.id = id;
+        this.name = name;
+        this.latestTime = latestTime;
+        this.windows = windows;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the ID of the device or application
+     */
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the end of the windows (the second of the latest collection), in milliseconds since
+     * the epoch
+     */
+    public long getLatestTime() {
+        return latestTime;
+    }
+
+    public void setLatestTime(long latestTime) {
+        this.latestTime = latestTime;
+    }
+
+    /**
+     * Returns the windows by name (<code>1m</code>, <code>5m</code> and <code>15m</code>)
+     */
+    public java.util.Map<String, Window> getWindows() {
+        return windows;
+    }
+
+    public void setWindows(java.util.Map<String, Window> windows) {
+        this.windows = windows;
+    }
+
+    /**
+     * The statistics of each field of a series over one window
+     */
+    public static class Window {
+        private int seconds;
+        private long count;
+        private java.util.Map<String, FieldStatistics> fields;
+
+        public Window() {}
+
+        public Window(int seconds, long count, java.util.Map<String, FieldStatistics> fields) {
+            this.seconds = seconds;
+            this.count = count;
+            this.fields = fields;
+        }
+
+        public int getSeconds() {
+            return seconds;
+        }
+
+        public void setSeconds(int seconds) {
+            this.seconds = seconds;
+        }
+
+        /**
+         * Returns the number of values in the window, usually one per second with data
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public void setCount(long count) {
+            this.count = count;
+        }
+
+        public java.util.Map<String, FieldStatistics> getFields() {
+            return fields;
+        }
+
+        public void setFields(java.util.Map<String, FieldStatistics> fields) {
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * The average, maximum and minimum of a field over a window, all 0 if the window is empty
+     */
+    public static class FieldStatistics {
+        private double avg;
+        private double max;
+        private double min;
+
+        public FieldStatistics() {}
+
+        public FieldStatistics(double avg, double max, double min) {
+            this.avg = avg;
+            this.max = max;
+            this.min = min;
+        }
+
+        public double getAvg() {
+            return avg;
+        }
+
+        public void setAvg(double avg) {
+            this.avg = avg;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public void setMax(double max) {
+            this.max = max;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public void setMin(double min) {
+            this.min = min;
+        }
+    }
+}
@@ -0,0 +1,899 @@
+package com.gibbonsdimarco.yamec.app.monitor;
+
+import com.gibbonsdimarco.yamec.app.data.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+
+/**
+ * <p>A MetricsSource which reads the counters of a Linux system from procfs and sysfs.</p>
+ * <p>System-wide files (<code>/proc/stat</code>, <code>/proc/meminfo</code>, <code>/proc/diskstats</code>
+ * and <code>/proc/net/dev</code>) are opened once and re-read from offset 0 on every collection. All
+ * files are parsed in place from one reusable buffer, and the previous counter values are kept in
+ * primitive fields and arrays, so a collection does not create objects per line or per value.
+ * The state of each process is kept between collections and its name is only decoded when the
+ * process is first seen. Objects are only created when metrics are requested through the getters.</p>
+ * <p>Hardware information is read from <code>/proc/cpuinfo</code> and <code>/sys</code>. It is read
+ * rarely, so it is parsed with plain String operations.</p>
+ * <p>The locations of procfs and sysfs can be passed to the package-private constructor, so the
+ * parsing can be tested against files with known contents.</p>
+ */
+public class LinuxProcMetricsSource implements MetricsSource {
+    private static final Logger logger = LoggerFactory.getLogger(LinuxProcMetricsSource.class);
+
+    private static final byte[] CPU_LINE = "cpu ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MEM_TOTAL = "MemTotal:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MEM_AVAILABLE = "MemAvailable:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COMMIT_LIMIT = "CommitLimit:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COMMITTED_AS = "Committed_AS:".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The size of a sector as reported in /proc/diskstats, which is always 512 bytes
+     * regardless of the sector size of the device
+     */
+    private static final long DISKSTATS_SECTOR_SIZE = 512;
+
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Fields/Variables
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    private final Path proc;
+    private final Path sys;
+    private final ProcFileReader reader = new ProcFileReader(64 * 1024);
+    private final FileChannel statChannel;
+    private final FileChannel meminfoChannel;
+    private final FileChannel diskstatsChannel;
+    private final FileChannel netDevChannel;
+    private final long pageSize;
+
+    private boolean closed = false;
+    private Timestamp lastCollectionTime = null;
+    private long lastCollectionNanos = 0;
+    private boolean hasPreviousSample = false;
+
+    // CPU
+    private final String cpuName;
+    private long previousCpuTotalTicks = 0;
+    private long previousCpuIdleTicks = 0;
+    private long cpuTotalTicksDelta = 0;
+    private double cpuUtilization = 0;
+
+    // Memory (bytes)
+    private long memoryTotal = 0;
+    private long memoryAvailable = 0;
+    private long commitLimit = 0;
+    private long committed = 0;
+
+    // Disks, indexed by disk number
+    private final String[] diskNames;
+    private final byte[][] diskNameBytes;
+    private final String[] diskNumberNames;
+    private final long[] diskReads;
+    private final long[] diskWrites;
+    private final long[] diskSectorsRead;
+    private final long[] diskSectorsWritten;
+    private final long[] diskTransferMillis;
+    private final long[] diskIoMillis;
+    private final double[] diskUtilization;
+    private final long[] diskReadBandwidth;
+    private final long[] diskWriteBandwidth;
+    private final double[] diskTimeToTransfer;
+
+    // Network interfaces
+    private final String[] nicNames;
+    private final byte[][] nicNameBytes;
+    private final long[] nicOperatingBandwidth;
+    private final long[] nicBytesReceived;
+    private final long[] nicBytesSent;
+    private final long[] nicReceiveBandwidth;
+    private final long[] nicSendBandwidth;
+
+    // Processes
+    private final ProcessIdMap<ProcessState> processes = new ProcessIdMap<>(4096);
+    private long generation = 0;
+
+    /**
+     * The state of a process kept between collections
+     */
+    private static final class ProcessState {
+        private final int processId;
+        private final Path statPath;
+        private String processName;
+        private long startTime = -1;
+        private long cpuTicks = 0;
+        private boolean hasPreviousSample = false;
+        private long generation;
+
+        private double cpuUsage = 0;
+        private long physicalMemory = 0;
+        private long virtualMemory = 0;
+
+        private ProcessState(int processId, Path statPath) {
+            this.processId = processId;
+            this.statPath = statPath;
+        }
+    }
+
+    /**
+     * Instantiates the Linux metrics source and discovers the disks and network interfaces to track
+     *
+     * @throws RuntimeException If procfs cannot be opened
+     */
+    public LinuxProcMetricsSource() {
+        this(Path.of("/proc"), Path.of("/sys"));
+    }
+
+    /**
+     * Instantiates a Linux metrics source reading procfs and sysfs from the directories specified
+     *
+     * @param proc The directory procfs is mounted at
+     * @param sys The directory sysfs is mounted at
+     * @throws RuntimeException If procfs cannot be opened
+     */
+    LinuxProcMetricsSource(Path proc, Path sys) {
+        this.proc = proc;
+        this.sys = sys;
+
+        try {
+            statChannel = FileChannel.open(proc.resolve("stat"), StandardOpenOption.READ);
+            meminfoChannel = FileChannel.open(proc.resolve("meminfo"), StandardOpenOption.READ);
+            diskstatsChannel = FileChannel.open(proc.resolve("diskstats"), StandardOpenOption.READ);
+            netDevChannel = FileChannel.open(proc.resolve("net/dev"), StandardOpenOption.READ);
+        } catch (IOException e) {
+            logger.error("Error opening procfs", e);
+            throw new RuntimeException("Unable to initialize Linux metrics source", e);
+        }
+
+        pageSize = readPageSize(proc);
+        cpuName = readCpuName(proc);
+
+        diskNames = listPhysicalDisks(sys.resolve("block"));
+        int diskCount = diskNames.length;
+        diskNameBytes = new byte[diskCount][];
+        diskNumberNames = new String[diskCount];
+        for (int i = 0; i < diskCount; i++) {
+            diskNameBytes[i] = diskNames[i].getBytes(StandardCharsets.US_ASCII);
+            // Metrics are named by disk number so they map to the DiskHardwareInformation
+            // with the same number, just like PhysicalDisk instances on Windows
+            diskNumberNames[i] = Integer.toString(i);
+        }
+        diskReads = new long[diskCount];
+        diskWrites = new long[diskCount];
+        diskSectorsRead = new long[diskCount];
+        diskSectorsWritten = new long[diskCount];
+        diskTransferMillis = new long[diskCount];
+        diskIoMillis = new long[diskCount];
+        diskUtilization = new double[diskCount];
+        diskReadBandwidth = new long[diskCount];
+        diskWriteBandwidth = new long[diskCount];
+        diskTimeToTransfer = new double[diskCount];
+
+        Path sysNet = sys.resolve("class/net");
+        nicNames = listNetworkInterfaces(sysNet);
+        int nicCount = nicNames.length;
+        nicNameBytes = new byte[nicCount][];
+        nicOperatingBandwidth = new long[nicCount];
+        for (int i = 0; i < nicCount; i++) {
+            nicNameBytes[i] = nicNames[i].getBytes(StandardCharsets.US_ASCII);
+            // The link speed is reported in Mbps, or -1 for virtual interfaces
+            long speed = parseLongOrDefault(readSysFile(sysNet.resolve(nicNames[i]).resolve("speed")), 0);
+            nicOperatingBandwidth[i] = Math.max(speed, 0) * 1_000_000L;
+        }
+        nicBytesReceived = new long[nicCount];
+        nicBytesSent = new long[nicCount];
+        nicReceiveBandwidth = new long[nicCount];
+        nicSendBandwidth = new long[nicCount];
+
+        logger.info("Linux metrics source tracking {} disks and {} network interfaces", diskCount, nicCount);
+    }
+
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Collection
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    public synchronized int collectCounterData() {
+        return collectCounterData(System.nanoTime());
+    }
+
+    /**
+     * Collects counter data, computing the rates over the time since the previous collection
+     *
+     * @param now The time of the collection, as returned by <code>System.nanoTime()</code>
+     * @return 0 if the data was collected; otherwise, -1
+     */
+    synchronized int collectCounterData(long now) {
+        if (closed) {
+            logger.warn("Attempt to collect counter data on closed LinuxProcMetricsSource");
+            return -1;
+        }
+
+        try {
+            double elapsedSeconds = hasPreviousSample ? (now - lastCollectionNanos) / 1_000_000_000.0 : 0;
+
+            collectCpuCounters();
+            collectMemoryCounters();
+            collectDiskCounters(elapsedSeconds);
+            collectNicCounters(elapsedSeconds);
+            collectProcessCounters();
+
+            lastCollectionNanos = now;
+            hasPreviousSample = true;
+            lastCollectionTime = new Timestamp(System.currentTimeMillis());
+            return 0;
+        } catch (Exception e) {
+            logger.error("Error collecting counter data", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Collects counter data and builds the snapshot while holding the lock once, so no other
+     * caller can collect in between
+     */
+    @Override
+    public synchronized MetricsSnapshot collectSnapshot() {
+        if (collectCounterData() != 0) {
+            return null;
+        }
+
+        return new MetricsSnapshot(lastCollectionTime.getTime(),
+                getCpuMetrics(),
+                getMemoryMetrics(),
+                getDiskMetrics(),
+                getNicMetrics(),
+                getProcessMetrics());
+    }
+
+    private void collectCpuCounters() throws IOException {
+        reader.read(statChannel);
+
+        // The aggregate line is always first:
+        // cpu user nice system idle iowait irq softirq steal guest guest_nice
+        if (!reader.startsWith(CPU_LINE)) {
+            throw new IOException("Unexpected format of /proc/stat");
+        }
+        reader.skipToken();
+
+        long total = 0;
+        long idle = 0;
+        // Guest time is already included in user time, so only the first 8 fields are summed
+        for (int field = 0; field < 8; field++) {
+            long value = reader.nextLong();
+            total += value;
+            if (field == 3 || field == 4) {
+                idle += value;
+            }
+        }
+
+        if (hasPreviousSample) {
+            cpuTotalTicksDelta = total - previousCpuTotalTicks;
+            long idleDelta = idle - previousCpuIdleTicks;
+            cpuUtilization = cpuTotalTicksDelta > 0
+                    ? Math.clamp(100.0 * (cpuTotalTicksDelta - idleDelta) / cpuTotalTicksDelta, 0.0, 100.0)
+                    : 0;
+        }
+
+        previousCpuTotalTicks = total;
+        previousCpuIdleTicks = idle;
+    }
+
+    private void collectMemoryCounters() throws IOException {
+        reader.read(meminfoChannel);
+
+        int found = 0;
+        while (reader.hasRemaining() && found < 4) {
+            if (reader.startsWith(MEM_TOTAL)) {
+                reader.skipToken();
+                memoryTotal = reader.nextLong() * 1024;
+                found++;
+            } else if (reader.startsWith(MEM_AVAILABLE)) {
+                reader.skipToken();
+                memoryAvailable = reader.nextLong() * 1024;
+                found++;
+            } else if (reader.startsWith(COMMIT_LIMIT)) {
+                reader.skipToken();
+                commitLimit = reader.nextLong() * 1024;
+                found++;
+            } else if (reader.startsWith(COMMITTED_AS)) {
+                reader.skipToken();
+                committed = reader.nextLong() * 1024;
+                found++;
+            }
+            reader.nextLine();
+        }
+    }
+
+    private void collectDiskCounters(double elapsedSeconds) throws IOException {
+        reader.read(diskstatsChannel);
+
+        while (reader.hasRemaining()) {
+            // major minor name reads merged sectors ms writes merged sectors ms in-flight io_ms weighted_ms
+            reader.skipTokens(2);
+            int nameStart = reader.nextTokenStart((byte) ' ');
+
+            int disk = -1;
+            for (int i = 0; i < diskNameBytes.length; i++) {
+                if (reader.regionEquals(nameStart, diskNameBytes[i])) {
+                    disk = i;
+                    break;
+                }
+            }
+
+            if (disk >= 0) {
+                long reads = reader.nextLong();
+                reader.skipToken();
+                long sectorsRead = reader.nextLong();
+                long readMillis = reader.nextLong();
+                long writes = reader.nextLong();
+                reader.skipToken();
+                long sectorsWritten = reader.nextLong();
+                long writeMillis = reader.nextLong();
+                reader.skipToken();
+                long ioMillis = reader.nextLong();
+
+                if (elapsedSeconds > 0) {
+                    long transfers = (reads - diskReads[disk]) + (writes - diskWrites[disk]);
+                    long transferMillis = (readMillis + writeMillis) - diskTransferMillis[disk];
+
+                    diskUtilization[disk] = Math.clamp(
+                            100.0 * (ioMillis - diskIoMillis[disk]) / (elapsedSeconds * 1000.0), 0.0, 100.0);
+                    diskReadBandwidth[disk] = (long) ((sectorsRead - diskSectorsRead[disk])
+                            * DISKSTATS_SECTOR_SIZE / elapsedSeconds);
+                    diskWriteBandwidth[disk] = (long) ((sectorsWritten - diskSectorsWritten[disk])
+                            * DISKSTATS_SECTOR_SIZE / elapsedSeconds);
+                    // Reported in seconds per transfer, like Avg. Disk sec/Transfer on Windows
+                    diskTimeToTransfer[disk] = transfers > 0 ? transferMillis / 1000.0 / transfers : 0;
+                }
+
+                diskReads[disk] = reads;
+                diskWrites[disk] = writes;
+                diskSectorsRead[disk] = sectorsRead;
+                diskSectorsWritten[disk] = sectorsWritten;
+                diskTransferMillis[disk] = readMillis + writeMillis;
+                diskIoMillis[disk] = ioMillis;
+            }
+
+            reader.nextLine();
+        }
+    }
+
+    private void collectNicCounters(double elapsedSeconds) throws IOException {
+        reader.read(netDevChannel);
+
+        // Skip the two header lines
+        reader.nextLine();
+        reader.nextLine();
+
+        while (reader.hasRemaining()) {
+            // name: rx_bytes packets errs drop fifo frame compressed multicast tx_bytes ...
+            int nameStart = reader.nextTokenStart((byte) ':');
+
+            int nic = -1;
+            for (int i = 0; i < nicNameBytes.length; i++) {
+                if (reader.regionEquals(nameStart, nicNameBytes[i])) {
+                    nic = i;
+                    break;
+                }
+            }
+
+            if (nic >= 0) {
+                // Step over the ':' which may not be followed by whitespace
+                reader.position(reader.position() + 1);
+                long received = reader.nextLong();
+                reader.skipTokens(7);
+                long sent = reader.nextLong();
+
+                if (elapsedSeconds > 0) {
+                    // Bandwidth is reported in bits per second, like the Windows counters
+                    nicReceiveBandwidth[nic] = (long) ((received - nicBytesReceived[nic]) * 8 / elapsedSeconds);
+                    nicSendBandwidth[nic] = (long) ((sent - nicBytesSent[nic]) * 8 / elapsedSeconds);
+                }
+
+                nicBytesReceived[nic] = received;
+                nicBytesSent[nic] = sent;
+            }
+
+            reader.nextLine();
+        }
+    }
+
+    private void collectProcessCounters() throws IOException {
+        long currentGeneration = ++generation;
+
+        try (DirectoryStream<Path> processDirectories = Files.newDirectoryStream(proc)) {
+            for (Path processDirectory : processDirectories) {
+                int processId = parseProcessId(processDirectory);
+                if (processId < 0) {
+                    continue;
+                }
+
+                ProcessState state = processes.get(processId);
+                if (state == null) {
+                    state = new ProcessState(processId, processDirectory.resolve("stat"));
+                    processes.put(processId, state);
+                }
+
+                if (readProcessStat(state)) {
+                    state.generation = currentGeneration;
+                }
+            }
+        }
+
+        // Forget processes which have exited
+        processes.removeIf(state -> state.generation != currentGeneration);
+    }
+
+    /**
+     * Reads /proc/[pid]/stat into the state of a process
+     *
+     * @return True if the process still exists and its stat file was parsed; otherwise, false
+     */
+    private boolean readProcessStat(ProcessState state) throws IOException {
+        if (reader.read(state.statPath) <= 0) {
+            return false;
+        }
+
+        // pid (comm) state ppid ... - comm may contain spaces and parentheses, so the
+        // fields are located from the last ')'
+        int nameEnd = reader.lastIndexOf((byte) ')');
+        if (nameEnd < 0) {
+            return false;
+        }
+
+        reader.position(nameEnd + 1);
+        // Fields 3 to 24: state ppid pgrp session tty_nr tpgid flags minflt cminflt majflt
+        // cmajflt utime stime cutime cstime priority nice num_threads itrealvalue starttime vsize rss
+        reader.skipTokens(11);
+        long userTicks = reader.nextLong();
+        long systemTicks = reader.nextLong();
+        reader.skipTokens(6);
+        long startTime = reader.nextLong();
+        long virtualMemory = reader.nextLong();
+        long residentPages = reader.nextLong();
+
+        if (startTime != state.startTime) {
+            // A new process, or the PID was reused since the last collection
+            int nameStart = reader.indexOf((byte) '(', 0);
+            state.processName = reader.string(nameStart + 1, nameEnd);
+            state.startTime = startTime;
+            state.hasPreviousSample = false;
+        }
+
+        long cpuTicks = userTicks + systemTicks;
+        if (state.hasPreviousSample && cpuTotalTicksDelta > 0) {
+            // Relative to the ticks of all processors, so 100% means every processor was busy
+            // (the same normalization is applied to Windows process counters)
+            state.cpuUsage = Math.clamp(100.0 * (cpuTicks - state.cpuTicks) / cpuTotalTicksDelta, 0.0, 100.0);
+        } else {
+            state.cpuUsage = 0;
+        }
+
+        state.cpuTicks = cpuTicks;
+        state.hasPreviousSample = true;
+        state.physicalMemory = residentPages * pageSize;
+        state.virtualMemory = virtualMemory;
+        return true;
+    }
+
+    private static int parseProcessId(Path processDirectory) {
+        String name = processDirectory.getFileName().toString();
+        int value = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return name.isEmpty() ? -1 : value;
+    }
+
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Metrics
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    public synchronized SystemCpuMetric getCpuMetrics() {
+        if (closed) {
+            logger.warn("Attempting to call LinuxProcMetricsSource#getCpuMetrics() when closed");
+            return null;
+        }
+
+        return new SystemCpuMetric(cpuName, cpuUtilization);
+    }
+
+    public synchronized SystemMemoryMetric getMemoryMetrics() {
+        if (closed) {
+            logger.warn("Attempting to call LinuxProcMetricsSource#getMemoryMetrics() when closed");
+            return null;
+        }
+
+        // Committed_AS is the virtual memory in use out of the CommitLimit
+        double committedUtilization = commitLimit > 0 ? 100.0 * committed / commitLimit : 0;
+        return new SystemMemoryMetric(memoryTotal - memoryAvailable, commitLimit, committedUtilization,
+                false, false);
+    }
+
+    public synchronized java.util.List<SystemDiskMetric> getDiskMetrics() {
+        if (closed) {
+            logger.warn("Attempting to call LinuxProcMetricsSource#getDiskMetrics() when closed");
+            return null;
+        }
+
+        java.util.ArrayList<SystemDiskMetric> diskMetrics = new java.util.ArrayList<>(diskNames.length);
+        for (int i = 0; i < diskNames.length; i++) {
+            diskMetrics.add(new SystemDiskMetric(diskNumberNames[i], diskUtilization[i],
+                    diskReadBandwidth[i], diskWriteBandwidth[i], diskTimeToTransfer[i],
+                    false, false));
+        }
+        return diskMetrics;
+    }
+
+    public synchronized java.util.List<SystemNicMetric> getNicMetrics() {
+        if (closed) {
+            logger.warn("Attempting to call LinuxProcMetricsSource#getNicMetrics() when closed");
+            return null;
+        }
+
+        java.util.ArrayList<SystemNicMetric> nicMetrics = new java.util.ArrayList<>(nicNames.length);
+        for (int i = 0; i < nicNames.length; i++) {
+            nicMetrics.add(new SystemNicMetric(nicNames[i], nicOperatingBandwidth[i],
+                    nicSendBandwidth[i], nicReceiveBandwidth[i], false, false, false));
+        }
+        return nicMetrics;
+    }
+
+    public synchronized java.util.List<ProcessMetric> getProcessMetrics() {
+        if (closed) {
+            logger.warn("Attempting to call LinuxProcMetricsSource#getProcessMetrics() when closed");
+            return null;
+        }
+
+        java.util.ArrayList<ProcessMetric> processMetrics = new java.util.ArrayList<>(processes.size());
+        processes.forEachValue(state -> processMetrics.add(new ProcessMetric(state.processName, state.processId,
+                state.cpuUsage, state.physicalMemory, state.virtualMemory)));
+        return processMetrics;
+    }
+
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Hardware Information
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    public synchronized CpuHardwareInformation getCpuHardwareInformation() {
+        if (closed) {
+            logger.warn("Attempting to call LinuxProcMetricsSource#getCpuHardwareInformation() when closed");
+            return null;
+        }
+
+        try {
+            java.util.List<String> lines = Files.readAllLines(proc.resolve("cpuinfo"));
+            long logicalProcessors = 0;
+            java.util.Set<String> physicalCores = new java.util.HashSet<>();
+            String physicalId = "0";
+            boolean virtualization = false;
+
+            for (String line : lines) {
+                int separator = line.indexOf(':');
+                if (separator < 0) {
+                    continue;
+                }
+                String key = line.substring(0, separator).trim();
+                String value = line.substring(separator + 1).trim();
+
+                switch (key) {
+                    case "processor" -> logicalProcessors++;
+                    case "physical id" -> physicalId = value;
+                    case "core id" -> physicalCores.add(physicalId + ":" + value);
+                    case "flags" -> virtualization |= (" " + value + " ").contains(" vmx ")
+                                                        || (" " + value + " ").contains(" svm ");
+                    default -> { }
+                }
+            }
+
+            long cores = physicalCores.isEmpty() ? logicalProcessors : physicalCores.size();
+
+            // Cache sizes as seen by the first processor
+            long[] cacheSizes = new long[4];
+            Path cacheDirectory = sys.resolve("devices/system/cpu/cpu0/cache");
+            if (Files.isDirectory(cacheDirectory)) {
+                try (DirectoryStream<Path> indexes = Files.newDirectoryStream(cacheDirectory, "index*")) {
+                    for (Path index : indexes) {
+                        int level = (int) parseLongOrDefault(readSysFile(index.resolve("level")), 0);
+                        if (level >= 1 && level <= 3) {
+                            cacheSizes[level] += parseSize(readSysFile(index.resolve("size")));
+                        }
+                    }
+                }
+            }
+
+            long numaNodes = 0;
+            Path nodeDirectory = sys.resolve("devices/system/node");
+            if (Files.isDirectory(nodeDirectory)) {
+                try (DirectoryStream<Path> nodes = Files.newDirectoryStream(nodeDirectory, "node[0-9]*")) {
+                    for (Path ignored : nodes) {
+                        numaNodes++;
+                    }
+                }
+            }
+
+            return new CpuHardwareInformation(cpuName, cores, logicalProcessors,
+                    System.getProperty("os.arch"), Math.max(numaNodes, 1),
+                    cacheSizes[1], cacheSizes[2], cacheSizes[3], virtualization);
+        } catch (Exception e) {
+            logger.error("Error getting CPU hardware information", e);
+            return null;
+        }
+    }
+
+    public synchronized MemoryHardwareInformation getMemoryHardwareInformation() {
+        if (closed) {
+            logger.warn("Attempting to call LinuxProcMetricsSource#getMemoryHardwareInformation() when closed");
+            return null;
+        }
+
+        try {
+            reader.read(meminfoChannel);
+            reader.skipToken();
+            long capacity = reader.nextLong() * 1024;
+
+            // The speed and slots of memory devices are only available to root (through DMI tables)
+            return new MemoryHardwareInformation(capacity, 0, 0, 0, false, false);
+        } catch (Exception e) {
+            logger.error("Error getting memory hardware information", e);
+            return null;
+        }
+    }
+
+    public synchronized java.util.List<DiskHardwareInformation> getDiskHardwareInformation() {
+        if (closed) {
+            logger.warn("Attempting to call LinuxProcMetricsSource#getDiskHardwareInformation() when closed");
+            return null;
+        }
+
+        try {
+            java.util.ArrayList<DiskHardwareInformation> disks = new java.util.ArrayList<>();
+
+            for (int i = 0; i < diskNames.length; i++) {
+                Path disk = sys.resolve("block").resolve(diskNames[i]);
+
+                String friendlyName = readSysFile(disk.resolve("device/model"));
+                if (friendlyName == null || friendlyName.isEmpty()) {
+                    friendlyName = diskNames[i];
+                }
+
+                String uniqueId = readSysFile(disk.resolve("device/wwid"));
+                if (uniqueId == null || uniqueId.isEmpty()) {
+                    uniqueId = readSysFile(disk.resolve("serial"));
+                }
+                if (uniqueId == null || uniqueId.isEmpty()) {
+                    uniqueId = diskNames[i];
+                }
+
+                String rotational = readSysFile(disk.resolve("queue/rotational"));
+                long mediaType = rotational == null ? MediaType.UNSPECIFIED.getValue()
+                        : "1".equals(rotational) ? MediaType.HDD.getValue() : MediaType.SSD.getValue();
+
+                long capacity = parseLongOrDefault(readSysFile(disk.resolve("size")), 0) * DISKSTATS_SECTOR_SIZE;
+
+                java.util.ArrayList<String> partitions = new java.util.ArrayList<>();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(disk, diskNames[i] + "*")) {
+                    for (Path entry : entries) {
+                        partitions.add(entry.getFileName().toString());
+                    }
+                }
+                java.util.Collections.sort(partitions);
+
+                disks.add(new DiskHardwareInformation(friendlyName, uniqueId, i, mediaType,
+                        capacity, false, partitions));
+            }
+
+            return disks;
+        } catch (Exception e) {
+            logger.error("Error getting disk hardware information", e);
+            return null;
+        }
+    }
+
+    public synchronized java.util.List<NicHardwareInformation> getNicHardwareInformation() {
+        if (closed) {
+            logger.warn("Attempting to call LinuxProcMetricsSource#getNicHardwareInformation() when closed");
+            return null;
+        }
+
+        try {
+            java.util.ArrayList<NicHardwareInformation> nics = new java.util.ArrayList<>();
+
+            for (String nicName : nicNames) {
+                Path nic = sys.resolve("class/net").resolve(nicName);
+
+                String uniqueId = readSysFile(nic.resolve("address"));
+                if (uniqueId == null || uniqueId.isEmpty() || uniqueId.equals("00:00:00:00:00:00")) {
+                    uniqueId = nicName;
+                }
+
+                nics.add(new NicHardwareInformation(nicName, nicName, uniqueId, getNicType(nic)));
+            }
+
+            return nics;
+        } catch (Exception e) {
+            logger.error("Error getting NIC hardware information", e);
+            return null;
+        }
+    }
+
+    /**
+     * Maps the ARP hardware type of an interface to the IANA interface type used by
+     * NicHardwareInformation
+     */
+    private static long getNicType(Path nic) {
+        if (Files.isDirectory(nic.resolve("wireless"))) {
+            return NicType.WIFI.getValue();
+        }
+
+        long arpType = parseLongOrDefault(readSysFile(nic.resolve("type")), -1);
+        if (arpType == 1) {
+            return NicType.ETHERNET.getValue();
+        } else if (arpType == 772) {
+            return NicType.LOOPBACK.getValue();
+        } else if (arpType == 512) {
+            return NicType.PPP.getValue();
+        } else if (arpType == 65534 || arpType == 768 || arpType == 776) {
+            return NicType.TUNNEL.getValue();
+        }
+        return NicType.UNKNOWN.getValue();
+    }
+
+    public Timestamp getLastCollectionTime() {
+        return lastCollectionTime;
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            logger.warn("Attempting to call LinuxProcMetricsSource#close() when closed");
+            return;
+        }
+
+        closed = true;
+        processes.clear();
+        for (FileChannel channel : new FileChannel[] {statChannel, meminfoChannel, diskstatsChannel, netDevChannel}) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Error closing procfs file", e);
+            }
+        }
+        logger.info("Successfully closed Linux metrics source");
+    }
+
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    // Discovery
+    // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    /**
+     * Lists the block devices backed by a device (which excludes partitions, loop devices, RAM disks
+     * and device-mapper volumes), sorted by name so disk numbers stay stable between runs
+     */
+    private static String[] listPhysicalDisks(Path sysBlock) {
+        java.util.ArrayList<String> disks = new java.util.ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(sysBlock)) {
+            for (Path entry : entries) {
+                if (Files.exists(entry.resolve("device"))) {
+                    disks.add(entry.getFileName().toString());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error listing block devices", e);
+        }
+        java.util.Collections.sort(disks);
+        return disks.toArray(new String[0]);
+    }
+
+    /**
+     * Lists the network interfaces of the system other than the loopback interface, which is
+     * also excluded from the Network Interface counters on Windows
+     */
+    private static String[] listNetworkInterfaces(Path sysNet) {
+        java.util.ArrayList<String> nics = new java.util.ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(sysNet)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (parseLongOrDefault(readSysFile(entry.resolve("type")), -1) != 772) {
+                    nics.add(name);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error listing network interfaces", e);
+        }
+        java.util.Collections.sort(nics);
+        return nics.toArray(new String[0]);
+    }
+
+    private static String readCpuName(Path proc) {
+        try {
+            for (String line : Files.readAllLines(proc.resolve("cpuinfo"))) {
+                if (line.startsWith("model name") || line.startsWith("Model") || line.startsWith("Hardware")) {
+                    int separator = line.indexOf(':');
+                    if (separator >= 0) {
+                        return line.substring(separator + 1).trim();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Error reading CPU name", e);
+        }
+        return "CPU";
+    }
+
+    /**
+     * Determines the page size from the resident set of this process, as reported in both pages
+     * (/proc/self/statm) and kB (/proc/self/status). Falls back to 4 KiB.
+     */
+    private static long readPageSize(Path proc) {
+        try {
+            String[] statm = Files.readString(proc.resolve("self/statm")).trim().split("\\s+");
+            long residentPages = Long.parseLong(statm[1]);
+            for (String line : Files.readAllLines(proc.resolve("self/status"))) {
+                if (line.startsWith("VmRSS:") && residentPages > 0) {
+                    long residentBytes = Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+                    // The two values are read at different times, so round to the nearest power of two
+                    long estimate = residentBytes / residentPages;
+                    long pageSize = Long.highestOneBit(Math.max(estimate, 1));
+                    if (estimate - pageSize > pageSize / 2) {
+                        pageSize <<= 1;
+                    }
+                    return pageSize;
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Error determining the page size, assuming 4 KiB", e);
+        }
+        return 4096;
+    }
+
+    private static String readSysFile(Path path) {
+        try {
+            return Files.readString(path).trim();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static long parseLongOrDefault(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Parses a size from sysfs, such as "32K" or "8192K"
+     */
+    private static long parseSize(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        long multiplier = switch (value.charAt(value.length() - 1)) {
+            case 'K' -> 1024L;
+            case 'M' -> 1024L * 1024;
+            case 'G' -> 1024L * 1024 * 1024;
+            default -> 1L;
+        };
+        String digits = multiplier == 1 ? value : value.substring(0, value.length() - 1);
+        return parseLongOrDefault(digits, 0) * multiplier;
+    }
+}
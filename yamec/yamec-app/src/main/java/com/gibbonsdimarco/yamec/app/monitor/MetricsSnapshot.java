@@ -0,0 +1,88 @@
+package com.gibbonsdimarco.yamec.app.monitor;
+
+import com.gibbonsdimarco.yamec.app.data.*;
+
+import java.sql.Timestamp;
+
+/**
+ * <p>The metrics of every subsystem from one collection of counter data.</p>
+ * <p>A snapshot is created once per collection by {@link MetricsSource#collectSnapshot()} and is not
+ * changed afterwards. Its lists cannot be modified, and a subsystem whose metrics could not be
+ * retrieved is represented by null (CPU and memory) or an empty list (disks, NICs and processes).</p>
+ */
+public final class MetricsSnapshot {
+
+    private final Timestamp collectionTime;
+    private final SystemCpuMetric cpuMetric;
+    private final SystemMemoryMetric memoryMetric;
+    private final java.util.List<SystemDiskMetric> diskMetrics;
+    private final java.util.List<SystemNicMetric> nicMetrics;
+    private final java.util.List<ProcessMetric> processMetrics;
+
+    /**
+     * Creates a snapshot of the metrics collected at the time specified
+     *
+     * @param collectionTime The time the counter data was collected in milliseconds since the epoch
+     * @param cpuMetric The CPU metric collected, or null
+     * @param memoryMetric The memory metric collected, or null
+     * @param diskMetrics The disk metrics collected, or null
+     * @param nicMetrics The NIC metrics collected, or null
+     * @param processMetrics The process metrics collected, or null
+     */
+    public MetricsSnapshot(long collectionTime,
+                           SystemCpuMetric cpuMetric,
+                           SystemMemoryMetric memoryMetric,
+                           java.util.List<SystemDiskMetric> diskMetrics,
+                           java.util.List<SystemNicMetric> nicMetrics,
+                           java.util.List<ProcessMetric> processMetrics) {
+        this.collectionTime = new Timestamp(collectionTime);
+        this.cpuMetric = cpuMetric;
+        this.memoryMetric = memoryMetric;
+        this.diskMetrics = unmodifiable(diskMetrics);
+        this.nicMetrics = unmodifiable(nicMetrics);
+        this.processMetrics = unmodifiable(processMetrics);
+    }
+
+    private static <T> java.util.List<T> unmodifiable(java.util.List<T> list) {
+        return list == null ? java.util.List.of() : java.util.Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns the time the counter data of this snapshot was collected
+     *
+     * @return A new Timestamp of the collection time
+     */
+    public Timestamp getCollectionTime() {
+        return new Timestamp(collectionTime.getTime());
+    }
+
+    public SystemCpuMetric getCpuMetric() {
+        return cpuMetric;
+    }
+
+    public SystemMemoryMetric getMemoryMetric() {
+        return memoryMetric;
+    }
+
+    public java.util.List<SystemDiskMetric> getDiskMetrics() {
+        return diskMetrics;
+    }
+
+    public java.util.List<SystemNicMetric> getNicMetrics() {
+        return nicMetrics;
+    }
+
+    public java.util.List<ProcessMetric> getProcessMetrics() {
+        return processMetrics;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{" +
+                "collectionTime=" + collectionTime +
+                ", disks=" + diskMetrics.size() +
+                ", nics=" + nicMetrics.size() +
+                ", processes=" + processMetrics.size() +
+                '}';
+    }
+}
@@ -0,0 +1,109 @@
+package com.gibbonsdimarco.yamec.app.monitor;
+
+import com.gibbonsdimarco.yamec.app.data.*;
+
+import java.sql.Timestamp;
+
+/**
+ * <p>A provider of system metrics and hardware information for the metrics collector.</p>
+ * <p>Implementations sample the operating system's counters when {@link #collectCounterData()} is
+ * called and expose the values calculated from the two most recent samples through the
+ * <code>get*Metrics</code> methods. Hardware information is expected to change rarely, so it may
+ * be retrieved without collecting counter data first.</p>
+ * <p>All getters return null if the data cannot be retrieved or if the source is closed.</p>
+ */
+public interface MetricsSource extends AutoCloseable {
+
+    /**
+     * Samples the counters tracked by this source. The metrics returned by the getters after this
+     * call cover the interval between the previous collection and this one.
+     *
+     * @return 0 if the counter data was collected successfully; otherwise, a non-zero status code
+     */
+    int collectCounterData();
+
+    /**
+     * Collects counter data and retrieves the metrics of every subsystem from that collection.
+     * <p>The default implementation calls {@link #collectCounterData()} followed by each getter.
+     * Implementations should override this when they can collect everything in one step.</p>
+     *
+     * @return A MetricsSnapshot of the new collection, or null if the counter data could not be collected
+     */
+    default MetricsSnapshot collectSnapshot() {
+        if (collectCounterData() != 0) {
+            return null;
+        }
+
+        return new MetricsSnapshot(getLastCollectionTime().getTime(),
+                getCpuMetrics(),
+                getMemoryMetrics(),
+                getDiskMetrics(),
+                getNicMetrics(),
+                getProcessMetrics());
+    }
+
+    /**
+     * Retrieves the system metrics for the system's CPU devices
+     *
+     * @return A SystemCpuMetric object containing the CPU utilization since the last collection,
+     * or null if it cannot be retrieved
+     */
+    SystemCpuMetric getCpuMetrics();
+
+    /**
+     * Retrieves the system metrics for the system's primary memory
+     *
+     * @return A SystemMemoryMetric object containing the system's memory utilization, or null if it
+     * cannot be retrieved
+     */
+    SystemMemoryMetric getMemoryMetrics();
+
+    /**
+     * Retrieves the system metrics for each of the system's physical disks
+     *
+     * @return A list of SystemDiskMetric objects, or null if they cannot be retrieved
+     */
+    java.util.List<SystemDiskMetric> getDiskMetrics();
+
+    /**
+     * Retrieves the system metrics for each of the system's network interfaces
+     *
+     * @return A list of SystemNicMetric objects, or null if they cannot be retrieved
+     */
+    java.util.List<SystemNicMetric> getNicMetrics();
+
+    /**
+     * Retrieves the metrics of each process running on the system
+     *
+     * @return A list of ProcessMetric objects, or null if they cannot be retrieved
+     */
+    java.util.List<ProcessMetric> getProcessMetrics();
+
+    CpuHardwareInformation getCpuHardwareInformation();
+
+    MemoryHardwareInformation getMemoryHardwareInformation();
+
+    java.util.List<DiskHardwareInformation> getDiskHardwareInformation();
+
+    java.util.List<NicHardwareInformation> getNicHardwareInformation();
+
+    /**
+     * Returns the time of the last successful call to {@link #collectCounterData()}
+     *
+     * @return A Timestamp of the last successful collection, or null if no collection succeeded yet
+     */
+    Timestamp getLastCollectionTime();
+
+    /**
+     * Returns whether this source can still be used to collect metrics
+     *
+     * @return True if this source is open; otherwise, this returns false
+     */
+    boolean isOpen();
+
+    /**
+     * Releases any resources held by this source and stops further use of it
+     */
+    @Override
+    void close();
+}
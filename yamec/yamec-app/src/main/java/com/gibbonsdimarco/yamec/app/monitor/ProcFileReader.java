@@ -0,0 +1,246 @@
+package com.gibbonsdimarco.yamec.app.monitor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Reads files from procfs into a single reusable byte buffer and parses them in place.</p>
+ * <p>The parsing methods work on a cursor over the bytes last read, so values can be extracted
+ * without creating a String per line or per token. The buffer grows when a file does not fit
+ * in it and is then kept at the larger size.</p>
+ * <p>This class is not thread-safe.</p>
+ */
+final class ProcFileReader {
+
+    private byte[] buffer;
+    private ByteBuffer view;
+    private int length = 0;
+    private int position = 0;
+
+    ProcFileReader(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+        this.view = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Reads the full contents of an already opened procfs file. procfs regenerates the contents
+     * of a file when it is read from offset 0, so the same channel can be read every collection.
+     *
+     * @param channel An open channel of the file to read
+     * @return The number of bytes read
+     * @throws IOException If the file cannot be read
+     */
+    int read(FileChannel channel) throws IOException {
+        length = 0;
+        position = 0;
+
+        while (true) {
+            if (length == buffer.length) {
+                grow();
+            }
+
+            view.limit(buffer.length).position(length);
+            int bytesRead = channel.read(view, length);
+            if (bytesRead <= 0) {
+                break;
+            }
+            length += bytesRead;
+        }
+
+        return length;
+    }
+
+    /**
+     * Opens, reads and closes the file at the path specified
+     *
+     * @param path The path of the file to read
+     * @return The number of bytes read, or -1 if the file does not exist (e.g. the process exited)
+     * @throws IOException If the file exists but cannot be read
+     */
+    int read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel);
+        } catch (NoSuchFileException e) {
+            length = 0;
+            position = 0;
+            return -1;
+        } catch (IOException e) {
+            // Reading /proc/[pid]/stat of a process that just exited fails with ESRCH
+            if (!path.toFile().exists()) {
+                length = 0;
+                position = 0;
+                return -1;
+            }
+            throw e;
+        }
+    }
+
+    private void grow() {
+        byte[] larger = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, larger, 0, length);
+        buffer = larger;
+        view = ByteBuffer.wrap(buffer);
+    }
+
+    boolean hasRemaining() {
+        return position < length;
+    }
+
+    int position() {
+        return position;
+    }
+
+    void position(int position) {
+        this.position = Math.min(position, length);
+    }
+
+    /**
+     * Moves the cursor to the start of the next line
+     */
+    void nextLine() {
+        while (position < length && buffer[position] != '\n') {
+            position++;
+        }
+        if (position < length) {
+            position++;
+        }
+    }
+
+    void skipWhitespace() {
+        while (position < length && (buffer[position] == ' ' || buffer[position] == '\t')) {
+            position++;
+        }
+    }
+
+    /**
+     * Moves the cursor past the next whitespace-delimited token on the current line
+     */
+    void skipToken() {
+        skipWhitespace();
+        while (position < length && !isDelimiter(buffer[position])) {
+            position++;
+        }
+    }
+
+    void skipTokens(int count) {
+        for (int i = 0; i < count; i++) {
+            skipToken();
+        }
+    }
+
+    /**
+     * Parses the next token as a decimal long integer. Parsing stops at the first non-digit
+     * character, so a value directly followed by a ':' or ')' is also handled.
+     *
+     * @return The value parsed, or 0 if the next token is not a number
+     */
+    long nextLong() {
+        skipWhitespace();
+
+        boolean negative = false;
+        if (position < length && buffer[position] == '-') {
+            negative = true;
+            position++;
+        }
+
+        long value = 0;
+        while (position < length) {
+            byte b = buffer[position];
+            if (b < '0' || b > '9') {
+                break;
+            }
+            value = value * 10 + (b - '0');
+            position++;
+        }
+
+        // Consume anything left of a malformed token so the cursor stays aligned on tokens
+        while (position < length && !isDelimiter(buffer[position])) {
+            position++;
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Returns the start of the next token and leaves the cursor at its end, which is either
+     * whitespace or the character specified
+     *
+     * @param terminator An additional character which ends the token (e.g. ':' in /proc/net/dev)
+     * @return The index in the buffer of the first byte of the token
+     */
+    int nextTokenStart(byte terminator) {
+        skipWhitespace();
+        int start = position;
+        while (position < length && !isDelimiter(buffer[position]) && buffer[position] != terminator) {
+            position++;
+        }
+        return start;
+    }
+
+    /**
+     * Checks whether the bytes from <code>start</code> to the cursor are equal to the bytes specified
+     */
+    boolean regionEquals(int start, byte[] expected) {
+        int regionLength = position - start;
+        if (regionLength != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < regionLength; i++) {
+            if (buffer[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the bytes at the cursor start with the prefix specified, without moving the cursor
+     */
+    boolean startsWith(byte[] prefix) {
+        if (length - position < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[position + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the last occurrence of a byte in the data read
+     *
+     * @return The index of the byte, or -1 if it does not occur
+     */
+    int lastIndexOf(byte value) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int indexOf(byte value, int from) {
+        for (int i = from; i < length; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    String string(int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return b == ' ' || b == '\t' || b == '\n';
+    }
+}
@@ -0,0 +1,153 @@
+package com.gibbonsdimarco.yamec.app.monitor;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * <p>An open-addressed hash map from process IDs to values, so looking up the state of every
+ * process each collection does not box its ID.</p>
+ * <p>Keys are stored in an <code>int</code> array with linear probing. Removed entries leave a
+ * marker behind, and the table is rebuilt once the entries and markers fill three quarters of
+ * it, which only allocates when the number of processes grows or many have exited.</p>
+ * <p>This class is not thread-safe.</p>
+ *
+ * @param <V> The type of the values
+ */
+final class ProcessIdMap<V> {
+
+    private static final int EMPTY = -1;
+    private static final int REMOVED = -2;
+
+    private int[] keys;
+    private Object[] values;
+    private int size = 0;
+    // Entries and removal markers, which both lengthen the probes
+    private int used = 0;
+
+    /**
+     * @param expectedSize The number of entries the map holds without being rebuilt
+     */
+    ProcessIdMap(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(expectedSize, 2) * 2 - 1) << 1);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new Object[capacity];
+        used = 0;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the value of a process ID, or null if it has none
+     */
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int current = keys[slot];
+            if (current == key) {
+                return (V) values[slot];
+            }
+            if (current == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Sets the value of a process ID
+     *
+     * @throws IllegalArgumentException If the process ID is negative
+     */
+    void put(int key, V value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Process IDs cannot be negative");
+        }
+
+        int mask = keys.length - 1;
+        int removedSlot = -1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int current = keys[slot];
+            if (current == key) {
+                values[slot] = value;
+                return;
+            }
+            if (current == REMOVED && removedSlot < 0) {
+                removedSlot = slot;
+            } else if (current == EMPTY) {
+                if (removedSlot >= 0) {
+                    slot = removedSlot;
+                } else {
+                    used++;
+                }
+                keys[slot] = key;
+                values[slot] = value;
+                size++;
+
+                if (used > keys.length / 4 * 3) {
+                    rebuild();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the entries whose values match the predicate
+     */
+    @SuppressWarnings("unchecked")
+    void removeIf(Predicate<? super V> predicate) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] >= 0 && predicate.test((V) values[slot])) {
+                keys[slot] = REMOVED;
+                values[slot] = null;
+                size--;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEachValue(Consumer<? super V> action) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] >= 0) {
+                action.accept((V) values[slot]);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+        used = 0;
+    }
+
+    /**
+     * Rehashes the entries without the removal markers, into a table twice as large if the entries
+     * alone fill half of it
+     */
+    @SuppressWarnings("unchecked")
+    private void rebuild() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(size >= oldKeys.length / 2 ? oldKeys.length * 2 : oldKeys.length);
+        size = 0;
+
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] >= 0) {
+                put(oldKeys[slot], (V) oldValues[slot]);
+            }
+        }
+    }
+}
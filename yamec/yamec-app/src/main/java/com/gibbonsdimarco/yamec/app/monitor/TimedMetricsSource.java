@@ -0,0 +1,157 @@
+package com.gibbonsdimarco.yamec.app.monitor;
+
+import com.gibbonsdimarco.yamec.app.data.*;
+import com.gibbonsdimarco.yamec.app.service.PipelineTimings;
+import com.gibbonsdimarco.yamec.app.service.PipelineTimings.Stage;
+
+import java.sql.Timestamp;
+
+/**
+ * <p>A MetricsSource which times each call to another source in the PipelineTimings, so the time
+ * spent in the native System Monitor Manager or reading procfs is measured apart from the rest of
+ * the collection.</p>
+ * <p>Snapshots are collected with the wrapped source's own {@link #collectSnapshot()}, so sources
+ * which collect everything in one step still do so.</p>
+ */
+public class TimedMetricsSource implements MetricsSource {
+
+    private final MetricsSource source;
+    private final PipelineTimings timings;
+
+    public TimedMetricsSource(MetricsSource source, PipelineTimings timings) {
+        this.source = source;
+        this.timings = timings;
+    }
+
+    /**
+     * Returns the source whose calls are timed
+     */
+    public MetricsSource getSource() {
+        return source;
+    }
+
+    @Override
+    public int collectCounterData() {
+        long start = System.nanoTime();
+        try {
+            return source.collectCounterData();
+        } finally {
+            timings.recordSince(Stage.SOURCE_COUNTER_DATA, start);
+        }
+    }
+
+    @Override
+    public MetricsSnapshot collectSnapshot() {
+        long start = System.nanoTime();
+        try {
+            return source.collectSnapshot();
+        } finally {
+            timings.recordSince(Stage.SOURCE_SNAPSHOT, start);
+        }
+    }
+
+    @Override
+    public SystemCpuMetric getCpuMetrics() {
+        long start = System.nanoTime();
+        try {
+            return source.getCpuMetrics();
+        } finally {
+            timings.recordSince(Stage.SOURCE_CPU, start);
+        }
+    }
+
+    @Override
+    public SystemMemoryMetric getMemoryMetrics() {
+        long start = System.nanoTime();
+        try {
+            return source.getMemoryMetrics();
+        } finally {
+            timings.recordSince(Stage.SOURCE_MEMORY, start);
+        }
+    }
+
+    @Override
+    public java.util.List<SystemDiskMetric> getDiskMetrics() {
+        long start = System.nanoTime();
+        try {
+            return source.getDiskMetrics();
+        } finally {
+            timings.recordSince(Stage.SOURCE_DISK, start);
+        }
+    }
+
+    @Override
+    public java.util.List<SystemNicMetric> getNicMetrics() {
+        long start = System.nanoTime();
+        try {
+            return source.getNicMetrics();
+        } finally {
+            timings.recordSince(Stage.SOURCE_NIC, start);
+        }
+    }
+
+    @Override
+    public java.util.List<ProcessMetric> getProcessMetrics() {
+        long start = System.nanoTime();
+        try {
+            return source.getProcessMetrics();
+        } finally {
+            timings.recordSince(Stage.SOURCE_PROCESS, start);
+        }
+    }
+
+    @Override
+    public CpuHardwareInformation getCpuHardwareInformation() {
+        long start = System.nanoTime();
+        try {
+            return source.getCpuHardwareInformation();
+        } finally {
+            timings.recordSince(Stage.SOURCE_HARDWARE, start);
+        }
+    }
+
+    @Override
+    public MemoryHardwareInformation getMemoryHardwareInformation() {
+        long start = System.nanoTime();
+        try {
+            return source.getMemoryHardwareInformation();
+        } finally {
+            timings.recordSince(Stage.SOURCE_HARDWARE, start);
+        }
+    }
+
+    @Override
+    public java.util.List<DiskHardwareInformation> getDiskHardwareInformation() {
+        long start = System.nanoTime();
+        try {
+            return source.getDiskHardwareInformation();
+        } finally {
+            timings.recordSince(Stage.SOURCE_HARDWARE, start);
+        }
+    }
+
+    @Override
+    public java.util.List<NicHardwareInformation> getNicHardwareInformation() {
+        long start = System.nanoTime();
+        try {
+            return source.getNicHardwareInformation();
+        } finally {
+            timings.recordSince(Stage.SOURCE_HARDWARE, start);
+        }
+    }
+
+    @Override
+    public Timestamp getLastCollectionTime() {
+        return source.getLastCollectionTime();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return source.isOpen();
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+}
@@ -2,12 +2,14 @@ package com.gibbonsdimarco.yamec.app.repository;
 
 import com.gibbonsdimarco.yamec.app.data.Application;
 import com.gibbonsdimarco.yamec.app.data.ApplicationMetric;
+import com.gibbonsdimarco.yamec.app.data.MetricKey;
 import com.gibbonsdimarco.yamec.app.data.SystemDiskMetric;
 import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.sql.Timestamp;
@@ -18,7 +20,7 @@ import java.util.UUID;
  * Repository interface for ApplicationMetric entities
  */
 @Repository
-public interface ApplicationMetricRepository extends JpaRepository<ApplicationMetric, UUID> {
+public interface ApplicationMetricRepository extends JpaRepository<ApplicationMetric, MetricKey> {
     // Add custom query methods if needed
 
     List<ApplicationMetric> findByApplication(Application application);
@@ -43,4 +45,17 @@ public interface ApplicationMetricRepository extends JpaRepository<ApplicationMe
                                                                         Timestamp timestampBefore,
                                                                         UUID applicationId,
                                                                         Pageable pageable);
-}
\ No newline at end of file
+
+    /**
+     * Returns the metrics of a granularity level with a timestamp from <code>start</code>
+     * (inclusive) to <code>end</code> (exclusive), oldest first. Metrics without a granularity
+     * level are HIGH granularity metrics.
+     */
+    @Query("select a from ApplicationMetric a where a.timestamp >= :start and a.timestamp < :end " +
+            "and (a.granularityId in (select g.id from Granularity g where g.label = :granularityLabel) " +
+            "or (a.granularityId is null and :granularityLabel = 'HIGH')) " +
+            "order by a.timestamp")
+    List<ApplicationMetric> findAllInRangeByGranularity(@Param("start") Timestamp start,
+                                                        @Param("end") Timestamp end,
+                                                        @Param("granularityLabel") String granularityLabel);
+}
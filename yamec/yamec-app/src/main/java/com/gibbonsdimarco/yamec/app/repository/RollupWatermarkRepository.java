@@ -0,0 +1,17 @@
+package com.gibbonsdimarco.yamec.app.repository;
+
+import com.gibbonsdimarco.yamec.app.data.RollupWatermark;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.UUID;
+
+/**
+ * Repository interface for RollupWatermark entities
+ */
+@Repository
+public interface RollupWatermarkRepository extends JpaRepository<RollupWatermark, UUID> {
+
+    RollupWatermark findByGranularityId(UUID granularityId);
+
+}
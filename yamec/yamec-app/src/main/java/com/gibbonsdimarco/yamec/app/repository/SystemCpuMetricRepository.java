@@ -1,5 +1,6 @@
 package com.gibbonsdimarco.yamec.app.repository;
 
+import com.gibbonsdimarco.yamec.app.data.MetricKey;
 import com.gibbonsdimarco.yamec.app.data.SystemCpuMetric;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -15,7 +16,7 @@ import java.util.UUID;
  * Repository interface for SystemCpuMetric entities
  */
 @Repository
-public interface SystemCpuMetricRepository extends JpaRepository<SystemCpuMetric, UUID> {
+public interface SystemCpuMetricRepository extends JpaRepository<SystemCpuMetric, MetricKey> {
     // Add custom query methods if needed
     java.util.List<SystemCpuMetric> getAllByCpuId(UUID cpuId);
 
@@ -55,5 +56,15 @@ public interface SystemCpuMetricRepository extends JpaRepository<SystemCpuMetric
                                                              UUID cpuId,
                                                              Pageable pageable);
 
+    /**
+     * Returns the metrics of a granularity level with a timestamp from <code>start</code>
+     * (inclusive) to <code>end</code> (exclusive), oldest first
+     */
+    @Query("select s from SystemCpuMetric s where s.timestamp >= :start and s.timestamp < :end " +
+            "and s.granularityId in (select g.id from Granularity g where g.label = :granularityLabel) " +
+            "order by s.timestamp")
+    List<SystemCpuMetric> findAllInRangeByGranularity(@Param("start") Timestamp start,
+                                                      @Param("end") Timestamp end,
+                                                      @Param("granularityLabel") String granularityLabel);
 
-} 
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package com.gibbonsdimarco.yamec.app.repository;
 
+import com.gibbonsdimarco.yamec.app.data.MetricKey;
 import com.gibbonsdimarco.yamec.app.data.SystemDiskMetric;
 import com.gibbonsdimarco.yamec.app.data.SystemNicMetric;
 import org.springframework.data.domain.Pageable;
@@ -17,7 +18,7 @@ import java.util.UUID;
  * Repository interface for SystemDiskMetric entities
  */
 @Repository
-public interface SystemDiskMetricRepository extends JpaRepository<SystemDiskMetric, UUID> {
+public interface SystemDiskMetricRepository extends JpaRepository<SystemDiskMetric, MetricKey> {
     // Add custom query methods if needed
 
     java.util.List<SystemDiskMetric> getAllByDiskId(UUID diskId);
@@ -54,6 +55,15 @@ public interface SystemDiskMetricRepository extends JpaRepository<SystemDiskMetr
                                                                 UUID diskId,
                                                                 Pageable pageable);
 
-
-
-} 
\ No newline at end of file
+    /**
+     * Returns the metrics of a granularity level with a timestamp from <code>start</code>
+     * (inclusive) to <code>end</code> (exclusive), oldest first
+     */
+    @Query("select s from SystemDiskMetric s where s.timestamp >= :start and s.timestamp < :end " +
+            "and s.granularityId in (select g.id from Granularity g where g.label = :granularityLabel) " +
+            "order by s.timestamp")
+    List<SystemDiskMetric> findAllInRangeByGranularity(@Param("start") Timestamp start,
+                                                       @Param("end") Timestamp end,
+                                                       @Param("granularityLabel") String granularityLabel);
+
+}
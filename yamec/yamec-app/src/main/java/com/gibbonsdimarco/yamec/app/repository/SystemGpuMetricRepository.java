@@ -1,15 +1,14 @@
 package com.gibbonsdimarco.yamec.app.repository;
 
+import com.gibbonsdimarco.yamec.app.data.MetricKey;
 import com.gibbonsdimarco.yamec.app.data.SystemGpuMetric;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
-import java.util.UUID;
-
 /**
  * Repository interface for SystemGpuMetric entities
  */
 @Repository
-public interface SystemGpuMetricRepository extends JpaRepository<SystemGpuMetric, UUID> {
+public interface SystemGpuMetricRepository extends JpaRepository<SystemGpuMetric, MetricKey> {
     // Add custom query methods if needed
 } 
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.gibbonsdimarco.yamec.app.repository;
 
+import com.gibbonsdimarco.yamec.app.data.MetricKey;
 import com.gibbonsdimarco.yamec.app.data.SystemMemoryMetric;
 import com.gibbonsdimarco.yamec.app.data.SystemNicMetric;
 import org.springframework.data.domain.Pageable;
@@ -16,7 +17,7 @@ import java.util.UUID;
  * Repository interface for SystemMemoryMetric entities
  */
 @Repository
-public interface SystemMemoryMetricRepository extends JpaRepository<SystemMemoryMetric, UUID> {
+public interface SystemMemoryMetricRepository extends JpaRepository<SystemMemoryMetric, MetricKey> {
     // Add custom query methods if needed
 
     java.util.List<SystemMemoryMetric> getAllByMemoryId(UUID memoryId);
@@ -48,5 +49,15 @@ public interface SystemMemoryMetricRepository extends JpaRepository<SystemMemory
                                                                    UUID memoryId,
                                                                    Pageable pageable);
 
-
-} 
\ No newline at end of file
+    /**
+     * Returns the metrics of a granularity level with a timestamp from <code>start</code>
+     * (inclusive) to <code>end</code> (exclusive), oldest first
+     */
+    @Query("select s from SystemMemoryMetric s where s.timestamp >= :start and s.timestamp < :end " +
+            "and s.granularityId in (select g.id from Granularity g where g.label = :granularityLabel) " +
+            "order by s.timestamp")
+    List<SystemMemoryMetric> findAllInRangeByGranularity(@Param("start") Timestamp start,
+                                                         @Param("end") Timestamp end,
+                                                         @Param("granularityLabel") String granularityLabel);
+
+}
@@ -1,5 +1,6 @@
 package com.gibbonsdimarco.yamec.app.repository;
 
+import com.gibbonsdimarco.yamec.app.data.MetricKey;
 import com.gibbonsdimarco.yamec.app.data.SystemDiskMetric;
 import com.gibbonsdimarco.yamec.app.data.SystemMemoryMetric;
 import com.gibbonsdimarco.yamec.app.data.SystemNicMetric;
@@ -17,7 +18,7 @@ import java.util.UUID;
  * Repository interface for SystemNicMetric entities
  */
 @Repository
-public interface SystemNicMetricRepository extends JpaRepository<SystemNicMetric, UUID> {
+public interface SystemNicMetricRepository extends JpaRepository<SystemNicMetric, MetricKey> {
     // Add custom query methods if needed
 
 
@@ -55,6 +56,15 @@ public interface SystemNicMetricRepository extends JpaRepository<SystemNicMetric
                                                              UUID nicId,
                                                              Pageable pageable);
 
-
-
-} 
\ No newline at end of file
+    /**
+     * Returns the metrics of a granularity level with a timestamp from <code>start</code>
+     * (inclusive) to <code>end</code> (exclusive), oldest first
+     */
+    @Query("select s from SystemNicMetric s where s.timestamp >= :start and s.timestamp < :end " +
+            "and s.granularityId in (select g.id from Granularity g where g.label = :granularityLabel) " +
+            "order by s.timestamp")
+    List<SystemNicMetric> findAllInRangeByGranularity(@Param("start") Timestamp start,
+                                                      @Param("end") Timestamp end,
+                                                      @Param("granularityLabel") String granularityLabel);
+
+}
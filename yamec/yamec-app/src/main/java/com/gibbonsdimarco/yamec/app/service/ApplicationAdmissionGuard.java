@@ -0,0 +1,163 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.model.ApplicationAdmissionStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Decides which process names get their own Application, so short-lived processes with unique
+ * names (such as the compilers and test runners of a build server) do not each add an
+ * Application record and a series of ApplicationMetric records.</p>
+ * <p>A name is admitted once one of its processes uses at least
+ * <code>yamec.applications.admission.cpu-threshold</code> percent of the CPU or
+ * <code>yamec.applications.admission.memory-threshold</code> bytes of physical memory, or once it
+ * has been seen for <code>yamec.applications.admission.lifetime-seconds</code>. Names which
+ * already have an Application are always admitted. Until then, the processes of the name are
+ * folded into the <code>yamec.applications.admission.other-name</code> Application, which
+ * therefore holds the total use of every process not admitted.</p>
+ * <p>Names waiting to be admitted are forgotten once they have not been seen for the lifetime
+ * threshold, and at most <code>yamec.applications.admission.max-pending</code> are tracked. Names
+ * seen while that many are pending are folded without being tracked.</p>
+ * <p>Admitted names are found in the ApplicationNameCache once their Application is committed.
+ * Until then, and for names which do not fit in that cache, the names admitted most recently are
+ * also remembered here, up to <code>yamec.applications.admission.max-admitted</code> of them. A
+ * name which is forgotten (and has no cached Application) has to be admitted again.</p>
+ */
+@Service
+public class ApplicationAdmissionGuard {
+    private static final Logger logger = LoggerFactory.getLogger(ApplicationAdmissionGuard.class);
+
+    private final ApplicationNameCache applicationNameCache;
+    private final boolean enabled;
+    private final double cpuThreshold;
+    private final long memoryThreshold;
+    private final long lifetimeMillis;
+    private final int maxPending;
+    private final String otherName;
+
+    // The names admitted most recently, in the order they were last seen; names admitted before
+    // startup are in the ApplicationNameCache
+    private final java.util.LinkedHashMap<String, Boolean> admitted;
+    // Names waiting to be admitted, with the times they were first and last seen
+    private final java.util.HashMap<String, long[]> pending = new java.util.HashMap<>();
+    private long lastSweepMillis = Long.MIN_VALUE;
+
+    private final LongAdder admittedNames = new LongAdder();
+    private final LongAdder foldedNames = new LongAdder();
+    private final LongAdder foldedSamples = new LongAdder();
+    private final LongAdder untrackedSamples = new LongAdder();
+    private volatile boolean fullWarningLogged = false;
+
+    @Autowired
+    public ApplicationAdmissionGuard(ApplicationNameCache applicationNameCache,
+                                     @Value("${yamec.applications.admission.enabled:true}") boolean enabled,
+                                     @Value("${yamec.applications.admission.cpu-threshold:1.0}") double cpuThreshold,
+                                     @Value("${yamec.applications.admission.memory-threshold:67108864}") long memoryThreshold,
+                                     @Value("${yamec.applications.admission.lifetime-seconds:30}") int lifetimeSeconds,
+                                     @Value("${yamec.applications.admission.max-pending:4096}") int maxPending,
+                                     @Value("${yamec.applications.admission.max-admitted:4096}") int maxAdmitted,
+                                     @Value("${yamec.applications.admission.other-name:[other]}") String otherName) {
+        if (lifetimeSeconds < 1) {
+            throw new IllegalArgumentException("lifetime-seconds must be greater than 0");
+        }
+
+        this.applicationNameCache = applicationNameCache;
+        this.enabled = enabled;
+        this.cpuThreshold = cpuThreshold;
+        this.memoryThreshold = memoryThreshold;
+        this.lifetimeMillis = lifetimeSeconds * 1000L;
+        this.maxPending = maxPending;
+        this.otherName = otherName;
+        this.admitted = new java.util.LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<String, Boolean> eldest) {
+                return size() > maxAdmitted;
+            }
+        };
+    }
+
+    /**
+     * Returns the name of the Application a process should be recorded under
+     *
+     * @param processName The name of the process
+     * @param cpuUsage The percentage of the CPU used by the process
+     * @param physicalMemoryUsed The bytes of physical memory used by the process
+     * @param timeMillis The time the process was seen, in milliseconds since the epoch
+     * @return The process name if it is admitted; otherwise, the name of the Application which
+     *         the processes not admitted are folded into
+     */
+    public String admit(String processName, double cpuUsage, long physicalMemoryUsed, long timeMillis) {
+        if (!enabled || processName.equals(otherName) || applicationNameCache.isCached(processName)) {
+            return processName;
+        }
+
+        synchronized (pending) {
+            if (admitted.get(processName) != null) {
+                return processName;
+            }
+
+            if (lastSweepMillis == Long.MIN_VALUE || timeMillis - lastSweepMillis >= lifetimeMillis) {
+                sweep(timeMillis);
+            }
+
+            long[] seen = pending.get(processName);
+            if (seen == null) {
+                if (pending.size() >= maxPending) {
+                    if (!fullWarningLogged) {
+                        fullWarningLogged = true;
+                        logger.warn("{} process names are waiting to be admitted - new names will be folded into {} without being tracked",
+                                maxPending, otherName);
+                    }
+                    untrackedSamples.increment();
+                    foldedSamples.increment();
+                    return otherName;
+                }
+                seen = new long[] {timeMillis, timeMillis};
+                pending.put(processName, seen);
+            }
+            seen[1] = Math.max(seen[1], timeMillis);
+
+            if (cpuUsage >= cpuThreshold || physicalMemoryUsed >= memoryThreshold
+                    || seen[1] - seen[0] >= lifetimeMillis) {
+                pending.remove(processName);
+                admitted.put(processName, Boolean.TRUE);
+                admittedNames.increment();
+                return processName;
+            }
+        }
+
+        foldedSamples.increment();
+        return otherName;
+    }
+
+    /**
+     * Forgets the pending names which have not been seen for the lifetime threshold, as their
+     * processes have ended without being admitted
+     */
+    private void sweep(long nowMillis) {
+        lastSweepMillis = nowMillis;
+        int before = pending.size();
+        pending.values().removeIf(seen -> nowMillis - seen[1] >= lifetimeMillis);
+        foldedNames.add(before - pending.size());
+    }
+
+    public ApplicationAdmissionStatistics getStatistics() {
+        int pendingNames;
+        synchronized (pending) {
+            pendingNames = pending.size();
+        }
+        return new ApplicationAdmissionStatistics(enabled,
+                                                  otherName,
+                                                  admittedNames.sum(),
+                                                  foldedNames.sum(),
+                                                  pendingNames,
+                                                  maxPending,
+                                                  foldedSamples.sum(),
+                                                  untrackedSamples.sum());
+    }
+}
@@ -22,12 +22,27 @@ public class ApplicationDataService {
 
     ApplicationRepository applicationRepository;
     ApplicationMetricRepository applicationMetricRepository;
+    ApplicationNameCache applicationNameCache;
+    ApplicationAdmissionGuard applicationAdmissionGuard;
+    GranularityIdCache granularityIdCache;
+    MetricTierSelector metricTierSelector;
+    RawMetricReader rawMetricReader;
 
     @Autowired
     public ApplicationDataService(ApplicationRepository applicationRepository,
-                                  ApplicationMetricRepository applicationMetricRepository) {
+                                  ApplicationMetricRepository applicationMetricRepository,
+                                  ApplicationNameCache applicationNameCache,
+                                  ApplicationAdmissionGuard applicationAdmissionGuard,
+                                  GranularityIdCache granularityIdCache,
+                                  MetricTierSelector metricTierSelector,
+                                  RawMetricReader rawMetricReader) {
         this.applicationRepository = applicationRepository;
         this.applicationMetricRepository = applicationMetricRepository;
+        this.applicationNameCache = applicationNameCache;
+        this.applicationAdmissionGuard = applicationAdmissionGuard;
+        this.granularityIdCache = granularityIdCache;
+        this.metricTierSelector = metricTierSelector;
+        this.rawMetricReader = rawMetricReader;
     }
 
     /**
@@ -53,6 +68,31 @@ public class ApplicationDataService {
                                                                     java.sql.Timestamp startTime,
                                                                     int duration) {
 
+        // Commit Application Metrics and return entities with the committed IDs
+        return applicationMetricRepository.saveAllAndFlush(
+                buildApplicationMetrics(processMetrics, startTime, duration));
+
+    }
+
+    /**
+     * <p>Creates the <code>ApplicationMetric</code> entities for the process metrics passed by
+     * parameter without saving them, so they can be saved together with other metrics in one
+     * transaction. Applications which are not in the database yet are still added to it by the
+     * ApplicationNameCache, in the caller's transaction if there is one.</p>
+     *
+     * <p>Processes whose names are not admitted by the ApplicationAdmissionGuard are combined into
+     * the metric of the Application for processes not admitted.</p>
+     *
+     * @param processMetrics The list of <code>ProcessMetric</code> objects to aggregate
+     * @param startTime The starting timestamp of the process metrics collected
+     * @param duration The number of seconds which the process metrics were collected for
+     * @return The list of <code>ApplicationMetric</code> entities to save
+     * @see #saveApplicationMetrics(java.util.List, Timestamp, int)
+     */
+    public java.util.List<ApplicationMetric> buildApplicationMetrics(java.util.List<ProcessMetric> processMetrics,
+                                                                     java.sql.Timestamp startTime,
+                                                                     int duration) {
+
         if (duration <= 0) {
             throw new IllegalArgumentException("duration must be greater than 0");
         }
@@ -66,46 +106,67 @@ public class ApplicationDataService {
         // Associates Application IDs with process metrics
         java.util.HashMap<UUID, java.util.ArrayList<ProcessMetric>> applicationNameProcessMetrics =
                 new java.util.HashMap<>();
+        java.util.HashMap<UUID, String> applicationNames = new java.util.HashMap<>();
 
         long startTimeAsLong = startTime.getTime();
 
+        UUID granularityId = granularityIdCache.getId("HIGH");
+
         for (ProcessMetric activeProcess : processMetrics) {
-            // Check if the application exists in the DB
-            Application application = applicationRepository.findByApplicationName(activeProcess.getProcessName());
-
-            // Add process names (Application executables) to Application repository
-            // while returning the respective application for grouping if it does not
-            if (application == null) {
-                application = new Application(activeProcess.getProcessName());
-//                newApplications.add(application);
-                application = applicationRepository.saveAndFlush(application);
-            }
+            // Short-lived processes are recorded under one Application until their name is admitted
+            String applicationName = applicationAdmissionGuard.admit(activeProcess.getProcessName(),
+                    activeProcess.getCpuUsage(), activeProcess.getPhysicalMemoryUsage(),
+                    activeProcess.getTimestamp() == null ? startTimeAsLong : activeProcess.getTimestamp().getTime());
+
+            // Get the ID of the application from the cache, which adds process names
+            // (Application executables) to the Application repository if they are new
+            UUID applicationId = applicationNameCache.getApplicationId(applicationName);
 
             // Add processes which have an application associated with them to the appropriate
             // Application map
-            if (!applicationNameProcessMetrics.containsKey(application.getId())) {
-                    applicationNameProcessMetrics.put(application.getId(), new java.util.ArrayList<>());
+            if (!applicationNameProcessMetrics.containsKey(applicationId)) {
+                    applicationNameProcessMetrics.put(applicationId, new java.util.ArrayList<>());
+                    applicationNames.put(applicationId, applicationName);
             }
 
-            applicationNameProcessMetrics.get(application.getId()).add(activeProcess);
+            applicationNameProcessMetrics.get(applicationId).add(activeProcess);
 
         }
 
 //        newApplications = applicationRepository.saveAllAndFlush(newApplications);
 
+        // Statistics of the total resource use of an application per second, reused for each application
+        RunningStatistics cpuUsage = new RunningStatistics();
+        RunningStatistics physicalMemoryUsed = new RunningStatistics();
+        RunningStatistics virtualMemoryUsed = new RunningStatistics();
+
         // Create ApplicationMetrics based on information from all processes for each application
         for (UUID applicationId : applicationNameProcessMetrics.keySet()) {
 
-            // Sum the number of processes and metrics per second
-//            long[] numProcessesPerSecond = new long[duration];
-            double[] totalCpuUsagePerSecond = new double[duration];
-            long[] totalPhysicalMemoryUsedPerSecond = new long[duration];
-            long[] totalVirtualMemoryUsedPerSecond = new long[duration];
+            java.util.List<ProcessMetric> applicationProcesses = applicationNameProcessMetrics.get(applicationId);
+
+            // Processes are listed in the order they were collected, so this rarely moves anything,
+            // but the totals per second below need the processes of each second to be together
+            applicationProcesses.sort(java.util.Comparator.comparing(ProcessMetric::getTimestamp,
+                    java.util.Comparator.nullsFirst(java.util.Comparator.naturalOrder())));
+
+            cpuUsage.reset();
+            physicalMemoryUsed.reset();
+            virtualMemoryUsed.reset();
 
+            // Metrics of one second hold a single value, so only longer metrics keep a sketch of their values
+            QuantileSketch cpuUsageSketch = duration > 1 ? new QuantileSketch() : null;
+            QuantileSketch physicalMemoryUsedSketch = duration > 1 ? new QuantileSketch() : null;
+
+            // Totals of the second currently being summed
+            int currentSecond = -1;
+            double secondCpuUsage = 0;
+            long secondPhysicalMemoryUsed = 0;
+            long secondVirtualMemoryUsed = 0;
 
             // Go through all processes related to this application and get the total resource use
             // by the application per second
-            for (ProcessMetric activeProcess : applicationNameProcessMetrics.get(applicationId)) {
+            for (ProcessMetric activeProcess : applicationProcesses) {
                 // Get all metrics for just this process
                 double processCpuUsage = activeProcess.getCpuUsage();
                 long processPhysicalMemoryUsed = activeProcess.getPhysicalMemoryUsage();
@@ -128,104 +189,199 @@ public class ApplicationDataService {
                 // Used to map process data to the second number of the data
                 int secondsSinceStartTime = (int)((timestampAsLong - startTimeAsLong)/1000);
 
-                // TODO: Remove debug messages for release
-//                LoggerFactory.getLogger(ApplicationDataService.class)
-//                            .debug("Start Time: {} - Duration: {} vs Timestamp: {}",
-//                            startTimeAsLong/1000, duration, secondsSinceStartTime);
-
                 // Fail-safe if a record outside the duration is included
-                if (secondsSinceStartTime > duration - 1) {
+                if (secondsSinceStartTime < 0 || secondsSinceStartTime > duration - 1) {
                     continue;
                 }
 
-                // Add to running totals per second
-                totalCpuUsagePerSecond[secondsSinceStartTime] += processCpuUsage;
-                totalPhysicalMemoryUsedPerSecond[secondsSinceStartTime] += processPhysicalMemoryUsed;
-                totalVirtualMemoryUsedPerSecond[secondsSinceStartTime] += processVirtualMemoryUsed;
-//                numProcessesPerSecond[secondsSinceStartTime]++;
-            }
-
-            // Data containers for metrics
-            double averageCpuUsage = 0;
-            long averagePhysicalMemoryUsed = 0;
-            long averageVirtualMemoryUsed = 0;
-
-            double maxCpuUsage = Double.MIN_VALUE;
-            long maxPhysicalMemoryUsed = Long.MIN_VALUE;
-            long maxVirtualMemoryUsed = Long.MIN_VALUE;
-
-            double minCpuUsage = Double.MAX_VALUE;
-            long minPhysicalMemoryUsed = Long.MAX_VALUE;
-            long minVirtualMemoryUsed = Long.MAX_VALUE;
-
-            for (int secondNum = 0; secondNum < duration; secondNum++) {
-
-                // Sum total usages for all valid processes and applications
-                averageCpuUsage += totalCpuUsagePerSecond[secondNum];
-                averagePhysicalMemoryUsed += totalPhysicalMemoryUsedPerSecond[secondNum];
-                averageVirtualMemoryUsed += totalVirtualMemoryUsedPerSecond[secondNum];
-
-
-                if (secondNum == 0) {
-                    // Set initial values for all the maximums and minimums at second 0
-                    maxCpuUsage = minCpuUsage = totalCpuUsagePerSecond[secondNum];
-                    maxPhysicalMemoryUsed = minPhysicalMemoryUsed = totalPhysicalMemoryUsedPerSecond[secondNum];
-                    maxVirtualMemoryUsed = minVirtualMemoryUsed = totalVirtualMemoryUsedPerSecond[secondNum];
-                } else {
-                    // Set the maximums and minimums of each metric as they are identified
-                    if (totalCpuUsagePerSecond[secondNum] > maxCpuUsage) {
-                        maxCpuUsage = totalCpuUsagePerSecond[secondNum];
-                    } else if (totalCpuUsagePerSecond[secondNum] < minCpuUsage) {
-                        minCpuUsage = totalCpuUsagePerSecond[secondNum];
-                    }
-
-                    if (totalPhysicalMemoryUsedPerSecond[secondNum] > maxPhysicalMemoryUsed) {
-                        maxPhysicalMemoryUsed = totalPhysicalMemoryUsedPerSecond[secondNum];
-                    } else if (totalPhysicalMemoryUsedPerSecond[secondNum] < minPhysicalMemoryUsed) {
-                        minPhysicalMemoryUsed = totalPhysicalMemoryUsedPerSecond[secondNum];
+                // Once all processes of a second are summed, add the totals to the statistics
+                if (secondsSinceStartTime != currentSecond) {
+                    if (currentSecond >= 0) {
+                        cpuUsage.add(secondCpuUsage);
+                        physicalMemoryUsed.add(secondPhysicalMemoryUsed);
+                        virtualMemoryUsed.add(secondVirtualMemoryUsed);
+                        if (cpuUsageSketch != null) {
+                            cpuUsageSketch.add(secondCpuUsage);
+                            physicalMemoryUsedSketch.add(secondPhysicalMemoryUsed);
+                        }
                     }
+                    currentSecond = secondsSinceStartTime;
+                    secondCpuUsage = 0;
+                    secondPhysicalMemoryUsed = 0;
+                    secondVirtualMemoryUsed = 0;
+                }
 
-                    if (totalVirtualMemoryUsedPerSecond[secondNum] > maxVirtualMemoryUsed) {
-                        maxVirtualMemoryUsed = totalVirtualMemoryUsedPerSecond[secondNum];
-                    } else if (totalVirtualMemoryUsedPerSecond[secondNum] < minVirtualMemoryUsed) {
-                        minVirtualMemoryUsed = totalVirtualMemoryUsedPerSecond[secondNum];
-                    }
+                // Add to running totals of the second
+                secondCpuUsage += processCpuUsage;
+                secondPhysicalMemoryUsed += processPhysicalMemoryUsed;
+                secondVirtualMemoryUsed += processVirtualMemoryUsed;
+            }
 
+            if (currentSecond >= 0) {
+                cpuUsage.add(secondCpuUsage);
+                physicalMemoryUsed.add(secondPhysicalMemoryUsed);
+                virtualMemoryUsed.add(secondVirtualMemoryUsed);
+                if (cpuUsageSketch != null) {
+                    cpuUsageSketch.add(secondCpuUsage);
+                    physicalMemoryUsedSketch.add(secondPhysicalMemoryUsed);
                 }
+            }
 
+            // The application used no resources in the seconds without data, so they count as 0
+            // in the averages, maximums and minimums over the duration
+            long secondsWithoutData = duration - cpuUsage.getCount();
+            cpuUsage.addRepeated(0, secondsWithoutData);
+            physicalMemoryUsed.addRepeated(0, secondsWithoutData);
+            virtualMemoryUsed.addRepeated(0, secondsWithoutData);
+            if (cpuUsageSketch != null) {
+                cpuUsageSketch.add(0, secondsWithoutData);
+                physicalMemoryUsedSketch.add(0, secondsWithoutData);
             }
 
-            // Take average of each metric based on the duration
-            averageCpuUsage /= duration;
-            averagePhysicalMemoryUsed /= duration;
-            averageVirtualMemoryUsed /= duration;
+            double averageCpuUsage = cpuUsage.getMean();
+            long averagePhysicalMemoryUsed = (long) physicalMemoryUsed.getMean();
+            long averageVirtualMemoryUsed = (long) virtualMemoryUsed.getMean();
+
+            double maxCpuUsage = cpuUsage.getMax();
+            long maxPhysicalMemoryUsed = (long) physicalMemoryUsed.getMax();
+            long maxVirtualMemoryUsed = (long) virtualMemoryUsed.getMax();
+
+            double minCpuUsage = cpuUsage.getMin();
+            long minPhysicalMemoryUsed = (long) physicalMemoryUsed.getMin();
+            long minVirtualMemoryUsed = (long) virtualMemoryUsed.getMin();
 
             if (LoggerFactory.getLogger(ApplicationDataService.class).isDebugEnabled()) {
                 LoggerFactory.getLogger(ApplicationDataService.class).debug("Process {} - Average CPU Usage: {}",
-                        applicationRepository.getReferenceById(applicationId).getApplicationName(), averageCpuUsage);
+                        applicationNames.get(applicationId), averageCpuUsage);
             }
 
             // Create Metric object
-            applicationMetrics.add(new ApplicationMetric(applicationRepository.getReferenceById(applicationId),
-                                                            startTime, duration,
-                                                            averageCpuUsage,
-                                                            averagePhysicalMemoryUsed,
-                                                            averageVirtualMemoryUsed,
-                                                            maxCpuUsage,
-                                                            maxPhysicalMemoryUsed,
-                                                            maxVirtualMemoryUsed,
-                                                            minCpuUsage,
-                                                            minPhysicalMemoryUsed,
-                                                            minVirtualMemoryUsed));
+            ApplicationMetric applicationMetric
+                    = new ApplicationMetric(applicationRepository.getReferenceById(applicationId),
+                                            startTime, duration,
+                                            averageCpuUsage,
+                                            averagePhysicalMemoryUsed,
+                                            averageVirtualMemoryUsed,
+                                            maxCpuUsage,
+                                            maxPhysicalMemoryUsed,
+                                            maxVirtualMemoryUsed,
+                                            minCpuUsage,
+                                            minPhysicalMemoryUsed,
+                                            minVirtualMemoryUsed);
+            applicationMetric.setGranularityId(granularityId);
+            applicationMetric.setApplicationName(applicationNames.get(applicationId));
+            if (cpuUsageSketch != null) {
+                applicationMetric.setCpuUsageSketch(cpuUsageSketch.toBytes());
+                applicationMetric.setPhysicalMemoryUsedSketch(physicalMemoryUsedSketch.toBytes());
+            }
+
+            applicationMetrics.add(applicationMetric);
 
 
         }
 
-        // Commit Application Metrics and return entities with the committed IDs
-        return applicationMetricRepository.saveAllAndFlush(applicationMetrics);
+        return applicationMetrics;
 
     }
 
+    /**
+     * <p>Combines the <code>ApplicationMetric</code> entities passed by parameter into one
+     * <code>ApplicationMetric</code> per application covering the timespan expressed by the
+     * <code>startTime</code> and <code>duration</code> parameters, without saving them.</p>
+     *
+     * <p>As with the system metrics, the average of each metric is the average of the seconds
+     * which have a metric, and the maximums and minimums are the maximums and minimums of all of
+     * the metrics combined. Metrics outside the timespan are ignored.</p>
+     *
+     * @param applicationMetrics The one second <code>ApplicationMetric</code> objects to combine
+     * @param startTime The starting timestamp of the timespan
+     * @param duration The number of seconds in the timespan
+     * @param granularityLabel The label of the granularity level of the combined metrics
+     * @return The combined <code>ApplicationMetric</code> entities, or null if there are none
+     * @implNote Each metric combined is assumed to cover one second
+     */
+    public java.util.List<ApplicationMetric> aggregateApplicationMetrics(java.util.List<ApplicationMetric> applicationMetrics,
+                                                                         java.sql.Timestamp startTime,
+                                                                         int duration,
+                                                                         String granularityLabel) {
+
+        // Error handling/edge cases in case this function is improperly called
+        if (duration < 1) {
+            throw new IllegalArgumentException("Duration must be greater than 0");
+        }
+
+        if (applicationMetrics == null || applicationMetrics.isEmpty()) {
+            return null;
+        }
+
+        long startTimeAsLong = startTime.getTime();
+
+        // Fields of the metrics in the aggregator
+        final int cpuUsage = 0;
+        final int physicalMemoryUsed = 0, virtualMemoryUsed = 1;
+
+        MetricAggregator<UUID> aggregator = new MetricAggregator<>(1, 2, 0, 2);
+        // Metrics of one second hold a single value, so only longer metrics keep a sketch of their values
+        final boolean sketched = duration > 1;
+        final int cpuUsageSketch = 0, physicalMemoryUsedSketch = 1;
+
+        for (ApplicationMetric currentMetric : applicationMetrics) {
+
+            // Fail-safe in case a metric is not assigned an Application (can't properly group the metrics)
+            // or a timestamp (Can't accurately get metrics from it)
+            if (currentMetric.getApplication() == null || currentMetric.getTimestamp() == null) {
+                continue;
+            }
+
+            // Fail-safe if a record outside the duration is included
+            if (!MetricAggregator.isInTimespan(currentMetric.getTimestamp(), startTimeAsLong, duration)) {
+                continue;
+            }
+
+            int slot = aggregator.slot(currentMetric.getApplication().getId());
+            aggregator.countMetric(slot);
+
+            aggregator.recordDouble(slot, cpuUsage, currentMetric.getAvgCpuUsage(),
+                    currentMetric.getMaxCpuUsage(), currentMetric.getMinCpuUsage());
+            aggregator.recordLong(slot, physicalMemoryUsed, currentMetric.getAvgPhysicalMemoryUsed(),
+                    currentMetric.getMaxPhysicalMemoryUsed(), currentMetric.getMinPhysicalMemoryUsed());
+            aggregator.recordLong(slot, virtualMemoryUsed, currentMetric.getAvgVirtualMemoryUsed(),
+                    currentMetric.getMaxVirtualMemoryUsed(), currentMetric.getMinVirtualMemoryUsed());
+
+            if (sketched) {
+                aggregator.recordSketch(slot, cpuUsageSketch, currentMetric.getAvgCpuUsage(),
+                        currentMetric.getCpuUsageSketch());
+                aggregator.recordSketch(slot, physicalMemoryUsedSketch, currentMetric.getAvgPhysicalMemoryUsed(),
+                        currentMetric.getPhysicalMemoryUsedSketch());
+            }
+        }
+
+        UUID granularityId = granularityIdCache.getId(granularityLabel);
+        java.util.List<ApplicationMetric> metricsToRecord = new java.util.ArrayList<>(aggregator.size());
+
+        for (int slot = 0; slot < aggregator.size(); slot++) {
+            ApplicationMetric applicationMetric
+                    = new ApplicationMetric(applicationRepository.getReferenceById(aggregator.key(slot)),
+                                            startTime, duration,
+                                            aggregator.doubleAverage(slot, cpuUsage),
+                                            aggregator.longAverage(slot, physicalMemoryUsed),
+                                            aggregator.longAverage(slot, virtualMemoryUsed),
+                                            aggregator.doubleMaximum(slot, cpuUsage),
+                                            aggregator.longMaximum(slot, physicalMemoryUsed),
+                                            aggregator.longMaximum(slot, virtualMemoryUsed),
+                                            aggregator.doubleMinimum(slot, cpuUsage),
+                                            aggregator.longMinimum(slot, physicalMemoryUsed),
+                                            aggregator.longMinimum(slot, virtualMemoryUsed));
+            applicationMetric.setGranularityId(granularityId);
+            applicationMetric.setCpuUsageSketch(aggregator.sketchBytes(slot, cpuUsageSketch));
+            applicationMetric.setPhysicalMemoryUsedSketch(aggregator.sketchBytes(slot, physicalMemoryUsedSketch));
+
+            metricsToRecord.add(applicationMetric);
+        }
+
+        return metricsToRecord;
+    }
+
     public java.util.List<Application> getAllApplications() {
         return applicationRepository.findAll();
     }
@@ -251,6 +407,32 @@ public class ApplicationDataService {
                 org.springframework.data.domain.PageRequest.of(pageNumber, 100));
     }
 
+    /**
+     * Returns the application metrics from <code>start</code> to <code>end</code>, oldest first,
+     * read from the coarsest granularity level which still has the resolution requested
+     *
+     * @param start The start of the range (inclusive)
+     * @param end The end of the range (exclusive)
+     * @param resolution The number of seconds between the metrics the caller needs
+     * @return The application metrics in the range
+     * @see MetricTierSelector#selectTiers(Timestamp, Timestamp, int)
+     */
+    public java.util.List<ApplicationMetric> getApplicationMetrics(Timestamp start, Timestamp end, int resolution) {
+        java.util.List<ApplicationMetric> metrics = new java.util.ArrayList<>();
+
+        for (MetricTierSelector.TierRange range : metricTierSelector.selectTiers(start, end, resolution)) {
+            if (RollupService.SOURCE_GRANULARITY.equals(range.getGranularityLabel())) {
+                // The raw samples are kept by the SampleSegmentStore
+                metrics.addAll(rawMetricReader.findApplicationMetrics(range.getStart(), range.getEnd()));
+            } else {
+                metrics.addAll(applicationMetricRepository.findAllInRangeByGranularity(range.getStart(),
+                        range.getEnd(), range.getGranularityLabel()));
+            }
+        }
+
+        return metrics;
+    }
+
     /**
      * Returns all applications with their associated metrics
      * This method efficiently loads all applications and their metrics in a single operation
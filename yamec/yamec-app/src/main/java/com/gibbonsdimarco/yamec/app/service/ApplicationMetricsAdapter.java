@@ -17,20 +17,31 @@ import java.util.UUID;
 public class ApplicationMetricsAdapter {
 
     private final ApplicationDataService applicationDataService;
+    private final LatestMetricsCache latestMetricsCache;
 
     @Autowired
-    public ApplicationMetricsAdapter(ApplicationDataService applicationDataService) {
+    public ApplicationMetricsAdapter(ApplicationDataService applicationDataService,
+                                     LatestMetricsCache latestMetricsCache) {
         this.applicationDataService = applicationDataService;
+        this.latestMetricsCache = latestMetricsCache;
     }
 
 
 
     /**
      * Converts the real application data to the format expected by the views
+     *
+     * <p>The applications of the latest collection saved are served from the LatestMetricsCache.
+     * Until the first collection after startup has been saved, the latest metric of every
+     * application is read from the database instead.</p>
+     *
      * @return List of application metrics data sorted by CPU usage (highest first)
      */
     public ApplicationMetricsData.ApplicationMetricsDataList getCurrentApplicationMetrics() {
-        ApplicationMetricsData.ApplicationMetricsDataList result = new ApplicationMetricsData.ApplicationMetricsDataList();
+        ApplicationMetricsData.ApplicationMetricsDataList cachedMetrics = latestMetricsCache.getApplicationMetrics();
+        if (cachedMetrics != null) {
+            return cachedMetrics;
+        }
 
         // Get all applications with their latest metrics
         Map<Application, ApplicationMetric> applicationsWithMetrics =
@@ -49,24 +60,60 @@ public class ApplicationMetricsAdapter {
             // Skip the "Idle" application
             if (app.getApplicationName().equals("Idle")) continue;
 
-            ApplicationMetricsData appData = new ApplicationMetricsData();
-            appData.setId(app.getId());
-            appData.setApplicationName(app.getApplicationName());
+            appDataList.add(toApplicationMetricsData(app.getId(), app.getApplicationName(), metric));
+        }
+
+        return toSortedList(appDataList);
+    }
 
-            // Set metrics
-            appData.setAvgCpuUsage(metric.getAvgCpuUsage());
-            appData.setAvgPhysicalMemoryUsed(metric.getAvgPhysicalMemoryUsed());
-            appData.setAvgVirtualMemoryUsed(metric.getAvgVirtualMemoryUsed());
-            appData.setMaxCpuUsage(metric.getMaxCpuUsage());
-            appData.setMaxPhysicalMemoryUsed(metric.getMaxPhysicalMemoryUsed());
-            appData.setMaxVirtualMemoryUsed(metric.getMaxVirtualMemoryUsed());
-            appData.setMinCpuUsage(metric.getMinCpuUsage());
-            appData.setMinPhysicalMemoryUsed(metric.getMinPhysicalMemoryUsed());
-            appData.setMinVirtualMemoryUsed(metric.getMinVirtualMemoryUsed());
-
-            appDataList.add(appData);
+    /**
+     * Converts the application metrics of one collection to the format expected by the views.
+     * The name of each application must be set on its metric, so no Application is loaded.
+     *
+     * @param applicationMetrics The metrics of the applications
+     * @return List of application metrics data sorted by CPU usage (highest first)
+     */
+    public ApplicationMetricsData.ApplicationMetricsDataList
+                buildApplicationMetricsDataList(java.util.List<ApplicationMetric> applicationMetrics) {
+        java.util.List<ApplicationMetricsData> appDataList = new java.util.ArrayList<>();
+
+        for (ApplicationMetric metric : applicationMetrics) {
+            String applicationName = metric.getApplicationName();
+
+            // Skip the "Idle" application
+            if (applicationName == null || applicationName.equals("Idle")) continue;
+
+            appDataList.add(toApplicationMetricsData(metric.getApplication().getId(), applicationName, metric));
         }
 
+        return toSortedList(appDataList);
+    }
+
+    private static ApplicationMetricsData toApplicationMetricsData(UUID id,
+                                                                   String applicationName,
+                                                                   ApplicationMetric metric) {
+        ApplicationMetricsData appData = new ApplicationMetricsData();
+        appData.setId(id);
+        appData.setApplicationName(applicationName);
+
+        // Set metrics
+        appData.setAvgCpuUsage(metric.getAvgCpuUsage());
+        appData.setAvgPhysicalMemoryUsed(metric.getAvgPhysicalMemoryUsed());
+        appData.setAvgVirtualMemoryUsed(metric.getAvgVirtualMemoryUsed());
+        appData.setMaxCpuUsage(metric.getMaxCpuUsage());
+        appData.setMaxPhysicalMemoryUsed(metric.getMaxPhysicalMemoryUsed());
+        appData.setMaxVirtualMemoryUsed(metric.getMaxVirtualMemoryUsed());
+        appData.setMinCpuUsage(metric.getMinCpuUsage());
+        appData.setMinPhysicalMemoryUsed(metric.getMinPhysicalMemoryUsed());
+        appData.setMinVirtualMemoryUsed(metric.getMinVirtualMemoryUsed());
+
+        return appData;
+    }
+
+    private static ApplicationMetricsData.ApplicationMetricsDataList
+                toSortedList(java.util.List<ApplicationMetricsData> appDataList) {
+        ApplicationMetricsData.ApplicationMetricsDataList result = new ApplicationMetricsData.ApplicationMetricsDataList();
+
         // Sort the list by average CPU usage in descending order
         appDataList.sort((a, b) -> {
             if (a.getAvgCpuUsage() == 0 && b.getAvgCpuUsage() == 0) {
@@ -0,0 +1,147 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.data.Application;
+import com.gibbonsdimarco.yamec.app.model.ApplicationNameCacheStatistics;
+import com.gibbonsdimarco.yamec.app.repository.ApplicationRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Maps application (process) names to the IDs of their Application records.</p>
+ * <p>The cache is loaded from the application table at startup, so resolving the name of a
+ * process seen before needs no query. Names which are not cached are looked up, and inserted if
+ * they are new, in the caller's transaction (or a new one if there is none). This is the only
+ * place Application records are created.</p>
+ * <p>IDs are only added to the cache once the transaction which found or created them commits, so
+ * a rolled-back insert is never cached. The cache holds at most <code>yamec.applications.name-cache-size</code>
+ * names. Once it is full, names which are not cached are still resolved, but from the database.</p>
+ */
+@Service
+public class ApplicationNameCache {
+    private static final Logger logger = LoggerFactory.getLogger(ApplicationNameCache.class);
+
+    private final ApplicationRepository applicationRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int capacity;
+
+    private final ConcurrentHashMap<String, UUID> applicationIds = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder inserts = new LongAdder();
+    private volatile boolean fullWarningLogged = false;
+
+    @Autowired
+    public ApplicationNameCache(ApplicationRepository applicationRepository,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${yamec.applications.name-cache-size:16384}") int capacity) {
+        this.applicationRepository = applicationRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Loads the names and IDs of the applications already in the database
+     */
+    @PostConstruct
+    public void warm() {
+        try {
+            for (Application application : applicationRepository.findAll()) {
+                if (!cache(application.getApplicationName(), application.getId())) {
+                    break;
+                }
+            }
+            logger.info("Application name cache loaded with {} applications", applicationIds.size());
+        } catch (Exception e) {
+            logger.error("Failed to load the application name cache", e);
+        }
+    }
+
+    /**
+     * Returns the ID of the Application with the name passed by parameter, creating the Application
+     * if it does not exist yet
+     *
+     * @param applicationName The name of the application's processes
+     * @return The ID of the Application
+     */
+    public UUID getApplicationId(String applicationName) {
+        UUID applicationId = applicationIds.get(applicationName);
+
+        if (applicationId != null) {
+            hits.increment();
+            return applicationId;
+        }
+
+        misses.increment();
+
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return findOrCreate(applicationName);
+        }
+        return transactionTemplate.execute(status -> findOrCreate(applicationName));
+    }
+
+    /**
+     * Returns whether the name of an application is in the cache, without querying the database
+     */
+    public boolean isCached(String applicationName) {
+        return applicationIds.containsKey(applicationName);
+    }
+
+    private UUID findOrCreate(String applicationName) {
+        Application application = applicationRepository.findByApplicationName(applicationName);
+
+        if (application == null) {
+            application = applicationRepository.saveAndFlush(new Application(applicationName));
+            inserts.increment();
+        }
+
+        // Only cache the ID once it is known to be committed
+        final UUID applicationId = application.getId();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cache(applicationName, applicationId);
+            }
+        });
+
+        return applicationId;
+    }
+
+    /**
+     * Adds a name to the cache if there is room for it
+     *
+     * @return True if the name was cached; otherwise, this returns false
+     */
+    private boolean cache(String applicationName, UUID applicationId) {
+        if (applicationIds.size() >= capacity && !applicationIds.containsKey(applicationName)) {
+            if (!fullWarningLogged) {
+                fullWarningLogged = true;
+                logger.warn("Application name cache is full ({} names) - new names will be looked up in the database",
+                        capacity);
+            }
+            return false;
+        }
+
+        applicationIds.put(applicationName, applicationId);
+        return true;
+    }
+
+    public ApplicationNameCacheStatistics getStatistics() {
+        return new ApplicationNameCacheStatistics(applicationIds.size(),
+                                                  capacity,
+                                                  hits.sum(),
+                                                  misses.sum(),
+                                                  inserts.sum());
+    }
+}
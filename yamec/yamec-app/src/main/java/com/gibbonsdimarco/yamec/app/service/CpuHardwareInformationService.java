@@ -3,7 +3,6 @@ package com.gibbonsdimarco.yamec.app.service;
 import com.gibbonsdimarco.yamec.app.config.Granularity;
 import com.gibbonsdimarco.yamec.app.data.*;
 import com.gibbonsdimarco.yamec.app.repository.CpuHardwareInformationRepository;
-import com.gibbonsdimarco.yamec.app.repository.GranularityRepository;
 import com.gibbonsdimarco.yamec.app.repository.SystemCpuMetricRepository;
 import jakarta.transaction.Transactional;
 import org.slf4j.LoggerFactory;
@@ -18,14 +17,20 @@ import java.util.UUID;
 public class CpuHardwareInformationService {
 
     private final CpuHardwareInformationRepository cpuRepository;
-    private final GranularityRepository granularityRepository;
+    private final GranularityIdCache granularityIdCache;
     private final SystemCpuMetricRepository systemCpuMetricRepository;
+    private final MetricTierSelector metricTierSelector;
+    private final RawMetricReader rawMetricReader;
 
     @Autowired
-    public CpuHardwareInformationService(CpuHardwareInformationRepository cpuRepository, GranularityRepository granularityRepository, SystemCpuMetricRepository systemCpuMetricRepository) {
+    public CpuHardwareInformationService(CpuHardwareInformationRepository cpuRepository, GranularityIdCache granularityIdCache, SystemCpuMetricRepository systemCpuMetricRepository,
+                                         MetricTierSelector metricTierSelector,
+                                         RawMetricReader rawMetricReader) {
         this.cpuRepository = cpuRepository;
-        this.granularityRepository = granularityRepository;
+        this.granularityIdCache = granularityIdCache;
         this.systemCpuMetricRepository = systemCpuMetricRepository;
+        this.metricTierSelector = metricTierSelector;
+        this.rawMetricReader = rawMetricReader;
     }
 
     // Assuming a record timespan of 1
@@ -46,91 +51,51 @@ public class CpuHardwareInformationService {
 
         long startTimeAsLong = startTime.getTime();
 
-        // Use a map to group metrics by the CPU ID
-        java.util.List<UUID> recordedCpuIds = new java.util.ArrayList<>();
-        java.util.HashMap<UUID, double[]> cpuUtilizationTotalMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Double> cpuUtilizationMaxMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Double> cpuUtilizationMinMap = new java.util.HashMap<>();
+        // Fields of the metrics in the aggregator
+        final int utilization = 0;
 
+        MetricAggregator<UUID> aggregator = new MetricAggregator<>(1, 0, 0, 1);
+        // Metrics of one second hold a single value, so only longer metrics keep a sketch of their values
+        final boolean sketched = duration > 1;
 
-        // Go through all processes related to this application and get the total resource use
-        // by the application per second
         for (SystemCpuMetric currentMetric : cpuMetrics) {
 
             // Fail-safe in case a metric is not assigned a CPU (can't properly group the metrics)
-            if (currentMetric.getCpu() == null)
-            {
+            // or a timestamp (Can't accurately get metrics from it)
+            if (currentMetric.getCpu() == null || currentMetric.getTimestamp() == null) {
                 continue;
             }
 
-            // Fail-safe in case a metric is not given a timestamp (Can't accurately get metrics from it)
-            if (currentMetric.getTimestamp() == null) {
-                continue;
-            }
-
-            UUID cpuId = currentMetric.getCpu().getId();
-
-            // Get average, max, and min metrics
-            double averageUtilization = currentMetric.getAverageUtilization();
-            double maxUtilization = currentMetric.getMaxUtilization();
-            double minUtilization = currentMetric.getMinUtilization();
-
-
-            long timestampAsLong = currentMetric.getTimestamp().getTime();
-
-            // Used to map process data to the second number of the data
-            int secondsSinceStartTime = (int)((timestampAsLong - startTimeAsLong)/1000);
-
-
             // Fail-safe if a record outside the duration is included
-            if (secondsSinceStartTime > duration - 1) {
+            if (!MetricAggregator.isInTimespan(currentMetric.getTimestamp(), startTimeAsLong, duration)) {
                 continue;
             }
 
-            // Create key maps for all values if one doesn't exist for a specific CPU
-            if (!recordedCpuIds.contains(cpuId)) {
-                recordedCpuIds.add(cpuId);
-                cpuUtilizationTotalMap.put(cpuId, new double[duration]);
-                cpuUtilizationMaxMap.put(cpuId, Double.MIN_VALUE);
-                cpuUtilizationMinMap.put(cpuId, Double.MAX_VALUE);
-            }
-
-            // Add to running totals and extract maximums and minimums
-            cpuUtilizationTotalMap.get(cpuId)[secondsSinceStartTime] = averageUtilization;
-            if (cpuUtilizationMaxMap.get(cpuId) < maxUtilization) {
-                cpuUtilizationMaxMap.put(cpuId, maxUtilization);
-            }
-            if (cpuUtilizationMinMap.get(cpuId) > minUtilization) {
-                cpuUtilizationMinMap.put(cpuId, minUtilization);
-            }
-
-        }
-
-        java.util.List<SystemCpuMetric> metricsToRecord = new java.util.ArrayList<>();
-
-        for (UUID cpuId : recordedCpuIds) {
+            int slot = aggregator.slot(currentMetric.getCpu().getId());
+            aggregator.countMetric(slot);
 
-            // Data containers for metrics
-            double averageCpuUsage = 0;
-            double maxCpuUsage = cpuUtilizationMaxMap.get(cpuId);
-            double minCpuUsage = cpuUtilizationMinMap.get(cpuId);
+            aggregator.recordDouble(slot, utilization, currentMetric.getAverageUtilization(),
+                    currentMetric.getMaxUtilization(), currentMetric.getMinUtilization());
 
-            for (int secondNum = 0; secondNum < duration; secondNum++) {
-                // Sum total usages for all valid processes and applications
-                averageCpuUsage += cpuUtilizationTotalMap.get(cpuId)[secondNum];
+            if (sketched) {
+                aggregator.recordSketch(slot, utilization, currentMetric.getAverageUtilization(),
+                        currentMetric.getUtilizationSketch());
             }
+        }
 
-            // Take average of each metric based on the duration
-            averageCpuUsage /= duration;
+        UUID granularityId = granularityIdCache.getId(granularityLabel);
+        java.util.List<SystemCpuMetric> metricsToRecord = new java.util.ArrayList<>(aggregator.size());
 
-            SystemCpuMetric currentMetric = new SystemCpuMetric(cpuRepository.getReferenceById(cpuId),
+        for (int slot = 0; slot < aggregator.size(); slot++) {
+            // The average is taken over the seconds with data, so a gap in collection
+            // (such as the collector not running) does not pull the average towards 0
+            SystemCpuMetric currentMetric = new SystemCpuMetric(cpuRepository.getReferenceById(aggregator.key(slot)),
                     startTime, duration,
-                    granularityRepository.getByLabel(granularityLabel).getId(),
-                    averageCpuUsage,
-                    maxCpuUsage,
-                    minCpuUsage);
-
-            currentMetric.setCpu(cpuRepository.getReferenceById(cpuId));
+                    granularityId,
+                    aggregator.doubleAverage(slot, utilization),
+                    aggregator.doubleMaximum(slot, utilization),
+                    aggregator.doubleMinimum(slot, utilization));
+            currentMetric.setUtilizationSketch(aggregator.sketchBytes(slot, utilization));
 
             // Create Metric object
             metricsToRecord.add(currentMetric);
@@ -174,6 +139,30 @@ public class CpuHardwareInformationService {
                                                           java.sql.Timestamp startTime,
                                                           int duration) {
 
+        java.util.List<SystemCpuMetric> validMetrics = buildCpuMetrics(cpuMetrics, startTime, duration);
+
+        if (validMetrics == null) {
+            return null;
+        }
+
+        // Commit Application Metrics and return entities with the committed IDs
+        return systemCpuMetricRepository.saveAllAndFlush(validMetrics);
+
+    }
+
+    /**
+     * Aggregates the CPU metrics passed by parameter into the entities to save without saving them
+     *
+     * @param cpuMetrics The list of <code>SystemCpuMetric</code> objects to aggregate
+     * @param startTime The starting timestamp of the metrics collected
+     * @param duration The number of seconds which the metrics were collected for
+     * @return The list of <code>SystemCpuMetric</code> entities to save, or null if there are none
+     * @see #saveCpuMetrics(java.util.List, java.sql.Timestamp, int)
+     */
+    public java.util.List<SystemCpuMetric> buildCpuMetrics(java.util.List<SystemCpuMetric> cpuMetrics,
+                                                           java.sql.Timestamp startTime,
+                                                           int duration) {
+
         if (duration <= 0) {
             throw new IllegalArgumentException("duration must be greater than 0");
         }
@@ -183,11 +172,7 @@ public class CpuHardwareInformationService {
         }
 
 //        // The collection to be sent to the database to complete the rest of the transaction
-        java.util.List<SystemCpuMetric> validMetrics
-                = aggregateCpuMetrics(cpuMetrics, startTime, duration, "HIGH");
-
-        // Commit Application Metrics and return entities with the committed IDs
-        return systemCpuMetricRepository.saveAllAndFlush(validMetrics);
+        return aggregateCpuMetrics(cpuMetrics, startTime, duration, "HIGH");
 
     }
 
@@ -233,5 +218,31 @@ public class CpuHardwareInformationService {
     }
 
 
+    /**
+     * Returns the CPU metrics from <code>start</code> to <code>end</code>, oldest first, read from
+     * the coarsest granularity level which still has the resolution requested
+     *
+     * @param start The start of the range (inclusive)
+     * @param end The end of the range (exclusive)
+     * @param resolution The number of seconds between the metrics the caller needs
+     * @return The CPU metrics in the range
+     * @see MetricTierSelector#selectTiers(java.sql.Timestamp, java.sql.Timestamp, int)
+     */
+    public java.util.List<SystemCpuMetric> getCpuMetrics(java.sql.Timestamp start, java.sql.Timestamp end, int resolution) {
+        java.util.List<SystemCpuMetric> metrics = new java.util.ArrayList<>();
+
+        for (MetricTierSelector.TierRange range : metricTierSelector.selectTiers(start, end, resolution)) {
+            if (RollupService.SOURCE_GRANULARITY.equals(range.getGranularityLabel())) {
+                // The raw samples are kept by the SampleSegmentStore
+                metrics.addAll(rawMetricReader.findCpuMetrics(range.getStart(), range.getEnd()));
+            } else {
+                metrics.addAll(systemCpuMetricRepository.findAllInRangeByGranularity(range.getStart(),
+                        range.getEnd(), range.getGranularityLabel()));
+            }
+        }
+
+        return metrics;
+    }
+
     // Other service methods as needed
 }
\ No newline at end of file
@@ -5,7 +5,6 @@ import com.gibbonsdimarco.yamec.app.data.ApplicationMetric;
 import com.gibbonsdimarco.yamec.app.data.DiskHardwareInformation;
 import com.gibbonsdimarco.yamec.app.data.SystemDiskMetric;
 import com.gibbonsdimarco.yamec.app.repository.DiskHardwareInformationRepository;
-import com.gibbonsdimarco.yamec.app.repository.GranularityRepository;
 import com.gibbonsdimarco.yamec.app.repository.SystemDiskMetricRepository;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -20,15 +19,21 @@ public class DiskHardwareInformationService {
 
     private final SystemDiskMetricRepository diskMetricRepository;
     private final DiskHardwareInformationRepository diskHardwareInformationRepository;
-    private final GranularityRepository granularityRepository;
+    private final GranularityIdCache granularityIdCache;
+    private final MetricTierSelector metricTierSelector;
+    private final RawMetricReader rawMetricReader;
 
     @Autowired
     public DiskHardwareInformationService(SystemDiskMetricRepository diskMetricRepository,
                                           DiskHardwareInformationRepository diskHardwareInformationRepository,
-                                          GranularityRepository granularityRepository) {
+                                          GranularityIdCache granularityIdCache,
+                                          MetricTierSelector metricTierSelector,
+                                          RawMetricReader rawMetricReader) {
         this.diskMetricRepository = diskMetricRepository;
         this.diskHardwareInformationRepository = diskHardwareInformationRepository;
-        this.granularityRepository = granularityRepository;
+        this.granularityIdCache = granularityIdCache;
+        this.metricTierSelector = metricTierSelector;
+        this.rawMetricReader = rawMetricReader;
     }
 
 
@@ -51,213 +56,76 @@ public class DiskHardwareInformationService {
 
         long startTimeAsLong = startTime.getTime();
 
-        // Use a map to group metrics by the device ID
-        java.util.List<UUID> recordedDiskIds = new java.util.ArrayList<>();
-        java.util.HashMap<UUID, Integer> numValidDiskMetrics = new java.util.HashMap<>();
+        // Fields of the metrics in the aggregator
+        final int utilization = 0, timeToTransfer = 1;
+        final int readBandwidth = 0, writeBandwidth = 1;
+        final int readBandwidthUnsigned = 0, writeBandwidthUnsigned = 1;
 
-        java.util.HashMap<UUID, double[]> utilizationTotalMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Double> utilizationMaxMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Double> utilizationMinMap = new java.util.HashMap<>();
+        MetricAggregator<UUID> aggregator = new MetricAggregator<>(2, 2, 2, 2);
+        // Metrics of one second hold a single value, so only longer metrics keep a sketch of their values
+        final boolean sketched = duration > 1;
 
-        java.util.HashMap<UUID, long[]> readBandwidthTotalMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Long> readBandwidthMaxMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Long> readBandwidthMinMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Boolean> readBandwidthUnsignedMap = new java.util.HashMap<>();
-
-        java.util.HashMap<UUID, long[]> writeBandwidthTotalMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Long> writeBandwidthMaxMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Long> writeBandwidthMinMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Boolean> writeBandwidthUnsignedMap = new java.util.HashMap<>();
-
-        java.util.HashMap<UUID, double[]> timeToTransferTotalMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Double> timeToTransferMaxMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Double> timeToTransferMinMap = new java.util.HashMap<>();
-
-
-        // Go through all processes related to this application and get the total resource use
-        // by the application per second
         for (SystemDiskMetric currentMetric : diskMetrics) {
 
-            // Fail-safe in case a metric is not assigned a Memory Hardware metric (can't properly group the metrics)
-            if (currentMetric.getDisk() == null)
-            {
-                continue;
-            }
-
-            // Fail-safe in case a metric is not given a timestamp (Can't accurately get metrics from it)
-            if (currentMetric.getTimestamp() == null) {
+            // Fail-safe in case a metric is not assigned a disk (can't properly group the metrics)
+            // or a timestamp (Can't accurately get metrics from it)
+            if (currentMetric.getDisk() == null || currentMetric.getTimestamp() == null) {
                 continue;
             }
 
-            UUID diskId = currentMetric.getDisk().getId();
-
-            // Get average, max, and min metrics
-            double averageUtilization = currentMetric.getAvgUtilization();
-            double maxUtilization = currentMetric.getMaxUtilization();
-            double minUtilization = currentMetric.getMinUtilization();
-
-            long averageReadBandwidth = currentMetric.getAvgReadBandwidth();
-            long maxReadBandwidth = currentMetric.getMaxReadBandwidth();
-            long minReadBandwidth = currentMetric.getMinReadBandwidth();
-
-            long averageWriteBandwidth = currentMetric.getAvgWriteBandwidth();
-            long maxWriteBandwidth = currentMetric.getMaxWriteBandwidth();
-            long minWriteBandwidth = currentMetric.getMinWriteBandwidth();
-
-            boolean unsignedReadBandwidth = currentMetric.isReadBandwidthUnsigned();
-            boolean unsignedWriteBandwidth = currentMetric.isWriteBandwidthUnsigned();
-
-            double averageTimeToTransfer = currentMetric.getAvgTimeToTransfer();
-            double maxTimeToTransfer = currentMetric.getMaxTimeToTransfer();
-            double minTimeToTransfer = currentMetric.getMinTimeToTransfer();
-
-            long timestampAsLong = currentMetric.getTimestamp().getTime();
-
-            // Used to map process data to the second number of the data
-            int secondsSinceStartTime = (int)((timestampAsLong - startTimeAsLong)/1000);
-
-
             // Fail-safe if a record outside the duration is included
-            if (secondsSinceStartTime > duration - 1) {
+            if (!MetricAggregator.isInTimespan(currentMetric.getTimestamp(), startTimeAsLong, duration)) {
                 continue;
             }
 
-            // Create key maps for all values if one doesn't exist for a specific CPU
-            if (!recordedDiskIds.contains(diskId)) {
-                recordedDiskIds.add(diskId);
-                numValidDiskMetrics.put(diskId, 0);
-
-                utilizationTotalMap.put(diskId, new double[duration]);
-                utilizationMaxMap.put(diskId, Double.MIN_VALUE);
-                utilizationMinMap.put(diskId, Double.MAX_VALUE);
-
-                readBandwidthTotalMap.put(diskId, new long[duration]);
-                readBandwidthMaxMap.put(diskId, Long.MIN_VALUE);
-                readBandwidthMinMap.put(diskId, Long.MAX_VALUE);
-
-                writeBandwidthTotalMap.put(diskId, new long[duration]);
-                writeBandwidthMaxMap.put(diskId, Long.MIN_VALUE);
-                writeBandwidthMinMap.put(diskId, Long.MAX_VALUE);
-
-                timeToTransferTotalMap.put(diskId, new double[duration]);
-                timeToTransferMaxMap.put(diskId, Double.MIN_VALUE);
-                timeToTransferMinMap.put(diskId, Double.MAX_VALUE);
-
-                readBandwidthUnsignedMap.put(diskId, false);
-                writeBandwidthUnsignedMap.put(diskId, false);
-            }
-
-
-            // This is a valid metric, and the timestamp
-            numValidDiskMetrics.put(diskId, numValidDiskMetrics.get(diskId) + 1);
-
-            // Add to running totals and extract maximums and minimums
-            utilizationTotalMap.get(diskId)[secondsSinceStartTime] = averageUtilization;
-            if (utilizationMaxMap.get(diskId) < maxUtilization) {
-                utilizationMaxMap.put(diskId, maxUtilization);
-            }
-            if (utilizationMinMap.get(diskId) > minUtilization) {
-                utilizationMinMap.put(diskId, minUtilization);
-            }
-
-            // Add to running totals and extract maximums and minimums
-            readBandwidthTotalMap.get(diskId)[secondsSinceStartTime] = averageReadBandwidth;
-            if (readBandwidthMaxMap.get(diskId) < maxReadBandwidth) {
-                readBandwidthMaxMap.put(diskId, maxReadBandwidth);
-            }
-            if (readBandwidthMinMap.get(diskId) > minReadBandwidth) {
-                readBandwidthMinMap.put(diskId, minReadBandwidth);
-            }
-
-            // Add to running totals and extract maximums and minimums
-            writeBandwidthTotalMap.get(diskId)[secondsSinceStartTime] = averageWriteBandwidth;
-            if (writeBandwidthMaxMap.get(diskId) < maxWriteBandwidth) {
-                writeBandwidthMaxMap.put(diskId, maxWriteBandwidth);
-            }
-            if (writeBandwidthMinMap.get(diskId) > minWriteBandwidth) {
-                writeBandwidthMinMap.put(diskId, minWriteBandwidth);
-            }
-
-            // Add to running totals and extract maximums and minimums
-            timeToTransferTotalMap.get(diskId)[secondsSinceStartTime] = averageTimeToTransfer;
-            if (timeToTransferMaxMap.get(diskId) < maxTimeToTransfer) {
-                timeToTransferMaxMap.put(diskId, maxTimeToTransfer);
-            }
-            if (timeToTransferMinMap.get(diskId) > minTimeToTransfer) {
-                timeToTransferMinMap.put(diskId, minTimeToTransfer);
-            }
-
-            // Set unsigned boolean values to true if even one value is reported as true
-            if (unsignedReadBandwidth) {
-                readBandwidthUnsignedMap.put(diskId, true);
-            }
-
-            if (unsignedWriteBandwidth) {
-                writeBandwidthUnsignedMap.put(diskId, true);
+            int slot = aggregator.slot(currentMetric.getDisk().getId());
+            aggregator.countMetric(slot);
+
+            aggregator.recordDouble(slot, utilization, currentMetric.getAvgUtilization(),
+                    currentMetric.getMaxUtilization(), currentMetric.getMinUtilization());
+            aggregator.recordDouble(slot, timeToTransfer, currentMetric.getAvgTimeToTransfer(),
+                    currentMetric.getMaxTimeToTransfer(), currentMetric.getMinTimeToTransfer());
+            aggregator.recordLong(slot, readBandwidth, currentMetric.getAvgReadBandwidth(),
+                    currentMetric.getMaxReadBandwidth(), currentMetric.getMinReadBandwidth());
+            aggregator.recordLong(slot, writeBandwidth, currentMetric.getAvgWriteBandwidth(),
+                    currentMetric.getMaxWriteBandwidth(), currentMetric.getMinWriteBandwidth());
+
+            // Unsigned if even one value is reported as unsigned
+            aggregator.recordFlag(slot, readBandwidthUnsigned, currentMetric.isReadBandwidthUnsigned());
+            aggregator.recordFlag(slot, writeBandwidthUnsigned, currentMetric.isWriteBandwidthUnsigned());
+
+            if (sketched) {
+                aggregator.recordSketch(slot, utilization, currentMetric.getAvgUtilization(),
+                        currentMetric.getUtilizationSketch());
+                aggregator.recordSketch(slot, timeToTransfer, currentMetric.getAvgTimeToTransfer(),
+                        currentMetric.getTimeToTransferSketch());
             }
-
         }
 
-        java.util.List<SystemDiskMetric> metricsToRecord = new java.util.ArrayList<>();
-
-        for (UUID diskId : recordedDiskIds) {
-
-
-
-            // Data containers for metrics
-            double averageUtilization = 0;
-            double maxUtilization = utilizationMaxMap.get(diskId);
-            double minUtilization = utilizationMinMap.get(diskId);
-
-            long averageReadBandwidth = 0;
-            long maxReadBandwidth = readBandwidthMaxMap.get(diskId);
-            long minReadBandwidth = readBandwidthMinMap.get(diskId);
-
-            long averageWriteBandwidth = 0;
-            long maxWriteBandwidth = writeBandwidthMaxMap.get(diskId);
-            long minWriteBandwidth = writeBandwidthMinMap.get(diskId);
-
-            double averageTimeToTransfer = 0;
-            double maxTimeToTransfer = timeToTransferMaxMap.get(diskId);
-            double minTimeToTransfer = timeToTransferMinMap.get(diskId);
-
-            boolean unsignedReadBandwidth = readBandwidthUnsignedMap.get(diskId);
-            boolean unsignedWriteBandwidth = writeBandwidthUnsignedMap.get(diskId);
-
-            int countMetrics = numValidDiskMetrics.get(diskId);
-
-            for (int secondNum = 0; secondNum < duration; secondNum++) {
-                // Sum total usages for all valid processes and applications
-                averageUtilization += utilizationTotalMap.get(diskId)[secondNum];
-                averageReadBandwidth += readBandwidthTotalMap.get(diskId)[secondNum];
-                averageWriteBandwidth += writeBandwidthTotalMap.get(diskId)[secondNum];
-                averageTimeToTransfer += timeToTransferTotalMap.get(diskId)[secondNum];
-            }
-
-            // Take average of each metric based on the duration
-            averageUtilization /= countMetrics;
-            averageReadBandwidth /= countMetrics;
-            averageWriteBandwidth /= countMetrics;
-            averageTimeToTransfer /= countMetrics;
+        UUID granularityId = granularityIdCache.getId(granularityLabel);
+        java.util.List<SystemDiskMetric> metricsToRecord = new java.util.ArrayList<>(aggregator.size());
 
+        for (int slot = 0; slot < aggregator.size(); slot++) {
             SystemDiskMetric currentMetric = new SystemDiskMetric(startTime, duration,
-                    granularityRepository.getByLabel(granularityLabel).getId(),
-                    averageUtilization,
-                    maxUtilization,
-                    minUtilization,
-                    averageReadBandwidth,
-                    maxReadBandwidth,
-                    minReadBandwidth,
-                    averageWriteBandwidth,
-                    maxWriteBandwidth,
-                    minWriteBandwidth,
-                    averageTimeToTransfer,
-                    maxTimeToTransfer,
-                    minTimeToTransfer,
-                    unsignedReadBandwidth,
-                    unsignedWriteBandwidth);
-
-            currentMetric.setDisk(diskHardwareInformationRepository.getReferenceById(diskId));
+                    granularityId,
+                    aggregator.doubleAverage(slot, utilization),
+                    aggregator.doubleMaximum(slot, utilization),
+                    aggregator.doubleMinimum(slot, utilization),
+                    aggregator.longAverage(slot, readBandwidth),
+                    aggregator.longMaximum(slot, readBandwidth),
+                    aggregator.longMinimum(slot, readBandwidth),
+                    aggregator.longAverage(slot, writeBandwidth),
+                    aggregator.longMaximum(slot, writeBandwidth),
+                    aggregator.longMinimum(slot, writeBandwidth),
+                    aggregator.doubleAverage(slot, timeToTransfer),
+                    aggregator.doubleMaximum(slot, timeToTransfer),
+                    aggregator.doubleMinimum(slot, timeToTransfer),
+                    aggregator.flag(slot, readBandwidthUnsigned),
+                    aggregator.flag(slot, writeBandwidthUnsigned));
+
+            currentMetric.setDisk(diskHardwareInformationRepository.getReferenceById(aggregator.key(slot)));
+            currentMetric.setUtilizationSketch(aggregator.sketchBytes(slot, utilization));
+            currentMetric.setTimeToTransferSketch(aggregator.sketchBytes(slot, timeToTransfer));
 
             // Create Metric object
             metricsToRecord.add(currentMetric);
@@ -286,14 +154,36 @@ public class DiskHardwareInformationService {
                                                             java.util.List<DiskHardwareInformation> currentDisks) {
 
         java.util.List<SystemDiskMetric> validMetrics
-                = new java.util.ArrayList<>();
+                = buildDiskMetrics(diskMetrics, startTime, duration, currentDisks);
 
-        // As long as we don't support an OS other than Windows, we should return null for others
-        // We can't properly handle the device names right now to get the disk numbers
-        if (!System.getProperty("os.name").toLowerCase().contains("windows")) {
+        if (validMetrics == null) {
             return null;
         }
 
+        // Commit Application Metrics and return entities with the committed IDs
+        return diskMetricRepository.saveAllAndFlush(validMetrics);
+
+    }
+
+    /**
+     * Matches the disk metrics passed by parameter to the disks they were collected from and
+     * aggregates them into the entities to save without saving them
+     *
+     * @param diskMetrics The list of <code>SystemDiskMetric</code> objects to aggregate
+     * @param startTime The starting timestamp of the metrics collected
+     * @param duration The number of seconds which the metrics were collected for
+     * @param currentDisks The disks currently connected to the system
+     * @return The list of <code>SystemDiskMetric</code> entities to save, or null if there are none
+     * @see #saveDiskMetrics(java.util.List, java.sql.Timestamp, int, java.util.List)
+     */
+    public java.util.List<SystemDiskMetric> buildDiskMetrics(java.util.List<SystemDiskMetric> diskMetrics,
+                                                             java.sql.Timestamp startTime,
+                                                             int duration,
+                                                             java.util.List<DiskHardwareInformation> currentDisks) {
+
+        java.util.List<SystemDiskMetric> validMetrics
+                = new java.util.ArrayList<>();
+
         if (duration <= 0) {
             throw new IllegalArgumentException("duration must be greater than 0");
         }
@@ -317,6 +207,7 @@ public class DiskHardwareInformationService {
                 Long diskNumber = null;
 
                 // Attempt to get the disk number from the metric collected
+                // (Windows names disks "<number> <drive letters>", Linux names them "<number>")
                 try {
                     diskNumber = Long.parseLong(deviceNameSplit[0]);
                 } catch (NumberFormatException e) {
@@ -365,11 +256,7 @@ public class DiskHardwareInformationService {
         }
 
 //        // The collection to be sent to the database to complete the rest of the transaction
-        validMetrics
-                = aggregateDiskMetrics(diskMetrics, startTime, duration, "HIGH");
-
-        // Commit Application Metrics and return entities with the committed IDs
-        return diskMetricRepository.saveAllAndFlush(validMetrics);
+        return aggregateDiskMetrics(diskMetrics, startTime, duration, "HIGH");
 
     }
 
@@ -468,5 +355,31 @@ public class DiskHardwareInformationService {
         return disksWithLatestMetrics;
     }
 
+    /**
+     * Returns the disk metrics from <code>start</code> to <code>end</code>, oldest first, read from
+     * the coarsest granularity level which still has the resolution requested
+     *
+     * @param start The start of the range (inclusive)
+     * @param end The end of the range (exclusive)
+     * @param resolution The number of seconds between the metrics the caller needs
+     * @return The disk metrics in the range
+     * @see MetricTierSelector#selectTiers(java.sql.Timestamp, java.sql.Timestamp, int)
+     */
+    public java.util.List<SystemDiskMetric> getDiskMetrics(java.sql.Timestamp start, java.sql.Timestamp end, int resolution) {
+        java.util.List<SystemDiskMetric> metrics = new java.util.ArrayList<>();
+
+        for (MetricTierSelector.TierRange range : metricTierSelector.selectTiers(start, end, resolution)) {
+            if (RollupService.SOURCE_GRANULARITY.equals(range.getGranularityLabel())) {
+                // The raw samples are kept by the SampleSegmentStore
+                metrics.addAll(rawMetricReader.findDiskMetrics(range.getStart(), range.getEnd()));
+            } else {
+                metrics.addAll(diskMetricRepository.findAllInRangeByGranularity(range.getStart(),
+                        range.getEnd(), range.getGranularityLabel()));
+            }
+        }
+
+        return metrics;
+    }
+
     // Other service methods as needed
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.repository.GranularityRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Maps the labels of the granularity levels to their IDs.</p>
+ * <p>The granularity levels are created once, when the application first starts, and never
+ * change, so each label is only looked up in the database the first time it is used. This keeps
+ * the lookup off the writer thread, which builds metrics with the HIGH granularity every tick.</p>
+ */
+@Service
+public class GranularityIdCache {
+
+    private final GranularityRepository granularityRepository;
+
+    private final ConcurrentHashMap<String, UUID> granularityIds = new ConcurrentHashMap<>();
+
+    @Autowired
+    public GranularityIdCache(GranularityRepository granularityRepository) {
+        this.granularityRepository = granularityRepository;
+    }
+
+    /**
+     * Returns the ID of a granularity level, looking it up in the database only the first time
+     *
+     * @param label The label of the granularity level
+     * @return The ID of the granularity level
+     */
+    public UUID getId(String label) {
+        return granularityIds.computeIfAbsent(label, l -> granularityRepository.getByLabel(l).getId());
+    }
+}
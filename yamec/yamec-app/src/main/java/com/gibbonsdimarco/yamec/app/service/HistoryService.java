@@ -0,0 +1,627 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * <p>Writes the metrics of one type in a range of time as JSON, oldest first, in constant memory
+ * however long the range is.</p>
+ * <p>Metrics are read in chunks of <code>yamec.history.chunk-size</code> rows ordered by
+ * <code>(timestamp, device)</code>, each chunk starting after the last row of the one before
+ * (keyset pagination), so reading a chunk costs the same however far into the range it is. Each
+ * chunk is read in its own short query and written once the query is done, so a slow client never
+ * holds a SQLite read lock the metrics writer is waiting on. Each query runs in a read-only
+ * transaction, so with the <code>wal</code> storage profile it uses the read-only connections.</p>
+ * <p>HIGH granularity metrics are read from the segments of the SampleSegmentStore, as metrics of
+ * one second whose average, maximum and minimum are the sample, a slice of time at a time. Only
+ * the part of a range before the oldest sample kept is read from the database, from the metrics
+ * saved there before the segments kept the samples.</p>
+ * <p>At most <code>limit</code> metrics are written per request. If there may be more, the response
+ * ends with a <code>nextCursor</code>, which is passed back as the <code>cursor</code> of the next
+ * request to continue after the last metric written.</p>
+ * <p>For charts, one field of each device can instead be downsampled to a number of points with a
+ * SeriesDownsampler, as the rows are read. The granularity levels are chosen by the time each
+ * point covers, so long ranges are read from the rolled up metrics and the work does not grow
+ * with the number of one second metrics. HIGH granularity ranges are downsampled from the
+ * segments, reading only the field downsampled.</p>
+ */
+@Service
+public class HistoryService {
+
+    /**
+     * The metric types which can be read, by name
+     */
+    private static final java.util.Map<String, MetricTable> TABLES = java.util.Map.of(
+            "cpu", new MetricTable("system_cpu_metrics", SlidingWindowStore.SeriesType.CPU,
+                    "cpu_id", "cpuId", false, new boolean[] {false},
+                    "average_utilization", "max_utilization", "min_utilization"),
+            "memory", new MetricTable("system_memory_metrics", SlidingWindowStore.SeriesType.MEMORY,
+                    "memory_id", "memoryId", false, new boolean[] {true, true},
+                    "average_physical_utilization", "max_physical_utilization", "min_physical_utilization",
+                    "average_virtual_utilization", "max_virtual_utilization", "min_virtual_utilization"),
+            "disk", new MetricTable("system_disk_metrics", SlidingWindowStore.SeriesType.DISK,
+                    "disk_id", "diskId", false, new boolean[] {false, true, true, false},
+                    "avg_utilization", "max_utilization", "min_utilization",
+                    "avg_read_bandwidth", "max_read_bandwidth", "min_read_bandwidth",
+                    "avg_write_bandwidth", "max_write_bandwidth", "min_write_bandwidth",
+                    "avg_time_to_transfer", "max_time_to_transfer", "min_time_to_transfer"),
+            "nic", new MetricTable("system_nic_metrics", SlidingWindowStore.SeriesType.NIC,
+                    "nic_id", "nicId", false, new boolean[] {true, true},
+                    "avg_send_bandwidth", "max_send_bandwidth", "min_send_bandwidth",
+                    "avg_receive_bandwidth", "max_receive_bandwidth", "min_receive_bandwidth"),
+            "application", new MetricTable("application_metrics", SlidingWindowStore.SeriesType.APPLICATION,
+                    "application_id", "applicationId", true, new boolean[] {false, true, true},
+                    "avg_cpu_usage", "max_cpu_usage", "min_cpu_usage",
+                    "avg_physical_memory_used", "max_physical_memory_used", "min_physical_memory_used",
+                    "avg_virtual_memory_used", "max_virtual_memory_used", "min_virtual_memory_used"));
+
+    // Orders devices as SQLite orders their IDs, byte by byte
+    private static final java.util.Comparator<Object[]> ROW_ORDER = java.util.Comparator
+            .<Object[]>comparingLong(row -> (Long) row[0])
+            .thenComparing(row -> (byte[]) row[1], java.util.Arrays::compareUnsigned);
+
+    /**
+     * The most points each series can be downsampled to
+     */
+    public static final int MAX_POINTS = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MetricTierSelector metricTierSelector;
+    private final SampleSegmentStore sampleSegmentStore;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int chunkSize;
+    private final int defaultLimit;
+
+    @Autowired
+    public HistoryService(JdbcTemplate jdbcTemplate,
+                          MetricTierSelector metricTierSelector,
+                          SampleSegmentStore sampleSegmentStore,
+                          ObjectMapper objectMapper,
+                          PlatformTransactionManager transactionManager,
+                          @Value("${yamec.history.chunk-size:1000}") int chunkSize,
+                          @Value("${yamec.history.default-limit:100000}") int defaultLimit) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.metricTierSelector = metricTierSelector;
+        this.sampleSegmentStore = sampleSegmentStore;
+        this.objectMapper = objectMapper;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.chunkSize = chunkSize;
+        this.defaultLimit = defaultLimit;
+    }
+
+    /**
+     * Checks the parameters of a request and chooses the granularity levels to read, so invalid
+     * requests can be rejected before anything is written
+     *
+     * @param type cpu, memory, disk, nic or application (or applications)
+     * @param start The start of the range (inclusive)
+     * @param end The end of the range (exclusive)
+     * @param resolution The number of seconds between the metrics the caller needs
+     * @param cursor The <code>nextCursor</code> of the previous request, or null to start at the
+     *               start of the range
+     * @param limit The maximum number of metrics to write, or null for the default
+     * @throws IllegalArgumentException If a parameter is not valid
+     */
+    public HistoryQuery prepare(String type, Timestamp start, Timestamp end, int resolution,
+                                String cursor, Integer limit) {
+        MetricTable table = TABLES.get("applications".equals(type) ? "application" : type);
+        if (table == null) {
+            throw new IllegalArgumentException("Unknown metric type: " + type);
+        }
+        if (!start.before(end)) {
+            throw new IllegalArgumentException("start must be before end");
+        }
+        if (resolution < 1) {
+            throw new IllegalArgumentException("resolution must be greater than 0");
+        }
+        if (limit != null && limit < 1) {
+            throw new IllegalArgumentException("limit must be greater than 0");
+        }
+
+        return new HistoryQuery(type, table, start, end,
+                metricTierSelector.selectTiers(start, end, resolution),
+                cursor == null ? null : Cursor.parse(cursor),
+                limit == null ? defaultLimit : limit,
+                null, null, 0, null);
+    }
+
+    /**
+     * Checks the parameters of a request for one field of each device downsampled to a number of
+     * points, and chooses the granularity levels to read
+     *
+     * @param type cpu, memory, disk, nic or application (or applications)
+     * @param start The start of the range (inclusive)
+     * @param end The end of the range (exclusive)
+     * @param points The maximum number of points per device
+     * @param method lttb or minmax
+     * @param field The field to downsample, or null for the first field of the type
+     * @param deviceId The ID of the only device (or application) to read, or null for all of them
+     * @throws IllegalArgumentException If a parameter is not valid
+     */
+    public HistoryQuery prepareDownsampled(String type, Timestamp start, Timestamp end, int points,
+                                           String method, String field, UUID deviceId) {
+        MetricTable table = TABLES.get("applications".equals(type) ? "application" : type);
+        if (table == null) {
+            throw new IllegalArgumentException("Unknown metric type: " + type);
+        }
+        if (!start.before(end)) {
+            throw new IllegalArgumentException("start must be before end");
+        }
+        if (points > MAX_POINTS) {
+            throw new IllegalArgumentException("points must be at most " + MAX_POINTS);
+        }
+        // Checks the method and number of points
+        SeriesDownsampler.create(method, start.getTime(), end.getTime(), points);
+
+        int fieldIndex = field == null ? 0 : java.util.Arrays.asList(table.valueFields).indexOf(field);
+        if (fieldIndex < 0) {
+            throw new IllegalArgumentException("Unknown field of " + type + ": " + field);
+        }
+
+        // Read the coarsest metrics which still have a metric per point
+        long bucketMillis = SeriesDownsampler.bucketMillis(method, start.getTime(), end.getTime(), points);
+        int resolution = Math.clamp(bucketMillis / 1000, 1, Integer.MAX_VALUE);
+
+        return new HistoryQuery(type, table, start, end,
+                metricTierSelector.selectTiers(start, end, resolution),
+                null, Integer.MAX_VALUE,
+                method, table.valueFields[fieldIndex], points, deviceId == null ? null : toBytes(deviceId));
+    }
+
+    /**
+     * Writes the metrics of a query as a JSON object with the metrics in <code>metrics</code>,
+     * followed by <code>nextCursor</code>
+     */
+    public void write(HistoryQuery query, OutputStream outputStream) throws IOException {
+        if (query.method != null) {
+            writeDownsampled(query, outputStream);
+            return;
+        }
+
+        MetricTable table = query.table;
+
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(outputStream, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeStringField("type", query.type);
+            json.writeNumberField("start", query.start.getTime());
+            json.writeNumberField("end", query.end.getTime());
+            json.writeArrayFieldStart("metrics");
+
+            Cursor after = query.cursor;
+            int remaining = query.limit;
+            boolean more = false;
+
+            for (RangePart part : split(query.ranges)) {
+                MetricTierSelector.TierRange range = part.range();
+                // Ranges are in order and do not overlap, so a cursor past a range skips all of it
+                if (after != null && after.timestamp >= range.getEnd().getTime()) {
+                    continue;
+                }
+
+                while (remaining > 0) {
+                    int requested = Math.min(chunkSize, remaining);
+                    java.util.List<Object[]> rows = part.sampled()
+                            ? readSampledChunk(table, range, after, requested)
+                            : readChunk(table, range, null, after, requested);
+                    for (Object[] row : rows) {
+                        writeMetric(json, table, range.getGranularityLabel(), row);
+                    }
+                    json.flush();
+
+                    remaining -= rows.size();
+                    if (!rows.isEmpty()) {
+                        Object[] last = rows.getLast();
+                        after = new Cursor((Long) last[0], (byte[]) last[1]);
+                    }
+                    // A short chunk is the end of the range
+                    if (rows.size() < requested) {
+                        break;
+                    }
+                }
+
+                if (remaining == 0) {
+                    more = true;
+                    break;
+                }
+            }
+
+            json.writeEndArray();
+            // Reaching the limit exactly at the end of the range still gives a cursor, whose request returns nothing
+            if (more && after != null) {
+                json.writeStringField("nextCursor", after.toString());
+            } else {
+                json.writeNullField("nextCursor");
+            }
+            json.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes a JSON object with the downsampled points of each device in <code>series</code>, as
+     * <code>[timestamp, value]</code> pairs
+     */
+    private void writeDownsampled(HistoryQuery query, OutputStream outputStream) throws IOException {
+        MetricTable table = query.table;
+        int fieldIndex = java.util.Arrays.asList(table.valueFields).indexOf(query.field);
+        int valueColumn = 3 + fieldIndex;
+        long start = query.start.getTime();
+        long end = query.end.getTime();
+
+        java.util.LinkedHashMap<UUID, SeriesDownsampler> series = new java.util.LinkedHashMap<>();
+        for (RangePart part : split(query.ranges)) {
+            MetricTierSelector.TierRange range = part.range();
+            if (part.sampled()) {
+                readSamples(query, range, fieldIndex, series);
+                continue;
+            }
+
+            Cursor after = null;
+            java.util.List<Object[]> rows;
+            do {
+                rows = readChunk(table, range, query.deviceId, after, chunkSize);
+                for (Object[] row : rows) {
+                    if (row[valueColumn] == null) {
+                        continue;
+                    }
+                    series.computeIfAbsent(toUuid((byte[]) row[1]),
+                                    deviceId -> SeriesDownsampler.create(query.method, start, end, query.points))
+                            .add((Long) row[0], ((Number) row[valueColumn]).doubleValue());
+                }
+                if (!rows.isEmpty()) {
+                    Object[] last = rows.getLast();
+                    after = new Cursor((Long) last[0], (byte[]) last[1]);
+                }
+            } while (rows.size() == chunkSize);
+        }
+
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(outputStream, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeStringField("type", query.type);
+            json.writeNumberField("start", start);
+            json.writeNumberField("end", end);
+            json.writeStringField("field", query.field);
+            json.writeStringField("method", query.method);
+            json.writeNumberField("points", query.points);
+            json.writeArrayFieldStart("series");
+            for (java.util.Map.Entry<UUID, SeriesDownsampler> entry : series.entrySet()) {
+                SeriesDownsampler downsampler = entry.getValue();
+                downsampler.finish();
+
+                json.writeStartObject();
+                json.writeStringField(table.deviceField, entry.getKey().toString());
+                json.writeArrayFieldStart("points");
+                for (int point = 0; point < downsampler.size(); point++) {
+                    json.writeStartArray();
+                    json.writeNumber(downsampler.timestamp(point));
+                    json.writeNumber(downsampler.value(point));
+                    json.writeEndArray();
+                }
+                json.writeEndArray();
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+
+    /**
+     * Splits the HIGH granularity ranges at the oldest sample kept by the SampleSegmentStore, into
+     * the part saved in the database before the segments kept the samples and the part read from
+     * the segments
+     */
+    private java.util.List<RangePart> split(java.util.List<MetricTierSelector.TierRange> ranges) {
+        long oldestSample = sampleSegmentStore.getOldestSample();
+        java.util.List<RangePart> parts = new java.util.ArrayList<>(ranges.size() + 1);
+
+        for (MetricTierSelector.TierRange range : ranges) {
+            String label = range.getGranularityLabel();
+            if (!RollupService.SOURCE_GRANULARITY.equals(label)) {
+                parts.add(new RangePart(range, false));
+                continue;
+            }
+
+            long start = range.getStart().getTime();
+            long end = range.getEnd().getTime();
+            long sampledSince = Math.max(start, Math.min(oldestSample, end));
+            if (start < sampledSince) {
+                parts.add(new RangePart(new MetricTierSelector.TierRange(label, range.getStart(),
+                        new Timestamp(sampledSince)), false));
+            }
+            if (sampledSince < end) {
+                parts.add(new RangePart(new MetricTierSelector.TierRange(label, new Timestamp(sampledSince),
+                        range.getEnd()), true));
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Adds the samples of a HIGH granularity range to the downsampled series from the
+     * SampleSegmentStore. The average, maximum and minimum of a field are all read from the
+     * samples of that field of the segments.
+     */
+    private void readSamples(HistoryQuery query, MetricTierSelector.TierRange range, int fieldIndex,
+                             java.util.LinkedHashMap<UUID, SeriesDownsampler> series) throws IOException {
+        SlidingWindowStore.SeriesType type = query.table.seriesType;
+        long rangeStart = range.getStart().getTime();
+        long start = query.start.getTime();
+        long end = query.end.getTime();
+        UUID deviceId = query.deviceId == null ? null : toUuid(query.deviceId);
+        SampleSegmentStore.SampleVisitor visitor = (seriesId, timestamp, value) -> series
+                .computeIfAbsent(seriesId, id -> SeriesDownsampler.create(query.method, start, end, query.points))
+                .add(timestamp, value);
+
+        if ("minmax".equals(query.method)) {
+            sampleSegmentStore.scanExtremes(type, deviceId, fieldIndex / 3, rangeStart, range.getEnd().getTime(),
+                    start, SeriesDownsampler.bucketMillis(query.method, start, end, query.points), visitor);
+        } else {
+            sampleSegmentStore.scan(type, deviceId, fieldIndex / 3, rangeStart, range.getEnd().getTime(), visitor);
+        }
+    }
+
+    /**
+     * Reads the next rows of a HIGH granularity range after the cursor from the SampleSegmentStore,
+     * in the same form as {@link #readChunk}. The samples of every series are read a slice of
+     * time at a time, each slice sized from the number of samples per second of the one before
+     * for the rows still needed, and sorted by timestamp and device.
+     */
+    private java.util.List<Object[]> readSampledChunk(MetricTable table, MetricTierSelector.TierRange range,
+                                                      Cursor after, int rows) throws IOException {
+        java.util.List<Object[]> chunk = new java.util.ArrayList<>(rows);
+        long end = range.getEnd().getTime();
+        long from = after == null ? range.getStart().getTime() : Math.max(range.getStart().getTime(), after.timestamp);
+        long sliceMillis = 1000;
+
+        while (chunk.size() < rows && from < end) {
+            long sliceEnd = end - from <= sliceMillis ? end : from + sliceMillis;
+            java.util.List<Object[]> slice = new java.util.ArrayList<>();
+            sampleSegmentStore.scanRows(table.seriesType, null, from, sliceEnd, (seriesId, timestamp, values) -> {
+                Object[] row = sampleRow(table, seriesId, timestamp, values);
+                if (after == null || ROW_ORDER.compare(row, after.row()) > 0) {
+                    slice.add(row);
+                }
+            });
+            slice.sort(ROW_ORDER);
+            chunk.addAll(slice.subList(0, Math.min(slice.size(), rows - chunk.size())));
+
+            // Slices without samples (e.g. while the collector was not running) grow until they find some
+            sliceMillis = slice.isEmpty()
+                    ? sliceMillis * 2
+                    : Math.max(1000, (rows - chunk.size()) * (sliceEnd - from) / slice.size());
+            from = sliceEnd;
+        }
+        return chunk;
+    }
+
+    /**
+     * Converts a sample to a row, as a metric of one second whose average, maximum and minimum
+     * are its value
+     */
+    private static Object[] sampleRow(MetricTable table, UUID seriesId, long timestamp, double[] values) {
+        Object[] row = new Object[3 + table.valueColumns.length];
+        row[0] = timestamp;
+        row[1] = toBytes(seriesId);
+        row[2] = 1;
+        for (int field = 0; field < values.length; field++) {
+            Object value = table.integerFields[field] ? (Object) (long) values[field] : (Object) values[field];
+            row[3 + field * 3] = value;
+            row[4 + field * 3] = value;
+            row[5 + field * 3] = value;
+        }
+        return row;
+    }
+
+    /**
+     * Reads the next rows of a range after the cursor, as the timestamp, device ID, duration and
+     * then each value column
+     *
+     * @param deviceId The only device to read the rows of, or null for every device
+     */
+    private java.util.List<Object[]> readChunk(MetricTable table, MetricTierSelector.TierRange range,
+                                               byte[] deviceId, Cursor after, int rows) {
+        java.util.List<Object> parameters = new java.util.ArrayList<>();
+        StringBuilder sql = new StringBuilder(table.selectSql);
+
+        parameters.add(range.getStart().getTime());
+        parameters.add(range.getEnd().getTime());
+        if (deviceId != null) {
+            sql.append(" AND ").append(table.deviceColumn).append(" = ?");
+            parameters.add(deviceId);
+        }
+        if (after != null) {
+            sql.append(" AND (timestamp > ? OR (timestamp = ? AND ").append(table.deviceColumn).append(" > ?))");
+            parameters.add(after.timestamp);
+            parameters.add(after.timestamp);
+            parameters.add(after.deviceId);
+        }
+
+        sql.append(" AND (granularity_id IN (SELECT id FROM granularity WHERE label = ?)");
+        parameters.add(range.getGranularityLabel());
+        if (table.unlabelledIsHigh && RollupService.SOURCE_GRANULARITY.equals(range.getGranularityLabel())) {
+            // Application metrics saved before they had a granularity level are HIGH granularity metrics
+            sql.append(" OR granularity_id IS NULL");
+        }
+        sql.append(") ORDER BY timestamp, ").append(table.deviceColumn).append(" LIMIT ?");
+        parameters.add(rows);
+
+        int columns = 3 + table.valueColumns.length;
+        return readOnlyTransaction.execute(status -> jdbcTemplate.query(sql.toString(), (rs, rowNum) -> {
+            Object[] row = new Object[columns];
+            row[0] = rs.getLong(1);
+            for (int column = 1; column < columns; column++) {
+                row[column] = rs.getObject(column + 1);
+            }
+            return row;
+        }, parameters.toArray()));
+    }
+
+    private static void writeMetric(JsonGenerator json, MetricTable table, String granularityLabel, Object[] row)
+            throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("timestamp", (Long) row[0]);
+        json.writeStringField(table.deviceField, toUuid((byte[]) row[1]).toString());
+        json.writeStringField("granularity", granularityLabel);
+        writeNumber(json, "duration", row[2]);
+        for (int i = 0; i < table.valueColumns.length; i++) {
+            writeNumber(json, table.valueFields[i], row[3 + i]);
+        }
+        json.writeEndObject();
+    }
+
+    private static void writeNumber(JsonGenerator json, String field, Object value) throws IOException {
+        if (value == null) {
+            json.writeNullField(field);
+        } else if (value instanceof Double || value instanceof Float) {
+            json.writeNumberField(field, ((Number) value).doubleValue());
+        } else {
+            json.writeNumberField(field, ((Number) value).longValue());
+        }
+    }
+
+    /**
+     * Converts a UUID stored as 16 bytes, most significant first
+     */
+    private static UUID toUuid(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    /**
+     * The metrics to write for one request
+     */
+    public static final class HistoryQuery {
+        private final String type;
+        private final MetricTable table;
+        private final Timestamp start;
+        private final Timestamp end;
+        private final java.util.List<MetricTierSelector.TierRange> ranges;
+        private final Cursor cursor;
+        private final int limit;
+        // Set when the metrics are downsampled
+        private final String method;
+        private final String field;
+        private final int points;
+        private final byte[] deviceId;
+
+        private HistoryQuery(String type, MetricTable table, Timestamp start, Timestamp end,
+                             java.util.List<MetricTierSelector.TierRange> ranges, Cursor cursor, int limit,
+                             String method, String field, int points, byte[] deviceId) {
+            this.type = type;
+            this.table = table;
+            this.start = start;
+            this.end = end;
+            this.ranges = ranges;
+            this.cursor = cursor;
+            this.limit = limit;
+            this.method = method;
+            this.field = field;
+            this.points = points;
+            this.deviceId = deviceId;
+        }
+    }
+
+    /**
+     * A part of a range of a granularity level, read from the SampleSegmentStore if it is sampled
+     */
+    private record RangePart(MetricTierSelector.TierRange range, boolean sampled) {}
+
+    /**
+     * The position of the last metric written, as its timestamp and the ID of its device
+     */
+    private record Cursor(long timestamp, byte[] deviceId) {
+
+        /**
+         * The start of a row at the cursor, to compare rows with
+         */
+        Object[] row() {
+            return new Object[] {timestamp, deviceId};
+        }
+
+        /**
+         * @throws IllegalArgumentException If the cursor is not a timestamp and a UUID separated by '_'
+         */
+        static Cursor parse(String cursor) {
+            int separator = cursor.indexOf('_');
+            try {
+                return new Cursor(Long.parseLong(cursor.substring(0, separator)),
+                                  toBytes(UUID.fromString(cursor.substring(separator + 1))));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return timestamp + "_" + toUuid(deviceId);
+        }
+    }
+
+    /**
+     * The table of a metric type, with the columns written for each metric, and its series in the
+     * SampleSegmentStore, whose fields are the averages of the value columns
+     */
+    private static final class MetricTable {
+        private final SlidingWindowStore.SeriesType seriesType;
+        private final String deviceColumn;
+        private final String deviceField;
+        private final boolean unlabelledIsHigh;
+        // Whether each field of the samples is saved as a whole number
+        private final boolean[] integerFields;
+        private final String[] valueColumns;
+        private final String[] valueFields;
+        private final String selectSql;
+
+        MetricTable(String table, SlidingWindowStore.SeriesType seriesType, String deviceColumn, String deviceField,
+                    boolean unlabelledIsHigh, boolean[] integerFields, String... valueColumns) {
+            this.seriesType = seriesType;
+            this.deviceColumn = deviceColumn;
+            this.deviceField = deviceField;
+            this.unlabelledIsHigh = unlabelledIsHigh;
+            this.integerFields = integerFields;
+            this.valueColumns = valueColumns;
+            this.valueFields = new String[valueColumns.length];
+            for (int i = 0; i < valueColumns.length; i++) {
+                valueFields[i] = toCamelCase(valueColumns[i]);
+            }
+            this.selectSql = "SELECT timestamp, " + deviceColumn + ", duration, "
+                    + String.join(", ", valueColumns)
+                    + " FROM " + table + " WHERE timestamp >= ? AND timestamp < ?";
+        }
+
+        private static String toCamelCase(String column) {
+            StringBuilder field = new StringBuilder(column.length());
+            boolean upper = false;
+            for (char c : column.toCharArray()) {
+                if (c == '_') {
+                    upper = true;
+                } else {
+                    field.append(upper ? Character.toUpperCase(c) : c);
+                    upper = false;
+                }
+            }
+            return field.toString();
+        }
+    }
+}
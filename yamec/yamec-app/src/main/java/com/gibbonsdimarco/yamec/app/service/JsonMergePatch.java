@@ -0,0 +1,58 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <p>Computes JSON merge patches (RFC 7396) between two versions of a document.</p>
+ * <p>Objects are compared field by field, so only the fields which changed are included in the
+ * patch, and fields which were removed are set to null. Any other value, including arrays, is
+ * replaced as a whole when it changes, so documents which should be patched element by element
+ * must key their elements in an object.</p>
+ */
+public final class JsonMergePatch {
+
+    private JsonMergePatch() {
+    }
+
+    /**
+     * Returns the merge patch which turns the previous object into the current one
+     *
+     * @param previous The previous version of the document
+     * @param current The current version of the document
+     * @return The patch, which is empty if both versions are equal
+     */
+    public static ObjectNode diff(ObjectNode previous, ObjectNode current) {
+        ObjectNode patch = JsonNodeFactory.instance.objectNode();
+
+        Iterator<Map.Entry<String, JsonNode>> currentFields = current.fields();
+        while (currentFields.hasNext()) {
+            Map.Entry<String, JsonNode> field = currentFields.next();
+            JsonNode previousValue = previous.get(field.getKey());
+            JsonNode currentValue = field.getValue();
+
+            if (previousValue == null || !previousValue.equals(currentValue)) {
+                if (previousValue instanceof ObjectNode previousObject
+                        && currentValue instanceof ObjectNode currentObject) {
+                    patch.set(field.getKey(), diff(previousObject, currentObject));
+                } else {
+                    patch.set(field.getKey(), currentValue);
+                }
+            }
+        }
+
+        Iterator<String> previousFields = previous.fieldNames();
+        while (previousFields.hasNext()) {
+            String fieldName = previousFields.next();
+            if (!current.has(fieldName)) {
+                patch.putNull(fieldName);
+            }
+        }
+
+        return patch;
+    }
+}
@@ -0,0 +1,115 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.model.ApplicationMetricsData;
+import com.gibbonsdimarco.yamec.app.model.MetricsData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <p>Holds the view of the most recently saved collection, so the dashboard endpoints can be
+ * served without querying the database.</p>
+ * <p>The MetricsPersistenceService publishes a new view once the transaction which saved a batch
+ * of collections commits. A view is never modified after it is published, and is replaced as a
+ * whole, so readers always see the system and application metrics of the same collection.</p>
+ * <p>Listeners are notified of each view published, on the thread which publishes it.</p>
+ */
+@Service
+public class LatestMetricsCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(LatestMetricsCache.class);
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile LatestMetrics latest;
+
+    /**
+     * Replaces the cached view. The objects passed by parameter must not be modified afterward.
+     *
+     * @param collectionTime The time the metrics were collected
+     * @param systemMetrics The view of the system metrics
+     * @param applicationMetrics The view of the application metrics
+     */
+    public void publish(Timestamp collectionTime,
+                        MetricsData systemMetrics,
+                        ApplicationMetricsData.ApplicationMetricsDataList applicationMetrics) {
+        LatestMetrics current = latest;
+
+        // Batches are saved in order, but never go back in time if one is published late
+        if (current != null && current.collectionTime.after(collectionTime)) {
+            return;
+        }
+
+        latest = new LatestMetrics(collectionTime, systemMetrics, applicationMetrics);
+
+        for (Listener listener : listeners) {
+            try {
+                listener.onPublish(collectionTime, systemMetrics, applicationMetrics);
+            } catch (RuntimeException e) {
+                logger.warn("Listener failed to handle the metrics collected at {}", collectionTime, e);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener to be notified of each view published from now on. Listeners must
+     * return quickly, since they are called on the thread which saves the metrics.
+     *
+     * @param listener The listener to register
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the system metrics of the latest collection saved, or null if none has been saved
+     * since the application started
+     */
+    public MetricsData getSystemMetrics() {
+        LatestMetrics current = latest;
+        return current == null ? null : current.systemMetrics;
+    }
+
+    /**
+     * Returns the application metrics of the latest collection saved, or null if none has been
+     * saved since the application started
+     */
+    public ApplicationMetricsData.ApplicationMetricsDataList getApplicationMetrics() {
+        LatestMetrics current = latest;
+        return current == null ? null : current.applicationMetrics;
+    }
+
+    /**
+     * Returns the time the cached metrics were collected, or null if nothing is cached
+     */
+    public Timestamp getCollectionTime() {
+        LatestMetrics current = latest;
+        return current == null ? null : current.collectionTime;
+    }
+
+    /**
+     * Receives each view published to the cache. The objects passed must not be modified.
+     */
+    public interface Listener {
+        void onPublish(Timestamp collectionTime,
+                       MetricsData systemMetrics,
+                       ApplicationMetricsData.ApplicationMetricsDataList applicationMetrics);
+    }
+
+    private static final class LatestMetrics {
+        private final Timestamp collectionTime;
+        private final MetricsData systemMetrics;
+        private final ApplicationMetricsData.ApplicationMetricsDataList applicationMetrics;
+
+        private LatestMetrics(Timestamp collectionTime,
+                              MetricsData systemMetrics,
+                              ApplicationMetricsData.ApplicationMetricsDataList applicationMetrics) {
+            this.collectionTime = collectionTime;
+            this.systemMetrics = systemMetrics;
+            this.applicationMetrics = applicationMetrics;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.gibbonsdimarco.yamec.app.service;
 
 import com.gibbonsdimarco.yamec.app.data.*;
-import com.gibbonsdimarco.yamec.app.repository.GranularityRepository;
 import com.gibbonsdimarco.yamec.app.repository.MemoryHardwareInformationRepository;
 import com.gibbonsdimarco.yamec.app.repository.SystemMemoryMetricRepository;
 import jakarta.transaction.Transactional;
@@ -18,15 +17,21 @@ public class MemoryHardwareInformationService {
 
     private final SystemMemoryMetricRepository memoryMetricRepository;
     private final MemoryHardwareInformationRepository memoryHardwareInformationRepository;
-    private final GranularityRepository granularityRepository;
+    private final GranularityIdCache granularityIdCache;
+    private final MetricTierSelector metricTierSelector;
+    private final RawMetricReader rawMetricReader;
 
     @Autowired
     public MemoryHardwareInformationService(SystemMemoryMetricRepository memoryMetricRepository,
                                             MemoryHardwareInformationRepository memoryHardwareInformationRepository,
-                                            GranularityRepository granularityRepository) {
+                                            GranularityIdCache granularityIdCache,
+                                            MetricTierSelector metricTierSelector,
+                                            RawMetricReader rawMetricReader) {
         this.memoryMetricRepository = memoryMetricRepository;
         this.memoryHardwareInformationRepository = memoryHardwareInformationRepository;
-        this.granularityRepository = granularityRepository;
+        this.granularityIdCache = granularityIdCache;
+        this.metricTierSelector = metricTierSelector;
+        this.rawMetricReader = rawMetricReader;
     }
 
 
@@ -48,158 +53,72 @@ public class MemoryHardwareInformationService {
 
         long startTimeAsLong = startTime.getTime();
 
-        // Use a map to group metrics by the
-        java.util.List<UUID> recordedMemoryIds = new java.util.ArrayList<>();
-        java.util.HashMap<UUID, Integer> numValidMemoryMetrics = new java.util.HashMap<>();
+        // Fields of the metrics in the aggregator
+        final int physicalMemoryUsed = 0, virtualMemoryUsed = 1;
+        final int physicalMemoryUnsigned = 0, virtualMemoryUnsigned = 1;
 
-        java.util.HashMap<UUID, long[]> physicalMemoryUsedTotalMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Long> physicalMemoryUsedMaxMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Long> physicalMemoryUsedMinMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Boolean> physicalMemoryUsedUnsignedMap = new java.util.HashMap<>();
+        MetricAggregator<UUID> aggregator = new MetricAggregator<>(0, 2, 2, 1);
+        // Metrics of one second hold a single value, so only longer metrics keep a sketch of their values
+        final boolean sketched = duration > 1;
 
-        java.util.HashMap<UUID, long[]> virtualMemoryUsedTotalMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Long> virtualMemoryUsedMaxMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Long> virtualMemoryUsedMinMap = new java.util.HashMap<>();
-        java.util.HashMap<UUID, Boolean> virtualMemoryUsedUnsignedMap = new java.util.HashMap<>();
-
-
-        // Go through all processes related to this application and get the total resource use
-        // by the application per second
         for (SystemMemoryMetric currentMetric : memoryMetrics) {
 
-            // Fail-safe in case a metric is not assigned a Memory Hardware metric (can't properly group the metrics)
-            if (currentMetric.getMemory() == null)
-            {
+            // Fail-safe in case a metric is not assigned a Memory Hardware metric (can't properly group
+            // the metrics) or a timestamp (Can't accurately get metrics from it)
+            if (currentMetric.getMemory() == null || currentMetric.getTimestamp() == null) {
                 continue;
             }
 
-            // Fail-safe in case a metric is not given a timestamp (Can't accurately get metrics from it)
-            if (currentMetric.getTimestamp() == null) {
-                continue;
-            }
-
-            UUID memoryId = currentMetric.getMemory().getId();
-
-            // Get average, max, and min metrics
-            long averagePhysicalMemoryUsed = currentMetric.getAveragePhysicalUtilization();
-            long maxPhysicalMemoryUsed = currentMetric.getMaxPhysicalUtilization();
-            long minPhysicalMemoryUsed = currentMetric.getMinPhysicalUtilization();
-
-            long averageVirtualMemoryUsed = currentMetric.getAverageVirtualUtilization();
-            long maxVirtualMemoryUsed = currentMetric.getMaxVirtualUtilization();
-            long minVirtualMemoryUsed = currentMetric.getMinVirtualUtilization();
-
-            boolean unsignedPhysicalMemory = currentMetric.isPhysicalUtilizationUnsigned();
-            boolean unsignedVirtualMemory = currentMetric.isVirtualUtilizationUnsigned();
-
-            long timestampAsLong = currentMetric.getTimestamp().getTime();
-
-            // Used to map process data to the second number of the data
-            int secondsSinceStartTime = (int)((timestampAsLong - startTimeAsLong)/1000);
-
-
             // Fail-safe if a record outside the duration is included
-            if (secondsSinceStartTime > duration - 1) {
+            if (!MetricAggregator.isInTimespan(currentMetric.getTimestamp(), startTimeAsLong, duration)) {
                 continue;
             }
 
-            // Create key maps for all values if one doesn't exist for a specific CPU
-            if (!recordedMemoryIds.contains(memoryId)) {
-                recordedMemoryIds.add(memoryId);
-                numValidMemoryMetrics.put(memoryId, 0);
-                physicalMemoryUsedTotalMap.put(memoryId, new long[duration]);
-                physicalMemoryUsedMaxMap.put(memoryId, Long.MIN_VALUE);
-                physicalMemoryUsedMinMap.put(memoryId, Long.MAX_VALUE);
-
-                virtualMemoryUsedTotalMap.put(memoryId, new long[duration]);
-                virtualMemoryUsedMaxMap.put(memoryId, Long.MIN_VALUE);
-                virtualMemoryUsedMinMap.put(memoryId, Long.MAX_VALUE);
-
-                physicalMemoryUsedUnsignedMap.put(memoryId, false);
-                virtualMemoryUsedUnsignedMap.put(memoryId, false);
-            }
-
             // If no memory is being used, skip this metric
-            if (averagePhysicalMemoryUsed == 0
-                    && averageVirtualMemoryUsed == 0
-                    && maxPhysicalMemoryUsed == 0
-                    && maxVirtualMemoryUsed == 0
-                    && minPhysicalMemoryUsed == 0
-                    && minVirtualMemoryUsed == 0) {
+            if (currentMetric.getAveragePhysicalUtilization() == 0
+                    && currentMetric.getAverageVirtualUtilization() == 0
+                    && currentMetric.getMaxPhysicalUtilization() == 0
+                    && currentMetric.getMaxVirtualUtilization() == 0
+                    && currentMetric.getMinPhysicalUtilization() == 0
+                    && currentMetric.getMinVirtualUtilization() == 0) {
                 continue;
             }
 
-            // This is a valid metric, and the timestamp
-            numValidMemoryMetrics.put(memoryId, numValidMemoryMetrics.get(memoryId) + 1);
+            int slot = aggregator.slot(currentMetric.getMemory().getId());
+            aggregator.countMetric(slot);
 
-            // Add to running totals and extract maximums and minimums
-            physicalMemoryUsedTotalMap.get(memoryId)[secondsSinceStartTime] = averagePhysicalMemoryUsed;
-            if (physicalMemoryUsedMaxMap.get(memoryId) < maxPhysicalMemoryUsed) {
-                physicalMemoryUsedMaxMap.put(memoryId, maxPhysicalMemoryUsed);
-            }
-            if (physicalMemoryUsedMinMap.get(memoryId) > minPhysicalMemoryUsed) {
-                physicalMemoryUsedMinMap.put(memoryId, minPhysicalMemoryUsed);
-            }
-
-            virtualMemoryUsedTotalMap.get(memoryId)[secondsSinceStartTime] = averageVirtualMemoryUsed;
-            if (virtualMemoryUsedMaxMap.get(memoryId) < maxVirtualMemoryUsed) {
-                virtualMemoryUsedMaxMap.put(memoryId, maxVirtualMemoryUsed);
-            }
-            if (virtualMemoryUsedMinMap.get(memoryId) > minVirtualMemoryUsed) {
-                virtualMemoryUsedMinMap.put(memoryId, minVirtualMemoryUsed);
-            }
+            aggregator.recordLong(slot, physicalMemoryUsed, currentMetric.getAveragePhysicalUtilization(),
+                    currentMetric.getMaxPhysicalUtilization(), currentMetric.getMinPhysicalUtilization());
+            aggregator.recordLong(slot, virtualMemoryUsed, currentMetric.getAverageVirtualUtilization(),
+                    currentMetric.getMaxVirtualUtilization(), currentMetric.getMinVirtualUtilization());
 
-            // Set unsigned boolean values to true if even one value is reported as true
-            if (unsignedPhysicalMemory) {
-                physicalMemoryUsedUnsignedMap.put(memoryId, true);
-            }
+            // Unsigned if even one value is reported as unsigned
+            aggregator.recordFlag(slot, physicalMemoryUnsigned, currentMetric.isPhysicalUtilizationUnsigned());
+            aggregator.recordFlag(slot, virtualMemoryUnsigned, currentMetric.isVirtualUtilizationUnsigned());
 
-            if (unsignedVirtualMemory) {
-                virtualMemoryUsedUnsignedMap.put(memoryId, true);
+            if (sketched) {
+                aggregator.recordSketch(slot, physicalMemoryUsed, currentMetric.getAveragePhysicalUtilization(),
+                        currentMetric.getPhysicalUtilizationSketch());
             }
-
         }
 
-        java.util.List<SystemMemoryMetric> metricsToRecord = new java.util.ArrayList<>();
-
-        for (UUID memoryId : recordedMemoryIds) {
-
-            // Data containers for metrics
-            long averagePhysicalMemoryUsage = 0;
-            long maxPhysicalMemoryUsage = physicalMemoryUsedMaxMap.get(memoryId);
-            long minPhysicalMemoryUsage = physicalMemoryUsedMinMap.get(memoryId);
-
-            long averageVirtualMemoryUsage = 0;
-            long maxVirtualMemoryUsage = virtualMemoryUsedMaxMap.get(memoryId);
-            long minVirtualMemoryUsage = virtualMemoryUsedMinMap.get(memoryId);
-
-            boolean unsignedPhysicalMemory = physicalMemoryUsedUnsignedMap.get(memoryId);
-            boolean unsignedVirtualMemory = virtualMemoryUsedUnsignedMap.get(memoryId);
-
-            int countMetrics = numValidMemoryMetrics.get(memoryId);
-
-            for (int secondNum = 0; secondNum < duration; secondNum++) {
-                // Sum total usages for all valid processes and applications
-                averagePhysicalMemoryUsage += physicalMemoryUsedTotalMap.get(memoryId)[secondNum];
-                averageVirtualMemoryUsage += virtualMemoryUsedTotalMap.get(memoryId)[secondNum];
-            }
-
-            // Take average of each metric based on the duration
-            averagePhysicalMemoryUsage /= countMetrics;
-            averageVirtualMemoryUsage /= countMetrics;
+        UUID granularityId = granularityIdCache.getId(granularityLabel);
+        java.util.List<SystemMemoryMetric> metricsToRecord = new java.util.ArrayList<>(aggregator.size());
 
+        for (int slot = 0; slot < aggregator.size(); slot++) {
             SystemMemoryMetric currentMetric = new SystemMemoryMetric(startTime, duration,
-                    granularityRepository.getByLabel(granularityLabel).getId(),
-                    averagePhysicalMemoryUsage,
-                    maxPhysicalMemoryUsage,
-                    minPhysicalMemoryUsage,
-                    averageVirtualMemoryUsage,
-                    maxVirtualMemoryUsage,
-                    minVirtualMemoryUsage,
-                    unsignedPhysicalMemory,
-                    unsignedVirtualMemory);
-
-            currentMetric.setMemory(memoryHardwareInformationRepository.getReferenceById(memoryId));
+                    granularityId,
+                    aggregator.longAverage(slot, physicalMemoryUsed),
+                    aggregator.longMaximum(slot, physicalMemoryUsed),
+                    aggregator.longMinimum(slot, physicalMemoryUsed),
+                    aggregator.longAverage(slot, virtualMemoryUsed),
+                    aggregator.longMaximum(slot, virtualMemoryUsed),
+                    aggregator.longMinimum(slot, virtualMemoryUsed),
+                    aggregator.flag(slot, physicalMemoryUnsigned),
+                    aggregator.flag(slot, virtualMemoryUnsigned));
+
+            currentMetric.setMemory(memoryHardwareInformationRepository.getReferenceById(aggregator.key(slot)));
+            currentMetric.setPhysicalUtilizationSketch(aggregator.sketchBytes(slot, physicalMemoryUsed));
 
             // Create Metric object
             metricsToRecord.add(currentMetric);
@@ -226,6 +145,30 @@ public class MemoryHardwareInformationService {
                                                           java.sql.Timestamp startTime,
                                                           int duration) {
 
+        java.util.List<SystemMemoryMetric> validMetrics = buildMemoryMetrics(memoryMetrics, startTime, duration);
+
+        if (validMetrics == null) {
+            return null;
+        }
+
+        // Commit Memory Metrics and return entities with the committed IDs
+        return memoryMetricRepository.saveAllAndFlush(validMetrics);
+
+    }
+
+    /**
+     * Aggregates the memory metrics passed by parameter into the entities to save without saving them
+     *
+     * @param memoryMetrics The list of <code>SystemMemoryMetric</code> objects to aggregate
+     * @param startTime The starting timestamp of the metrics collected
+     * @param duration The number of seconds which the metrics were collected for
+     * @return The list of <code>SystemMemoryMetric</code> entities to save, or null if there are none
+     * @see #saveMemoryMetrics(java.util.List, java.sql.Timestamp, int)
+     */
+    public java.util.List<SystemMemoryMetric> buildMemoryMetrics(java.util.List<SystemMemoryMetric> memoryMetrics,
+                                                                 java.sql.Timestamp startTime,
+                                                                 int duration) {
+
         if (duration <= 0) {
             throw new IllegalArgumentException("duration must be greater than 0");
         }
@@ -235,11 +178,7 @@ public class MemoryHardwareInformationService {
         }
 
 //        // The collection to be sent to the database to complete the rest of the transaction
-        java.util.List<SystemMemoryMetric> validMetrics
-                = aggregateMemoryMetrics(memoryMetrics, startTime, duration, "HIGH");
-
-        // Commit Memory Metrics and return entities with the committed IDs
-        return memoryMetricRepository.saveAllAndFlush(validMetrics);
+        return aggregateMemoryMetrics(memoryMetrics, startTime, duration, "HIGH");
 
     }
 
@@ -310,5 +249,31 @@ public class MemoryHardwareInformationService {
         return memoryMetricRepository.getNewest();
     }
 
+    /**
+     * Returns the memory metrics from <code>start</code> to <code>end</code>, oldest first, read from
+     * the coarsest granularity level which still has the resolution requested
+     *
+     * @param start The start of the range (inclusive)
+     * @param end The end of the range (exclusive)
+     * @param resolution The number of seconds between the metrics the caller needs
+     * @return The memory metrics in the range
+     * @see MetricTierSelector#selectTiers(java.sql.Timestamp, java.sql.Timestamp, int)
+     */
+    public java.util.List<SystemMemoryMetric> getMemoryMetrics(java.sql.Timestamp start, java.sql.Timestamp end, int resolution) {
+        java.util.List<SystemMemoryMetric> metrics = new java.util.ArrayList<>();
+
+        for (MetricTierSelector.TierRange range : metricTierSelector.selectTiers(start, end, resolution)) {
+            if (RollupService.SOURCE_GRANULARITY.equals(range.getGranularityLabel())) {
+                // The raw samples are kept by the SampleSegmentStore
+                metrics.addAll(rawMetricReader.findMemoryMetrics(range.getStart(), range.getEnd()));
+            } else {
+                metrics.addAll(memoryMetricRepository.findAllInRangeByGranularity(range.getStart(),
+                        range.getEnd(), range.getGranularityLabel()));
+            }
+        }
+
+        return metrics;
+    }
+
     // Other service methods as needed
 }
\ No newline at end of file
@@ -0,0 +1,307 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * <p>Combines metrics sharing a key (such as the device or application they were collected from)
+ * into their averages, maximums and minimums over a timespan.</p>
+ * <p>Each key is assigned a dense integer slot the first time it is seen, and every field of every
+ * slot is accumulated in flat primitive arrays, so recording a metric does not box or allocate.
+ * A metric is recorded by looking up its slot with {@link #slot(Object)}, counting it with
+ * {@link #countMetric(int)}, then passing the average, maximum and minimum of each of its fields to
+ * {@link #recordDouble(int, int, double, double, double)} or
+ * {@link #recordLong(int, int, long, long, long)}. Fields are numbered from 0, separately for
+ * <code>double</code> fields, <code>long</code> fields, flags and sketches.</p>
+ * <p>A field can also be given a QuantileSketch with
+ * {@link #recordSketch(int, int, double, byte[])}, so the percentiles of the values recorded can be
+ * estimated later. Metrics which already have a sketch (because they combine several seconds)
+ * are merged into it instead of adding their average.</p>
+ * <p>The average of a field is the sum of the averages recorded divided by the number of metrics
+ * counted for the slot, so gaps in collection do not pull it towards 0. Slots are returned in the
+ * order their keys were first seen.</p>
+ * <p>An aggregator is not thread-safe, and is meant to be used for one timespan.</p>
+ *
+ * @param <K> The type of the keys metrics are grouped by
+ */
+public final class MetricAggregator<K> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final int doubleFields;
+    private final int longFields;
+    private final int sketchFields;
+
+    // Open addressing table from key to slot. Keys are kept in a separate array by slot so they
+    // can be returned in the order they were first seen.
+    private Object[] tableKeys;
+    private int[] tableSlots;
+    private Object[] keys;
+    private int size;
+
+    private int[] counts;
+    private double[] doubleSums;
+    private double[] doubleMaximums;
+    private double[] doubleMinimums;
+    private long[] longSums;
+    private long[] longMaximums;
+    private long[] longMinimums;
+    private int[] flags;
+    private QuantileSketch[] sketches;
+
+    /**
+     * Creates an aggregator without sketches
+     *
+     * @param doubleFields The number of <code>double</code> fields of each metric
+     * @param longFields The number of <code>long</code> fields of each metric
+     * @param flagFields The number of flags of each metric (up to 32), combined with a logical or
+     */
+    public MetricAggregator(int doubleFields, int longFields, int flagFields) {
+        this(doubleFields, longFields, flagFields, 0);
+    }
+
+    /**
+     * Creates an aggregator
+     *
+     * @param doubleFields The number of <code>double</code> fields of each metric
+     * @param longFields The number of <code>long</code> fields of each metric
+     * @param flagFields The number of flags of each metric (up to 32), combined with a logical or
+     * @param sketchFields The number of fields of each metric with a QuantileSketch
+     */
+    public MetricAggregator(int doubleFields, int longFields, int flagFields, int sketchFields) {
+        if (doubleFields < 0 || longFields < 0 || flagFields < 0 || flagFields > Integer.SIZE
+                || sketchFields < 0) {
+            throw new IllegalArgumentException("Invalid number of fields");
+        }
+
+        this.doubleFields = doubleFields;
+        this.longFields = longFields;
+        this.sketchFields = sketchFields;
+
+        this.tableKeys = new Object[INITIAL_CAPACITY * 2];
+        this.tableSlots = new int[INITIAL_CAPACITY * 2];
+        this.keys = new Object[INITIAL_CAPACITY];
+        this.counts = new int[INITIAL_CAPACITY];
+        this.doubleSums = new double[INITIAL_CAPACITY * doubleFields];
+        this.doubleMaximums = new double[INITIAL_CAPACITY * doubleFields];
+        this.doubleMinimums = new double[INITIAL_CAPACITY * doubleFields];
+        this.longSums = new long[INITIAL_CAPACITY * longFields];
+        this.longMaximums = new long[INITIAL_CAPACITY * longFields];
+        this.longMinimums = new long[INITIAL_CAPACITY * longFields];
+        this.flags = new int[INITIAL_CAPACITY];
+        this.sketches = new QuantileSketch[INITIAL_CAPACITY * sketchFields];
+    }
+
+    /**
+     * Returns whether a metric collected at the timestamp passed by parameter falls in the
+     * timespan starting at <code>startTimeMillis</code> and lasting <code>duration</code> seconds
+     *
+     * @param timestamp The time the metric was collected
+     * @param startTimeMillis The start of the timespan in milliseconds since the epoch
+     * @param duration The number of seconds in the timespan
+     * @return True if the metric falls in the timespan
+     */
+    public static boolean isInTimespan(Timestamp timestamp, long startTimeMillis, int duration) {
+        long secondsSinceStartTime = (timestamp.getTime() - startTimeMillis) / 1000;
+        return secondsSinceStartTime >= 0 && secondsSinceStartTime < duration;
+    }
+
+    /**
+     * Returns the slot of a key, assigning it the next free slot if it was never seen
+     *
+     * @param key The key of the metric
+     * @return The slot of the key
+     */
+    public int slot(K key) {
+        int mask = tableKeys.length - 1;
+        int index = spread(key.hashCode()) & mask;
+
+        Object existing;
+        while ((existing = tableKeys[index]) != null) {
+            if (existing.equals(key)) {
+                return tableSlots[index];
+            }
+            index = (index + 1) & mask;
+        }
+
+        if (size == keys.length) {
+            grow();
+            return slot(key);
+        }
+
+        int slot = size++;
+        tableKeys[index] = key;
+        tableSlots[index] = slot;
+        keys[slot] = key;
+
+        Arrays.fill(doubleMaximums, slot * doubleFields, (slot + 1) * doubleFields, Double.NEGATIVE_INFINITY);
+        Arrays.fill(doubleMinimums, slot * doubleFields, (slot + 1) * doubleFields, Double.POSITIVE_INFINITY);
+        Arrays.fill(longMaximums, slot * longFields, (slot + 1) * longFields, Long.MIN_VALUE);
+        Arrays.fill(longMinimums, slot * longFields, (slot + 1) * longFields, Long.MAX_VALUE);
+
+        return slot;
+    }
+
+    /**
+     * Counts one more metric for a slot, which the averages of the slot are divided by
+     */
+    public void countMetric(int slot) {
+        counts[slot]++;
+    }
+
+    /**
+     * Records the values of a <code>double</code> field of a metric
+     */
+    public void recordDouble(int slot, int field, double average, double maximum, double minimum) {
+        int index = slot * doubleFields + field;
+        doubleSums[index] += average;
+        if (maximum > doubleMaximums[index]) {
+            doubleMaximums[index] = maximum;
+        }
+        if (minimum < doubleMinimums[index]) {
+            doubleMinimums[index] = minimum;
+        }
+    }
+
+    /**
+     * Records the values of a <code>long</code> field of a metric
+     */
+    public void recordLong(int slot, int field, long average, long maximum, long minimum) {
+        int index = slot * longFields + field;
+        longSums[index] += average;
+        if (maximum > longMaximums[index]) {
+            longMaximums[index] = maximum;
+        }
+        if (minimum < longMinimums[index]) {
+            longMinimums[index] = minimum;
+        }
+    }
+
+    /**
+     * Sets a flag of a slot if the value passed by parameter is true
+     */
+    public void recordFlag(int slot, int flag, boolean value) {
+        if (value) {
+            flags[slot] |= 1 << flag;
+        }
+    }
+
+    /**
+     * Adds a value to the sketch of a field, or merges the sketch of the metric if it has one
+     *
+     * @param slot The slot of the metric
+     * @param field The sketch field
+     * @param value The value of the field in the metric (usually its average)
+     * @param sketch The encoded sketch of the metric, or null if the metric has none
+     */
+    public void recordSketch(int slot, int field, double value, byte[] sketch) {
+        int index = slot * sketchFields + field;
+        QuantileSketch slotSketch = sketches[index];
+        if (slotSketch == null) {
+            slotSketch = sketches[index] = new QuantileSketch();
+        }
+
+        if (sketch != null) {
+            slotSketch.merge(sketch);
+        } else {
+            slotSketch.add(value);
+        }
+    }
+
+    /**
+     * Returns the number of keys seen
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the key of a slot
+     */
+    @SuppressWarnings("unchecked")
+    public K key(int slot) {
+        return (K) keys[slot];
+    }
+
+    /**
+     * Returns the number of metrics counted for a slot
+     */
+    public int getCount(int slot) {
+        return counts[slot];
+    }
+
+    public double doubleAverage(int slot, int field) {
+        return doubleSums[slot * doubleFields + field] / counts[slot];
+    }
+
+    public double doubleMaximum(int slot, int field) {
+        return doubleMaximums[slot * doubleFields + field];
+    }
+
+    public double doubleMinimum(int slot, int field) {
+        return doubleMinimums[slot * doubleFields + field];
+    }
+
+    public long longAverage(int slot, int field) {
+        return longSums[slot * longFields + field] / counts[slot];
+    }
+
+    public long longMaximum(int slot, int field) {
+        return longMaximums[slot * longFields + field];
+    }
+
+    public long longMinimum(int slot, int field) {
+        return longMinimums[slot * longFields + field];
+    }
+
+    public boolean flag(int slot, int flag) {
+        return (flags[slot] & (1 << flag)) != 0;
+    }
+
+    /**
+     * Returns the sketch of a field, or null if nothing was recorded in it
+     */
+    public QuantileSketch sketch(int slot, int field) {
+        return sketches[slot * sketchFields + field];
+    }
+
+    /**
+     * Returns the encoded sketch of a field, or null if nothing was recorded in it
+     */
+    public byte[] sketchBytes(int slot, int field) {
+        QuantileSketch sketch = sketch(slot, field);
+        return sketch == null ? null : sketch.toBytes();
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+
+        keys = Arrays.copyOf(keys, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        doubleSums = Arrays.copyOf(doubleSums, capacity * doubleFields);
+        doubleMaximums = Arrays.copyOf(doubleMaximums, capacity * doubleFields);
+        doubleMinimums = Arrays.copyOf(doubleMinimums, capacity * doubleFields);
+        longSums = Arrays.copyOf(longSums, capacity * longFields);
+        longMaximums = Arrays.copyOf(longMaximums, capacity * longFields);
+        longMinimums = Arrays.copyOf(longMinimums, capacity * longFields);
+        flags = Arrays.copyOf(flags, capacity);
+        sketches = Arrays.copyOf(sketches, capacity * sketchFields);
+
+        // Keep the table at most half full
+        tableKeys = new Object[capacity * 2];
+        tableSlots = new int[capacity * 2];
+        int mask = tableKeys.length - 1;
+        for (int slot = 0; slot < size; slot++) {
+            int index = spread(keys[slot].hashCode()) & mask;
+            while (tableKeys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            tableKeys[index] = keys[slot];
+            tableSlots[index] = slot;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
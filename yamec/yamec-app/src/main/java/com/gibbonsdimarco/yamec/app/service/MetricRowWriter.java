@@ -0,0 +1,320 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.data.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.UUID;
+
+/**
+ * <p>Inserts metric rows with plain JDBC rather than through the JPA persistence context.</p>
+ * <p>Metrics are written once and never updated, so persisting them through Hibernate (assigning
+ * each to the persistence context, checking it for changes at every flush and binding one
+ * <code>INSERT</code> per row) does work which is never needed. This writer binds the values of
+ * the metric entities built by the metric services to multi-row <code>INSERT</code> statements of
+ * {@value #ROWS_PER_STATEMENT} rows, preparing each statement once per call and executing it for
+ * every full group of rows. The rows are written with the connection of the current transaction,
+ * so they are committed or rolled back with everything else it saves.</p>
+ * <p>Metrics without a series are assigned theirs by the MetricSeriesCache, as the
+ * MetricSeriesListener does for metrics saved with JPA. The entities are not added to the
+ * persistence context, and hardware and application information is still saved with JPA.</p>
+ */
+@Service
+public class MetricRowWriter {
+
+    /**
+     * The number of rows inserted by each statement. SQLite allows 32766 parameters per statement.
+     */
+    static final int ROWS_PER_STATEMENT = 64;
+
+    private static final String[] CPU_COLUMNS = {
+            "series_id", "timestamp", "duration", "granularity_id", "cpu_id",
+            "average_utilization", "max_utilization", "min_utilization", "utilization_sketch"
+    };
+    private static final String[] MEMORY_COLUMNS = {
+            "series_id", "timestamp", "duration", "granularity_id", "memory_id",
+            "average_physical_utilization", "max_physical_utilization", "min_physical_utilization",
+            "average_virtual_utilization", "max_virtual_utilization", "min_virtual_utilization",
+            "physical_utilization_is_unsigned", "virtual_utilization_is_unsigned", "physical_utilization_sketch"
+    };
+    private static final String[] DISK_COLUMNS = {
+            "series_id", "timestamp", "duration", "granularity_id", "disk_id",
+            "avg_utilization", "avg_read_bandwidth", "avg_write_bandwidth", "avg_time_to_transfer",
+            "max_utilization", "max_read_bandwidth", "max_write_bandwidth", "max_time_to_transfer",
+            "min_utilization", "min_read_bandwidth", "min_write_bandwidth", "min_time_to_transfer",
+            "read_bandwidth_is_unsigned", "write_bandwidth_is_unsigned", "utilization_sketch", "time_to_transfer_sketch"
+    };
+    private static final String[] NIC_COLUMNS = {
+            "series_id", "timestamp", "duration", "granularity_id", "nic_id",
+            "avg_send_bandwidth", "avg_receive_bandwidth", "max_send_bandwidth", "max_receive_bandwidth",
+            "min_send_bandwidth", "min_receive_bandwidth", "send_bandwidth_is_unsigned",
+            "receive_bandwidth_is_unsigned", "send_bandwidth_sketch", "receive_bandwidth_sketch"
+    };
+    private static final String[] APPLICATION_COLUMNS = {
+            "series_id", "timestamp", "duration", "granularity_id", "application_id",
+            "avg_cpu_usage", "max_cpu_usage", "min_cpu_usage",
+            "avg_physical_memory_used", "max_physical_memory_used", "min_physical_memory_used",
+            "avg_virtual_memory_used", "max_virtual_memory_used", "min_virtual_memory_used",
+            "cpu_usage_sketch", "physical_memory_used_sketch"
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MetricSeriesCache metricSeriesCache;
+
+    @Autowired
+    public MetricRowWriter(JdbcTemplate jdbcTemplate, MetricSeriesCache metricSeriesCache) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.metricSeriesCache = metricSeriesCache;
+    }
+
+    /**
+     * Binds the values of one metric to the next row of a statement, in the order of the columns
+     */
+    @FunctionalInterface
+    private interface RowBinder<T> {
+        void bind(T metric, Row row) throws SQLException;
+    }
+
+    public int insertCpuMetrics(java.util.List<SystemCpuMetric> metrics) {
+        return insert("system_cpu_metrics", CPU_COLUMNS, metrics, (metric, row) -> {
+            bindDeviceMetric(metric, row);
+            row.uuid(metric.getCpu().getId())
+                    .real(metric.getAverageUtilization())
+                    .real(metric.getMaxUtilization())
+                    .real(metric.getMinUtilization())
+                    .bytes(metric.getUtilizationSketch());
+        });
+    }
+
+    public int insertMemoryMetrics(java.util.List<SystemMemoryMetric> metrics) {
+        return insert("system_memory_metrics", MEMORY_COLUMNS, metrics, (metric, row) -> {
+            bindDeviceMetric(metric, row);
+            row.uuid(metric.getMemory().getId())
+                    .integer(metric.getAveragePhysicalUtilization())
+                    .integer(metric.getMaxPhysicalUtilization())
+                    .integer(metric.getMinPhysicalUtilization())
+                    .integer(metric.getAverageVirtualUtilization())
+                    .integer(metric.getMaxVirtualUtilization())
+                    .integer(metric.getMinVirtualUtilization())
+                    .bool(metric.isPhysicalUtilizationUnsigned())
+                    .bool(metric.isVirtualUtilizationUnsigned())
+                    .bytes(metric.getPhysicalUtilizationSketch());
+        });
+    }
+
+    public int insertDiskMetrics(java.util.List<SystemDiskMetric> metrics) {
+        return insert("system_disk_metrics", DISK_COLUMNS, metrics, (metric, row) -> {
+            bindDeviceMetric(metric, row);
+            row.uuid(metric.getDisk().getId())
+                    .real(metric.getAvgUtilization())
+                    .integer(metric.getAvgReadBandwidth())
+                    .integer(metric.getAvgWriteBandwidth())
+                    .real(metric.getAvgTimeToTransfer())
+                    .real(metric.getMaxUtilization())
+                    .integer(metric.getMaxReadBandwidth())
+                    .integer(metric.getMaxWriteBandwidth())
+                    .real(metric.getMaxTimeToTransfer())
+                    .real(metric.getMinUtilization())
+                    .integer(metric.getMinReadBandwidth())
+                    .integer(metric.getMinWriteBandwidth())
+                    .real(metric.getMinTimeToTransfer())
+                    .bool(metric.isReadBandwidthUnsigned())
+                    .bool(metric.isWriteBandwidthUnsigned())
+                    .bytes(metric.getUtilizationSketch())
+                    .bytes(metric.getTimeToTransferSketch());
+        });
+    }
+
+    public int insertNicMetrics(java.util.List<SystemNicMetric> metrics) {
+        return insert("system_nic_metrics", NIC_COLUMNS, metrics, (metric, row) -> {
+            bindDeviceMetric(metric, row);
+            row.uuid(metric.getNic().getId())
+                    .integer(metric.getAvgSendBandwidth())
+                    .integer(metric.getAvgReceiveBandwidth())
+                    .integer(metric.getMaxSendBandwidth())
+                    .integer(metric.getMaxReceiveBandwidth())
+                    .integer(metric.getMinSendBandwidth())
+                    .integer(metric.getMinReceiveBandwidth())
+                    .bool(metric.isSendBandwidthUnsigned())
+                    .bool(metric.isReceiveBandwidthUnsigned())
+                    .bytes(metric.getSendBandwidthSketch())
+                    .bytes(metric.getReceiveBandwidthSketch());
+        });
+    }
+
+    public int insertApplicationMetrics(java.util.List<ApplicationMetric> metrics) {
+        return insert("application_metrics", APPLICATION_COLUMNS, metrics, (metric, row) -> {
+            if (metric.getSeriesId() == null) {
+                metric.setSeriesId(metricSeriesCache.getId(metric.getApplication().getId(), metric.getGranularityId()));
+            }
+            row.integer(metric.getSeriesId())
+                    .timestamp(metric.getTimestamp())
+                    .integer(metric.getDuration())
+                    .uuid(metric.getGranularityId())
+                    .uuid(metric.getApplication().getId())
+                    .real(metric.getAvgCpuUsage())
+                    .real(metric.getMaxCpuUsage())
+                    .real(metric.getMinCpuUsage())
+                    .integer(metric.getAvgPhysicalMemoryUsed())
+                    .integer(metric.getMaxPhysicalMemoryUsed())
+                    .integer(metric.getMinPhysicalMemoryUsed())
+                    .integer(metric.getAvgVirtualMemoryUsed())
+                    .integer(metric.getMaxVirtualMemoryUsed())
+                    .integer(metric.getMinVirtualMemoryUsed())
+                    .bytes(metric.getCpuUsageSketch())
+                    .bytes(metric.getPhysicalMemoryUsedSketch());
+        });
+    }
+
+    /**
+     * Binds the columns every device metric has, assigning the metric its series if it has none
+     */
+    private void bindDeviceMetric(SystemDeviceMetric metric, Row row) throws SQLException {
+        if (metric.getSeriesId() == null) {
+            metric.setSeriesId(metricSeriesCache.getId(metric.getDeviceId(), metric.getGranularityId()));
+        }
+        row.integer(metric.getSeriesId())
+                .timestamp(metric.getTimestamp())
+                .integer(metric.getDuration())
+                .uuid(metric.getGranularityId());
+    }
+
+    /**
+     * Inserts metrics with a statement of {@value #ROWS_PER_STATEMENT} rows, then one statement
+     * for the rows left over
+     *
+     * @return The number of rows inserted
+     */
+    private <T> int insert(String table, String[] columns, java.util.List<T> metrics, RowBinder<T> binder) {
+        if (metrics == null || metrics.isEmpty()) {
+            return 0;
+        }
+
+        Integer inserted = jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> {
+            int rows = 0;
+            int fullStatements = metrics.size() / ROWS_PER_STATEMENT;
+
+            if (fullStatements > 0) {
+                try (PreparedStatement statement
+                             = connection.prepareStatement(insertSql(table, columns, ROWS_PER_STATEMENT))) {
+                    for (int i = 0; i < fullStatements; i++) {
+                        rows += execute(statement, metrics, i * ROWS_PER_STATEMENT, ROWS_PER_STATEMENT, binder);
+                    }
+                }
+            }
+
+            int remaining = metrics.size() - fullStatements * ROWS_PER_STATEMENT;
+            if (remaining > 0) {
+                try (PreparedStatement statement = connection.prepareStatement(insertSql(table, columns, remaining))) {
+                    rows += execute(statement, metrics, fullStatements * ROWS_PER_STATEMENT, remaining, binder);
+                }
+            }
+            return rows;
+        });
+        return inserted == null ? 0 : inserted;
+    }
+
+    private static <T> int execute(PreparedStatement statement, java.util.List<T> metrics,
+                                   int from, int count, RowBinder<T> binder) throws SQLException {
+        Row row = new Row(statement);
+        for (int i = from; i < from + count; i++) {
+            binder.bind(metrics.get(i), row);
+        }
+        return statement.executeUpdate();
+    }
+
+    static String insertSql(String table, String[] columns, int rows) {
+        String placeholders = "(" + String.join(", ", java.util.Collections.nCopies(columns.length, "?")) + ")";
+        return "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES "
+                + String.join(", ", java.util.Collections.nCopies(rows, placeholders));
+    }
+
+    /**
+     * Sets the parameters of a statement one after another, storing values the way Hibernate does:
+     * UUIDs as 16 bytes (most significant first), timestamps as milliseconds since the epoch and
+     * booleans as 0 or 1
+     */
+    private static final class Row {
+        private final PreparedStatement statement;
+        private int index = 1;
+
+        Row(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        Row uuid(UUID value) throws SQLException {
+            if (value == null) {
+                statement.setNull(index++, Types.BLOB);
+                return this;
+            }
+
+            byte[] bytes = new byte[16];
+            long most = value.getMostSignificantBits();
+            long least = value.getLeastSignificantBits();
+            for (int i = 0; i < 8; i++) {
+                bytes[i] = (byte) (most >>> (56 - 8 * i));
+                bytes[8 + i] = (byte) (least >>> (56 - 8 * i));
+            }
+            statement.setBytes(index++, bytes);
+            return this;
+        }
+
+        Row timestamp(Timestamp value) throws SQLException {
+            if (value == null) {
+                statement.setNull(index++, Types.BIGINT);
+            } else {
+                statement.setLong(index++, value.getTime());
+            }
+            return this;
+        }
+
+        Row integer(long value) throws SQLException {
+            statement.setLong(index++, value);
+            return this;
+        }
+
+        Row integer(Number value) throws SQLException {
+            if (value == null) {
+                statement.setNull(index++, Types.BIGINT);
+            } else {
+                statement.setLong(index++, value.longValue());
+            }
+            return this;
+        }
+
+        Row real(double value) throws SQLException {
+            statement.setDouble(index++, value);
+            return this;
+        }
+
+        Row real(Double value) throws SQLException {
+            if (value == null) {
+                statement.setNull(index++, Types.DOUBLE);
+            } else {
+                statement.setDouble(index++, value);
+            }
+            return this;
+        }
+
+        Row bool(boolean value) throws SQLException {
+            statement.setInt(index++, value ? 1 : 0);
+            return this;
+        }
+
+        Row bytes(byte[] value) throws SQLException {
+            if (value == null) {
+                statement.setNull(index++, Types.BLOB);
+            } else {
+                statement.setBytes(index++, value);
+            }
+            return this;
+        }
+    }
+}
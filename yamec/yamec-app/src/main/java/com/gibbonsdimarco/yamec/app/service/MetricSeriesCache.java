@@ -0,0 +1,102 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Maps each device (or application) and granularity level to the integer ID of its series,
+ * which keys the metrics of the series with their timestamp.</p>
+ * <p>Series are numbered by the <code>metric_series</code> table, which is created by the
+ * MetricTableMigration. A series is looked up in the database the first time it is used, and
+ * added to the table in the current transaction if it is new, so its metrics and the series are
+ * committed together. If that transaction is rolled back, the series is forgotten again.</p>
+ */
+@Service
+public class MetricSeriesCache {
+
+    static final String SERIES_TABLE = "metric_series";
+
+    private record SeriesKey(UUID deviceId, UUID granularityId) {}
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final ConcurrentHashMap<SeriesKey, Long> seriesIds = new ConcurrentHashMap<>();
+
+    @Autowired
+    public MetricSeriesCache(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Returns the ID of the series of a device at a granularity level, adding the series to the
+     * database if it does not exist yet
+     *
+     * @param deviceId The ID of the device or application
+     * @param granularityId The ID of the granularity level, which is null for application
+     *                      metrics saved before they had a granularity level
+     * @return The ID of the series
+     */
+    public long getId(UUID deviceId, UUID granularityId) {
+        if (deviceId == null) {
+            throw new IllegalArgumentException("A metric series needs a device");
+        }
+
+        SeriesKey key = new SeriesKey(deviceId, granularityId);
+        Long seriesId = seriesIds.get(key);
+        if (seriesId != null) {
+            return seriesId;
+        }
+
+        seriesId = findOrCreate(toBytes(deviceId), granularityId == null ? null : toBytes(granularityId));
+        seriesIds.put(key, seriesId);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        seriesIds.remove(key);
+                    }
+                }
+            });
+        }
+        return seriesId;
+    }
+
+    private long findOrCreate(byte[] deviceId, byte[] granularityId) {
+        // Series without a granularity level are not unique to the UNIQUE constraint, as NULLs
+        // are distinct, so the series is only added if no series matches with IS
+        jdbcTemplate.update("INSERT INTO " + SERIES_TABLE + " (device_id, granularity_id) SELECT ?, ?"
+                        + " WHERE NOT EXISTS (SELECT 1 FROM " + SERIES_TABLE
+                        + " WHERE device_id = ? AND granularity_id IS ?)",
+                deviceId, granularityId, deviceId, granularityId);
+        Long seriesId = jdbcTemplate.queryForObject("SELECT id FROM " + SERIES_TABLE
+                + " WHERE device_id = ? AND granularity_id IS ?", Long.class, deviceId, granularityId);
+        if (seriesId == null) {
+            throw new IllegalStateException("Failed to add the metric series of device " + toUuid(deviceId));
+        }
+        return seriesId;
+    }
+
+    /**
+     * Returns a UUID as Hibernate stores it, 16 bytes with the most significant first
+     */
+    static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    private static UUID toUuid(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
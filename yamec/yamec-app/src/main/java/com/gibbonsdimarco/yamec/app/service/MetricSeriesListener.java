@@ -0,0 +1,34 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.data.ApplicationMetric;
+import com.gibbonsdimarco.yamec.app.data.SystemDeviceMetric;
+import jakarta.persistence.PrePersist;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * <p>Assigns metrics saved through JPA to their series before they are inserted, as the
+ * MetricRowWriter does for the metrics it inserts.</p>
+ * <p>The series is part of the primary key of a metric, and is looked up before Hibernate reads
+ * the key of the metric. Hibernate creates this listener with the Spring bean factory, which
+ * provides the MetricSeriesCache.</p>
+ */
+public class MetricSeriesListener {
+
+    private final MetricSeriesCache metricSeriesCache;
+
+    @Autowired
+    public MetricSeriesListener(MetricSeriesCache metricSeriesCache) {
+        this.metricSeriesCache = metricSeriesCache;
+    }
+
+    @PrePersist
+    public void assignSeries(Object metric) {
+        if (metric instanceof SystemDeviceMetric deviceMetric && deviceMetric.getSeriesId() == null) {
+            deviceMetric.setSeriesId(metricSeriesCache.getId(deviceMetric.getDeviceId(),
+                    deviceMetric.getGranularityId()));
+        } else if (metric instanceof ApplicationMetric applicationMetric && applicationMetric.getSeriesId() == null) {
+            applicationMetric.setSeriesId(metricSeriesCache.getId(applicationMetric.getApplication().getId(),
+                    applicationMetric.getGranularityId()));
+        }
+    }
+}
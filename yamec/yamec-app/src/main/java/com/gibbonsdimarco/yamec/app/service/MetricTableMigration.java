@@ -0,0 +1,353 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.config.SchedulingConfig;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>Stores each metric table as a <code>WITHOUT ROWID</code> table keyed on
+ * <code>(series_id, timestamp)</code>, where a series is one device (or application) at one
+ * granularity level, numbered by the <code>metric_series</code> table.</p>
+ * <p>Tables keyed on a random UUID id wrote every metric to the table and to an index on the id
+ * at a random position, and stored the 16 byte id in every row and index entry. Keyed on their
+ * series, the metrics of a series are appended to the end of its part of the table and stored
+ * next to each other in order of time, and the key is an integer of a few bytes and the
+ * timestamp. The device and granularity columns are kept for the JPA mappings and queries, and
+ * the index on <code>timestamp</code>, whose entries only hold the timestamp and the key, reads
+ * the metrics of every series in a range of time.</p>
+ * <p>Tables are converted in two steps. Before Hibernate updates the schema (MigrationConfig),
+ * each table which is not keyed on its series is renamed to <code>&lt;table&gt;_legacy</code>
+ * and created again from its definition in <code>sqlite_master</code> with the new key, keeping
+ * its other columns and constraints, and its indexes are moved to the new table. This only
+ * changes the schema, so it is quick whatever the size of the table. The metrics of the legacy tables
+ * are then copied to the new tables on the maintenance scheduler, in transactions of at most
+ * <code>yamec.migration.batch-size</code> metrics with a pause after each, and a legacy table is
+ * dropped once it is empty. Until they are copied, the older metrics are missing from the history
+ * and the RollupService waits. Tables Hibernate creates for a new database are converted the same
+ * way on the first run.</p>
+ * <p>The pages freed by copying are reused by new metrics, but are only returned to the file
+ * system once the database uses incremental auto-vacuum (see the RetentionService).</p>
+ */
+@Service
+public class MetricTableMigration {
+    private static final Logger logger = LoggerFactory.getLogger(MetricTableMigration.class);
+
+    static final String LEGACY_SUFFIX = "_legacy";
+
+    /**
+     * The column of each metric table which holds the device of a metric. GPU metrics have no
+     * device, so they all belong to the series of SystemGpuMetric.SERIES_DEVICE_ID.
+     */
+    static final Map<String, String> DEVICE_COLUMNS = Map.of(
+            "system_cpu_metrics", "cpu_id",
+            "system_memory_metrics", "memory_id",
+            "system_disk_metrics", "disk_id",
+            "system_nic_metrics", "nic_id",
+            "gpu_metrics", "X'00000000000000000000000000000000'",
+            "application_metrics", "application_id"
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private final int batchSize;
+    private final long batchPauseMillis;
+    private final int maxBatchesPerRun;
+
+    // Whether metrics are left to copy from a legacy table, or no table is known to be converted yet
+    private volatile boolean copying = true;
+
+    @Autowired
+    public MetricTableMigration(JdbcTemplate jdbcTemplate,
+                                @Value("${yamec.migration.batch-size:5000}") int batchSize,
+                                @Value("${yamec.migration.batch-pause-ms:100}") long batchPauseMillis,
+                                @Value("${yamec.migration.max-batches-per-run:200}") int maxBatchesPerRun) {
+        this.jdbcTemplate = jdbcTemplate;
+        // Created before the EntityManagerFactory, so transactions are on the DataSource
+        this.transactionTemplate = new TransactionTemplate(
+                new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        this.batchSize = batchSize;
+        this.batchPauseMillis = batchPauseMillis;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+    }
+
+    /**
+     * Creates the series table and converts the schema of every metric table which is not keyed
+     * on its series, leaving its metrics to copy in the background
+     */
+    @PostConstruct
+    public void convertTables() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + MetricSeriesCache.SERIES_TABLE
+                + " (id INTEGER PRIMARY KEY, device_id BLOB NOT NULL, granularity_id BLOB,"
+                + " UNIQUE (device_id, granularity_id))");
+
+        int converted = 0;
+        for (String table : DEVICE_COLUMNS.keySet()) {
+            try {
+                if (convertTable(table)) {
+                    converted++;
+                }
+            } catch (Exception e) {
+                logger.error("Failed to key {} on its series - it keeps its current layout", table, e);
+            }
+        }
+
+        if (converted > 0) {
+            logger.info("Keyed {} metric tables on their series - their metrics are copied in the background",
+                    converted);
+        }
+    }
+
+    /**
+     * Copies up to <code>yamec.migration.max-batches-per-run</code> batches of metrics from the
+     * legacy tables, dropping each once it is empty
+     */
+    @Scheduled(initialDelayString = "${yamec.migration.initial-delay-ms:10000}",
+               fixedDelayString = "${yamec.migration.interval-ms:60000}",
+               scheduler = SchedulingConfig.MAINTENANCE_SCHEDULER)
+    public void copyLegacyMetrics() {
+        if (!copying) {
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            long copied = 0;
+            int batches = 0;
+            boolean finished = true;
+
+            for (String table : DEVICE_COLUMNS.keySet()) {
+                // Tables created by Hibernate since startup
+                convertTable(table);
+
+                String legacyTable = table + LEGACY_SUFFIX;
+                while (tableExists(legacyTable)) {
+                    if (batches == maxBatchesPerRun) {
+                        finished = false;
+                        break;
+                    }
+
+                    int count = copyBatch(table);
+                    batches++;
+                    copied += count;
+
+                    // Give the metrics writer a chance to take the write lock
+                    Thread.sleep(batchPauseMillis);
+                }
+            }
+
+            copying = !finished;
+            if (copied > 0) {
+                logger.info("Copied {} metrics to the tables keyed on their series in {} ms{}", copied,
+                        System.currentTimeMillis() - start, finished ? " - the migration is finished" : "");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (PessimisticLockingFailureException e) {
+            logger.warn("Database was busy - the metrics will be copied on the next run");
+        } catch (Exception e) {
+            logger.error("Failed to copy the metrics of the legacy metric tables", e);
+        }
+    }
+
+    /**
+     * Returns whether metrics of the legacy tables may still have to be copied, in which case
+     * they are missing from the metric tables
+     */
+    public boolean isCopying() {
+        return copying;
+    }
+
+    /**
+     * Renames a table which is not keyed on its series to its legacy name and creates it again
+     * with the key, in one transaction
+     *
+     * @param table The metric table to convert
+     * @return Whether the table was converted, or false if it does not exist, is already keyed on
+     * its series or the metrics of an earlier conversion are still being copied
+     */
+    boolean convertTable(String table) {
+        String sql = tableSql(table);
+        if (sql == null || isKeyedOnSeries(table, sql) || tableExists(table + LEGACY_SUFFIX)) {
+            return false;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            // Index names are unique to the database, so the indexes are dropped before they are
+            // created on the new table
+            java.util.List<Map<String, Object>> indexes = jdbcTemplate.queryForList(
+                    "SELECT name, sql FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND sql IS NOT NULL",
+                    table);
+            for (Map<String, Object> index : indexes) {
+                jdbcTemplate.execute("DROP INDEX \"" + index.get("name") + "\"");
+            }
+
+            jdbcTemplate.execute("ALTER TABLE " + table + " RENAME TO " + table + LEGACY_SUFFIX);
+            jdbcTemplate.execute(keyedTableSql(table, sql));
+            for (Map<String, Object> index : indexes) {
+                jdbcTemplate.execute((String) index.get("sql"));
+            }
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_" + table + "_timestamp ON " + table
+                    + " (timestamp)");
+        });
+
+        copying = true;
+        logger.debug("Keyed {} on (series_id, timestamp)", table);
+        return true;
+    }
+
+    /**
+     * Moves the first metrics of a legacy table to the table keyed on their series, adding the
+     * series which do not exist yet, in one transaction. Metrics with the same series and
+     * timestamp as a metric already copied are dropped. The legacy table is dropped once it is
+     * empty.
+     *
+     * @param table The metric table
+     * @return The number of metrics moved
+     */
+    int copyBatch(String table) {
+        String legacyTable = table + LEGACY_SUFFIX;
+        String deviceColumn = DEVICE_COLUMNS.get(table);
+
+        // The columns of the legacy table which the keyed table also has
+        java.util.List<String> legacyColumns = columns(legacyTable);
+        java.util.List<String> copiedColumns = columns(table).stream()
+                .filter(column -> !column.equals("series_id") && legacyColumns.contains(column))
+                .toList();
+
+        // The first metrics of the legacy table in the order of its key, so they are read and
+        // deleted with the key rather than a scan
+        String key = String.join(", ", primaryKey(legacyTable, tableSql(legacyTable)));
+        String batch = "(SELECT * FROM " + legacyTable + " ORDER BY " + key + " LIMIT " + batchSize + ") l";
+        String device = legacyColumns.contains(deviceColumn) ? "l." + deviceColumn : deviceColumn;
+        String seriesMatch = "s.device_id = " + device + " AND s.granularity_id IS l.granularity_id";
+
+        Integer moved = transactionTemplate.execute(status -> {
+            jdbcTemplate.update("INSERT INTO " + MetricSeriesCache.SERIES_TABLE + " (device_id, granularity_id)"
+                    + " SELECT DISTINCT " + device + ", l.granularity_id FROM " + batch
+                    + " WHERE NOT EXISTS (SELECT 1 FROM " + MetricSeriesCache.SERIES_TABLE + " s WHERE "
+                    + seriesMatch + ")");
+            jdbcTemplate.update("INSERT OR IGNORE INTO " + table + " (series_id, " + String.join(", ", copiedColumns)
+                    + ") SELECT s.id, l." + String.join(", l.", copiedColumns) + " FROM " + batch
+                    + " JOIN " + MetricSeriesCache.SERIES_TABLE + " s ON " + seriesMatch);
+
+            int count = jdbcTemplate.update("DELETE FROM " + legacyTable + " WHERE (" + key + ") IN (SELECT "
+                    + key + " FROM " + legacyTable + " ORDER BY " + key + " LIMIT " + batchSize + ")");
+            if (count < batchSize) {
+                jdbcTemplate.execute("DROP TABLE " + legacyTable);
+            }
+            return count;
+        });
+        return moved == null ? 0 : moved;
+    }
+
+    /**
+     * Builds the definition of a table keyed on its series from the definition of the table in
+     * <code>sqlite_master</code>. The id and series_id columns and the primary key are replaced,
+     * and every other column and constraint is kept.
+     */
+    static String keyedTableSql(String table, String sql) {
+        int open = sql.indexOf('(');
+        int close = sql.lastIndexOf(')');
+
+        java.util.List<String> definitions = new java.util.ArrayList<>();
+        definitions.add("series_id INTEGER NOT NULL");
+        for (String definition : splitDefinitions(sql.substring(open + 1, close))) {
+            String lower = definition.toLowerCase(Locale.ROOT);
+            String name = unquote(lower.split("\\s+", 2)[0]);
+            if (name.equals("id") || name.equals("series_id") || name.equals("primary")
+                    || (name.equals("constraint") && lower.matches("constraint\\s+\\S+\\s+primary\\s+key.*"))) {
+                continue;
+            }
+            definitions.add(definition.replaceAll("(?i)\\s+primary\\s+key(\\s+(asc|desc))?(\\s+autoincrement)?", ""));
+        }
+        definitions.add("PRIMARY KEY (series_id, timestamp)");
+
+        return "CREATE TABLE " + table + " (" + String.join(", ", definitions) + ") WITHOUT ROWID";
+    }
+
+    /**
+     * Splits the body of a table definition at the commas which are not in parentheses or quotes
+     */
+    private static java.util.List<String> splitDefinitions(String body) {
+        java.util.List<String> definitions = new java.util.ArrayList<>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '[') {
+                quote = ']';
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                definitions.add(body.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        definitions.add(body.substring(start).trim());
+        return definitions;
+    }
+
+    private static String unquote(String name) {
+        if (name.length() > 1 && "\"`[".indexOf(name.charAt(0)) >= 0) {
+            return name.substring(1, name.length() - 1);
+        }
+        return name;
+    }
+
+    private boolean isKeyedOnSeries(String table, String sql) {
+        return sql.toUpperCase(Locale.ROOT).contains("WITHOUT ROWID")
+                && primaryKey(table, sql).equals(java.util.List.of("series_id", "timestamp"));
+    }
+
+    /**
+     * Returns the columns of the primary key of a table, or the rowid if it has a rowid
+     */
+    private java.util.List<String> primaryKey(String table, String sql) {
+        if (!sql.toUpperCase(Locale.ROOT).contains("WITHOUT ROWID")) {
+            return java.util.List.of("rowid");
+        }
+
+        java.util.TreeMap<Integer, String> key = new java.util.TreeMap<>();
+        jdbcTemplate.query("PRAGMA table_info(" + table + ")", rs -> {
+            if (rs.getInt("pk") > 0) {
+                key.put(rs.getInt("pk"), rs.getString("name"));
+            }
+        });
+        return java.util.List.copyOf(key.values());
+    }
+
+    private java.util.List<String> columns(String table) {
+        return jdbcTemplate.query("PRAGMA table_info(" + table + ")", (rs, row) -> rs.getString("name"));
+    }
+
+    private String tableSql(String table) {
+        return jdbcTemplate.query("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+                rs -> rs.next() ? rs.getString(1) : null, table);
+    }
+
+    private boolean tableExists(String table) {
+        return tableSql(table) != null;
+    }
+}
@@ -0,0 +1,91 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.config.GranularityConfig;
+import com.gibbonsdimarco.yamec.app.data.RollupWatermark;
+import com.gibbonsdimarco.yamec.app.repository.GranularityConfigRepository;
+import com.gibbonsdimarco.yamec.app.repository.RollupWatermarkRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+
+/**
+ * <p>Chooses which granularity levels a range of metrics is read from.</p>
+ * <p>When the caller only needs one metric every <code>recordTimespan</code> seconds of the LOW
+ * granularity level or less often, the part of the range which has been rolled up is read from
+ * the LOW metrics, and only the part after the rollup watermark from the HIGH metrics. Otherwise,
+ * the whole range is read from the HIGH metrics.</p>
+ */
+@Service
+public class MetricTierSelector {
+
+    private final GranularityConfigRepository granularityConfigRepository;
+    private final RollupWatermarkRepository rollupWatermarkRepository;
+
+    @Autowired
+    public MetricTierSelector(GranularityConfigRepository granularityConfigRepository,
+                              RollupWatermarkRepository rollupWatermarkRepository) {
+        this.granularityConfigRepository = granularityConfigRepository;
+        this.rollupWatermarkRepository = rollupWatermarkRepository;
+    }
+
+    /**
+     * Splits a range of time into the parts to read from each granularity level
+     *
+     * @param start The start of the range (inclusive)
+     * @param end The end of the range (exclusive)
+     * @param resolution The number of seconds between the metrics the caller needs
+     * @return The ranges to read, oldest first
+     */
+    public java.util.List<TierRange> selectTiers(Timestamp start, Timestamp end, int resolution) {
+        java.util.List<TierRange> ranges = new java.util.ArrayList<>();
+
+        GranularityConfig coarseConfig
+                = granularityConfigRepository.findByGranularityLabel(RollupService.TARGET_GRANULARITY);
+
+        if (coarseConfig != null && resolution >= coarseConfig.getRecordTimespan()) {
+            RollupWatermark watermark = rollupWatermarkRepository.findByGranularityId(coarseConfig.getGranularityId());
+
+            if (watermark != null && watermark.getRolledUpUntil().after(start)) {
+                Timestamp rolledUpUntil = watermark.getRolledUpUntil();
+                Timestamp split = end.before(rolledUpUntil) ? end : rolledUpUntil;
+
+                ranges.add(new TierRange(RollupService.TARGET_GRANULARITY, start, split));
+                start = split;
+            }
+        }
+
+        if (start.before(end)) {
+            ranges.add(new TierRange(RollupService.SOURCE_GRANULARITY, start, end));
+        }
+
+        return ranges;
+    }
+
+    /**
+     * A range of time to read from one granularity level
+     */
+    public static class TierRange {
+        private final String granularityLabel;
+        private final Timestamp start;
+        private final Timestamp end;
+
+        public TierRange(String granularityLabel, Timestamp start, Timestamp end) {
+            this.granularityLabel = granularityLabel;
+            this.start = start;
+            this.end = end;
+        }
+
+        public String getGranularityLabel() {
+            return granularityLabel;
+        }
+
+        public Timestamp getStart() {
+            return start;
+        }
+
+        public Timestamp getEnd() {
+            return end;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.data.*;
+import com.gibbonsdimarco.yamec.app.model.ApplicationMetricsData;
+import com.gibbonsdimarco.yamec.app.model.MetricsData;
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSnapshot;
+import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * <p>Saves the metrics of one or more collections in a single transaction.</p>
+ * <p>Each metric service's <code>save*Metrics</code> method commits on its own, which costs one
+ * SQLite commit (and fsync) per metric type per collection. This service uses the
+ * <code>build*Metrics</code> methods of those services instead, which save the devices and
+ * applications seen for the first time, for the whole batch before committing once.</p>
+ * <p>The HIGH granularity metrics themselves are not saved in the database. Once the transaction
+ * commits, the metrics of every collection in the batch are appended to the SampleSegmentStore,
+ * which keeps the raw samples, and recorded in the SlidingWindowStore and the
+ * TopApplicationsTracker, and the metrics of the newest collection are published to the
+ * LatestMetricsCache, which serves the dashboard.</p>
+ * <p>The time spent building the entities of each metric type, committing and appending the
+ * samples is recorded in the PipelineTimings.</p>
+ */
+@Service
+public class MetricsPersistenceService {
+
+    private final ApplicationDataService applicationDataService;
+    private final CpuHardwareInformationService cpuHardwareService;
+    private final MemoryHardwareInformationService memoryHardwareService;
+    private final DiskHardwareInformationService diskHardwareService;
+    private final NicHardwareInformationService nicHardwareService;
+
+    private final SystemMetricsAdapter systemMetricsAdapter;
+    private final ApplicationMetricsAdapter applicationMetricsAdapter;
+    private final LatestMetricsCache latestMetricsCache;
+    private final SlidingWindowStore slidingWindowStore;
+    private final SampleSegmentStore sampleSegmentStore;
+    private final TopApplicationsTracker topApplicationsTracker;
+    private final PipelineTimings pipelineTimings;
+
+    @Autowired
+    public MetricsPersistenceService(ApplicationDataService applicationDataService,
+                                     CpuHardwareInformationService cpuHardwareService,
+                                     MemoryHardwareInformationService memoryHardwareService,
+                                     DiskHardwareInformationService diskHardwareService,
+                                     NicHardwareInformationService nicHardwareService,
+                                     SystemMetricsAdapter systemMetricsAdapter,
+                                     ApplicationMetricsAdapter applicationMetricsAdapter,
+                                     LatestMetricsCache latestMetricsCache,
+                                     SlidingWindowStore slidingWindowStore,
+                                     SampleSegmentStore sampleSegmentStore,
+                                     TopApplicationsTracker topApplicationsTracker,
+                                     PipelineTimings pipelineTimings) {
+        this.applicationDataService = applicationDataService;
+        this.cpuHardwareService = cpuHardwareService;
+        this.memoryHardwareService = memoryHardwareService;
+        this.diskHardwareService = diskHardwareService;
+        this.nicHardwareService = nicHardwareService;
+        this.systemMetricsAdapter = systemMetricsAdapter;
+        this.applicationMetricsAdapter = applicationMetricsAdapter;
+        this.latestMetricsCache = latestMetricsCache;
+        this.slidingWindowStore = slidingWindowStore;
+        this.sampleSegmentStore = sampleSegmentStore;
+        this.topApplicationsTracker = topApplicationsTracker;
+        this.pipelineTimings = pipelineTimings;
+    }
+
+    /**
+     * Saves the metrics of every snapshot in a batch in one transaction. If anything fails,
+     * nothing from the batch is saved.
+     *
+     * @param batch The queued snapshots to save, with the number of seconds each one covers
+     * @param cpuInfo The CPU the CPU metrics were collected from
+     * @param memoryInfo The memory the memory metrics were collected from
+     * @param currentDisks The disks currently connected to the system
+     * @param currentNics The NICs currently connected to the system
+     * @return The number of samples recorded
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public int saveSnapshots(java.util.List<SnapshotRingBuffer.Slot> batch,
+                             CpuHardwareInformation cpuInfo,
+                             MemoryHardwareInformation memoryInfo,
+                             java.util.List<DiskHardwareInformation> currentDisks,
+                             java.util.List<NicHardwareInformation> currentNics) {
+        timeCommit();
+
+        // The metrics of the newest collection, for the LatestMetricsCache
+        Timestamp latestCollectionTime = null;
+        java.util.List<ApplicationMetric> latestApplicationMetrics = null;
+        java.util.List<SystemCpuMetric> latestCpuMetrics = null;
+        java.util.List<SystemMemoryMetric> latestMemoryMetrics = null;
+        java.util.List<SystemDiskMetric> latestDiskMetrics = null;
+        java.util.List<SystemNicMetric> latestNicMetrics = null;
+
+        // The values of each collection, for the SampleSegmentStore, the SlidingWindowStore and the
+        // TopApplicationsTracker
+        java.util.List<SavedCollection> savedCollections = new java.util.ArrayList<>(batch.size());
+        int samples = 0;
+
+        for (SnapshotRingBuffer.Slot slot : batch) {
+            MetricsSnapshot snapshot = slot.getSnapshot();
+            Timestamp now = snapshot.getCollectionTime();
+            int duration = slot.getDuration();
+
+            latestCollectionTime = now;
+            latestApplicationMetrics = null;
+            latestCpuMetrics = null;
+            latestMemoryMetrics = null;
+            latestDiskMetrics = null;
+            latestNicMetrics = null;
+
+            // Set timestamps on all metrics
+            if (!snapshot.getProcessMetrics().isEmpty()) {
+                for (ProcessMetric processMetric : snapshot.getProcessMetrics()) {
+                    processMetric.setTimestamp(now);
+                }
+                long buildStart = System.nanoTime();
+                latestApplicationMetrics
+                        = applicationDataService.buildApplicationMetrics(snapshot.getProcessMetrics(), now, duration);
+                pipelineTimings.recordSince(PipelineTimings.Stage.BUILD_APPLICATION, buildStart);
+            }
+
+            if (!snapshot.getDiskMetrics().isEmpty() && currentDisks != null) {
+                for (SystemDiskMetric diskMetric : snapshot.getDiskMetrics()) {
+                    diskMetric.setTimestamp(now);
+                }
+                long buildStart = System.nanoTime();
+                latestDiskMetrics
+                        = diskHardwareService.buildDiskMetrics(snapshot.getDiskMetrics(), now, duration, currentDisks);
+                pipelineTimings.recordSince(PipelineTimings.Stage.BUILD_DISK, buildStart);
+            }
+
+            if (!snapshot.getNicMetrics().isEmpty()) {
+                for (SystemNicMetric nicMetric : snapshot.getNicMetrics()) {
+                    nicMetric.setTimestamp(now);
+                }
+                long buildStart = System.nanoTime();
+                latestNicMetrics
+                        = nicHardwareService.buildNicMetrics(snapshot.getNicMetrics(), now, duration, currentNics);
+                pipelineTimings.recordSince(PipelineTimings.Stage.BUILD_NIC, buildStart);
+            }
+
+            SystemCpuMetric cpuMetric = snapshot.getCpuMetric();
+            if (cpuMetric != null && cpuInfo != null) {
+                cpuMetric.setTimestamp(now);
+                cpuMetric.setCpu(cpuInfo);
+                long buildStart = System.nanoTime();
+                latestCpuMetrics = cpuHardwareService.buildCpuMetrics(java.util.List.of(cpuMetric), now, duration);
+                pipelineTimings.recordSince(PipelineTimings.Stage.BUILD_CPU, buildStart);
+            }
+
+            SystemMemoryMetric memoryMetric = snapshot.getMemoryMetric();
+            if (memoryMetric != null && memoryInfo != null) {
+                memoryMetric.setTimestamp(now);
+                memoryMetric.setMemory(memoryInfo);
+                long buildStart = System.nanoTime();
+                latestMemoryMetrics
+                        = memoryHardwareService.buildMemoryMetrics(java.util.List.of(memoryMetric), now, duration);
+                pipelineTimings.recordSince(PipelineTimings.Stage.BUILD_MEMORY, buildStart);
+            }
+
+            SlidingWindowStore.Tick tick = buildTick(now, cpuInfo, memoryInfo, currentDisks, currentNics,
+                    latestCpuMetrics, latestMemoryMetrics, latestDiskMetrics, latestNicMetrics,
+                    latestApplicationMetrics);
+            samples += tick.getValues().size();
+            savedCollections.add(new SavedCollection(now, latestApplicationMetrics, tick));
+        }
+
+        recordAfterCommit(savedCollections);
+
+        if (latestCollectionTime != null) {
+            publishAfterCommit(latestCollectionTime,
+                    systemMetricsAdapter.buildMetricsData(first(latestCpuMetrics),
+                                                          first(latestMemoryMetrics),
+                                                          memoryInfo,
+                                                          byDevice(latestDiskMetrics, currentDisks,
+                                                                   metric -> metric.getDisk().getId(),
+                                                                   DiskHardwareInformation::getId),
+                                                          byDevice(latestNicMetrics, currentNics,
+                                                                   metric -> metric.getNic().getId(),
+                                                                   NicHardwareInformation::getId)),
+                    applicationMetricsAdapter.buildApplicationMetricsDataList(
+                            latestApplicationMetrics == null ? java.util.List.of() : latestApplicationMetrics));
+        }
+
+        return samples;
+    }
+
+    /**
+     * Times the commit of the current transaction, from the callback just before it to the callback
+     * just after it. This is registered before the other synchronizations, so the time taken by
+     * their afterCommit callbacks is not included.
+     */
+    private void timeCommit() {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private long commitStart;
+
+            @Override
+            public void beforeCompletion() {
+                commitStart = System.nanoTime();
+            }
+
+            @Override
+            public void afterCommit() {
+                pipelineTimings.recordSince(PipelineTimings.Stage.SAVE_COMMIT, commitStart);
+            }
+        });
+    }
+
+    /**
+     * Publishes the view of a collection to the LatestMetricsCache once the current transaction
+     * commits, so the dashboard never shows metrics which were rolled back
+     */
+    private void publishAfterCommit(Timestamp collectionTime,
+                                    MetricsData systemMetrics,
+                                    ApplicationMetricsData.ApplicationMetricsDataList applicationMetrics) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                latestMetricsCache.publish(collectionTime, systemMetrics, applicationMetrics);
+            }
+        });
+    }
+
+    /**
+     * Appends the values of the collections saved to the SampleSegmentStore, and records them in
+     * the SlidingWindowStore and the TopApplicationsTracker, once the current transaction commits,
+     * so every device and application they belong to has been saved
+     */
+    private void recordAfterCommit(java.util.List<SavedCollection> savedCollections) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                long samplesStart = System.nanoTime();
+                for (SavedCollection collection : savedCollections) {
+                    sampleSegmentStore.record(collection.tick());
+                }
+                pipelineTimings.recordSince(PipelineTimings.Stage.SAVE_SAMPLES, samplesStart);
+
+                for (SavedCollection collection : savedCollections) {
+                    slidingWindowStore.record(collection.tick());
+                    topApplicationsTracker.record(collection.collectionTime().getTime(),
+                            collection.applicationMetrics());
+                }
+            }
+        });
+    }
+
+    private record SavedCollection(Timestamp collectionTime,
+                                   java.util.List<ApplicationMetric> applicationMetrics,
+                                   SlidingWindowStore.Tick tick) {}
+
+    /**
+     * Collects the values of each series in one collection for the SlidingWindowStore. Devices are
+     * named from their hardware information, which is already loaded.
+     */
+    private static SlidingWindowStore.Tick buildTick(Timestamp collectionTime,
+                                                     CpuHardwareInformation cpuInfo,
+                                                     MemoryHardwareInformation memoryInfo,
+                                                     java.util.List<DiskHardwareInformation> currentDisks,
+                                                     java.util.List<NicHardwareInformation> currentNics,
+                                                     java.util.List<SystemCpuMetric> cpuMetrics,
+                                                     java.util.List<SystemMemoryMetric> memoryMetrics,
+                                                     java.util.List<SystemDiskMetric> diskMetrics,
+                                                     java.util.List<SystemNicMetric> nicMetrics,
+                                                     java.util.List<ApplicationMetric> applicationMetrics) {
+        SlidingWindowStore.Tick tick = new SlidingWindowStore.Tick(collectionTime.getTime());
+
+        SystemCpuMetric cpuMetric = first(cpuMetrics);
+        if (cpuMetric != null && cpuMetric.getAverageUtilization() != null) {
+            tick.add(SlidingWindowStore.SeriesType.CPU, cpuInfo.getId(), cpuInfo.getFriendlyName(),
+                    cpuMetric.getAverageUtilization());
+        }
+
+        SystemMemoryMetric memoryMetric = first(memoryMetrics);
+        if (memoryMetric != null) {
+            tick.add(SlidingWindowStore.SeriesType.MEMORY, memoryInfo.getId(), "Memory",
+                    memoryMetric.getAveragePhysicalUtilization(), memoryMetric.getAverageVirtualUtilization());
+        }
+
+        byDevice(diskMetrics, currentDisks, metric -> metric.getDisk().getId(), DiskHardwareInformation::getId)
+                .forEach((disk, metric) -> tick.add(SlidingWindowStore.SeriesType.DISK, disk.getId(),
+                        disk.getFriendlyName(), metric.getAvgUtilization(), metric.getAvgReadBandwidth(),
+                        metric.getAvgWriteBandwidth(), metric.getAvgTimeToTransfer()));
+
+        byDevice(nicMetrics, currentNics, metric -> metric.getNic().getId(), NicHardwareInformation::getId)
+                .forEach((nic, metric) -> tick.add(SlidingWindowStore.SeriesType.NIC, nic.getId(),
+                        nic.getFriendlyName(), metric.getAvgSendBandwidth(), metric.getAvgReceiveBandwidth()));
+
+        if (applicationMetrics != null) {
+            for (ApplicationMetric metric : applicationMetrics) {
+                tick.add(SlidingWindowStore.SeriesType.APPLICATION, metric.getApplication().getId(),
+                        metric.getApplicationName(), metric.getAvgCpuUsage(), metric.getAvgPhysicalMemoryUsed(),
+                        metric.getAvgVirtualMemoryUsed());
+            }
+        }
+
+        return tick;
+    }
+
+    /**
+     * Pairs the metrics of each device with the device's hardware information, which is already
+     * loaded, rather than the reference set on the metric
+     */
+    private static <D, M> java.util.Map<D, M> byDevice(java.util.List<M> metrics,
+                                                       java.util.List<D> devices,
+                                                       java.util.function.Function<M, UUID> metricDeviceId,
+                                                       java.util.function.Function<D, UUID> deviceId) {
+        java.util.Map<D, M> metricsByDevice = new java.util.LinkedHashMap<>();
+        if (metrics == null || devices == null) {
+            return metricsByDevice;
+        }
+
+        for (D device : devices) {
+            for (M metric : metrics) {
+                if (deviceId.apply(device).equals(metricDeviceId.apply(metric))) {
+                    metricsByDevice.put(device, metric);
+                    break;
+                }
+            }
+        }
+        return metricsByDevice;
+    }
+
+    private static <T> T first(java.util.List<T> metrics) {
+        return metrics == null || metrics.isEmpty() ? null : metrics.getFirst();
+    }
+}
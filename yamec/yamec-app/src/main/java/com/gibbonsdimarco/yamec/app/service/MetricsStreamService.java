@@ -0,0 +1,359 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.gibbonsdimarco.yamec.app.model.ApplicationMetricsData;
+import com.gibbonsdimarco.yamec.app.model.DiskData;
+import com.gibbonsdimarco.yamec.app.model.MetricsData;
+import com.gibbonsdimarco.yamec.app.model.NicData;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * <p>Pushes the metrics published to the LatestMetricsCache to the dashboards as Server-Sent
+ * Events, so they do not have to poll the API.</p>
+ * <p>There is one stream for the system metrics and one for the application metrics. Each
+ * collection is serialized once per stream, as a full <code>snapshot</code> event for clients
+ * which just connected and as a <code>patch</code> event holding a JSON merge patch of the fields
+ * which changed since the previous collection. Disks, NICs and applications are keyed by their ID
+ * in the streamed documents, so the patch only holds the devices and applications which changed.</p>
+ * <p>The documents are built and diffed on a thread of this service instead of the thread which
+ * publishes to the LatestMetricsCache, which saves the metrics. When that thread falls behind,
+ * only the latest collection waiting is streamed, and the patch holds all the changes since the
+ * previous one streamed.</p>
+ * <p>Every client has a bounded buffer of events waiting to be sent, drained by its own virtual
+ * thread. When a client is too slow and its buffer fills up, the events waiting are discarded and
+ * replaced by a snapshot of the latest collection, so a slow client skips collections instead of
+ * holding up the others or the collector.</p>
+ */
+@Service
+public class MetricsStreamService implements LatestMetricsCache.Listener {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsStreamService.class);
+
+    static final String SNAPSHOT_EVENT = "snapshot";
+    static final String PATCH_EVENT = "patch";
+
+    private final LatestMetricsCache latestMetricsCache;
+    private final ObjectMapper objectMapper;
+    private final long clientTimeoutMillis;
+    private final int clientBufferSize;
+    private final Executor publisher;
+    private final Executor senders;
+
+    private final MetricsStream systemStream = new MetricsStream();
+    private final MetricsStream applicationStream = new MetricsStream();
+
+    @Autowired
+    public MetricsStreamService(LatestMetricsCache latestMetricsCache,
+                                ObjectMapper objectMapper,
+                                @Value("${yamec.stream.client-timeout-ms:1800000}") long clientTimeoutMillis,
+                                @Value("${yamec.stream.client-buffer-size:8}") int clientBufferSize) {
+        this(latestMetricsCache, objectMapper, clientTimeoutMillis, clientBufferSize,
+                Executors.newSingleThreadExecutor(Thread.ofVirtual().name("metrics-stream").factory()),
+                Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * @param publisher Builds and diffs the documents, one collection at a time
+     * @param senders Sends the events buffered for each client
+     */
+    MetricsStreamService(LatestMetricsCache latestMetricsCache,
+                         ObjectMapper objectMapper,
+                         long clientTimeoutMillis,
+                         int clientBufferSize,
+                         Executor publisher,
+                         Executor senders) {
+        this.latestMetricsCache = latestMetricsCache;
+        this.objectMapper = objectMapper;
+        this.clientTimeoutMillis = clientTimeoutMillis;
+        this.clientBufferSize = Math.max(1, clientBufferSize);
+        this.publisher = publisher;
+        this.senders = senders;
+    }
+
+    /**
+     * Starts receiving the metrics saved, once this service is fully constructed
+     */
+    @PostConstruct
+    public void listenForMetrics() {
+        latestMetricsCache.addListener(this);
+    }
+
+    /**
+     * Opens a stream of the system metrics for a new client
+     */
+    public SseEmitter subscribeToSystemMetrics() {
+        return systemStream.subscribe(new SseEmitter(clientTimeoutMillis));
+    }
+
+    /**
+     * Opens a stream of the application metrics for a new client
+     */
+    public SseEmitter subscribeToApplicationMetrics() {
+        return applicationStream.subscribe(new SseEmitter(clientTimeoutMillis));
+    }
+
+    void subscribeToSystemMetrics(SseEmitter emitter) {
+        systemStream.subscribe(emitter);
+    }
+
+    void subscribeToApplicationMetrics(SseEmitter emitter) {
+        applicationStream.subscribe(emitter);
+    }
+
+    /**
+     * Hands the collection to the publisher thread. The metrics are only converted to documents
+     * there, which is safe since published views are never modified.
+     */
+    @Override
+    public void onPublish(Timestamp collectionTime,
+                          MetricsData systemMetrics,
+                          ApplicationMetricsData.ApplicationMetricsDataList applicationMetrics) {
+        if (systemMetrics != null) {
+            systemStream.offer(() -> toDocument(collectionTime, systemMetrics));
+        }
+        if (applicationMetrics != null) {
+            applicationStream.offer(() -> toDocument(collectionTime, applicationMetrics));
+        }
+    }
+
+    /**
+     * Converts the system metrics to the streamed document, where the disks and NICs are objects
+     * keyed by device ID instead of arrays
+     */
+    ObjectNode toDocument(Timestamp collectionTime, MetricsData systemMetrics) {
+        ObjectNode document = objectMapper.valueToTree(systemMetrics);
+        document.put("collectionTime", collectionTime.getTime());
+
+        ObjectNode disks = document.putObject("disks");
+        if (systemMetrics.getDisks() != null) {
+            for (DiskData disk : systemMetrics.getDisks()) {
+                disks.set(key(disk.getDeviceId(), disk.getFriendlyName()), objectMapper.valueToTree(disk));
+            }
+        }
+
+        ObjectNode nics = document.putObject("nics");
+        if (systemMetrics.getNics() != null) {
+            for (NicData nic : systemMetrics.getNics()) {
+                nics.set(key(nic.getNicId(), nic.getFriendlyName()), objectMapper.valueToTree(nic));
+            }
+        }
+
+        return document;
+    }
+
+    /**
+     * Converts the application metrics to the streamed document, where the applications are an
+     * object keyed by application ID instead of an array
+     */
+    ObjectNode toDocument(Timestamp collectionTime,
+                          ApplicationMetricsData.ApplicationMetricsDataList applicationMetrics) {
+        ObjectNode document = objectMapper.createObjectNode();
+        document.put("collectionTime", collectionTime.getTime());
+
+        ObjectNode applications = document.putObject("applications");
+        for (ApplicationMetricsData application : applicationMetrics.getApplications()) {
+            applications.set(key(application.getId(), application.getApplicationName()),
+                    objectMapper.valueToTree(application));
+        }
+
+        return document;
+    }
+
+    private static String key(Object id, String name) {
+        return id != null ? id.toString() : name;
+    }
+
+    private String write(JsonNode node) {
+        try {
+            return objectMapper.writeValueAsString(node);
+        } catch (JsonProcessingException e) {
+            // Trees built from our own models always serialize
+            throw new IllegalStateException("Could not serialize streamed metrics", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        systemStream.close();
+        applicationStream.close();
+        if (publisher instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        }
+        if (senders instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * The clients of one stream and the last document sent to them
+     */
+    private class MetricsStream {
+        private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        /** Builds the document of the latest collection not yet published, if any */
+        private final AtomicReference<Supplier<ObjectNode>> pending = new AtomicReference<>();
+        private ObjectNode lastDocument;
+        private String lastSnapshot;
+
+        SseEmitter subscribe(SseEmitter emitter) {
+            Subscriber subscriber = new Subscriber(this, emitter);
+
+            emitter.onCompletion(() -> subscribers.remove(subscriber));
+            emitter.onTimeout(() -> subscribers.remove(subscriber));
+            emitter.onError(e -> subscribers.remove(subscriber));
+
+            // Registered under the same lock as publish, so the client gets either the current
+            // snapshot here or the next one from publish, and never a patch without a snapshot
+            synchronized (this) {
+                subscribers.add(subscriber);
+                if (lastSnapshot != null) {
+                    subscriber.enqueue(SNAPSHOT_EVENT, lastSnapshot, lastSnapshot);
+                }
+            }
+
+            return emitter;
+        }
+
+        /**
+         * Replaces the collection waiting to be published, and schedules its publication if none
+         * was waiting
+         */
+        void offer(Supplier<ObjectNode> document) {
+            if (pending.getAndSet(document) == null) {
+                try {
+                    publisher.execute(this::publishPending);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down
+                    pending.set(null);
+                }
+            }
+        }
+
+        private void publishPending() {
+            Supplier<ObjectNode> document = pending.getAndSet(null);
+            if (document != null) {
+                try {
+                    publish(document.get());
+                } catch (RuntimeException e) {
+                    logger.warn("Could not stream the metrics collected", e);
+                }
+            }
+        }
+
+        synchronized void publish(ObjectNode document) {
+            String snapshot = write(document);
+            String patch = null;
+            if (lastDocument != null) {
+                ObjectNode diff = JsonMergePatch.diff(lastDocument, document);
+                patch = diff.isEmpty() ? "" : write(diff);
+            }
+            lastDocument = document;
+            lastSnapshot = snapshot;
+
+            for (Subscriber subscriber : subscribers) {
+                if (!subscriber.synced || patch == null) {
+                    subscriber.enqueue(SNAPSHOT_EVENT, snapshot, snapshot);
+                } else if (!patch.isEmpty()) {
+                    subscriber.enqueue(PATCH_EVENT, patch, snapshot);
+                }
+            }
+        }
+
+        synchronized void close() {
+            for (Subscriber subscriber : subscribers) {
+                subscriber.emitter.complete();
+            }
+            subscribers.clear();
+        }
+    }
+
+    private record Event(String name, String data) {
+    }
+
+    /**
+     * One client of a stream, with its bounded buffer of events waiting to be sent
+     */
+    private class Subscriber {
+        private final MetricsStream stream;
+        private final SseEmitter emitter;
+        private final ArrayBlockingQueue<Event> buffer = new ArrayBlockingQueue<>(clientBufferSize);
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        /** Whether the client was sent a snapshot which the next patch applies to (guarded by the stream) */
+        private boolean synced;
+
+        Subscriber(MetricsStream stream, SseEmitter emitter) {
+            this.stream = stream;
+            this.emitter = emitter;
+        }
+
+        /**
+         * Buffers an event, or replaces the events waiting with the snapshot if the buffer is full.
+         * Only called while holding the lock of the stream.
+         */
+        void enqueue(String name, String data, String snapshot) {
+            if (!buffer.offer(new Event(name, data))) {
+                buffer.clear();
+                buffer.offer(new Event(SNAPSHOT_EVENT, snapshot));
+                logger.debug("Client of the metrics stream fell behind, sending a snapshot instead");
+            }
+            synced = true;
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down
+                    draining.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                Event event;
+                while ((event = buffer.poll()) != null) {
+                    emitter.send(SseEmitter.event()
+                            .name(event.name())
+                            .data(event.data()));
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The client disconnected or the emitter already completed
+                stream.subscribers.remove(this);
+                emitter.completeWithError(e);
+                return;
+            } finally {
+                draining.set(false);
+            }
+
+            // An event may have been buffered after the last poll but before draining was reset
+            if (!buffer.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    }
+}
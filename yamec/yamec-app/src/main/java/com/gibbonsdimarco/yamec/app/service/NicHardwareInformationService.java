@@ -1,7 +1,6 @@
 package com.gibbonsdimarco.yamec.app.service;
 
 import com.gibbonsdimarco.yamec.app.data.*;
-import com.gibbonsdimarco.yamec.app.repository.GranularityRepository;
 import com.gibbonsdimarco.yamec.app.repository.NicHardwareInformationRepository;
 import com.gibbonsdimarco.yamec.app.repository.SystemNicMetricRepository;
 import jakarta.transaction.Transactional;
@@ -16,14 +15,20 @@ public class NicHardwareInformationService {
 
     private final SystemNicMetricRepository nicMetricRepository;
     private final NicHardwareInformationRepository nicHardwareInformationRepository;
-    private final GranularityRepository granularityRepository;
+    private final GranularityIdCache granularityIdCache;
+    private final MetricTierSelector metricTierSelector;
+    private final RawMetricReader rawMetricReader;
 
     @Autowired
     public NicHardwareInformationService(SystemNicMetricRepository nicMetricRepository,
-                                         NicHardwareInformationRepository nicHardwareInformationRepository, GranularityRepository granularityRepository) {
+                                         NicHardwareInformationRepository nicHardwareInformationRepository, GranularityIdCache granularityIdCache,
+                                         MetricTierSelector metricTierSelector,
+                                         RawMetricReader rawMetricReader) {
         this.nicMetricRepository = nicMetricRepository;
         this.nicHardwareInformationRepository = nicHardwareInformationRepository;
-        this.granularityRepository = granularityRepository;
+        this.granularityIdCache = granularityIdCache;
+        this.metricTierSelector = metricTierSelector;
+        this.rawMetricReader = rawMetricReader;
     }
 
 
@@ -45,168 +50,65 @@ public class NicHardwareInformationService {
 
         long startTimeAsLong = startTime.getTime();
 
-        // Use a map to group metrics by the device ID
-        List<UUID> recordedDiskIds = new ArrayList<>();
-        HashMap<UUID, Integer> numValidNicMetrics = new HashMap<>();
+        // Fields of the metrics in the aggregator
+        final int sendBandwidth = 0, receiveBandwidth = 1;
+        final int sendBandwidthUnsigned = 0, receiveBandwidthUnsigned = 1;
 
-        HashMap<UUID, long[]> sendBandwidthTotalMap = new HashMap<>();
-        HashMap<UUID, Long> sendBandwidthMaxMap = new HashMap<>();
-        HashMap<UUID, Long> sendBandwidthMinMap = new HashMap<>();
-        HashMap<UUID, Boolean> sendBandwidthUnsignedMap = new HashMap<>();
+        MetricAggregator<UUID> aggregator = new MetricAggregator<>(0, 2, 2, 2);
+        // Metrics of one second hold a single value, so only longer metrics keep a sketch of their values
+        final boolean sketched = duration > 1;
 
-        HashMap<UUID, long[]> receiveBandwidthTotalMap = new HashMap<>();
-        HashMap<UUID, Long> receiveBandwidthMaxMap = new HashMap<>();
-        HashMap<UUID, Long> receiveBandwidthMinMap = new HashMap<>();
-        HashMap<UUID, Boolean> receiveBandwidthUnsignedMap = new HashMap<>();
-
-
-        // Go through all processes related to this application and get the total resource use
-        // by the application per second
         for (SystemNicMetric currentMetric : nicMetrics) {
 
-            // Fail-safe in case a metric is not assigned a Memory Hardware metric (can't properly group the metrics)
-            if (currentMetric.getNic() == null)
-            {
-                continue;
-            }
-
-            // Fail-safe in case a metric is not given a timestamp (Can't accurately get metrics from it)
-            if (currentMetric.getTimestamp() == null) {
+            // Fail-safe in case a metric is not assigned a NIC (can't properly group the metrics)
+            // or a timestamp (Can't accurately get metrics from it)
+            if (currentMetric.getNic() == null || currentMetric.getTimestamp() == null) {
                 continue;
             }
 
-            UUID nicId = currentMetric.getNic().getId();
-
-            // Get average, max, and min metrics
-            long averageSendBandwidth = currentMetric.getAvgSendBandwidth();
-            long maxSendBandwidth = currentMetric.getMaxSendBandwidth();
-            long minSendBandwidth = currentMetric.getMinSendBandwidth();
-
-            long averageReceiveBandwidth = currentMetric.getAvgReceiveBandwidth();
-            long maxReceiveBandwidth = currentMetric.getMaxReceiveBandwidth();
-            long minReceiveBandwidth = currentMetric.getMinReceiveBandwidth();
-
-            boolean unsignedSendBandwidth = currentMetric.isSendBandwidthUnsigned();
-            boolean unsignedReceiveBandwidth = currentMetric.isReceiveBandwidthUnsigned();
-
-            long timestampAsLong = currentMetric.getTimestamp().getTime();
-
-            // Used to map process data to the second number of the data
-            int secondsSinceStartTime = (int)((timestampAsLong - startTimeAsLong)/1000);
-
-
             // Fail-safe if a record outside the duration is included
-            if (secondsSinceStartTime > duration - 1) {
+            if (!MetricAggregator.isInTimespan(currentMetric.getTimestamp(), startTimeAsLong, duration)) {
                 continue;
             }
 
-            // Create key maps for all values if one doesn't exist for a specific CPU
-            if (!recordedDiskIds.contains(nicId)) {
-                recordedDiskIds.add(nicId);
-                numValidNicMetrics.put(nicId, 0);
+            int slot = aggregator.slot(currentMetric.getNic().getId());
+            aggregator.countMetric(slot);
 
-                sendBandwidthTotalMap.put(nicId, new long[duration]);
-                sendBandwidthMaxMap.put(nicId, Long.MIN_VALUE);
-                sendBandwidthMinMap.put(nicId, Long.MAX_VALUE);
+            aggregator.recordLong(slot, sendBandwidth, currentMetric.getAvgSendBandwidth(),
+                    currentMetric.getMaxSendBandwidth(), currentMetric.getMinSendBandwidth());
+            aggregator.recordLong(slot, receiveBandwidth, currentMetric.getAvgReceiveBandwidth(),
+                    currentMetric.getMaxReceiveBandwidth(), currentMetric.getMinReceiveBandwidth());
 
-                receiveBandwidthTotalMap.put(nicId, new long[duration]);
-                receiveBandwidthMaxMap.put(nicId, Long.MIN_VALUE);
-                receiveBandwidthMinMap.put(nicId, Long.MAX_VALUE);
+            // Unsigned if even one value is reported as unsigned
+            aggregator.recordFlag(slot, sendBandwidthUnsigned, currentMetric.isSendBandwidthUnsigned());
+            aggregator.recordFlag(slot, receiveBandwidthUnsigned, currentMetric.isReceiveBandwidthUnsigned());
 
-                sendBandwidthUnsignedMap.put(nicId, false);
-                receiveBandwidthUnsignedMap.put(nicId, false);
-            }
-
-//            // If the disk is not being used at all, skip this metric
-//            if (averageUtilization == 0
-//                    && maxUtilization == 0
-//                    && minUtilization == 0
-//                    && averageReadBandwidth == 0
-//                    && maxReadBandwidth == 0
-//                    && minReadBandwidth == 0
-//                    && averageWriteBandwidth == 0
-//                    && maxWriteBandwidth == 0
-//                    && minWriteBandwidth == 0
-//                    && averageTimeToTransfer == 0
-//                    && maxTimeToTransfer == 0
-//                    && minTimeToTransfer == 0) {
-//                continue;
-//            }
-
-            // This is a valid metric, and the timestamp
-            numValidNicMetrics.put(nicId, numValidNicMetrics.get(nicId) + 1);
-
-            // Add to running totals and extract maximums and minimums
-            sendBandwidthTotalMap.get(nicId)[secondsSinceStartTime] = averageSendBandwidth;
-            if (sendBandwidthMaxMap.get(nicId) < maxSendBandwidth) {
-                sendBandwidthMaxMap.put(nicId, maxSendBandwidth);
-            }
-            if (sendBandwidthMinMap.get(nicId) > minSendBandwidth) {
-                sendBandwidthMinMap.put(nicId, minSendBandwidth);
+            if (sketched) {
+                aggregator.recordSketch(slot, sendBandwidth, currentMetric.getAvgSendBandwidth(),
+                        currentMetric.getSendBandwidthSketch());
+                aggregator.recordSketch(slot, receiveBandwidth, currentMetric.getAvgReceiveBandwidth(),
+                        currentMetric.getReceiveBandwidthSketch());
             }
-
-            // Add to running totals and extract maximums and minimums
-            receiveBandwidthTotalMap.get(nicId)[secondsSinceStartTime] = averageReceiveBandwidth;
-            if (receiveBandwidthMaxMap.get(nicId) < maxReceiveBandwidth) {
-                receiveBandwidthMaxMap.put(nicId, maxReceiveBandwidth);
-            }
-            if (receiveBandwidthMinMap.get(nicId) > minReceiveBandwidth) {
-                receiveBandwidthMinMap.put(nicId, minReceiveBandwidth);
-            }
-
-            // Set unsigned boolean values to true if even one value is reported as true
-            if (unsignedSendBandwidth) {
-                sendBandwidthUnsignedMap.put(nicId, true);
-            }
-
-            if (unsignedReceiveBandwidth) {
-                receiveBandwidthUnsignedMap.put(nicId, true);
-            }
-
         }
 
-        List<SystemNicMetric> metricsToRecord = new ArrayList<>();
-
-        for (UUID nicId : recordedDiskIds) {
-
-
-
-            // Data containers for metrics
-            long averageReadBandwidth = 0;
-            long maxReadBandwidth = sendBandwidthMaxMap.get(nicId);
-            long minReadBandwidth = sendBandwidthMinMap.get(nicId);
-
-            long averageWriteBandwidth = 0;
-            long maxWriteBandwidth = receiveBandwidthMaxMap.get(nicId);
-            long minWriteBandwidth = receiveBandwidthMinMap.get(nicId);
-
-            boolean unsignedSendBandwidth = sendBandwidthUnsignedMap.get(nicId);
-            boolean unsignedReceiveBandwidth = receiveBandwidthUnsignedMap.get(nicId);
-
-            int countMetrics = numValidNicMetrics.get(nicId);
-
-            for (int secondNum = 0; secondNum < duration; secondNum++) {
-                // Sum total usages for all valid processes and applications
-                averageReadBandwidth += sendBandwidthTotalMap.get(nicId)[secondNum];
-                averageWriteBandwidth += receiveBandwidthTotalMap.get(nicId)[secondNum];
-            }
-
-            // Take average of each metric based on the duration
-            averageReadBandwidth /= countMetrics;
-            averageWriteBandwidth /= countMetrics;
+        UUID granularityId = granularityIdCache.getId(granularityLabel);
+        List<SystemNicMetric> metricsToRecord = new ArrayList<>(aggregator.size());
 
+        for (int slot = 0; slot < aggregator.size(); slot++) {
             SystemNicMetric currentMetric = new SystemNicMetric(startTime, duration,
-                    granularityRepository.getByLabel(granularityLabel).getId(),
-                    averageReadBandwidth,
-                    maxReadBandwidth,
-                    minReadBandwidth,
-                    averageWriteBandwidth,
-                    maxWriteBandwidth,
-                    minWriteBandwidth,
-                    unsignedSendBandwidth,
-                    unsignedReceiveBandwidth);
-
-            currentMetric.setNic(nicHardwareInformationRepository.getReferenceById(nicId));
+                    granularityId,
+                    aggregator.longAverage(slot, sendBandwidth),
+                    aggregator.longMaximum(slot, sendBandwidth),
+                    aggregator.longMinimum(slot, sendBandwidth),
+                    aggregator.longAverage(slot, receiveBandwidth),
+                    aggregator.longMaximum(slot, receiveBandwidth),
+                    aggregator.longMinimum(slot, receiveBandwidth),
+                    aggregator.flag(slot, sendBandwidthUnsigned),
+                    aggregator.flag(slot, receiveBandwidthUnsigned));
+
+            currentMetric.setNic(nicHardwareInformationRepository.getReferenceById(aggregator.key(slot)));
+            currentMetric.setSendBandwidthSketch(aggregator.sketchBytes(slot, sendBandwidth));
+            currentMetric.setReceiveBandwidthSketch(aggregator.sketchBytes(slot, receiveBandwidth));
 
             // Create Metric object
             metricsToRecord.add(currentMetric);
@@ -234,6 +136,34 @@ public class NicHardwareInformationService {
                                                             int duration,
                                                             java.util.List<NicHardwareInformation> currentNics) {
 
+        java.util.List<SystemNicMetric> validMetrics
+                = buildNicMetrics(nicMetrics, startTime, duration, currentNics);
+
+        if (validMetrics == null) {
+            return null;
+        }
+
+        // Commit Application Metrics and return entities with the committed IDs
+        return nicMetricRepository.saveAllAndFlush(validMetrics);
+
+    }
+
+    /**
+     * Matches the NIC metrics passed by parameter to the NICs they were collected from and
+     * aggregates them into the entities to save without saving them
+     *
+     * @param nicMetrics The list of <code>SystemNicMetric</code> objects to aggregate
+     * @param startTime The starting timestamp of the metrics collected
+     * @param duration The number of seconds which the metrics were collected for
+     * @param currentNics The NICs currently connected to the system
+     * @return The list of <code>SystemNicMetric</code> entities to save, or null if there are none
+     * @see #saveNicMetrics(java.util.List, java.sql.Timestamp, int, java.util.List)
+     */
+    public java.util.List<SystemNicMetric> buildNicMetrics(java.util.List<SystemNicMetric> nicMetrics,
+                                                           java.sql.Timestamp startTime,
+                                                           int duration,
+                                                           java.util.List<NicHardwareInformation> currentNics) {
+
         java.util.List<SystemNicMetric> validMetrics
                 = new java.util.ArrayList<>();
 
@@ -276,11 +206,7 @@ public class NicHardwareInformationService {
         }
 
 //        // The collection to be sent to the database to complete the rest of the transaction
-        validMetrics
-                = aggregateNicMetrics(nicMetrics, startTime, duration, "HIGH");
-
-        // Commit Application Metrics and return entities with the committed IDs
-        return nicMetricRepository.saveAllAndFlush(validMetrics);
+        return aggregateNicMetrics(nicMetrics, startTime, duration, "HIGH");
 
     }
 
@@ -377,5 +303,31 @@ public class NicHardwareInformationService {
         return nicsWithLatestMetrics;
     }
 
+    /**
+     * Returns the NIC metrics from <code>start</code> to <code>end</code>, oldest first, read from
+     * the coarsest granularity level which still has the resolution requested
+     *
+     * @param start The start of the range (inclusive)
+     * @param end The end of the range (exclusive)
+     * @param resolution The number of seconds between the metrics the caller needs
+     * @return The NIC metrics in the range
+     * @see MetricTierSelector#selectTiers(java.sql.Timestamp, java.sql.Timestamp, int)
+     */
+    public java.util.List<SystemNicMetric> getNicMetrics(java.sql.Timestamp start, java.sql.Timestamp end, int resolution) {
+        java.util.List<SystemNicMetric> metrics = new java.util.ArrayList<>();
+
+        for (MetricTierSelector.TierRange range : metricTierSelector.selectTiers(start, end, resolution)) {
+            if (RollupService.SOURCE_GRANULARITY.equals(range.getGranularityLabel())) {
+                // The raw samples are kept by the SampleSegmentStore
+                metrics.addAll(rawMetricReader.findNicMetrics(range.getStart(), range.getEnd()));
+            } else {
+                metrics.addAll(nicMetricRepository.findAllInRangeByGranularity(range.getStart(),
+                        range.getEnd(), range.getGranularityLabel()));
+            }
+        }
+
+        return metrics;
+    }
+
     // Other service methods as needed
 }
\ No newline at end of file
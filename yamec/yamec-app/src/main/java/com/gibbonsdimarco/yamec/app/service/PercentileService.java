@@ -0,0 +1,189 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.data.*;
+import com.gibbonsdimarco.yamec.app.model.PercentileData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * <p>Estimates percentiles of the metrics of each device and application over a range of time.</p>
+ * <p>The range is read from the coarsest granularity level available (see MetricTierSelector), so
+ * the rolled up part of the range is covered by a few metrics per device whose QuantileSketches
+ * are merged, instead of every one second metric. The one second metrics after the rollup
+ * watermark each add their value to the sketch.</p>
+ */
+@Service
+public class PercentileService {
+
+    /**
+     * The metric types percentiles can be estimated for
+     */
+    public static final java.util.List<String> TYPES
+            = java.util.List.of("cpu", "memory", "disk", "nic", "applications");
+
+    private final CpuHardwareInformationService cpuService;
+    private final MemoryHardwareInformationService memoryService;
+    private final DiskHardwareInformationService diskService;
+    private final NicHardwareInformationService nicService;
+    private final ApplicationDataService applicationDataService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public PercentileService(CpuHardwareInformationService cpuService,
+                             MemoryHardwareInformationService memoryService,
+                             DiskHardwareInformationService diskService,
+                             NicHardwareInformationService nicService,
+                             ApplicationDataService applicationDataService,
+                             PlatformTransactionManager transactionManager) {
+        this.cpuService = cpuService;
+        this.memoryService = memoryService;
+        this.diskService = diskService;
+        this.nicService = nicService;
+        this.applicationDataService = applicationDataService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Estimates percentiles of the metrics of one type from <code>start</code> to <code>end</code>
+     *
+     * @param type The type of metrics, one of {@link #TYPES}
+     * @param start The start of the range (inclusive)
+     * @param end The end of the range (exclusive)
+     * @param quantiles The quantiles to estimate, between 0 and 1 (0.95 for the 95th percentile)
+     * @return The percentiles of each metric of each device or application with data in the range
+     * @throws IllegalArgumentException If the type or a quantile is invalid
+     */
+    public java.util.List<PercentileData> getPercentiles(String type, Timestamp start, Timestamp end,
+                                                         double[] quantiles) {
+        if (!TYPES.contains(type)) {
+            throw new IllegalArgumentException("Unknown metric type: " + type);
+        }
+        for (double quantile : quantiles) {
+            if (!(quantile >= 0 && quantile <= 1)) {
+                throw new IllegalArgumentException("Quantiles must be between 0 and 1");
+            }
+        }
+
+        // The names of the devices and applications are loaded lazily
+        SketchGroups groups = transactionTemplate.execute(status -> readSketches(type, start, end));
+
+        return groups.toPercentiles(quantiles);
+    }
+
+    private SketchGroups readSketches(String type, Timestamp start, Timestamp end) {
+        SketchGroups groups = new SketchGroups();
+
+        // Any resolution can use the rolled up metrics, since their sketches keep every second
+        switch (type) {
+            case "cpu" -> {
+                for (SystemCpuMetric metric : cpuService.getCpuMetrics(start, end, Integer.MAX_VALUE)) {
+                    CpuHardwareInformation cpu = metric.getCpu();
+                    groups.add(cpu.getId(), cpu.getFriendlyName(), "utilization",
+                            metric.getAverageUtilization(), metric.getUtilizationSketch());
+                }
+            }
+            case "memory" -> {
+                for (SystemMemoryMetric metric : memoryService.getMemoryMetrics(start, end, Integer.MAX_VALUE)) {
+                    groups.add(metric.getMemory().getId(), "Memory", "physicalUtilization",
+                            metric.getAveragePhysicalUtilization(), metric.getPhysicalUtilizationSketch());
+                }
+            }
+            case "disk" -> {
+                for (SystemDiskMetric metric : diskService.getDiskMetrics(start, end, Integer.MAX_VALUE)) {
+                    DiskHardwareInformation disk = metric.getDisk();
+                    groups.add(disk.getId(), disk.getFriendlyName(), "utilization",
+                            metric.getAvgUtilization(), metric.getUtilizationSketch());
+                    groups.add(disk.getId(), disk.getFriendlyName(), "timeToTransfer",
+                            metric.getAvgTimeToTransfer(), metric.getTimeToTransferSketch());
+                }
+            }
+            case "nic" -> {
+                for (SystemNicMetric metric : nicService.getNicMetrics(start, end, Integer.MAX_VALUE)) {
+                    NicHardwareInformation nic = metric.getNic();
+                    groups.add(nic.getId(), nic.getFriendlyName(), "sendBandwidth",
+                            metric.getAvgSendBandwidth(), metric.getSendBandwidthSketch());
+                    groups.add(nic.getId(), nic.getFriendlyName(), "receiveBandwidth",
+                            metric.getAvgReceiveBandwidth(), metric.getReceiveBandwidthSketch());
+                }
+            }
+            default -> {
+                for (ApplicationMetric metric
+                        : applicationDataService.getApplicationMetrics(start, end, Integer.MAX_VALUE)) {
+                    Application application = metric.getApplication();
+                    groups.add(application.getId(), application.getApplicationName(), "cpuUsage",
+                            metric.getAvgCpuUsage(), metric.getCpuUsageSketch());
+                    groups.add(application.getId(), application.getApplicationName(), "physicalMemoryUsed",
+                            metric.getAvgPhysicalMemoryUsed(), metric.getPhysicalMemoryUsedSketch());
+                }
+            }
+        }
+
+        return groups;
+    }
+
+    /**
+     * Returns the name of a quantile as a percentile, such as <code>p95</code> for 0.95 or
+     * <code>p99.9</code> for 0.999
+     */
+    static String percentileName(double quantile) {
+        return "p" + BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * The sketches of each metric of each device or application, in the order first seen
+     */
+    private static class SketchGroups {
+        private final java.util.Map<String, SketchGroup> groups = new java.util.LinkedHashMap<>();
+
+        void add(UUID id, String name, String metric, Number value, byte[] sketch) {
+            SketchGroup group = groups.computeIfAbsent(id + "/" + metric,
+                    key -> new SketchGroup(id, name, metric));
+
+            if (sketch != null) {
+                group.sketch.merge(sketch);
+            } else if (value != null) {
+                group.sketch.add(value.doubleValue());
+            }
+        }
+
+        java.util.List<PercentileData> toPercentiles(double[] quantiles) {
+            java.util.List<PercentileData> percentiles = new java.util.ArrayList<>(groups.size());
+
+            for (SketchGroup group : groups.values()) {
+                if (group.sketch.getCount() == 0) {
+                    continue;
+                }
+
+                java.util.Map<String, Double> values = new java.util.LinkedHashMap<>();
+                for (double quantile : quantiles) {
+                    values.put(percentileName(quantile), group.sketch.quantile(quantile));
+                }
+
+                percentiles.add(new PercentileData(group.id, group.name, group.metric,
+                        group.sketch.getCount(), group.sketch.getMin(), group.sketch.getMax(), values));
+            }
+
+            return percentiles;
+        }
+    }
+
+    private static class SketchGroup {
+        private final UUID id;
+        private final String name;
+        private final String metric;
+        private final QuantileSketch sketch = new QuantileSketch();
+
+        SketchGroup(UUID id, String name, String metric) {
+            this.id = id;
+            this.name = name;
+            this.metric = metric;
+        }
+    }
+}
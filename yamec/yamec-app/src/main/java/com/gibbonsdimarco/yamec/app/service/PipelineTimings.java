@@ -0,0 +1,142 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.model.StageTimingData;
+import org.springframework.stereotype.Service;
+
+/**
+ * <p>Times each stage of the collection pipeline, from sampling the operating system's counters to
+ * committing the rows to the database and rolling them up, so a slow stage can be found without a
+ * profiler.</p>
+ * <p>Each stage has a LatencyHistogram of the durations recorded since startup. Recording a
+ * duration costs two reads of the monotonic clock and a few atomic increments, so it is done for
+ * every collection.</p>
+ * <p>Collection jitter is the delay between the time a collection was scheduled to start and the
+ * time it started. Collections are scheduled at a fixed rate from the earliest start seen, and a
+ * fixed rate schedule runs collections which were missed while the previous one overran as soon
+ * as it ends, so each of them is counted as late.</p>
+ */
+@Service
+public class PipelineTimings {
+
+    /**
+     * The stages of the pipeline which are timed
+     */
+    public enum Stage {
+        COLLECTION_JITTER("collection.jitter"),
+        COLLECTION("collection"),
+        SOURCE_SNAPSHOT("source.collectSnapshot"),
+        SOURCE_COUNTER_DATA("source.collectCounterData"),
+        SOURCE_CPU("source.getCpuMetrics"),
+        SOURCE_MEMORY("source.getMemoryMetrics"),
+        SOURCE_DISK("source.getDiskMetrics"),
+        SOURCE_NIC("source.getNicMetrics"),
+        SOURCE_PROCESS("source.getProcessMetrics"),
+        SOURCE_HARDWARE("source.getHardwareInformation"),
+        QUEUE_WAIT("queue.wait"),
+        BUILD_APPLICATION("build.applicationMetrics"),
+        BUILD_CPU("build.cpuMetrics"),
+        BUILD_MEMORY("build.memoryMetrics"),
+        BUILD_DISK("build.diskMetrics"),
+        BUILD_NIC("build.nicMetrics"),
+        SAVE_COMMIT("save.commit"),
+        SAVE_SAMPLES("save.samples"),
+        SAVE_BATCH("save.batch"),
+        AGGREGATE_CPU("aggregate.cpuMetrics"),
+        AGGREGATE_MEMORY("aggregate.memoryMetrics"),
+        AGGREGATE_DISK("aggregate.diskMetrics"),
+        AGGREGATE_NIC("aggregate.nicMetrics"),
+        AGGREGATE_APPLICATION("aggregate.applicationMetrics"),
+        ROLLUP_WINDOW("rollup.window");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    // The time the next collection is scheduled to start, once the first collection has started
+    private boolean collectionStarted;
+    private long nextScheduledNanos;
+
+    public PipelineTimings() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records the duration of one run of a stage
+     *
+     * @param stage The stage which ran
+     * @param startNanos The value of {@link System#nanoTime()} when the stage started
+     */
+    public void recordSince(Stage stage, long startNanos) {
+        histograms[stage.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records how late a collection started. Only called from the scheduled collection, so it is
+     * not synchronized.
+     *
+     * @param startNanos The value of {@link System#nanoTime()} when the collection started
+     * @param periodNanos The time between scheduled collections
+     */
+    public void recordCollectionStart(long startNanos, long periodNanos) {
+        if (!collectionStarted) {
+            collectionStarted = true;
+            nextScheduledNanos = startNanos;
+        }
+
+        // The first collection may itself have started late, so the schedule is moved earlier
+        // whenever a collection starts before it
+        long jitter = startNanos - nextScheduledNanos;
+        if (jitter < 0) {
+            nextScheduledNanos = startNanos;
+            jitter = 0;
+        }
+        record(Stage.COLLECTION_JITTER, jitter);
+        nextScheduledNanos += periodNanos;
+    }
+
+    LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * Returns the count, mean and percentiles of each stage which has run, in milliseconds
+     */
+    public java.util.List<StageTimingData> getStatistics() {
+        java.util.List<StageTimingData> statistics = new java.util.ArrayList<>();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            long count = histogram.getCount();
+            if (count == 0) {
+                continue;
+            }
+
+            long[] values = histogram.getValuesAtQuantiles(QUANTILES);
+            statistics.add(new StageTimingData(stage.getLabel(),
+                                               count,
+                                               histogram.getMean() / 1_000_000.0,
+                                               values[0] / 1_000_000.0,
+                                               values[1] / 1_000_000.0,
+                                               values[2] / 1_000_000.0,
+                                               values[3] / 1_000_000.0,
+                                               histogram.getMax() / 1_000_000.0));
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,292 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.model.ApplicationMetricsData;
+import com.gibbonsdimarco.yamec.app.model.DiskData;
+import com.gibbonsdimarco.yamec.app.model.MetricsData;
+import com.gibbonsdimarco.yamec.app.model.NicData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * <p>Renders the latest collection in the Prometheus text exposition format (version 0.0.4), from
+ * the LatestMetricsCache, without querying the database.</p>
+ * <p>Each scrape is rendered into one buffer which is reused by the next scrape, so rendering
+ * allocates little however many series there are. The labels of each disk, NIC and application
+ * are escaped and encoded once, the first time it is rendered, and reused until it is no longer in
+ * the latest collection.</p>
+ * <p>Scrapes are rendered one at a time.</p>
+ */
+@Service
+public class PrometheusExporter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final LatestMetricsCache latestMetricsCache;
+
+    private byte[] buffer = new byte[64 * 1024];
+    private int size;
+
+    // The encoded labels of each device and application, and the scrape they were last rendered in
+    private final java.util.HashMap<UUID, EncodedLabels> labels = new java.util.HashMap<>();
+    private long scrape;
+
+    @Autowired
+    public PrometheusExporter(LatestMetricsCache latestMetricsCache) {
+        this.latestMetricsCache = latestMetricsCache;
+    }
+
+    /**
+     * Writes the metrics of the latest collection. Nothing but the HELP and TYPE lines is written
+     * for metrics which have not been collected yet.
+     */
+    public synchronized void writeTo(OutputStream outputStream) throws IOException {
+        render();
+        outputStream.write(buffer, 0, size);
+    }
+
+    private void render() {
+        size = 0;
+        scrape++;
+
+        Timestamp collectionTime = latestMetricsCache.getCollectionTime();
+        MetricsData system = latestMetricsCache.getSystemMetrics();
+        ApplicationMetricsData.ApplicationMetricsDataList applications = latestMetricsCache.getApplicationMetrics();
+
+        header("yamec_last_collection_timestamp_seconds", "Time the latest metrics were collected");
+        if (collectionTime != null) {
+            sample("yamec_last_collection_timestamp_seconds", null, collectionTime.getTime() / 1000.0);
+        }
+
+        header("yamec_cpu_usage_percent", "Percentage of the CPU used");
+        if (system != null) {
+            sample("yamec_cpu_usage_percent", null, system.getCpuUsage());
+        }
+        header("yamec_memory_total_bytes", "Physical memory installed");
+        if (system != null) {
+            sample("yamec_memory_total_bytes", null, system.getTotalMemory());
+        }
+        header("yamec_memory_used_bytes", "Physical memory in use");
+        if (system != null) {
+            sample("yamec_memory_used_bytes", null, system.getUsedMemory());
+        }
+        header("yamec_memory_free_bytes", "Physical memory available");
+        if (system != null) {
+            sample("yamec_memory_free_bytes", null, system.getFreeMemory());
+        }
+
+        java.util.List<DiskData> disks = system == null ? java.util.List.of() : system.getDisks();
+        header("yamec_disk_utilization_percent", "Percentage of time the disk was active");
+        for (DiskData disk : disks) {
+            sample("yamec_disk_utilization_percent", diskLabels(disk), disk.getAvgDiskUsage());
+        }
+        header("yamec_disk_read_bytes_per_second", "Bytes read from the disk per second");
+        for (DiskData disk : disks) {
+            sample("yamec_disk_read_bytes_per_second", diskLabels(disk), disk.getAvgBytesReadPerSecond());
+        }
+        header("yamec_disk_write_bytes_per_second", "Bytes written to the disk per second");
+        for (DiskData disk : disks) {
+            sample("yamec_disk_write_bytes_per_second", diskLabels(disk), disk.getAvgBytesWrittenPerSecond());
+        }
+        header("yamec_disk_transfer_time_seconds", "Average time of a transfer to or from the disk");
+        for (DiskData disk : disks) {
+            sample("yamec_disk_transfer_time_seconds", diskLabels(disk), disk.getAvgTimeToTransfer());
+        }
+
+        java.util.List<NicData> nics = system == null ? java.util.List.of() : system.getNics();
+        header("yamec_nic_sent_bits_per_second", "Bits sent by the network interface per second");
+        for (NicData nic : nics) {
+            sample("yamec_nic_sent_bits_per_second", nicLabels(nic), nic.getAvgNetworkSent());
+        }
+        header("yamec_nic_received_bits_per_second", "Bits received by the network interface per second");
+        for (NicData nic : nics) {
+            sample("yamec_nic_received_bits_per_second", nicLabels(nic), nic.getAvgNetworkReceived());
+        }
+
+        java.util.List<ApplicationMetricsData> applicationMetrics
+                = applications == null ? java.util.List.of() : applications.getApplications();
+        header("yamec_application_cpu_usage_percent", "Percentage of the CPU used by the processes of the application");
+        for (ApplicationMetricsData application : applicationMetrics) {
+            sample("yamec_application_cpu_usage_percent", applicationLabels(application),
+                    application.getAvgCpuUsage());
+        }
+        header("yamec_application_physical_memory_bytes", "Physical memory used by the processes of the application");
+        for (ApplicationMetricsData application : applicationMetrics) {
+            sample("yamec_application_physical_memory_bytes", applicationLabels(application),
+                    application.getAvgPhysicalMemoryUsed());
+        }
+        header("yamec_application_virtual_memory_bytes", "Virtual memory used by the processes of the application");
+        for (ApplicationMetricsData application : applicationMetrics) {
+            sample("yamec_application_virtual_memory_bytes", applicationLabels(application),
+                    application.getAvgVirtualMemoryUsed());
+        }
+
+        // Forget the labels of devices and applications which are gone
+        if (labels.size() > disks.size() + nics.size() + applicationMetrics.size()) {
+            labels.values().removeIf(encoded -> encoded.scrape != scrape);
+        }
+    }
+
+    private byte[] diskLabels(DiskData disk) {
+        return labels(disk.getDeviceId(), "disk", disk.getFriendlyName());
+    }
+
+    private byte[] nicLabels(NicData nic) {
+        return labels(nic.getNicId(), "nic", nic.getFriendlyName());
+    }
+
+    private byte[] applicationLabels(ApplicationMetricsData application) {
+        return labels(application.getId(), "application", application.getApplicationName());
+    }
+
+    /**
+     * Returns the encoded labels <code>{id="...",name="..."}</code> of a device or application,
+     * encoding them if its name has not been seen before
+     */
+    private byte[] labels(UUID id, String nameLabel, String name) {
+        EncodedLabels encoded = id == null ? null : labels.get(id);
+        if (encoded == null || !java.util.Objects.equals(encoded.name, name)) {
+            String text = "{id=\"" + id + "\"," + nameLabel + "=\"" + escapeLabelValue(name) + "\"}";
+            encoded = new EncodedLabels(name, text.getBytes(StandardCharsets.UTF_8));
+            if (id != null) {
+                labels.put(id, encoded);
+            }
+        }
+        encoded.scrape = scrape;
+        return encoded.bytes;
+    }
+
+    /**
+     * Escapes the backslashes, double quotes and line feeds of a label value
+     */
+    static String escapeLabelValue(String value) {
+        if (value == null) {
+            return "";
+        }
+
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = switch (c) {
+                case '\\' -> "\\\\";
+                case '"' -> "\\\"";
+                case '\n' -> "\\n";
+                default -> null;
+            };
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    private void header(String name, String help) {
+        appendAscii("# HELP ");
+        appendAscii(name);
+        append((byte) ' ');
+        appendAscii(help);
+        appendAscii("\n# TYPE ");
+        appendAscii(name);
+        appendAscii(" gauge\n");
+    }
+
+    private void sample(String name, byte[] labels, double value) {
+        appendAscii(name);
+        if (labels != null) {
+            append(labels);
+        }
+        append((byte) ' ');
+        if (Double.isNaN(value)) {
+            appendAscii("NaN");
+        } else if (Double.isInfinite(value)) {
+            appendAscii(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            appendLong((long) value);
+        } else {
+            appendAscii(Double.toString(value));
+        }
+        append((byte) '\n');
+    }
+
+    private void sample(String name, byte[] labels, long value) {
+        appendAscii(name);
+        if (labels != null) {
+            append(labels);
+        }
+        append((byte) ' ');
+        appendLong(value);
+        append((byte) '\n');
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = java.util.Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+
+    private void append(byte b) {
+        ensureCapacity(1);
+        buffer[size++] = b;
+    }
+
+    private void append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    /**
+     * Appends a string known to be ASCII, such as a metric name
+     */
+    private void appendAscii(String text) {
+        ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[size++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            appendAscii(Long.toString(value));
+            return;
+        }
+
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    private static final class EncodedLabels {
+        private final String name;
+        private final byte[] bytes;
+        private long scrape;
+
+        private EncodedLabels(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+    }
+}
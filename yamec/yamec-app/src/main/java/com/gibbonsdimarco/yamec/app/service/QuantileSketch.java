@@ -0,0 +1,328 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>A mergeable sketch of the distribution of a series of non-negative values, from which any
+ * quantile (such as the 95th percentile) can be estimated with a relative error of at most 1%.</p>
+ * <p>Values are counted in buckets whose bounds grow geometrically, as in DDSketch: a value
+ * <code>v</code> falls in bucket <code>ceil(log(v) / log(gamma))</code>, where
+ * <code>gamma = (1 + 0.01) / (1 - 0.01)</code>, and is estimated by a value within 1% of every
+ * value of its bucket. Values too small to be told apart from 0 (and negative values, which the
+ * metrics never have) are counted separately as 0. Merging two sketches adds up their buckets, so
+ * the sketch of a window can be built from the sketches of the smaller windows it covers, with
+ * the same accuracy as if it had been built from every value.</p>
+ * <p>Sketches are stored in the database in the compact format of {@link #toBytes()}, which only
+ * holds the buckets used. A sketch of the per-second values of a five minute window typically
+ * takes a few hundred bytes.</p>
+ * <p>Not thread-safe.</p>
+ */
+public final class QuantileSketch {
+
+    /**
+     * The maximum relative error of the quantiles estimated
+     */
+    public static final double RELATIVE_ACCURACY = 0.01;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double MULTIPLIER = 1 / Math.log(GAMMA);
+    private static final double MIN_INDEXABLE_VALUE = 1e-9;
+
+    private static final byte FORMAT_VERSION = 1;
+
+    // Bucket counts, where counts[i] is the count of bucket offset + i
+    private long[] counts = new long[0];
+    private int offset;
+    private int minIndex = Integer.MAX_VALUE;
+    private int maxIndex = Integer.MIN_VALUE;
+
+    private long zeroCount;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Adds a value to the sketch. NaN values are ignored.
+     */
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    /**
+     * Adds a value to the sketch a number of times
+     *
+     * @param value The value to add
+     * @param times The number of times to add it
+     */
+    public void add(double value, long times) {
+        if (Double.isNaN(value) || times <= 0) {
+            return;
+        }
+
+        if (value < MIN_INDEXABLE_VALUE) {
+            value = Math.max(value, 0);
+            zeroCount += times;
+        } else {
+            int index = index(value);
+            ensureCapacity(index, index);
+            counts[index - offset] += times;
+            minIndex = Math.min(minIndex, index);
+            maxIndex = Math.max(maxIndex, index);
+        }
+
+        count += times;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Adds all the values of another sketch to this one
+     *
+     * @param other The sketch to merge, which is left unchanged
+     */
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+
+        if (other.minIndex <= other.maxIndex) {
+            ensureCapacity(other.minIndex, other.maxIndex);
+            for (int index = other.minIndex; index <= other.maxIndex; index++) {
+                counts[index - offset] += other.counts[index - other.offset];
+            }
+            minIndex = Math.min(minIndex, other.minIndex);
+            maxIndex = Math.max(maxIndex, other.maxIndex);
+        }
+
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Estimates a quantile of the values added
+     *
+     * @param quantile The quantile, between 0 and 1 (0.95 for the 95th percentile)
+     * @return The estimate, within 1% of the exact quantile, or NaN if the sketch is empty
+     */
+    public double quantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1");
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        // Rank of the value returned, with the same convention as the exact nearest-rank quantile
+        double rank = quantile * (count - 1);
+
+        if (rank < zeroCount) {
+            return min;
+        }
+
+        long seen = zeroCount;
+        for (int index = minIndex; index <= maxIndex; index++) {
+            seen += counts[index - offset];
+            if (seen > rank) {
+                return Math.max(min, Math.min(max, value(index)));
+            }
+        }
+
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the smallest value added, or positive infinity if the sketch is empty
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest value added, or negative infinity if the sketch is empty
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Encodes the sketch in its compact binary format
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(32);
+        output.write(FORMAT_VERSION);
+        writeVarLong(output, count);
+        if (count == 0) {
+            return output.toByteArray();
+        }
+
+        writeVarLong(output, zeroCount);
+        byte[] bounds = ByteBuffer.allocate(16).putDouble(min).putDouble(max).array();
+        output.write(bounds, 0, bounds.length);
+
+        int buckets = 0;
+        for (int index = minIndex; index <= maxIndex; index++) {
+            if (counts[index - offset] != 0) {
+                buckets++;
+            }
+        }
+        writeVarLong(output, buckets);
+
+        // Buckets as the difference from the previous index, and their count
+        int previousIndex = 0;
+        for (int index = minIndex; index <= maxIndex; index++) {
+            long bucketCount = counts[index - offset];
+            if (bucketCount != 0) {
+                writeVarLong(output, zigZag(index - previousIndex));
+                writeVarLong(output, bucketCount);
+                previousIndex = index;
+            }
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Decodes a sketch encoded by {@link #toBytes()}
+     *
+     * @param bytes The encoded sketch
+     * @return The sketch
+     * @throws IllegalArgumentException If the bytes are not an encoded sketch
+     */
+    public static QuantileSketch fromBytes(byte[] bytes) {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.merge(bytes);
+        return sketch;
+    }
+
+    /**
+     * Adds all the values of an encoded sketch to this one, without decoding it into a sketch
+     * first
+     *
+     * @param bytes A sketch encoded by {@link #toBytes()}
+     * @throws IllegalArgumentException If the bytes are not an encoded sketch, in which case this
+     *                                  sketch may have been partly updated
+     */
+    public void merge(byte[] bytes) {
+        ByteBuffer input = ByteBuffer.wrap(bytes);
+
+        try {
+            if (input.get() != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unknown quantile sketch format");
+            }
+
+            long otherCount = readVarLong(input);
+            if (otherCount == 0) {
+                return;
+            }
+
+            long otherZeroCount = readVarLong(input);
+            double otherMin = input.getDouble();
+            double otherMax = input.getDouble();
+
+            long buckets = readVarLong(input);
+            long bucketsCount = 0;
+            int index = 0;
+            for (long i = 0; i < buckets; i++) {
+                index += unZigZag(readVarLong(input));
+                long bucketCount = readVarLong(input);
+                ensureCapacity(index, index);
+                counts[index - offset] += bucketCount;
+                minIndex = Math.min(minIndex, index);
+                maxIndex = Math.max(maxIndex, index);
+                bucketsCount += bucketCount;
+            }
+
+            if (otherZeroCount + bucketsCount != otherCount) {
+                throw new IllegalArgumentException("Malformed quantile sketch");
+            }
+
+            zeroCount += otherZeroCount;
+            count += otherCount;
+            min = Math.min(min, otherMin);
+            max = Math.max(max, otherMax);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated quantile sketch", e);
+        }
+    }
+
+    private static int index(double value) {
+        return (int) Math.ceil(Math.log(value) * MULTIPLIER);
+    }
+
+    private static double value(int index) {
+        // The value within RELATIVE_ACCURACY of both bounds of the bucket
+        return 2 * Math.exp(index / MULTIPLIER) / (GAMMA + 1);
+    }
+
+    private void ensureCapacity(int newMinIndex, int newMaxIndex) {
+        if (counts.length == 0) {
+            // Room for a few buckets around the first value, since values are usually close
+            counts = new long[Math.max(64, newMaxIndex - newMinIndex + 33)];
+            offset = newMinIndex - 16;
+            return;
+        }
+
+        int lowest = Math.min(newMinIndex, offset);
+        int highest = Math.max(newMaxIndex, offset + counts.length - 1);
+        if (lowest == offset && highest == offset + counts.length - 1) {
+            return;
+        }
+
+        // Grow by at least half of the current size, on the side which is too small
+        int extra = counts.length / 2;
+        int newOffset = lowest < offset ? lowest - extra : offset;
+        int newLength = (highest > offset + counts.length - 1 ? highest + extra : highest) - newOffset + 1;
+
+        long[] newCounts = new long[newLength];
+        System.arraycopy(counts, 0, newCounts, offset - newOffset, counts.length);
+        counts = newCounts;
+        offset = newOffset;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unZigZag(long value) {
+        return (int) ((value >>> 1) ^ -(value & 1));
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer input) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = input.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed quantile sketch");
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileSketch{count=" + count + ", min=" + min + ", max=" + max
+                + ", buckets=" + Arrays.stream(counts).filter(c -> c != 0).count() + "}";
+    }
+}
@@ -0,0 +1,258 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.data.*;
+import com.gibbonsdimarco.yamec.app.repository.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * <p>Reads HIGH granularity metrics as metric entities, for the RollupService and the
+ * <code>get*Metrics</code> methods of the metric services.</p>
+ * <p>The raw samples are kept by the SampleSegmentStore rather than the database, so each sample
+ * is read as a metric of one second whose average, maximum and minimum are its value, as the
+ * collector used to save them. The part of a range before the oldest sample kept is read from
+ * the HIGH granularity metrics saved in the database before the segments kept the samples, until
+ * the RetentionService deletes them.</p>
+ */
+@Service
+public class RawMetricReader {
+
+    private final SampleSegmentStore sampleSegmentStore;
+    private final GranularityIdCache granularityIdCache;
+
+    private final CpuHardwareInformationRepository cpuRepository;
+    private final MemoryHardwareInformationRepository memoryRepository;
+    private final DiskHardwareInformationRepository diskRepository;
+    private final NicHardwareInformationRepository nicRepository;
+    private final ApplicationRepository applicationRepository;
+
+    private final SystemCpuMetricRepository cpuMetricRepository;
+    private final SystemMemoryMetricRepository memoryMetricRepository;
+    private final SystemDiskMetricRepository diskMetricRepository;
+    private final SystemNicMetricRepository nicMetricRepository;
+    private final ApplicationMetricRepository applicationMetricRepository;
+
+    @Autowired
+    public RawMetricReader(SampleSegmentStore sampleSegmentStore,
+                           GranularityIdCache granularityIdCache,
+                           CpuHardwareInformationRepository cpuRepository,
+                           MemoryHardwareInformationRepository memoryRepository,
+                           DiskHardwareInformationRepository diskRepository,
+                           NicHardwareInformationRepository nicRepository,
+                           ApplicationRepository applicationRepository,
+                           SystemCpuMetricRepository cpuMetricRepository,
+                           SystemMemoryMetricRepository memoryMetricRepository,
+                           SystemDiskMetricRepository diskMetricRepository,
+                           SystemNicMetricRepository nicMetricRepository,
+                           ApplicationMetricRepository applicationMetricRepository) {
+        this.sampleSegmentStore = sampleSegmentStore;
+        this.granularityIdCache = granularityIdCache;
+        this.cpuRepository = cpuRepository;
+        this.memoryRepository = memoryRepository;
+        this.diskRepository = diskRepository;
+        this.nicRepository = nicRepository;
+        this.applicationRepository = applicationRepository;
+        this.cpuMetricRepository = cpuMetricRepository;
+        this.memoryMetricRepository = memoryMetricRepository;
+        this.diskMetricRepository = diskMetricRepository;
+        this.nicMetricRepository = nicMetricRepository;
+        this.applicationMetricRepository = applicationMetricRepository;
+    }
+
+    /**
+     * Returns the HIGH granularity CPU metrics with a timestamp from <code>start</code>
+     * (inclusive) to <code>end</code> (exclusive), oldest first
+     */
+    public java.util.List<SystemCpuMetric> findCpuMetrics(Timestamp start, Timestamp end) {
+        Timestamp sampledSince = sampledSince(start, end);
+        java.util.List<SystemCpuMetric> metrics = new java.util.ArrayList<>();
+        if (start.before(sampledSince)) {
+            metrics.addAll(cpuMetricRepository.findAllInRangeByGranularity(start, sampledSince,
+                    RollupService.SOURCE_GRANULARITY));
+        }
+
+        UUID granularityId = granularityIdCache.getId(RollupService.SOURCE_GRANULARITY);
+        java.util.Map<UUID, CpuHardwareInformation> cpus = new java.util.HashMap<>();
+        java.util.List<SystemCpuMetric> sampled = new java.util.ArrayList<>();
+        scanRows(SlidingWindowStore.SeriesType.CPU, sampledSince, end, (cpuId, timestamp, values) -> {
+            CpuHardwareInformation cpu = device(cpus, cpuId, cpuRepository);
+            if (cpu != null) {
+                sampled.add(new SystemCpuMetric(cpu, new Timestamp(timestamp), 1, granularityId,
+                        values[0], values[0], values[0]));
+            }
+        });
+
+        return oldestFirst(metrics, sampled, SystemDeviceMetric::getTimestamp);
+    }
+
+    /**
+     * Returns the HIGH granularity memory metrics with a timestamp from <code>start</code>
+     * (inclusive) to <code>end</code> (exclusive), oldest first
+     */
+    public java.util.List<SystemMemoryMetric> findMemoryMetrics(Timestamp start, Timestamp end) {
+        Timestamp sampledSince = sampledSince(start, end);
+        java.util.List<SystemMemoryMetric> metrics = new java.util.ArrayList<>();
+        if (start.before(sampledSince)) {
+            metrics.addAll(memoryMetricRepository.findAllInRangeByGranularity(start, sampledSince,
+                    RollupService.SOURCE_GRANULARITY));
+        }
+
+        UUID granularityId = granularityIdCache.getId(RollupService.SOURCE_GRANULARITY);
+        java.util.Map<UUID, MemoryHardwareInformation> memories = new java.util.HashMap<>();
+        java.util.List<SystemMemoryMetric> sampled = new java.util.ArrayList<>();
+        scanRows(SlidingWindowStore.SeriesType.MEMORY, sampledSince, end, (memoryId, timestamp, values) -> {
+            MemoryHardwareInformation memory = device(memories, memoryId, memoryRepository);
+            if (memory != null) {
+                long physical = (long) values[0];
+                long virtual = (long) values[1];
+                SystemMemoryMetric metric = new SystemMemoryMetric(new Timestamp(timestamp), 1, granularityId,
+                        physical, physical, physical, virtual, virtual, virtual);
+                metric.setMemory(memory);
+                sampled.add(metric);
+            }
+        });
+
+        return oldestFirst(metrics, sampled, SystemDeviceMetric::getTimestamp);
+    }
+
+    /**
+     * Returns the HIGH granularity disk metrics with a timestamp from <code>start</code>
+     * (inclusive) to <code>end</code> (exclusive), oldest first
+     */
+    public java.util.List<SystemDiskMetric> findDiskMetrics(Timestamp start, Timestamp end) {
+        Timestamp sampledSince = sampledSince(start, end);
+        java.util.List<SystemDiskMetric> metrics = new java.util.ArrayList<>();
+        if (start.before(sampledSince)) {
+            metrics.addAll(diskMetricRepository.findAllInRangeByGranularity(start, sampledSince,
+                    RollupService.SOURCE_GRANULARITY));
+        }
+
+        UUID granularityId = granularityIdCache.getId(RollupService.SOURCE_GRANULARITY);
+        java.util.Map<UUID, DiskHardwareInformation> disks = new java.util.HashMap<>();
+        java.util.List<SystemDiskMetric> sampled = new java.util.ArrayList<>();
+        scanRows(SlidingWindowStore.SeriesType.DISK, sampledSince, end, (diskId, timestamp, values) -> {
+            DiskHardwareInformation disk = device(disks, diskId, diskRepository);
+            if (disk != null) {
+                long read = (long) values[1];
+                long write = (long) values[2];
+                SystemDiskMetric metric = new SystemDiskMetric(new Timestamp(timestamp), 1, granularityId,
+                        values[0], values[0], values[0], read, read, read, write, write, write,
+                        values[3], values[3], values[3], false, false);
+                metric.setDisk(disk);
+                sampled.add(metric);
+            }
+        });
+
+        return oldestFirst(metrics, sampled, SystemDeviceMetric::getTimestamp);
+    }
+
+    /**
+     * Returns the HIGH granularity NIC metrics with a timestamp from <code>start</code>
+     * (inclusive) to <code>end</code> (exclusive), oldest first
+     */
+    public java.util.List<SystemNicMetric> findNicMetrics(Timestamp start, Timestamp end) {
+        Timestamp sampledSince = sampledSince(start, end);
+        java.util.List<SystemNicMetric> metrics = new java.util.ArrayList<>();
+        if (start.before(sampledSince)) {
+            metrics.addAll(nicMetricRepository.findAllInRangeByGranularity(start, sampledSince,
+                    RollupService.SOURCE_GRANULARITY));
+        }
+
+        UUID granularityId = granularityIdCache.getId(RollupService.SOURCE_GRANULARITY);
+        java.util.Map<UUID, NicHardwareInformation> nics = new java.util.HashMap<>();
+        java.util.List<SystemNicMetric> sampled = new java.util.ArrayList<>();
+        scanRows(SlidingWindowStore.SeriesType.NIC, sampledSince, end, (nicId, timestamp, values) -> {
+            NicHardwareInformation nic = device(nics, nicId, nicRepository);
+            if (nic != null) {
+                long send = (long) values[0];
+                long receive = (long) values[1];
+                SystemNicMetric metric = new SystemNicMetric(new Timestamp(timestamp), 1, granularityId,
+                        send, send, send, receive, receive, receive, false, false);
+                metric.setNic(nic);
+                sampled.add(metric);
+            }
+        });
+
+        return oldestFirst(metrics, sampled, SystemDeviceMetric::getTimestamp);
+    }
+
+    /**
+     * Returns the HIGH granularity application metrics with a timestamp from <code>start</code>
+     * (inclusive) to <code>end</code> (exclusive), oldest first
+     */
+    public java.util.List<ApplicationMetric> findApplicationMetrics(Timestamp start, Timestamp end) {
+        Timestamp sampledSince = sampledSince(start, end);
+        java.util.List<ApplicationMetric> metrics = new java.util.ArrayList<>();
+        if (start.before(sampledSince)) {
+            metrics.addAll(applicationMetricRepository.findAllInRangeByGranularity(start, sampledSince,
+                    RollupService.SOURCE_GRANULARITY));
+        }
+
+        UUID granularityId = granularityIdCache.getId(RollupService.SOURCE_GRANULARITY);
+        java.util.Map<UUID, Application> applications = new java.util.HashMap<>();
+        java.util.List<ApplicationMetric> sampled = new java.util.ArrayList<>();
+        scanRows(SlidingWindowStore.SeriesType.APPLICATION, sampledSince, end, (applicationId, timestamp, values) -> {
+            Application application = device(applications, applicationId, applicationRepository);
+            if (application != null) {
+                long physical = (long) values[1];
+                long virtual = (long) values[2];
+                ApplicationMetric metric = new ApplicationMetric(application, new Timestamp(timestamp), 1,
+                        values[0], physical, virtual, values[0], physical, virtual, values[0], physical, virtual);
+                metric.setApplicationName(application.getApplicationName());
+                metric.setGranularityId(granularityId);
+                sampled.add(metric);
+            }
+        });
+
+        return oldestFirst(metrics, sampled, ApplicationMetric::getTimestamp);
+    }
+
+    /**
+     * Returns when the part of a range read from the segments starts, which is the end of the
+     * range if all of it is older than the oldest sample kept
+     */
+    private Timestamp sampledSince(Timestamp start, Timestamp end) {
+        long oldestSample = sampleSegmentStore.getOldestSample();
+        return new Timestamp(Math.max(start.getTime(), Math.min(oldestSample, end.getTime())));
+    }
+
+    private void scanRows(SlidingWindowStore.SeriesType type, Timestamp start, Timestamp end,
+                          SampleSegmentStore.RowVisitor visitor) {
+        if (!start.before(end)) {
+            return;
+        }
+        try {
+            sampleSegmentStore.scanRows(type, null, start.getTime(), end.getTime(), visitor);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the " + type.getLabel() + " samples", e);
+        }
+    }
+
+    /**
+     * Returns a device (or application) by ID, looking it up only the first time it is needed.
+     * Returns null if it no longer exists.
+     */
+    private static <D> D device(java.util.Map<UUID, D> devices, UUID id, JpaRepository<D, UUID> repository) {
+        if (!devices.containsKey(id)) {
+            devices.put(id, repository.findById(id).orElse(null));
+        }
+        return devices.get(id);
+    }
+
+    /**
+     * Appends the metrics read from the segments, which are oldest first for each series, in
+     * order of time after the metrics read from the database
+     */
+    private static <M> java.util.List<M> oldestFirst(java.util.List<M> metrics, java.util.List<M> sampled,
+                                                     java.util.function.Function<? super M, Timestamp> timestamp) {
+        sampled.sort(java.util.Comparator.comparing(timestamp));
+        metrics.addAll(sampled);
+        return metrics;
+    }
+}
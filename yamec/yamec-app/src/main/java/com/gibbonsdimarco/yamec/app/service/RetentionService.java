@@ -0,0 +1,251 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.config.GranularityConfig;
+import com.gibbonsdimarco.yamec.app.config.SchedulingConfig;
+import com.gibbonsdimarco.yamec.app.repository.GranularityConfigRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+/**
+ * <p>Deletes metrics older than the <code>timeToAge</code> of their granularity level and returns
+ * the space they used to the file system.</p>
+ * <p>Rows are deleted in small chunks, each in its own short transaction with a pause after it,
+ * so the SQLite write lock is never held long enough to stall the metrics writer. Application
+ * metrics saved before they had a granularity level are aged as HIGH granularity metrics.</p>
+ * <p>HIGH granularity metrics are kept by the SampleSegmentStore, and its segments are deleted as
+ * whole files once they are older than the <code>timeToAge</code> of the HIGH granularity level.
+ * The rows deleted from the HIGH granularity level are those saved in the database before the
+ * segments kept the samples. HIGH granularity metrics are kept until the RollupService has rolled
+ * them up, even if they are older than their <code>timeToAge</code>.</p>
+ * <p>Once the database uses incremental auto-vacuum, free pages are released a few at a time after
+ * each run. Switching an existing database to it needs a full VACUUM, which rewrites the whole
+ * file while holding the write lock, so it is only done if
+ * <code>yamec.retention.convert-to-incremental-vacuum</code> is set, on the first run after
+ * startup. Otherwise the space freed is reused by new metrics but not returned to the file
+ * system.</p>
+ */
+@Service
+public class RetentionService {
+    private static final Logger logger = LoggerFactory.getLogger(RetentionService.class);
+
+    private static final String[] METRIC_TABLES = {
+            "system_cpu_metrics",
+            "system_memory_metrics",
+            "system_disk_metrics",
+            "system_nic_metrics",
+            "gpu_metrics",
+            "application_metrics"
+    };
+    // Application metrics saved before they had a granularity level have a null granularity_id
+    private static final String APPLICATION_METRIC_TABLE = "application_metrics";
+    private static final String UNLABELLED_GRANULARITY = "HIGH";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final GranularityConfigRepository granularityConfigRepository;
+    private final RollupService rollupService;
+    private final SampleSegmentStore sampleSegmentStore;
+
+    private final boolean enabled;
+    private final int chunkSize;
+    private final long chunkPauseMillis;
+    private final int maxChunksPerRun;
+    private final int vacuumPagesPerStep;
+    private final boolean convertToIncrementalVacuum;
+
+    // Whether the database uses incremental auto-vacuum, checked on the first run
+    private Boolean incrementalVacuum;
+
+    @Autowired
+    public RetentionService(JdbcTemplate jdbcTemplate,
+                            GranularityConfigRepository granularityConfigRepository,
+                            RollupService rollupService,
+                            SampleSegmentStore sampleSegmentStore,
+                            @Value("${yamec.retention.enabled:true}") boolean enabled,
+                            @Value("${yamec.retention.chunk-size:500}") int chunkSize,
+                            @Value("${yamec.retention.chunk-pause-ms:100}") long chunkPauseMillis,
+                            @Value("${yamec.retention.max-chunks-per-run:200}") int maxChunksPerRun,
+                            @Value("${yamec.retention.vacuum-pages-per-step:256}") int vacuumPagesPerStep,
+                            @Value("${yamec.retention.convert-to-incremental-vacuum:false}")
+                            boolean convertToIncrementalVacuum) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.granularityConfigRepository = granularityConfigRepository;
+        this.rollupService = rollupService;
+        this.sampleSegmentStore = sampleSegmentStore;
+        this.enabled = enabled;
+        this.chunkSize = chunkSize;
+        this.chunkPauseMillis = chunkPauseMillis;
+        this.maxChunksPerRun = maxChunksPerRun;
+        this.vacuumPagesPerStep = vacuumPagesPerStep;
+        this.convertToIncrementalVacuum = convertToIncrementalVacuum;
+    }
+
+    /**
+     * Returns whether the database uses incremental auto-vacuum, switching it to incremental
+     * auto-vacuum the first time this is called if <code>convertToIncrementalVacuum</code> is set
+     */
+    private boolean usesIncrementalVacuum() {
+        if (incrementalVacuum != null) {
+            return incrementalVacuum;
+        }
+
+        Integer autoVacuum = jdbcTemplate.queryForObject("PRAGMA auto_vacuum", Integer.class);
+        // 2 is INCREMENTAL
+        incrementalVacuum = autoVacuum != null && autoVacuum == 2;
+        if (incrementalVacuum) {
+            return true;
+        }
+
+        if (!convertToIncrementalVacuum) {
+            logger.info("The database does not use incremental auto-vacuum, so the space of deleted metrics is "
+                    + "not returned to the file system. Set yamec.retention.convert-to-incremental-vacuum=true "
+                    + "to convert it with a one-time full VACUUM");
+            return false;
+        }
+
+        logger.info("Converting the database to incremental auto-vacuum with a one-time full VACUUM - "
+                + "metrics cannot be saved until it finishes");
+        long start = System.nanoTime();
+        try {
+            // The mode only takes effect after a VACUUM on the same connection
+            jdbcTemplate.execute((Statement statement) -> {
+                statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                statement.execute("VACUUM");
+                return null;
+            });
+            incrementalVacuum = true;
+            logger.info("Converted the database to incremental auto-vacuum in {} ms",
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            logger.error("Failed to convert the database to incremental auto-vacuum after {} ms - "
+                    + "file space will not be reclaimed", (System.nanoTime() - start) / 1_000_000, e);
+        }
+        return incrementalVacuum;
+    }
+
+    /**
+     * Deletes expired metrics of every granularity level, then releases some of the free pages
+     */
+    @Scheduled(initialDelayString = "${yamec.retention.initial-delay-ms:60000}",
+               fixedDelayString = "${yamec.retention.interval-ms:600000}",
+               scheduler = SchedulingConfig.MAINTENANCE_SCHEDULER)
+    public void enforceRetention() {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            int chunksLeft = maxChunksPerRun;
+            long totalDeleted = 0;
+            long now = System.currentTimeMillis();
+
+            for (GranularityConfig config : granularityConfigRepository.findAll()) {
+                // A timeToAge of 0 keeps metrics forever
+                if (config.getGranularity() == null || config.getTimeToAge() <= 0) {
+                    continue;
+                }
+
+                String label = config.getGranularity().getLabel();
+                Timestamp cutoff = rollupService.limitRetentionCutoff(label,
+                        new Timestamp(now - config.getTimeToAge() * 1000L));
+                if (RollupService.SOURCE_GRANULARITY.equals(label)) {
+                    sampleSegmentStore.deleteSegmentsBefore(cutoff.getTime());
+                }
+
+                for (String table : METRIC_TABLES) {
+                    long deleted = deleteExpired(table, cutoff, label, chunksLeft);
+                    chunksLeft -= chunksUsed(deleted);
+                    totalDeleted += deleted;
+                }
+            }
+
+            if (totalDeleted > 0) {
+                logger.info("Retention deleted {} expired metrics", totalDeleted);
+            }
+            if (chunksLeft <= 0) {
+                logger.info("Retention reached its limit of {} chunks - the rest will be deleted on the next run",
+                        maxChunksPerRun);
+            }
+
+            if (usesIncrementalVacuum()) {
+                releaseFreePages();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Failed to enforce metric retention", e);
+        }
+    }
+
+    /**
+     * Deletes the rows of a table older than the cutoff, one chunk at a time
+     *
+     * @param table The table to delete from
+     * @param cutoff Rows with a timestamp before this are deleted
+     * @param granularityLabel The granularity level of the rows to delete
+     * @param maxChunks The maximum number of chunks to delete
+     * @return The number of rows deleted
+     */
+    private long deleteExpired(String table, Timestamp cutoff, String granularityLabel, int maxChunks)
+            throws InterruptedException {
+        String granularityCondition = "granularity_id IN (SELECT id FROM granularity WHERE label = ?)";
+        if (APPLICATION_METRIC_TABLE.equals(table) && UNLABELLED_GRANULARITY.equals(granularityLabel)) {
+            granularityCondition = "(granularity_id IS NULL OR " + granularityCondition + ")";
+        }
+
+        // The metric tables are keyed on (series_id, timestamp) and have no rowid, so the rows of
+        // each series of the granularity level are read from the start of its range of the table
+        String sql = "DELETE FROM " + table + " WHERE (series_id, timestamp) IN (SELECT series_id, timestamp FROM "
+                + table + " WHERE series_id IN (SELECT id FROM " + MetricSeriesCache.SERIES_TABLE
+                + " WHERE " + granularityCondition + ") AND timestamp < ? LIMIT ?)";
+
+        long deleted = 0;
+        for (int chunk = 0; chunk < maxChunks; chunk++) {
+            int count = jdbcTemplate.update(sql, granularityLabel, cutoff, chunkSize);
+            deleted += count;
+
+            if (count < chunkSize) {
+                break;
+            }
+
+            // Give the metrics writer a chance to take the write lock
+            Thread.sleep(chunkPauseMillis);
+        }
+
+        return deleted;
+    }
+
+    private int chunksUsed(long deleted) {
+        return (int) ((deleted + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Returns free pages to the file system in small steps
+     */
+    private void releaseFreePages() throws InterruptedException {
+        Integer freePages = jdbcTemplate.queryForObject("PRAGMA freelist_count", Integer.class);
+        if (freePages == null || freePages == 0) {
+            return;
+        }
+
+        int remaining = freePages;
+        while (remaining > 0) {
+            int pages = Math.min(remaining, vacuumPagesPerStep);
+            jdbcTemplate.execute("PRAGMA incremental_vacuum(" + pages + ")");
+            remaining -= pages;
+
+            if (remaining > 0) {
+                Thread.sleep(chunkPauseMillis);
+            }
+        }
+
+        logger.debug("Released {} free database pages", freePages);
+    }
+}
@@ -0,0 +1,322 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.config.GranularityConfig;
+import com.gibbonsdimarco.yamec.app.config.SchedulingConfig;
+import com.gibbonsdimarco.yamec.app.data.*;
+import com.gibbonsdimarco.yamec.app.repository.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+
+/**
+ * <p>Rolls HIGH granularity metrics up into LOW granularity metrics, so long ranges of metrics can
+ * be read without scanning every one second metric.</p>
+ * <p>Each window of <code>recordTimespan</code> seconds of the LOW granularity level (aligned to
+ * the epoch) is combined with the <code>aggregate*Metrics</code> methods of the metric services
+ * into one metric per device or application, with the same average, maximum and minimum
+ * semantics as the metrics saved by the collector. A window is only rolled up once it has ended
+ * at least <code>yamec.rollup.settle-ms</code> ago, so the metrics still queued by the collector
+ * are not missed.</p>
+ * <p>The HIGH granularity metrics of a window are read by the RawMetricReader, from the segments
+ * of the SampleSegmentStore (or from the database for metrics saved before the segments kept the
+ * samples). Rollups wait while the MetricTableMigration copies metrics saved before the
+ * metric tables were keyed on their series, which are not read until they are copied.</p>
+ * <p>The end of the last window rolled up is kept as a RollupWatermark, which is saved in the
+ * same transaction as the metrics of the window (which are inserted by the MetricRowWriter), so
+ * no window is ever rolled up twice. HIGH granularity metrics are not deleted by the
+ * RetentionService until they are behind the watermark.</p>
+ * <p>The time each window takes, and the time spent in each <code>aggregate*Metrics</code> method,
+ * are recorded in the PipelineTimings.</p>
+ */
+@Service
+public class RollupService {
+    private static final Logger logger = LoggerFactory.getLogger(RollupService.class);
+
+    public static final String SOURCE_GRANULARITY = "HIGH";
+    public static final String TARGET_GRANULARITY = "LOW";
+
+    // Tables of the HIGH granularity metrics saved before the segments kept the samples, to find
+    // the next metric to roll up after a gap in collection
+    private static final String[] SYSTEM_METRIC_TABLES = {
+            "system_cpu_metrics",
+            "system_memory_metrics",
+            "system_disk_metrics",
+            "system_nic_metrics"
+    };
+    private static final String APPLICATION_METRIC_TABLE = "application_metrics";
+
+    private final ApplicationDataService applicationDataService;
+    private final CpuHardwareInformationService cpuHardwareService;
+    private final MemoryHardwareInformationService memoryHardwareService;
+    private final DiskHardwareInformationService diskHardwareService;
+    private final NicHardwareInformationService nicHardwareService;
+
+    private final RawMetricReader rawMetricReader;
+    private final SampleSegmentStore sampleSegmentStore;
+    private final MetricTableMigration metricTableMigration;
+
+    private final GranularityConfigRepository granularityConfigRepository;
+    private final RollupWatermarkRepository rollupWatermarkRepository;
+    private final MetricRowWriter metricRowWriter;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final PipelineTimings pipelineTimings;
+
+    private final boolean enabled;
+    private final long settleMillis;
+    private final int maxWindowsPerRun;
+    private final long windowPauseMillis;
+
+    @Autowired
+    public RollupService(ApplicationDataService applicationDataService,
+                         CpuHardwareInformationService cpuHardwareService,
+                         MemoryHardwareInformationService memoryHardwareService,
+                         DiskHardwareInformationService diskHardwareService,
+                         NicHardwareInformationService nicHardwareService,
+                         RawMetricReader rawMetricReader,
+                         SampleSegmentStore sampleSegmentStore,
+                         MetricTableMigration metricTableMigration,
+                         GranularityConfigRepository granularityConfigRepository,
+                         RollupWatermarkRepository rollupWatermarkRepository,
+                         MetricRowWriter metricRowWriter,
+                         JdbcTemplate jdbcTemplate,
+                         PlatformTransactionManager transactionManager,
+                         PipelineTimings pipelineTimings,
+                         @Value("${yamec.rollup.enabled:true}") boolean enabled,
+                         @Value("${yamec.rollup.settle-ms:60000}") long settleMillis,
+                         @Value("${yamec.rollup.max-windows-per-run:24}") int maxWindowsPerRun,
+                         @Value("${yamec.rollup.window-pause-ms:100}") long windowPauseMillis) {
+        this.applicationDataService = applicationDataService;
+        this.cpuHardwareService = cpuHardwareService;
+        this.memoryHardwareService = memoryHardwareService;
+        this.diskHardwareService = diskHardwareService;
+        this.nicHardwareService = nicHardwareService;
+        this.rawMetricReader = rawMetricReader;
+        this.sampleSegmentStore = sampleSegmentStore;
+        this.metricTableMigration = metricTableMigration;
+        this.granularityConfigRepository = granularityConfigRepository;
+        this.rollupWatermarkRepository = rollupWatermarkRepository;
+        this.metricRowWriter = metricRowWriter;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.pipelineTimings = pipelineTimings;
+        this.enabled = enabled;
+        this.settleMillis = settleMillis;
+        this.maxWindowsPerRun = maxWindowsPerRun;
+        this.windowPauseMillis = windowPauseMillis;
+    }
+
+    /**
+     * Rolls up the windows which have ended since the last run, up to
+     * <code>yamec.rollup.max-windows-per-run</code> of them
+     */
+    @Scheduled(initialDelayString = "${yamec.rollup.initial-delay-ms:30000}",
+               fixedDelayString = "${yamec.rollup.interval-ms:60000}",
+               scheduler = SchedulingConfig.MAINTENANCE_SCHEDULER)
+    public void rollUp() {
+        if (!enabled) {
+            return;
+        }
+        if (metricTableMigration.isCopying()) {
+            logger.debug("Waiting for the metrics of the legacy metric tables to be copied");
+            return;
+        }
+
+        try {
+            GranularityConfig targetConfig = granularityConfigRepository.findByGranularityLabel(TARGET_GRANULARITY);
+            if (targetConfig == null || targetConfig.getRecordTimespan() <= 0) {
+                return;
+            }
+
+            int windowSeconds = targetConfig.getRecordTimespan();
+            long windowMillis = windowSeconds * 1000L;
+
+            // Only windows which ended before this time are rolled up
+            long completeBefore = Math.floorDiv(System.currentTimeMillis() - settleMillis, windowMillis) * windowMillis;
+
+            RollupWatermark watermark = rollupWatermarkRepository.findByGranularityId(targetConfig.getGranularityId());
+            long rolledUpUntil = watermark == null ? 0 : watermark.getRolledUpUntil().getTime();
+
+            int windows = 0;
+            while (windows < maxWindowsPerRun && rolledUpUntil < completeBefore) {
+                // Skip over windows without metrics (e.g. while the collector was not running)
+                Long nextTimestamp = findNextSourceTimestamp(rolledUpUntil);
+
+                if (nextTimestamp == null || nextTimestamp >= completeBefore) {
+                    saveWatermark(targetConfig, completeBefore);
+                    break;
+                }
+
+                long windowStart = Math.floorDiv(nextTimestamp, windowMillis) * windowMillis;
+                rolledUpUntil = windowStart + windowMillis;
+
+                int rows = rollUpWindow(targetConfig, new Timestamp(windowStart), windowSeconds);
+                windows++;
+
+                logger.debug("Rolled up the window starting at {} into {} {} granularity metrics",
+                        new Timestamp(windowStart), rows, TARGET_GRANULARITY);
+
+                // Give the metrics writer a chance to take the write lock
+                Thread.sleep(windowPauseMillis);
+            }
+
+            if (windows > 0) {
+                logger.info("Rolled up {} windows of {} granularity metrics into {} granularity metrics",
+                        windows, SOURCE_GRANULARITY, TARGET_GRANULARITY);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (PessimisticLockingFailureException e) {
+            logger.warn("Database was busy - the rollup will continue on the next run");
+        } catch (Exception e) {
+            logger.error("Failed to roll up metrics", e);
+        }
+    }
+
+    /**
+     * Combines the HIGH granularity metrics of one window into LOW granularity metrics and moves
+     * the watermark past the window, in one transaction
+     *
+     * @return The number of rows saved
+     */
+    private int rollUpWindow(GranularityConfig targetConfig, Timestamp windowStart, int windowSeconds) {
+        Timestamp windowEnd = new Timestamp(windowStart.getTime() + windowSeconds * 1000L);
+        long windowTimingStart = System.nanoTime();
+
+        Integer rows = transactionTemplate.execute(status -> {
+            int saved = 0;
+
+            java.util.List<SystemCpuMetric> sourceCpuMetrics
+                    = rawMetricReader.findCpuMetrics(windowStart, windowEnd);
+            long aggregateStart = System.nanoTime();
+            java.util.List<SystemCpuMetric> cpuMetrics = cpuHardwareService.aggregateCpuMetrics(
+                    sourceCpuMetrics, windowStart, windowSeconds, TARGET_GRANULARITY);
+            pipelineTimings.recordSince(PipelineTimings.Stage.AGGREGATE_CPU, aggregateStart);
+            if (cpuMetrics != null) {
+                saved += metricRowWriter.insertCpuMetrics(cpuMetrics);
+            }
+
+            java.util.List<SystemMemoryMetric> sourceMemoryMetrics
+                    = rawMetricReader.findMemoryMetrics(windowStart, windowEnd);
+            aggregateStart = System.nanoTime();
+            java.util.List<SystemMemoryMetric> memoryMetrics = memoryHardwareService.aggregateMemoryMetrics(
+                    sourceMemoryMetrics, windowStart, windowSeconds, TARGET_GRANULARITY);
+            pipelineTimings.recordSince(PipelineTimings.Stage.AGGREGATE_MEMORY, aggregateStart);
+            if (memoryMetrics != null) {
+                saved += metricRowWriter.insertMemoryMetrics(memoryMetrics);
+            }
+
+            java.util.List<SystemDiskMetric> sourceDiskMetrics
+                    = rawMetricReader.findDiskMetrics(windowStart, windowEnd);
+            aggregateStart = System.nanoTime();
+            java.util.List<SystemDiskMetric> diskMetrics = diskHardwareService.aggregateDiskMetrics(
+                    sourceDiskMetrics, windowStart, windowSeconds, TARGET_GRANULARITY);
+            pipelineTimings.recordSince(PipelineTimings.Stage.AGGREGATE_DISK, aggregateStart);
+            if (diskMetrics != null) {
+                saved += metricRowWriter.insertDiskMetrics(diskMetrics);
+            }
+
+            java.util.List<SystemNicMetric> sourceNicMetrics
+                    = rawMetricReader.findNicMetrics(windowStart, windowEnd);
+            aggregateStart = System.nanoTime();
+            java.util.List<SystemNicMetric> nicMetrics = nicHardwareService.aggregateNicMetrics(
+                    sourceNicMetrics, windowStart, windowSeconds, TARGET_GRANULARITY);
+            pipelineTimings.recordSince(PipelineTimings.Stage.AGGREGATE_NIC, aggregateStart);
+            if (nicMetrics != null) {
+                saved += metricRowWriter.insertNicMetrics(nicMetrics);
+            }
+
+            java.util.List<ApplicationMetric> sourceApplicationMetrics
+                    = rawMetricReader.findApplicationMetrics(windowStart, windowEnd);
+            aggregateStart = System.nanoTime();
+            java.util.List<ApplicationMetric> applicationMetrics = applicationDataService.aggregateApplicationMetrics(
+                    sourceApplicationMetrics, windowStart, windowSeconds, TARGET_GRANULARITY);
+            pipelineTimings.recordSince(PipelineTimings.Stage.AGGREGATE_APPLICATION, aggregateStart);
+            if (applicationMetrics != null) {
+                saved += metricRowWriter.insertApplicationMetrics(applicationMetrics);
+            }
+
+            rollupWatermarkRepository.save(new RollupWatermark(targetConfig.getGranularityId(), windowEnd));
+
+            return saved;
+        });
+        pipelineTimings.recordSince(PipelineTimings.Stage.ROLLUP_WINDOW, windowTimingStart);
+
+        return rows == null ? 0 : rows;
+    }
+
+    private void saveWatermark(GranularityConfig targetConfig, long rolledUpUntil) {
+        transactionTemplate.executeWithoutResult(status ->
+                rollupWatermarkRepository.save(new RollupWatermark(targetConfig.getGranularityId(),
+                                                                   new Timestamp(rolledUpUntil))));
+    }
+
+    /**
+     * Returns the timestamp of the oldest HIGH granularity metric at or after the time passed by
+     * parameter, or null if there is none
+     */
+    private Long findNextSourceTimestamp(long from) throws IOException {
+        Long next = sampleSegmentStore.findNextSample(from);
+
+        for (String table : SYSTEM_METRIC_TABLES) {
+            next = earliest(next, jdbcTemplate.query("SELECT timestamp FROM " + table
+                            + " WHERE timestamp >= ? AND granularity_id IN (SELECT id FROM granularity WHERE label = ?)"
+                            + " ORDER BY timestamp LIMIT 1",
+                    (rs, rowNum) -> rs.getLong(1), new Timestamp(from), SOURCE_GRANULARITY));
+        }
+
+        // Application metrics saved before they had a granularity level are HIGH granularity metrics
+        next = earliest(next, jdbcTemplate.query("SELECT timestamp FROM " + APPLICATION_METRIC_TABLE
+                        + " WHERE timestamp >= ? AND (granularity_id IS NULL"
+                        + " OR granularity_id IN (SELECT id FROM granularity WHERE label = ?))"
+                        + " ORDER BY timestamp LIMIT 1",
+                (rs, rowNum) -> rs.getLong(1), new Timestamp(from), SOURCE_GRANULARITY));
+
+        return next;
+    }
+
+    private static Long earliest(Long current, java.util.List<Long> candidates) {
+        if (candidates.isEmpty()) {
+            return current;
+        }
+        return current == null ? candidates.get(0) : Math.min(current, candidates.get(0));
+    }
+
+    /**
+     * Limits the retention cutoff of a granularity level so metrics which have not been rolled up
+     * yet are not deleted
+     *
+     * @param granularityLabel The granularity level metrics are being deleted from
+     * @param cutoff The time before which the metrics have aged
+     * @return The time before which the metrics can be deleted
+     */
+    public Timestamp limitRetentionCutoff(String granularityLabel, Timestamp cutoff) {
+        if (!enabled || !SOURCE_GRANULARITY.equals(granularityLabel)) {
+            return cutoff;
+        }
+
+        GranularityConfig targetConfig = granularityConfigRepository.findByGranularityLabel(TARGET_GRANULARITY);
+        if (targetConfig == null) {
+            return cutoff;
+        }
+
+        RollupWatermark watermark = rollupWatermarkRepository.findByGranularityId(targetConfig.getGranularityId());
+
+        // Nothing has been rolled up yet
+        if (watermark == null) {
+            return new Timestamp(0);
+        }
+
+        return watermark.getRolledUpUntil().before(cutoff) ? watermark.getRolledUpUntil() : cutoff;
+    }
+}
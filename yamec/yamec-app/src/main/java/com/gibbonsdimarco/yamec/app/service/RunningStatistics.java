@@ -0,0 +1,135 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+/**
+ * <p>The count, mean, variance, minimum and maximum of a series of values, updated one value at a
+ * time in constant memory.</p>
+ * <p>The mean and variance are kept with Welford's algorithm, which stays accurate when the values
+ * are large compared to their spread (such as memory use in bytes). Statistics of separate series,
+ * such as consecutive windows, can be combined with {@link #merge(RunningStatistics)} as if all of
+ * their values had been added to one.</p>
+ * <p>Not thread-safe.</p>
+ */
+public final class RunningStatistics {
+
+    private long count;
+    private double mean;
+    // Sum of the squared differences from the mean
+    private double m2;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Adds a value to the series
+     */
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Adds the same value to the series a number of times, without looping
+     *
+     * @param value The value to add
+     * @param times The number of times to add it
+     */
+    public void addRepeated(double value, long times) {
+        if (times <= 0) {
+            return;
+        }
+        merge(times, value, 0, value, value);
+    }
+
+    /**
+     * Adds all the values of another series to this one
+     *
+     * @param other The statistics of the other series, which are left unchanged
+     */
+    public void merge(RunningStatistics other) {
+        if (other.count == 0) {
+            return;
+        }
+        merge(other.count, other.mean, other.m2, other.min, other.max);
+    }
+
+    private void merge(long otherCount, double otherMean, double otherM2, double otherMin, double otherMax) {
+        long combinedCount = count + otherCount;
+        double delta = otherMean - mean;
+
+        mean += delta * otherCount / combinedCount;
+        m2 += otherM2 + delta * delta * ((double) count * otherCount / combinedCount);
+        count = combinedCount;
+
+        if (otherMin < min) {
+            min = otherMin;
+        }
+        if (otherMax > max) {
+            max = otherMax;
+        }
+    }
+
+    /**
+     * Removes all the values of the series, so the object can be reused
+     */
+    public void reset() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean of the values, or 0 if there are none
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Returns the sum of the values
+     */
+    public double getSum() {
+        return mean * count;
+    }
+
+    /**
+     * Returns the population variance of the values, or 0 if there are none
+     */
+    public double getVariance() {
+        return count == 0 ? 0 : m2 / count;
+    }
+
+    /**
+     * Returns the population standard deviation of the values, or 0 if there are none
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Returns the smallest value, or positive infinity if there are none
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest value, or negative infinity if there are none
+     */
+    public double getMax() {
+        return max;
+    }
+}
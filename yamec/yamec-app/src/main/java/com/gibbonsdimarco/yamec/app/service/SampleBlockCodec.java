@@ -0,0 +1,301 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Compresses the columns of a block of samples for the SampleSegmentStore, as Facebook's
+ * Gorilla time series database does, and decodes them again one sample at a time.</p>
+ * <p>Timestamps are stored as the difference between consecutive deltas, which is 0 for samples
+ * collected exactly one second apart and fits in 7 bits for the few milliseconds a collection is
+ * usually early or late. A column of values which are all whole numbers, such as the bytes of
+ * memory an application uses, is stored as the zigzag encoded varint difference of each value from
+ * the one before. Any other column stores each value's bits XORed with the previous value's, which
+ * is one bit for an unchanged value and otherwise only the bits between the leading and trailing
+ * zeros of the XOR.</p>
+ * <p>Each column is a bit stream, starting at a byte boundary, of the bits of each value from the
+ * most significant.</p>
+ */
+final class SampleBlockCodec {
+
+    // The encodings of a value column, stored in its first byte
+    private static final int XOR_VALUES = 0;
+    private static final int VARINT_DELTAS = 1;
+
+    // Whole numbers above this cannot all be stored exactly as doubles
+    private static final double MAX_EXACT_INTEGER = 1L << 53;
+
+    private SampleBlockCodec() {}
+
+    /**
+     * Encodes the first <code>count</code> timestamps of a block, which must not be empty
+     */
+    static void encodeTimestamps(long[] timestamps, int count, BitOutput out) {
+        long previous = timestamps[0];
+        long previousDelta = 0;
+        out.write(previous, 64);
+
+        for (int i = 1; i < count; i++) {
+            long delta = timestamps[i] - previous;
+            long deltaOfDelta = delta - previousDelta;
+            if (deltaOfDelta == 0) {
+                out.write(0, 1);
+            } else if (fits(deltaOfDelta, 7)) {
+                out.write(0b10, 2);
+                out.write(deltaOfDelta, 7);
+            } else if (fits(deltaOfDelta, 9)) {
+                out.write(0b110, 3);
+                out.write(deltaOfDelta, 9);
+            } else if (fits(deltaOfDelta, 12)) {
+                out.write(0b1110, 4);
+                out.write(deltaOfDelta, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(deltaOfDelta, 64);
+            }
+            previous = timestamps[i];
+            previousDelta = delta;
+        }
+    }
+
+    /**
+     * Encodes the first <code>count</code> values of a block, which must not be empty
+     */
+    static void encodeValues(double[] values, int count, BitOutput out) {
+        if (areWholeNumbers(values, count)) {
+            out.write(VARINT_DELTAS, 8);
+            long previous = 0;
+            for (int i = 0; i < count; i++) {
+                long value = (long) values[i];
+                long delta = value - previous;
+                long zigzag = (delta << 1) ^ (delta >> 63);
+                while ((zigzag & ~0x7FL) != 0) {
+                    out.write((zigzag & 0x7F) | 0x80, 8);
+                    zigzag >>>= 7;
+                }
+                out.write(zigzag, 8);
+                previous = value;
+            }
+            return;
+        }
+
+        out.write(XOR_VALUES, 8);
+        long previous = Double.doubleToRawLongBits(values[0]);
+        out.write(previous, 64);
+
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = 1; i < count; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previous;
+            if (xor == 0) {
+                out.write(0, 1);
+            } else {
+                // The number of leading zeros is stored in 5 bits
+                int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                    // The meaningful bits are within those of the previous value
+                    out.write(0b10, 2);
+                    out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+                } else {
+                    int meaningful = 64 - leading - trailing;
+                    out.write(0b11, 2);
+                    out.write(leading, 5);
+                    out.write(meaningful - 1, 6);
+                    out.write(xor >>> trailing, meaningful);
+                    previousLeading = leading;
+                    previousTrailing = trailing;
+                }
+            }
+            previous = bits;
+        }
+    }
+
+    /**
+     * Returns whether every value is a whole number which converts to a long and back exactly
+     */
+    private static boolean areWholeNumbers(double[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            double value = values[i];
+            if (!(Math.abs(value) < MAX_EXACT_INTEGER)
+                    || Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits((double) (long) value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean fits(long value, int bits) {
+        return value >= -(1L << (bits - 1)) && value < (1L << (bits - 1));
+    }
+
+    private static long signExtend(long value, int bits) {
+        return (value << (64 - bits)) >> (64 - bits);
+    }
+
+    /**
+     * Decodes the timestamps of a block, one at a time
+     */
+    static final class TimestampDecoder {
+        private final BitInput in;
+        private boolean started;
+        private long previous;
+        private long previousDelta;
+
+        TimestampDecoder(ByteBuffer buffer, int offset) {
+            this.in = new BitInput(buffer, offset);
+        }
+
+        long next() {
+            if (!started) {
+                started = true;
+                previous = in.read(64);
+                return previous;
+            }
+
+            long deltaOfDelta;
+            if (in.read(1) == 0) {
+                deltaOfDelta = 0;
+            } else if (in.read(1) == 0) {
+                deltaOfDelta = signExtend(in.read(7), 7);
+            } else if (in.read(1) == 0) {
+                deltaOfDelta = signExtend(in.read(9), 9);
+            } else if (in.read(1) == 0) {
+                deltaOfDelta = signExtend(in.read(12), 12);
+            } else {
+                deltaOfDelta = in.read(64);
+            }
+            previousDelta += deltaOfDelta;
+            previous += previousDelta;
+            return previous;
+        }
+    }
+
+    /**
+     * Decodes the values of one column of a block, one at a time
+     */
+    static final class ValueDecoder {
+        private final BitInput in;
+        private final int encoding;
+        private boolean started;
+        private long previous;
+        private int leading;
+        private int trailing;
+
+        ValueDecoder(ByteBuffer buffer, int offset) {
+            this.in = new BitInput(buffer, offset);
+            this.encoding = (int) in.read(8);
+        }
+
+        double next() {
+            if (encoding == VARINT_DELTAS) {
+                long zigzag = 0;
+                int shift = 0;
+                long b;
+                do {
+                    b = in.read(8);
+                    zigzag |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                return previous;
+            }
+
+            if (!started) {
+                started = true;
+                previous = in.read(64);
+            } else if (in.read(1) == 1) {
+                if (in.read(1) == 1) {
+                    leading = (int) in.read(5);
+                    trailing = 64 - leading - ((int) in.read(6) + 1);
+                }
+                previous ^= in.read(64 - leading - trailing) << trailing;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+    }
+
+    /**
+     * Writes bits to a growing array, most significant first
+     */
+    static final class BitOutput {
+        private byte[] bytes = new byte[1024];
+        private int size;
+        private long pending;
+        private int pendingBits;
+
+        /**
+         * Writes the lowest <code>count</code> bits of a value, up to 64
+         */
+        void write(long bits, int count) {
+            if (count > 32) {
+                write(bits >>> 32, count - 32);
+                count = 32;
+            }
+
+            // Fewer than 8 bits are pending, so this fits in the long
+            pending = (pending << count) | (bits & ((1L << count) - 1));
+            pendingBits += count;
+            while (pendingBits >= 8) {
+                pendingBits -= 8;
+                if (size == bytes.length) {
+                    bytes = java.util.Arrays.copyOf(bytes, size * 2);
+                }
+                bytes[size++] = (byte) (pending >>> pendingBits);
+            }
+            pending &= (1L << pendingBits) - 1;
+        }
+
+        /**
+         * Pads the last byte with zeros, so the next bit written starts a byte
+         */
+        void alignToByte() {
+            if (pendingBits > 0) {
+                write(0, 8 - pendingBits);
+            }
+        }
+
+        /**
+         * The number of whole bytes written
+         */
+        int size() {
+            return size;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Reads bits from a buffer, most significant first, without copying it
+     */
+    static final class BitInput {
+        private final ByteBuffer buffer;
+        private int position;
+        private long bits;
+        private int available;
+
+        BitInput(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.position = offset;
+        }
+
+        /**
+         * Reads a value of <code>count</code> bits, up to 64
+         */
+        long read(int count) {
+            if (count > 32) {
+                long high = read(count - 32);
+                return (high << 32) | read(32);
+            }
+
+            while (available < count) {
+                bits = (bits << 8) | (buffer.get(position++) & 0xFF);
+                available += 8;
+            }
+            available -= count;
+            return (bits >>> available) & ((1L << count) - 1);
+        }
+    }
+}
@@ -0,0 +1,1374 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.config.SchedulingConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * <p>Keeps the raw samples of every metric series (the CPU, the memory, each disk, each NIC and
+ * each application) in memory-mapped segment files beside the database. The segments are the
+ * only copy of the HIGH granularity metrics: the collector does not save them in SQLite, and the
+ * RollupService, the HistoryService and the RawMetricReader read them from here.</p>
+ * <p>Each series has one file per <code>yamec.samples.segment-seconds</code> of time, at
+ * <code>type/id/start.seg</code> in <code>yamec.samples.directory</code>. A segment is a
+ * fixed-width columnar file: a header, the timestamps of its samples, the values of each field of
+ * the type, and a summary of every block of {@value #BLOCK_SAMPLES} samples. Each column is
+ * preallocated for two samples per second. The first timestamps of the blocks are the time index
+ * of the segment, searched before its timestamps, and the minimum and maximum of each field in a
+ * block let minimum and maximum downsampling skip the samples of every block which falls within
+ * one point.</p>
+ * <p>Samples are appended by the metrics writer thread once their collection is saved, and are
+ * read in place from the mapped files, without copying, on any thread. A segment's sample count
+ * is only advanced once a sample is written, so readers never see part of one. Written pages are
+ * flushed to disk by the operating system, and when the application stops.</p>
+ * <p>The mapping of each segment which has ended, or which has been read, is kept for later
+ * reads. Each file is mapped in its own arena, so it is unmapped as soon as the file is compressed
+ * or deleted, after the reads in progress finish. A mapped file cannot be deleted on Windows.</p>
+ * <p>Once a segment has ended, it is rewritten as a compressed segment, <code>start.segz</code>,
+ * with the columns of each block encoded by the SampleBlockCodec and the same block index and
+ * summaries. Compressed segments are also read in place, decoding only the timestamps and the
+ * field read, one sample at a time.</p>
+ * <p>Segments are deleted as whole files by the RetentionService once they are older than the
+ * <code>timeToAge</code> of the HIGH granularity level and have been rolled up.</p>
+ * <p>A sample which cannot be written, because its segment is full or already compressed, is out
+ * of order or fails to be written, is dropped and logged.</p>
+ */
+@Service
+public class SampleSegmentStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SampleSegmentStore.class);
+
+    /**
+     * The number of samples summarized by each entry of a segment's block index
+     */
+    static final int BLOCK_SAMPLES = 64;
+
+    private static final String FILE_SUFFIX = ".seg";
+    private static final String COMPRESSED_SUFFIX = ".segz";
+
+    // How long after a segment ends it is compressed, so late collections are still written to it
+    private static final long COMPRESS_DELAY_MILLIS = 60_000;
+
+    /**
+     * Receives the samples read from the segments, oldest first for each series
+     */
+    @FunctionalInterface
+    public interface SampleVisitor {
+        void accept(UUID seriesId, long timestamp, double value);
+    }
+
+    /**
+     * Receives every field of the samples read from the segments, oldest first for each series.
+     * The array of values is reused for each sample.
+     */
+    @FunctionalInterface
+    public interface RowVisitor {
+        void accept(UUID seriesId, long timestamp, double[] values);
+    }
+
+    private final Path directory;
+    private final long segmentMillis;
+    private final int segmentCapacity;
+
+    // The segment each series is being written to, only changed by the thread recording collections
+    private final ConcurrentHashMap<SlidingWindowStore.SeriesKey, Segment> openSegments = new ConcurrentHashMap<>();
+    // The mappings of the other segments which have been written or read, by file
+    private final ConcurrentHashMap<Path, StoredSegment> mappedSegments = new ConcurrentHashMap<>();
+    private long ignoredSamples;
+
+    // The time of the oldest sample kept, or Long.MAX_VALUE if there is none
+    private volatile long oldestSample = Long.MAX_VALUE;
+
+    @Autowired
+    public SampleSegmentStore(@Value("${yamec.samples.directory:samples}") String directory,
+                              @Value("${yamec.samples.segment-seconds:3600}") int segmentSeconds) {
+        if (segmentSeconds <= 0) {
+            throw new IllegalArgumentException("yamec.samples.segment-seconds must be greater than 0");
+        }
+
+        this.directory = Path.of(directory);
+        this.segmentMillis = segmentSeconds * 1000L;
+        this.segmentCapacity = segmentSeconds * 2;
+    }
+
+    /**
+     * Finds the oldest sample kept from a previous run
+     */
+    @PostConstruct
+    public void findOldestSample() {
+        oldestSample = readOldestSample();
+    }
+
+    /**
+     * Flushes the segments being written to disk and unmaps every segment
+     */
+    @PreDestroy
+    public void close() {
+        for (Segment segment : openSegments.values()) {
+            segment.force();
+            segment.unmap();
+        }
+        openSegments.clear();
+
+        for (StoredSegment segment : mappedSegments.values()) {
+            if (segment instanceof Segment written && written.writable) {
+                written.force();
+            }
+            segment.unmap();
+        }
+        mappedSegments.clear();
+    }
+
+    /**
+     * Returns the time of the oldest sample kept, or Long.MAX_VALUE if there is none. HIGH
+     * granularity metrics older than this were saved in the database, before the segments kept
+     * the raw samples.
+     */
+    public long getOldestSample() {
+        return oldestSample;
+    }
+
+    /**
+     * Appends the values of one collection to the segment of each series. Values older than the
+     * latest of their series are ignored.
+     *
+     * @param tick The values of the collection
+     */
+    public void record(SlidingWindowStore.Tick tick) {
+        long time = tick.getCollectionTimeMillis();
+        for (SlidingWindowStore.TickValue value : tick.getValues()) {
+            try {
+                Segment segment = segmentFor(value.key(), time);
+                if (segment == null) {
+                    if (ignoredSamples++ % 1000 == 0) {
+                        logger.warn("The segment of {} at {} is already compressed - ignoring its samples",
+                                value.key(), time);
+                    }
+                } else if (!segment.append(time, value.values())) {
+                    if (ignoredSamples++ % 1000 == 0) {
+                        logger.warn(segment.isFull()
+                                        ? "The segment of {} starting at {} is full - ignoring its samples"
+                                        : "A sample of {} in the segment starting at {} is out of order - ignoring it",
+                                value.key(), segment.start);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                if (ignoredSamples++ % 1000 == 0) {
+                    logger.error("Failed to write a sample of {}", value.key(), e);
+                }
+            }
+        }
+
+        // Segments which have ended are no longer written to, but their mappings are kept for reads
+        for (java.util.Map.Entry<SlidingWindowStore.SeriesKey, Segment> entry : openSegments.entrySet()) {
+            if (entry.getValue().end <= time) {
+                keepMapping(entry.getValue());
+                openSegments.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (oldestSample == Long.MAX_VALUE && !tick.isEmpty()) {
+            oldestSample = time;
+        }
+    }
+
+    /**
+     * Reads the samples of one field in a range of time
+     *
+     * @param type The type of the series
+     * @param seriesId The ID of the only series to read, or null for every series of the type
+     * @param field The index of the field among the fields of the type
+     * @param start The start of the range, in milliseconds since the epoch (inclusive)
+     * @param end The end of the range (exclusive)
+     * @param visitor Receives each sample, oldest first for each series
+     */
+    public void scan(SlidingWindowStore.SeriesType type, UUID seriesId, int field, long start, long end,
+                     SampleVisitor visitor) throws IOException {
+        scan(type, seriesId, field, start, end, 0, 0, visitor);
+    }
+
+    /**
+     * Reads the samples of one field in a range of time for minimum and maximum downsampling.
+     * For a block of samples which falls within one bucket, only its smallest and largest samples
+     * are read, in the order they were recorded.
+     *
+     * @param bucketOrigin The time the first bucket starts
+     * @param bucketMillis The number of milliseconds each bucket covers
+     * @see #scan(SlidingWindowStore.SeriesType, UUID, int, long, long, SampleVisitor)
+     */
+    public void scanExtremes(SlidingWindowStore.SeriesType type, UUID seriesId, int field, long start, long end,
+                             long bucketOrigin, long bucketMillis, SampleVisitor visitor) throws IOException {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("bucketMillis must be greater than 0");
+        }
+        scan(type, seriesId, field, start, end, bucketOrigin, bucketMillis, visitor);
+    }
+
+    private void scan(SlidingWindowStore.SeriesType type, UUID seriesId, int field, long start, long end,
+                      long bucketOrigin, long bucketMillis, SampleVisitor visitor) throws IOException {
+        if (field < 0 || field >= type.getFieldCount()) {
+            throw new IllegalArgumentException("A " + type.getLabel() + " series has "
+                    + type.getFieldCount() + " fields");
+        }
+
+        forEachSegment(type, seriesId, start, end, (segment, series) -> {
+            if (bucketMillis > 0) {
+                segment.scanExtremes(series, field, start, end, bucketOrigin, bucketMillis, visitor);
+            } else {
+                segment.scan(series, field, start, end, visitor);
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Reads every field of the samples in a range of time
+     *
+     * @param type The type of the series
+     * @param seriesId The ID of the only series to read, or null for every series of the type
+     * @param start The start of the range, in milliseconds since the epoch (inclusive)
+     * @param end The end of the range (exclusive)
+     * @param visitor Receives each sample, oldest first for each series
+     */
+    public void scanRows(SlidingWindowStore.SeriesType type, UUID seriesId, long start, long end,
+                         RowVisitor visitor) throws IOException {
+        double[] values = new double[type.getFieldCount()];
+        forEachSegment(type, seriesId, start, end, (segment, series) -> {
+            segment.scanRows(series, start, end, values, visitor);
+            return false;
+        });
+    }
+
+    /**
+     * Returns the time of the oldest sample of any series at or after a time, or null if there is
+     * none
+     */
+    public Long findNextSample(long from) throws IOException {
+        long[] next = {Long.MAX_VALUE};
+        for (SlidingWindowStore.SeriesType type : SlidingWindowStore.SeriesType.values()) {
+            // Only the segments starting before the next sample found so far can hold an older one
+            forEachSegment(type, null, from, () -> next[0], (segment, series) -> {
+                long timestamp = segment.firstTimestampAtOrAfter(from);
+                next[0] = Math.min(next[0], timestamp);
+                // The later segments of the series only hold later samples
+                return timestamp != Long.MAX_VALUE;
+            });
+        }
+        return next[0] == Long.MAX_VALUE ? null : next[0];
+    }
+
+    /**
+     * Reads one segment of a series
+     */
+    @FunctionalInterface
+    private interface SegmentRead {
+        /**
+         * @return Whether the later segments of the series can be skipped
+         */
+        boolean read(StoredSegment segment, UUID seriesId) throws IOException;
+    }
+
+    private void forEachSegment(SlidingWindowStore.SeriesType type, UUID seriesId, long start, long end,
+                                SegmentRead read) throws IOException {
+        forEachSegment(type, seriesId, start, () -> end, read);
+    }
+
+    /**
+     * Runs a read of each segment of a type which may have samples in a range, oldest first for
+     * each series
+     *
+     * @param end Returns the end of the range (exclusive), checked before each series
+     */
+    private void forEachSegment(SlidingWindowStore.SeriesType type, UUID seriesId, long start,
+                                java.util.function.LongSupplier end, SegmentRead read) throws IOException {
+        for (Path seriesDirectory : seriesDirectories(type, seriesId)) {
+            UUID id = seriesId;
+            if (id == null) {
+                try {
+                    id = UUID.fromString(seriesDirectory.getFileName().toString());
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+            }
+
+            SlidingWindowStore.SeriesKey key = new SlidingWindowStore.SeriesKey(type, id);
+            UUID series = id;
+            boolean[] skipRest = {false};
+            for (Path file : segmentFiles(seriesDirectory, start, end.getAsLong())) {
+                // A segment unmapped before it is read has just been compressed or deleted, so it
+                // is looked up again
+                for (int attempt = 0; attempt < 2; attempt++) {
+                    StoredSegment segment = readableSegment(key, file);
+                    if (segment == null || segment.end <= start || segment.fields != type.getFieldCount()) {
+                        break;
+                    }
+
+                    if (segment.read(() -> skipRest[0] = read.read(segment, series))) {
+                        break;
+                    }
+                }
+                if (skipRest[0]) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments which ended before a time
+     *
+     * @param cutoff Segments which end at or before this are deleted
+     * @return The number of segments deleted
+     */
+    public int deleteSegmentsBefore(long cutoff) {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+
+        int deleted = 0;
+        try (Stream<Path> typeDirectories = Files.list(directory)) {
+            for (Path typeDirectory : typeDirectories.filter(Files::isDirectory).toList()) {
+                for (Path seriesDirectory : list(typeDirectory)) {
+                    for (Path file : list(seriesDirectory)) {
+                        if (segmentStart(file) == Long.MIN_VALUE) {
+                            continue;
+                        }
+                        Header header = readHeader(file);
+                        if (header != null && header.end() <= cutoff) {
+                            dropMapping(file);
+                            try {
+                                Files.delete(file);
+                                deleted++;
+                            } catch (IOException e) {
+                                logger.warn("Failed to delete the expired segment {} - retrying on the next run",
+                                        file, e);
+                            }
+                        }
+                    }
+
+                    if (list(seriesDirectory).isEmpty()) {
+                        Files.deleteIfExists(seriesDirectory);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to delete expired sample segments", e);
+        }
+
+        // Mapped by a reader after they were dropped, or not listed
+        for (StoredSegment segment : mappedSegments.values()) {
+            if (segment.end <= cutoff) {
+                dropMapping(segment);
+            }
+        }
+
+        oldestSample = readOldestSample();
+        if (deleted > 0) {
+            logger.info("Deleted {} expired sample segments", deleted);
+        }
+        return deleted;
+    }
+
+    /**
+     * Compresses the segments which ended a minute ago
+     */
+    @Scheduled(initialDelayString = "${yamec.samples.compress-interval-ms:60000}",
+               fixedDelayString = "${yamec.samples.compress-interval-ms:60000}",
+               scheduler = SchedulingConfig.MAINTENANCE_SCHEDULER)
+    public void compressEndedSegments() {
+        compressSegmentsEndedBefore(System.currentTimeMillis() - COMPRESS_DELAY_MILLIS);
+    }
+
+    /**
+     * Rewrites the segments which ended before a time as compressed segments
+     *
+     * @param cutoff Segments which end at or before this are compressed
+     * @return The number of segments compressed
+     */
+    public int compressSegmentsEndedBefore(long cutoff) {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+
+        int compressed = 0;
+        long bytesBefore = 0;
+        long bytesAfter = 0;
+        try (Stream<Path> files = Files.walk(directory, 3)) {
+            for (Path file : files.filter(path -> path.getFileName().toString().endsWith(FILE_SUFFIX)).toList()) {
+                Path compressedFile = compressedFile(file);
+                if (!Files.exists(compressedFile)) {
+                    Header header = readHeader(file);
+                    if (header == null || header.end() > cutoff || isOpen(file) || segmentStart(file) == Long.MIN_VALUE) {
+                        continue;
+                    }
+
+                    try {
+                        Segment segment = Segment.open(file, false);
+                        try {
+                            CompressedSegment.write(segment, compressedFile);
+                        } finally {
+                            segment.unmap();
+                        }
+                        compressed++;
+                        bytesBefore += Files.size(file);
+                        bytesAfter += Files.size(compressedFile);
+                    } catch (IOException e) {
+                        logger.error("Failed to compress the sample segment {}", file, e);
+                        continue;
+                    }
+                }
+
+                // Reads of the segment now map the compressed segment instead
+                dropMapping(file);
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete the compressed segment {} - retrying on the next run", file, e);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to compress the sample segments", e);
+        }
+
+        // Mapped by a reader after they were dropped
+        for (StoredSegment segment : mappedSegments.values()) {
+            if (segment instanceof Segment && segment.end <= cutoff && !isOpen(segment.file)) {
+                dropMapping(segment);
+            }
+        }
+
+        if (compressed > 0) {
+            logger.info("Compressed {} sample segments from {} KiB to {} KiB",
+                    compressed, bytesBefore / 1024, bytesAfter / 1024);
+        }
+        return compressed;
+    }
+
+    /**
+     * Returns the files whose mappings are kept, besides the segments being written to
+     */
+    java.util.Set<Path> mappedFiles() {
+        return java.util.Set.copyOf(mappedSegments.keySet());
+    }
+
+    private boolean isOpen(Path file) {
+        for (Segment segment : openSegments.values()) {
+            if (segment.file.equals(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Path compressedFile(Path file) {
+        return file.resolveSibling(segmentStart(file) + COMPRESSED_SUFFIX);
+    }
+
+    /**
+     * Returns the segment a sample of a series at a time is written to, creating it if needed.
+     * Returns null if the segment has already been compressed.
+     */
+    private Segment segmentFor(SlidingWindowStore.SeriesKey key, long time) throws IOException {
+        Segment segment = openSegments.get(key);
+        if (segment != null && time >= segment.start && time < segment.end) {
+            return segment;
+        }
+
+        long start = Math.floorDiv(time, segmentMillis) * segmentMillis;
+        Path seriesDirectory = directory.resolve(key.type().getLabel()).resolve(key.id().toString());
+        Path file = seriesDirectory.resolve(start + FILE_SUFFIX);
+
+        StoredSegment mapped = mappedSegments.get(file);
+        if (Files.exists(compressedFile(file))) {
+            return null;
+        } else if (mapped instanceof Segment written && written.writable) {
+            segment = written;
+        } else if (Files.exists(file)) {
+            segment = Segment.open(file, true);
+        } else {
+            Files.createDirectories(seriesDirectory);
+            segment = Segment.create(file, start, start + segmentMillis, key.type().getFieldCount(), segmentCapacity);
+        }
+
+        // Each mapping stays where readers can find it while it moves
+        Segment replaced = openSegments.put(key, segment);
+        if (replaced != null && replaced != segment) {
+            keepMapping(replaced);
+        }
+        if (mapped != null) {
+            if (mapped == segment) {
+                mappedSegments.remove(file, segment);
+            } else {
+                // A read-only mapping would not see the samples appended
+                dropMapping(mapped);
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Keeps the mapping of a segment which is no longer being written to for later reads
+     */
+    private void keepMapping(Segment segment) {
+        StoredSegment replaced = mappedSegments.put(segment.file, segment);
+        if (replaced != null && replaced != segment) {
+            replaced.unmap();
+        }
+    }
+
+    /**
+     * Unmaps a file before it is deleted, once the reads in progress finish. A segment being
+     * written to is not unmapped.
+     */
+    private void dropMapping(Path file) {
+        StoredSegment segment = mappedSegments.get(file);
+        if (segment != null) {
+            dropMapping(segment);
+        }
+    }
+
+    private void dropMapping(StoredSegment segment) {
+        if (mappedSegments.remove(segment.file, segment)) {
+            segment.unmap();
+        }
+    }
+
+    /**
+     * Returns the open segment of a file or its kept mapping, or maps it for reading. Returns null
+     * if the file is not a complete segment.
+     */
+    private StoredSegment readableSegment(SlidingWindowStore.SeriesKey key, Path file) {
+        Segment open = openSegments.get(key);
+        if (open != null && open.file.equals(file)) {
+            return open;
+        }
+        StoredSegment mapped = mappedSegments.get(file);
+        if (mapped != null) {
+            return mapped;
+        }
+
+        StoredSegment segment;
+        try {
+            if (file.getFileName().toString().endsWith(COMPRESSED_SUFFIX)) {
+                segment = CompressedSegment.open(file);
+            } else {
+                try {
+                    segment = Segment.open(file, false);
+                } catch (NoSuchFileException e) {
+                    // Compressed since the files were listed
+                    return readableSegment(key, compressedFile(file));
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Skipping the unreadable segment {}", file, e);
+            return null;
+        }
+
+        mapped = mappedSegments.putIfAbsent(segment.file, segment);
+        if (mapped != null) {
+            // Mapped by another reader at the same time
+            segment.unmap();
+            return mapped;
+        }
+        return segment;
+    }
+
+    private java.util.List<Path> seriesDirectories(SlidingWindowStore.SeriesType type, UUID seriesId)
+            throws IOException {
+        Path typeDirectory = directory.resolve(type.getLabel());
+        if (seriesId != null) {
+            Path seriesDirectory = typeDirectory.resolve(seriesId.toString());
+            return Files.isDirectory(seriesDirectory) ? java.util.List.of(seriesDirectory) : java.util.List.of();
+        }
+        return Files.isDirectory(typeDirectory) ? list(typeDirectory) : java.util.List.of();
+    }
+
+    /**
+     * Returns the segment files of a series which may have samples in a range, oldest first. The
+     * segments of a series do not overlap, so each one ends at the latest when the next starts. A
+     * compressed segment is read rather than the segment it was compressed from.
+     */
+    private static java.util.List<Path> segmentFiles(Path seriesDirectory, long start, long end) throws IOException {
+        java.util.TreeMap<Long, Path> files = new java.util.TreeMap<>();
+        for (Path file : list(seriesDirectory)) {
+            long segmentStart = segmentStart(file);
+            if (segmentStart != Long.MIN_VALUE
+                    && (!files.containsKey(segmentStart) || file.getFileName().toString().endsWith(COMPRESSED_SUFFIX))) {
+                files.put(segmentStart, file);
+            }
+        }
+
+        java.util.List<Path> inRange = new java.util.ArrayList<>();
+        for (java.util.Map.Entry<Long, Path> entry : files.headMap(end).entrySet()) {
+            Long next = files.higherKey(entry.getKey());
+            if (next == null || next > start) {
+                inRange.add(entry.getValue());
+            }
+        }
+        return inRange;
+    }
+
+    private static long segmentStart(Path file) {
+        String name = file.getFileName().toString();
+        int suffix = name.lastIndexOf('.');
+        if (suffix < 0 || !(name.endsWith(FILE_SUFFIX) || name.endsWith(COMPRESSED_SUFFIX))) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return Long.parseLong(name.substring(0, suffix));
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static java.util.List<Path> list(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.toList();
+        }
+    }
+
+    /**
+     * Finds the time of the oldest sample in any segment
+     */
+    private long readOldestSample() {
+        long oldest = Long.MAX_VALUE;
+        if (!Files.isDirectory(directory)) {
+            return oldest;
+        }
+
+        try (Stream<Path> files = Files.walk(directory, 3)) {
+            for (Path file : files.filter(path -> segmentStart(path) != Long.MIN_VALUE).toList()) {
+                Header header = readHeader(file);
+                if (header != null && header.count() > 0) {
+                    oldest = Math.min(oldest, header.firstTimestamp());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to find the oldest sample kept", e);
+        }
+        return oldest;
+    }
+
+    /**
+     * Reads the header of a segment or compressed segment without mapping it, or returns null if
+     * it is not one. Both keep the sample count, start and end at the same offsets, followed by
+     * the first timestamp.
+     */
+    private static Header readHeader(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Segment.HEADER_BYTES + Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Read the whole header
+            }
+            if (buffer.position() < buffer.capacity()
+                    || (buffer.getInt(0) != Segment.MAGIC && buffer.getInt(0) != CompressedSegment.MAGIC)) {
+                return null;
+            }
+            return new Header(buffer.getInt(Segment.COUNT_OFFSET), buffer.getLong(Segment.START_OFFSET),
+                    buffer.getLong(Segment.END_OFFSET), buffer.getLong(Segment.HEADER_BYTES));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private record Header(int count, long start, long end, long firstTimestamp) {}
+
+    /**
+     * A segment file of a series which can be read, mapped into memory in its own arena
+     */
+    abstract static class StoredSegment {
+        static final int HEADER_BYTES = 64;
+        static final int COUNT_OFFSET = 16;
+        static final int START_OFFSET = 24;
+        static final int END_OFFSET = 32;
+
+        // Each block summary holds, for each field, its smallest and largest values and their indexes
+        static final int BLOCK_FIELD_BYTES = 2 * Double.BYTES + 2 * Integer.BYTES;
+
+        final Path file;
+        final long start;
+        final long end;
+        final int fields;
+
+        private final Arena arena;
+        // Held by each read of the mapping, and exclusively to unmap it
+        private final ReentrantReadWriteLock mappingLock = new ReentrantReadWriteLock();
+        private boolean unmapped;
+
+        // The buffer must be little-endian
+        StoredSegment(Path file, Arena arena, ByteBuffer buffer, int fieldsOffset) {
+            this.file = file;
+            this.arena = arena;
+            this.start = buffer.getLong(START_OFFSET);
+            this.end = buffer.getLong(END_OFFSET);
+            this.fields = buffer.getInt(fieldsOffset);
+        }
+
+        /**
+         * Maps a file in a new shared arena. The arena is closed if the mapping cannot be used.
+         */
+        static <T extends StoredSegment> T map(FileChannel channel, FileChannel.MapMode mode, long size,
+                                               MappingReader<T> reader) throws IOException {
+            Arena arena = Arena.ofShared();
+            try {
+                MemorySegment mapped = channel.map(mode, 0, size, arena);
+                return reader.read(arena, mapped, mapped.asByteBuffer().order(ByteOrder.LITTLE_ENDIAN));
+            } catch (IOException | RuntimeException e) {
+                arena.close();
+                throw e;
+            }
+        }
+
+        @FunctionalInterface
+        interface MappingReader<T> {
+            T read(Arena arena, MemorySegment mapped, ByteBuffer buffer) throws IOException;
+        }
+
+        @FunctionalInterface
+        interface MappedRead {
+            void run() throws IOException;
+        }
+
+        /**
+         * Runs a read of the mapping, which is not unmapped until it finishes
+         *
+         * @return False if the mapping was unmapped before the read started
+         */
+        boolean read(MappedRead read) throws IOException {
+            mappingLock.readLock().lock();
+            try {
+                if (unmapped) {
+                    return false;
+                }
+                read.run();
+                return true;
+            } finally {
+                mappingLock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Unmaps the file once the reads in progress finish. It must not be written to afterwards.
+         */
+        void unmap() {
+            mappingLock.writeLock().lock();
+            try {
+                if (!unmapped) {
+                    unmapped = true;
+                    arena.close();
+                }
+            } finally {
+                mappingLock.writeLock().unlock();
+            }
+        }
+
+        abstract void scan(UUID id, int field, long start, long end, SampleVisitor visitor);
+
+        abstract void scanExtremes(UUID id, int field, long start, long end, long bucketOrigin, long bucketMillis,
+                                   SampleVisitor visitor);
+
+        abstract void scanRows(UUID id, long start, long end, double[] values, RowVisitor visitor);
+
+        /**
+         * Returns the time of the first sample at or after a time, or Long.MAX_VALUE if there is none
+         */
+        abstract long firstTimestampAtOrAfter(long time);
+    }
+
+    /**
+     * <p>One segment file of a series, mapped into memory.</p>
+     * <p>The file holds, in little-endian order, a header of {@value #HEADER_BYTES} bytes, the
+     * timestamp of each sample (8 bytes each), the value of each sample for each field (8 bytes
+     * each, a column per field), then the summary of each block: its first and last timestamps,
+     * and for each field its smallest and largest value and the indexes of their first
+     * samples.</p>
+     */
+    static final class Segment extends StoredSegment {
+        static final int MAGIC = 0x59534547;
+
+        private static final int VERSION = 1;
+        private static final int VERSION_OFFSET = 4;
+        private static final int FIELDS_OFFSET = 8;
+        private static final int CAPACITY_OFFSET = 12;
+
+        private static final int BLOCK_HEADER_BYTES = 2 * Long.BYTES;
+
+        final boolean writable;
+
+        private final int capacity;
+        private final MemorySegment mapped;
+        private final ByteBuffer buffer;
+        private final int valuesOffset;
+        private final int blocksOffset;
+        private final int blockBytes;
+
+        // The number of samples written, published after each sample is
+        private volatile int count;
+
+        // The buffer must be little-endian
+        private Segment(Path file, Arena arena, MemorySegment mapped, ByteBuffer buffer, boolean writable) {
+            super(file, arena, buffer, FIELDS_OFFSET);
+            this.writable = writable;
+            this.mapped = mapped;
+            this.buffer = buffer;
+            this.capacity = buffer.getInt(CAPACITY_OFFSET);
+            this.count = buffer.getInt(COUNT_OFFSET);
+            this.valuesOffset = HEADER_BYTES + capacity * Long.BYTES;
+            this.blocksOffset = valuesOffset + fields * capacity * Double.BYTES;
+            this.blockBytes = BLOCK_HEADER_BYTES + fields * BLOCK_FIELD_BYTES;
+        }
+
+        static long fileSize(int fields, int capacity) {
+            int blocks = (capacity + BLOCK_SAMPLES - 1) / BLOCK_SAMPLES;
+            return HEADER_BYTES + (long) capacity * Long.BYTES * (1 + fields)
+                    + (long) blocks * (BLOCK_HEADER_BYTES + fields * BLOCK_FIELD_BYTES);
+        }
+
+        /**
+         * Creates an empty segment file
+         */
+        static Segment create(Path file, long start, long end, int fields, int capacity) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return map(channel, FileChannel.MapMode.READ_WRITE, fileSize(fields, capacity),
+                        (arena, mapped, buffer) -> {
+                            buffer.putInt(VERSION_OFFSET, VERSION);
+                            buffer.putInt(FIELDS_OFFSET, fields);
+                            buffer.putInt(CAPACITY_OFFSET, capacity);
+                            buffer.putInt(COUNT_OFFSET, 0);
+                            buffer.putLong(START_OFFSET, start);
+                            buffer.putLong(END_OFFSET, end);
+                            // Written last, so a segment being created is never read
+                            buffer.putInt(0, MAGIC);
+                            return new Segment(file, arena, mapped, buffer, true);
+                        });
+            }
+        }
+
+        /**
+         * Maps an existing segment file
+         *
+         * @param writable Whether samples will be appended to it
+         * @throws IOException If the file cannot be read or is not a complete segment
+         */
+        static Segment open(Path file, boolean writable) throws IOException {
+            try (FileChannel channel = writable
+                    ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < HEADER_BYTES) {
+                    throw new IOException("Not a sample segment: " + file);
+                }
+
+                return map(channel, writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                        size, (arena, mapped, buffer) -> {
+                            if (buffer.getInt(0) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION
+                                    || size < fileSize(buffer.getInt(FIELDS_OFFSET), buffer.getInt(CAPACITY_OFFSET))) {
+                                throw new IOException("Not a sample segment: " + file);
+                            }
+                            return new Segment(file, arena, mapped, buffer, writable);
+                        });
+            }
+        }
+
+        boolean isFull() {
+            return count >= capacity;
+        }
+
+        /**
+         * Appends a sample, if it is newer than the last sample and the segment is not full
+         *
+         * @return Whether the sample was written
+         */
+        boolean append(long timestamp, double[] values) {
+            int index = count;
+            if (index >= capacity || (index > 0 && timestamp <= timestamp(index - 1))) {
+                return false;
+            }
+
+            buffer.putLong(HEADER_BYTES + index * Long.BYTES, timestamp);
+            for (int field = 0; field < fields; field++) {
+                buffer.putDouble(valueOffset(field, index), values[field]);
+            }
+
+            int block = blockOffset(index / BLOCK_SAMPLES);
+            boolean firstOfBlock = index % BLOCK_SAMPLES == 0;
+            if (firstOfBlock) {
+                buffer.putLong(block, timestamp);
+            }
+            buffer.putLong(block + Long.BYTES, timestamp);
+            for (int field = 0; field < fields; field++) {
+                int summary = block + BLOCK_HEADER_BYTES + field * BLOCK_FIELD_BYTES;
+                double value = values[field];
+                if (firstOfBlock || value < buffer.getDouble(summary)) {
+                    buffer.putDouble(summary, value);
+                    buffer.putInt(summary + 2 * Double.BYTES, index);
+                }
+                if (firstOfBlock || value > buffer.getDouble(summary + Double.BYTES)) {
+                    buffer.putDouble(summary + Double.BYTES, value);
+                    buffer.putInt(summary + 2 * Double.BYTES + Integer.BYTES, index);
+                }
+            }
+
+            buffer.putInt(COUNT_OFFSET, index + 1);
+            count = index + 1;
+            return true;
+        }
+
+        @Override
+        void scan(UUID id, int field, long start, long end, SampleVisitor visitor) {
+            int available = count;
+            for (int index = firstAtOrAfter(start, available); index < available; index++) {
+                long timestamp = timestamp(index);
+                if (timestamp >= end) {
+                    return;
+                }
+                visitor.accept(id, timestamp, buffer.getDouble(valueOffset(field, index)));
+            }
+        }
+
+        @Override
+        void scanRows(UUID id, long start, long end, double[] values, RowVisitor visitor) {
+            int available = count;
+            for (int index = firstAtOrAfter(start, available); index < available; index++) {
+                long timestamp = timestamp(index);
+                if (timestamp >= end) {
+                    return;
+                }
+                for (int field = 0; field < fields; field++) {
+                    values[field] = value(field, index);
+                }
+                visitor.accept(id, timestamp, values);
+            }
+        }
+
+        @Override
+        long firstTimestampAtOrAfter(long time) {
+            int available = count;
+            int index = firstAtOrAfter(time, available);
+            return index < available ? timestamp(index) : Long.MAX_VALUE;
+        }
+
+        @Override
+        void scanExtremes(UUID id, int field, long start, long end, long bucketOrigin, long bucketMillis,
+                          SampleVisitor visitor) {
+            int available = count;
+            int index = firstAtOrAfter(start, available);
+            while (index < available) {
+                int blockStart = index - index % BLOCK_SAMPLES;
+                int blockEnd = blockStart + BLOCK_SAMPLES;
+
+                // Only the summaries of whole blocks are complete
+                if (index == blockStart && blockEnd <= available) {
+                    int block = blockOffset(blockStart / BLOCK_SAMPLES);
+                    long first = buffer.getLong(block);
+                    long last = buffer.getLong(block + Long.BYTES);
+                    if (last < end && Math.floorDiv(first - bucketOrigin, bucketMillis)
+                            == Math.floorDiv(last - bucketOrigin, bucketMillis)) {
+                        int summary = block + BLOCK_HEADER_BYTES + field * BLOCK_FIELD_BYTES;
+                        int minIndex = buffer.getInt(summary + 2 * Double.BYTES);
+                        int maxIndex = buffer.getInt(summary + 2 * Double.BYTES + Integer.BYTES);
+                        visitor.accept(id, timestamp(Math.min(minIndex, maxIndex)),
+                                buffer.getDouble(valueOffset(field, Math.min(minIndex, maxIndex))));
+                        if (minIndex != maxIndex) {
+                            visitor.accept(id, timestamp(Math.max(minIndex, maxIndex)),
+                                    buffer.getDouble(valueOffset(field, Math.max(minIndex, maxIndex))));
+                        }
+                        index = blockEnd;
+                        continue;
+                    }
+                }
+
+                for (int stop = Math.min(blockEnd, available); index < stop; index++) {
+                    long timestamp = timestamp(index);
+                    if (timestamp >= end) {
+                        return;
+                    }
+                    visitor.accept(id, timestamp, buffer.getDouble(valueOffset(field, index)));
+                }
+            }
+        }
+
+        /**
+         * Finds the first sample at or after a time, searching the first timestamps of the blocks
+         * and then the timestamps of one block
+         */
+        int firstAtOrAfter(long time, int available) {
+            if (available == 0) {
+                return 0;
+            }
+
+            // The last block starting before the time
+            int low = 0;
+            int high = (available - 1) / BLOCK_SAMPLES;
+            if (buffer.getLong(blockOffset(0)) >= time) {
+                return 0;
+            }
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (buffer.getLong(blockOffset(middle)) < time) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            int index = low * BLOCK_SAMPLES;
+            int stop = Math.min(index + BLOCK_SAMPLES, available);
+            while (index < stop && timestamp(index) < time) {
+                index++;
+            }
+            return index;
+        }
+
+        long timestamp(int index) {
+            return buffer.getLong(HEADER_BYTES + index * Long.BYTES);
+        }
+
+        double value(int field, int index) {
+            return buffer.getDouble(valueOffset(field, index));
+        }
+
+        int count() {
+            return count;
+        }
+
+        long firstTimestamp(int block) {
+            return buffer.getLong(blockOffset(block));
+        }
+
+        long lastTimestamp(int block) {
+            return buffer.getLong(blockOffset(block) + Long.BYTES);
+        }
+
+        /**
+         * Copies the field summaries of a block
+         */
+        void copySummaries(int block, ByteBuffer target, int offset) {
+            int summaries = blockOffset(block) + BLOCK_HEADER_BYTES;
+            for (int i = 0; i < fields * BLOCK_FIELD_BYTES; i++) {
+                target.put(offset + i, buffer.get(summaries + i));
+            }
+        }
+
+        void force() {
+            mapped.force();
+        }
+
+        private int valueOffset(int field, int index) {
+            return valuesOffset + (field * capacity + index) * Double.BYTES;
+        }
+
+        private int blockOffset(int block) {
+            return blocksOffset + block * blockBytes;
+        }
+    }
+
+    /**
+     * <p>A segment file which has ended, compressed and mapped into memory read-only.</p>
+     * <p>The file holds, in little-endian order, a header of {@value #HEADER_BYTES} bytes, then an
+     * entry for each block: its first and last timestamps, the offset of the timestamp column and
+     * of each value column, and the summary of each field as in a Segment. The columns of each
+     * block follow, encoded by the SampleBlockCodec.</p>
+     */
+    static final class CompressedSegment extends StoredSegment {
+        static final int MAGIC = 0x5953475A;
+
+        private static final int VERSION = 1;
+        private static final int VERSION_OFFSET = 4;
+        private static final int FIELDS_OFFSET = 8;
+        private static final int BLOCKS_OFFSET = 12;
+
+        private final ByteBuffer buffer;
+        private final int count;
+        private final int blocks;
+        private final int entryBytes;
+
+        // The buffer must be little-endian
+        private CompressedSegment(Path file, Arena arena, ByteBuffer buffer) {
+            super(file, arena, buffer, FIELDS_OFFSET);
+            this.buffer = buffer;
+            this.count = buffer.getInt(COUNT_OFFSET);
+            this.blocks = buffer.getInt(BLOCKS_OFFSET);
+            this.entryBytes = entryBytes(fields);
+        }
+
+        private static int entryBytes(int fields) {
+            return 2 * Long.BYTES + (1 + fields) * Integer.BYTES + fields * BLOCK_FIELD_BYTES;
+        }
+
+        /**
+         * Compresses a segment which has ended into a new file, replacing the file atomically so
+         * it is never read half written
+         */
+        static void write(Segment segment, Path target) throws IOException {
+            int count = segment.count();
+            int fields = segment.fields;
+            int blocks = (count + BLOCK_SAMPLES - 1) / BLOCK_SAMPLES;
+            int entryBytes = entryBytes(fields);
+            int dataOffset = HEADER_BYTES + blocks * entryBytes;
+
+            ByteBuffer index = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+            index.putInt(0, MAGIC);
+            index.putInt(VERSION_OFFSET, VERSION);
+            index.putInt(FIELDS_OFFSET, fields);
+            index.putInt(BLOCKS_OFFSET, blocks);
+            index.putInt(COUNT_OFFSET, count);
+            index.putLong(START_OFFSET, segment.start);
+            index.putLong(END_OFFSET, segment.end);
+
+            SampleBlockCodec.BitOutput data = new SampleBlockCodec.BitOutput();
+            long[] timestamps = new long[BLOCK_SAMPLES];
+            double[] values = new double[BLOCK_SAMPLES];
+            for (int block = 0; block < blocks; block++) {
+                int first = block * BLOCK_SAMPLES;
+                int samples = Math.min(BLOCK_SAMPLES, count - first);
+                int entry = HEADER_BYTES + block * entryBytes;
+
+                index.putLong(entry, segment.firstTimestamp(block));
+                index.putLong(entry + Long.BYTES, segment.lastTimestamp(block));
+
+                for (int i = 0; i < samples; i++) {
+                    timestamps[i] = segment.timestamp(first + i);
+                }
+                index.putInt(entry + 2 * Long.BYTES, dataOffset + data.size());
+                SampleBlockCodec.encodeTimestamps(timestamps, samples, data);
+                data.alignToByte();
+
+                for (int field = 0; field < fields; field++) {
+                    for (int i = 0; i < samples; i++) {
+                        values[i] = segment.value(field, first + i);
+                    }
+                    index.putInt(entry + 2 * Long.BYTES + (1 + field) * Integer.BYTES, dataOffset + data.size());
+                    SampleBlockCodec.encodeValues(values, samples, data);
+                    data.alignToByte();
+                }
+
+                segment.copySummaries(block, index, entry + 2 * Long.BYTES + (1 + fields) * Integer.BYTES);
+            }
+
+            Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer columns = ByteBuffer.wrap(data.bytes(), 0, data.size());
+                while (index.hasRemaining() || columns.hasRemaining()) {
+                    channel.write(new ByteBuffer[] {index, columns});
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        /**
+         * Maps a compressed segment file
+         *
+         * @throws IOException If the file cannot be read or is not a compressed segment
+         */
+        static CompressedSegment open(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < HEADER_BYTES) {
+                    throw new IOException("Not a compressed sample segment: " + file);
+                }
+
+                return map(channel, FileChannel.MapMode.READ_ONLY, size, (arena, mapped, buffer) -> {
+                    if (buffer.getInt(0) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION
+                            || size < HEADER_BYTES + (long) buffer.getInt(BLOCKS_OFFSET)
+                                    * entryBytes(buffer.getInt(FIELDS_OFFSET))) {
+                        throw new IOException("Not a compressed sample segment: " + file);
+                    }
+                    return new CompressedSegment(file, arena, buffer);
+                });
+            }
+        }
+
+        @Override
+        void scan(UUID id, int field, long start, long end, SampleVisitor visitor) {
+            for (int block = firstBlock(start); block < blocks; block++) {
+                if (buffer.getLong(entryOffset(block)) >= end) {
+                    return;
+                }
+                if (!scanBlock(block, id, field, start, end, visitor)) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        void scanRows(UUID id, long start, long end, double[] values, RowVisitor visitor) {
+            SampleBlockCodec.ValueDecoder[] decoders = new SampleBlockCodec.ValueDecoder[fields];
+            for (int block = firstBlock(start); block < blocks; block++) {
+                int entry = entryOffset(block);
+                if (buffer.getLong(entry) >= end) {
+                    return;
+                }
+
+                SampleBlockCodec.TimestampDecoder timestamps =
+                        new SampleBlockCodec.TimestampDecoder(buffer, buffer.getInt(entry + 2 * Long.BYTES));
+                for (int field = 0; field < fields; field++) {
+                    decoders[field] = new SampleBlockCodec.ValueDecoder(
+                            buffer, buffer.getInt(entry + 2 * Long.BYTES + (1 + field) * Integer.BYTES));
+                }
+
+                for (int i = blockSamples(block); i > 0; i--) {
+                    long timestamp = timestamps.next();
+                    for (int field = 0; field < fields; field++) {
+                        values[field] = decoders[field].next();
+                    }
+                    if (timestamp >= end) {
+                        return;
+                    }
+                    if (timestamp >= start) {
+                        visitor.accept(id, timestamp, values);
+                    }
+                }
+            }
+        }
+
+        @Override
+        long firstTimestampAtOrAfter(long time) {
+            for (int block = firstBlock(time); block < blocks; block++) {
+                int entry = entryOffset(block);
+                if (buffer.getLong(entry + Long.BYTES) < time) {
+                    continue;
+                }
+
+                SampleBlockCodec.TimestampDecoder timestamps =
+                        new SampleBlockCodec.TimestampDecoder(buffer, buffer.getInt(entry + 2 * Long.BYTES));
+                for (int i = blockSamples(block); i > 0; i--) {
+                    long timestamp = timestamps.next();
+                    if (timestamp >= time) {
+                        return timestamp;
+                    }
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        void scanExtremes(UUID id, int field, long start, long end, long bucketOrigin, long bucketMillis,
+                          SampleVisitor visitor) {
+            for (int block = firstBlock(start); block < blocks; block++) {
+                int entry = entryOffset(block);
+                long first = buffer.getLong(entry);
+                long last = buffer.getLong(entry + Long.BYTES);
+                if (first >= end) {
+                    return;
+                }
+
+                if (first >= start && last < end && blockSamples(block) == BLOCK_SAMPLES
+                        && Math.floorDiv(first - bucketOrigin, bucketMillis)
+                                == Math.floorDiv(last - bucketOrigin, bucketMillis)) {
+                    int summary = entry + 2 * Long.BYTES + (1 + fields) * Integer.BYTES + field * BLOCK_FIELD_BYTES;
+                    int blockStart = block * BLOCK_SAMPLES;
+                    int minIndex = buffer.getInt(summary + 2 * Double.BYTES) - blockStart;
+                    int maxIndex = buffer.getInt(summary + 2 * Double.BYTES + Integer.BYTES) - blockStart;
+                    double min = buffer.getDouble(summary);
+                    double max = buffer.getDouble(summary + Double.BYTES);
+
+                    // Only the timestamps up to the later of the two are decoded
+                    SampleBlockCodec.TimestampDecoder timestamps =
+                            new SampleBlockCodec.TimestampDecoder(buffer, buffer.getInt(entry + 2 * Long.BYTES));
+                    long minTimestamp = 0;
+                    long maxTimestamp = 0;
+                    for (int i = 0; i <= Math.max(minIndex, maxIndex); i++) {
+                        long timestamp = timestamps.next();
+                        if (i == minIndex) {
+                            minTimestamp = timestamp;
+                        }
+                        if (i == maxIndex) {
+                            maxTimestamp = timestamp;
+                        }
+                    }
+
+                    if (minIndex == maxIndex) {
+                        visitor.accept(id, minTimestamp, min);
+                    } else if (minIndex < maxIndex) {
+                        visitor.accept(id, minTimestamp, min);
+                        visitor.accept(id, maxTimestamp, max);
+                    } else {
+                        visitor.accept(id, maxTimestamp, max);
+                        visitor.accept(id, minTimestamp, min);
+                    }
+                    continue;
+                }
+
+                if (!scanBlock(block, id, field, start, end, visitor)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Decodes the samples of a block in a range
+         *
+         * @return Whether the end of the range was not reached
+         */
+        private boolean scanBlock(int block, UUID id, int field, long start, long end, SampleVisitor visitor) {
+            int entry = entryOffset(block);
+            SampleBlockCodec.TimestampDecoder timestamps =
+                    new SampleBlockCodec.TimestampDecoder(buffer, buffer.getInt(entry + 2 * Long.BYTES));
+            SampleBlockCodec.ValueDecoder values = new SampleBlockCodec.ValueDecoder(
+                    buffer, buffer.getInt(entry + 2 * Long.BYTES + (1 + field) * Integer.BYTES));
+
+            for (int i = blockSamples(block); i > 0; i--) {
+                long timestamp = timestamps.next();
+                double value = values.next();
+                if (timestamp >= end) {
+                    return false;
+                }
+                if (timestamp >= start) {
+                    visitor.accept(id, timestamp, value);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Finds the last block starting before a time, or the first block
+         */
+        private int firstBlock(long time) {
+            int low = 0;
+            int high = blocks - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (buffer.getLong(entryOffset(middle)) < time) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        private int blockSamples(int block) {
+            return Math.min(BLOCK_SAMPLES, count - block * BLOCK_SAMPLES);
+        }
+
+        private int entryOffset(int block) {
+            return HEADER_BYTES + block * entryBytes;
+        }
+    }
+}
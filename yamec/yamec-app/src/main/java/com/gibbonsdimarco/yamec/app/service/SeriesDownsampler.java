@@ -0,0 +1,293 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+/**
+ * <p>Reduces a series of values, given oldest first, to at most a fixed number of points for a
+ * chart, in one pass.</p>
+ * <p>The range of the series is split into buckets of equal time. With <code>lttb</code>
+ * (Largest-Triangle-Three-Buckets), the first and last values are kept, and from each bucket
+ * between them the value forming the largest triangle with the value kept from the bucket before
+ * and the average of the bucket after. Only the values of the bucket being chosen from and the one
+ * after it are held. With <code>minmax</code>, the smallest and largest value of each bucket are
+ * kept, in constant memory.</p>
+ * <p>Buckets without values are skipped, so a series with gaps has fewer points.</p>
+ */
+public abstract class SeriesDownsampler {
+
+    public static final java.util.List<String> METHODS = java.util.List.of("lttb", "minmax");
+
+    protected final long start;
+    protected final long bucketMillis;
+
+    private long[] outputTimestamps;
+    private double[] outputValues;
+    private int outputSize;
+
+    private SeriesDownsampler(long start, long end, int buckets, int capacity) {
+        this.start = start;
+        this.bucketMillis = Math.max(1, ceilDiv(end - start, buckets));
+        this.outputTimestamps = new long[Math.min(capacity, 64)];
+        this.outputValues = new double[outputTimestamps.length];
+    }
+
+    /**
+     * Creates a downsampler for a series
+     *
+     * @param method lttb or minmax
+     * @param start The start of the range of the series, in milliseconds since the epoch (inclusive)
+     * @param end The end of the range, in milliseconds since the epoch (exclusive)
+     * @param points The maximum number of points to keep, at least 3
+     * @throws IllegalArgumentException If the method is unknown or there are too few points
+     */
+    public static SeriesDownsampler create(String method, long start, long end, int points) {
+        if (points < 3) {
+            throw new IllegalArgumentException("points must be at least 3");
+        }
+        if (end <= start) {
+            throw new IllegalArgumentException("start must be before end");
+        }
+
+        return switch (method) {
+            case "lttb" -> new Lttb(start, end, points);
+            case "minmax" -> new MinMax(start, end, points);
+            default -> throw new IllegalArgumentException("Unknown downsampling method: " + method);
+        };
+    }
+
+    /**
+     * Returns the number of milliseconds each bucket covers for a range and number of points, so
+     * the data read can be chosen by the resolution needed
+     */
+    public static long bucketMillis(String method, long start, long end, int points) {
+        return ceilDiv(end - start, "minmax".equals(method) ? points / 2 : points - 2);
+    }
+
+    /**
+     * Adds the next value of the series. Values must be added oldest first.
+     */
+    public abstract void add(long timestamp, double value);
+
+    /**
+     * Keeps the values of the last buckets once the whole series has been added
+     */
+    public abstract void finish();
+
+    /**
+     * Returns the number of points kept
+     */
+    public int size() {
+        return outputSize;
+    }
+
+    public long timestamp(int point) {
+        return outputTimestamps[point];
+    }
+
+    public double value(int point) {
+        return outputValues[point];
+    }
+
+    protected final long bucket(long timestamp) {
+        return Math.floorDiv(timestamp - start, bucketMillis);
+    }
+
+    protected final void output(long timestamp, double value) {
+        if (outputSize == outputTimestamps.length) {
+            outputTimestamps = java.util.Arrays.copyOf(outputTimestamps, outputSize * 2);
+            outputValues = java.util.Arrays.copyOf(outputValues, outputSize * 2);
+        }
+        outputTimestamps[outputSize] = timestamp;
+        outputValues[outputSize] = value;
+        outputSize++;
+    }
+
+    private static long ceilDiv(long dividend, long divisor) {
+        return -Math.floorDiv(-dividend, divisor);
+    }
+
+    /**
+     * The values of one bucket, in arrays which are reused for later buckets
+     */
+    private static final class Bucket {
+        long index;
+        long[] timestamps = new long[16];
+        double[] values = new double[16];
+        int size;
+        double timestampSum;
+        double valueSum;
+
+        void reset(long index) {
+            this.index = index;
+            size = 0;
+            timestampSum = 0;
+            valueSum = 0;
+        }
+
+        void add(long timestamp, double value) {
+            if (size == timestamps.length) {
+                timestamps = java.util.Arrays.copyOf(timestamps, size * 2);
+                values = java.util.Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+            timestampSum += timestamp;
+            valueSum += value;
+        }
+
+        void removeLast() {
+            size--;
+            timestampSum -= timestamps[size];
+            valueSum -= values[size];
+        }
+    }
+
+    private static final class Lttb extends SeriesDownsampler {
+        // The bucket a value is chosen from once the average of the next one is known
+        private Bucket pending = new Bucket();
+        private Bucket current = new Bucket();
+        private boolean hasPending = false;
+        private boolean started = false;
+
+        // The last value kept
+        private long selectedTimestamp;
+        private double selectedValue;
+
+        Lttb(long start, long end, int points) {
+            super(start, end, points - 2, points);
+        }
+
+        @Override
+        public void add(long timestamp, double value) {
+            if (!started) {
+                started = true;
+                keep(timestamp, value);
+                current.reset(bucket(timestamp));
+                return;
+            }
+
+            long index = bucket(timestamp);
+            if (index != current.index && current.size > 0) {
+                if (hasPending) {
+                    select(pending, current.timestampSum / current.size, current.valueSum / current.size);
+                }
+                Bucket completed = current;
+                current = pending;
+                pending = completed;
+                hasPending = true;
+                current.reset(index);
+            } else if (current.size == 0) {
+                current.index = index;
+            }
+            current.add(timestamp, value);
+        }
+
+        @Override
+        public void finish() {
+            if (!started) {
+                return;
+            }
+
+            // The last value is always kept, so it is not chosen from its bucket
+            if (current.size == 0) {
+                if (hasPending) {
+                    Bucket last = current;
+                    current = pending;
+                    pending = last;
+                    hasPending = false;
+                } else {
+                    return;
+                }
+            }
+            long lastTimestamp = current.timestamps[current.size - 1];
+            double lastValue = current.values[current.size - 1];
+            current.removeLast();
+
+            if (hasPending) {
+                if (current.size > 0) {
+                    select(pending, current.timestampSum / current.size, current.valueSum / current.size);
+                } else {
+                    select(pending, lastTimestamp, lastValue);
+                }
+            }
+            if (current.size > 0) {
+                select(current, lastTimestamp, lastValue);
+            }
+            keep(lastTimestamp, lastValue);
+        }
+
+        /**
+         * Keeps the value of a bucket forming the largest triangle with the last value kept and a
+         * point after the bucket
+         */
+        private void select(Bucket bucket, double nextTimestamp, double nextValue) {
+            int largest = 0;
+            double largestArea = -1;
+            for (int i = 0; i < bucket.size; i++) {
+                // Twice the area, which ranks the same
+                double area = Math.abs((selectedTimestamp - nextTimestamp) * (bucket.values[i] - selectedValue)
+                        - (selectedTimestamp - bucket.timestamps[i]) * (nextValue - selectedValue));
+                if (area > largestArea) {
+                    largestArea = area;
+                    largest = i;
+                }
+            }
+            keep(bucket.timestamps[largest], bucket.values[largest]);
+        }
+
+        private void keep(long timestamp, double value) {
+            selectedTimestamp = timestamp;
+            selectedValue = value;
+            output(timestamp, value);
+        }
+    }
+
+    private static final class MinMax extends SeriesDownsampler {
+        private long index;
+        private boolean empty = true;
+        private long minTimestamp, maxTimestamp;
+        private double minValue, maxValue;
+
+        MinMax(long start, long end, int points) {
+            super(start, end, points / 2, points);
+        }
+
+        @Override
+        public void add(long timestamp, double value) {
+            long bucket = bucket(timestamp);
+            if (!empty && bucket != index) {
+                finish();
+            }
+            if (empty) {
+                empty = false;
+                index = bucket;
+                minTimestamp = maxTimestamp = timestamp;
+                minValue = maxValue = value;
+            } else if (value < minValue) {
+                minTimestamp = timestamp;
+                minValue = value;
+            } else if (value > maxValue) {
+                maxTimestamp = timestamp;
+                maxValue = value;
+            }
+        }
+
+        @Override
+        public void finish() {
+            if (empty) {
+                return;
+            }
+            empty = true;
+
+            // Keep the two values in the order they happened
+            if (minTimestamp == maxTimestamp) {
+                output(minTimestamp, minValue);
+            } else if (minTimestamp < maxTimestamp) {
+                output(minTimestamp, minValue);
+                output(maxTimestamp, maxValue);
+            } else {
+                output(maxTimestamp, maxValue);
+                output(minTimestamp, minValue);
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.model.WindowData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Keeps the last 15 minutes of every metric series (the CPU, the memory, each disk, each NIC
+ * and each application) in memory, so the 1, 5 and 15 minute averages, maximums and minimums can
+ * be read without querying the database.</p>
+ * <p>Each series is a time wheel of one bucket per second for the last 15 minutes, allocated
+ * when the series is first seen. The sum and count of each window are updated as each collection
+ * arrives: the value is added to the current bucket and to the sums of every window, and the
+ * buckets which leave a window as time advances are subtracted from it. Maximums and minimums are
+ * found when read, from the at most 900 buckets of the window.</p>
+ * <p>Every series is advanced to the time of each collection, including the series which have no
+ * value in it. A series with no value left in its longest window (such as an application which
+ * exited 15 minutes ago, or a disk which was removed) is evicted. The number of series is
+ * limited by <code>yamec.windows.max-series</code>; values of new series are ignored while the
+ * limit is reached.</p>
+ * <p>Collections are recorded by the metrics writer thread once they are saved. Reads may
+ * happen on any thread.</p>
+ */
+@Service
+public class SlidingWindowStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlidingWindowStore.class);
+
+    /**
+     * The lengths of the windows in seconds, shortest first
+     */
+    static final int[] WINDOWS = {60, 300, 900};
+
+    private static final String[] WINDOW_NAMES = {"1m", "5m", "15m"};
+
+    // One bucket per second of the longest window
+    private static final int CAPACITY = WINDOWS[WINDOWS.length - 1];
+
+    /**
+     * The types of series and the names of their fields
+     */
+    public enum SeriesType {
+        CPU("cpu", "utilization"),
+        MEMORY("memory", "physicalUsed", "virtualUsed"),
+        DISK("disk", "utilization", "readBandwidth", "writeBandwidth", "timeToTransfer"),
+        NIC("nic", "sendBandwidth", "receiveBandwidth"),
+        APPLICATION("applications", "cpuUsage", "physicalMemoryUsed", "virtualMemoryUsed");
+
+        private final String label;
+        private final String[] fields;
+
+        SeriesType(String label, String... fields) {
+            this.label = label;
+            this.fields = fields;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public int getFieldCount() {
+            return fields.length;
+        }
+
+        /**
+         * Returns the type with a label, or null if there is none
+         */
+        public static SeriesType fromLabel(String label) {
+            for (SeriesType type : values()) {
+                if (type.label.equals(label)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final ConcurrentHashMap<SeriesKey, Series> series = new ConcurrentHashMap<>();
+    private final int maxSeries;
+
+    // Only written by the thread recording collections
+    private long latestSecond = Long.MIN_VALUE;
+    private long ignoredValues;
+
+    @Autowired
+    public SlidingWindowStore(@Value("${yamec.windows.max-series:512}") int maxSeries) {
+        this.maxSeries = maxSeries;
+    }
+
+    /**
+     * Records the values of one collection and advances every series to its time. Collections
+     * older than the newest one recorded are ignored.
+     *
+     * @param tick The values of the collection
+     */
+    public void record(Tick tick) {
+        long second = tick.epochSecond;
+        if (second < latestSecond) {
+            logger.debug("Ignoring metrics collected at {} s, before the latest collection recorded", second);
+            return;
+        }
+        latestSecond = second;
+
+        for (TickValue value : tick.values) {
+            Series valueSeries = series.get(value.key);
+            if (valueSeries == null) {
+                if (series.size() >= maxSeries) {
+                    if (ignoredValues++ % 1000 == 0) {
+                        logger.warn("{} series already have sliding windows - ignoring the values of {}",
+                                maxSeries, value.key);
+                    }
+                    continue;
+                }
+                valueSeries = new Series(value.key, value.name);
+                series.put(value.key, valueSeries);
+            }
+
+            valueSeries.record(second, value.name, value.values);
+        }
+
+        // Series without a value in this collection still move forward, and are evicted once
+        // they have no value left in any window
+        series.values().removeIf(current -> current.advanceAndCheckEmpty(second));
+    }
+
+    /**
+     * Returns the windows of every series of a type, sorted by name
+     *
+     * @param type The type of series, or null for every series
+     */
+    public java.util.List<WindowData> getWindows(SeriesType type) {
+        java.util.List<WindowData> windows = new java.util.ArrayList<>();
+
+        for (Series current : series.values()) {
+            if (type == null || current.key.type == type) {
+                windows.add(current.toWindowData());
+            }
+        }
+
+        windows.sort(java.util.Comparator.comparing(WindowData::getType)
+                .thenComparing(WindowData::getName, java.util.Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER)));
+        return windows;
+    }
+
+    /**
+     * Returns the number of series kept
+     */
+    public int size() {
+        return series.size();
+    }
+
+    /**
+     * The values of the series in one collection
+     */
+    public static final class Tick {
+        private final long collectionTimeMillis;
+        private final long epochSecond;
+        private final java.util.List<TickValue> values = new java.util.ArrayList<>();
+
+        /**
+         * @param collectionTimeMillis The time the values were collected, in milliseconds since
+         *                             the epoch
+         */
+        public Tick(long collectionTimeMillis) {
+            this.collectionTimeMillis = collectionTimeMillis;
+            this.epochSecond = Math.floorDiv(collectionTimeMillis, 1000);
+        }
+
+        /**
+         * Adds the values of a series
+         *
+         * @param type The type of the series
+         * @param id The ID of the device or application
+         * @param name The name of the device or application
+         * @param values The value of each field of the type, in the order of its fields
+         */
+        public Tick add(SeriesType type, UUID id, String name, double... values) {
+            if (values.length != type.fields.length) {
+                throw new IllegalArgumentException("A " + type.label + " series has "
+                        + type.fields.length + " fields");
+            }
+            this.values.add(new TickValue(new SeriesKey(type, id), name, values));
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return values.isEmpty();
+        }
+
+        long getCollectionTimeMillis() {
+            return collectionTimeMillis;
+        }
+
+        java.util.List<TickValue> getValues() {
+            return values;
+        }
+    }
+
+    record TickValue(SeriesKey key, String name, double[] values) {}
+
+    record SeriesKey(SeriesType type, UUID id) {
+        @Override
+        public String toString() {
+            return type.label + "/" + id;
+        }
+    }
+
+    /**
+     * The time wheel of one series
+     */
+    private static final class Series {
+        private final SeriesKey key;
+        private final int fields;
+        private volatile String name;
+
+        // Sum of the values of each field recorded in each second, at [bucket * fields + field]
+        private final double[] sums;
+        // Number of values recorded in each second
+        private final int[] counts;
+
+        // Sum of each field and number of values in each window, at [window * fields + field]
+        private final double[] windowSums;
+        private final long[] windowCounts = new long[WINDOWS.length];
+
+        // The second of the newest bucket, or Long.MIN_VALUE before the first value
+        private long head = Long.MIN_VALUE;
+
+        Series(SeriesKey key, String name) {
+            this.key = key;
+            this.name = name;
+            this.fields = key.type.fields.length;
+            this.sums = new double[CAPACITY * fields];
+            this.counts = new int[CAPACITY];
+            this.windowSums = new double[WINDOWS.length * fields];
+        }
+
+        synchronized void record(long second, String name, double[] values) {
+            advance(second);
+            if (second != head) {
+                return;
+            }
+            if (name != null) {
+                this.name = name;
+            }
+
+            int bucket = bucket(second);
+            counts[bucket]++;
+            for (int field = 0; field < fields; field++) {
+                sums[bucket * fields + field] += values[field];
+            }
+
+            for (int window = 0; window < WINDOWS.length; window++) {
+                windowCounts[window]++;
+                for (int field = 0; field < fields; field++) {
+                    windowSums[window * fields + field] += values[field];
+                }
+            }
+        }
+
+        synchronized boolean advanceAndCheckEmpty(long second) {
+            advance(second);
+            return windowCounts[WINDOWS.length - 1] == 0;
+        }
+
+        /**
+         * Moves the newest bucket forward to a second, removing the buckets which leave each
+         * window from its sums and clearing the buckets reused
+         */
+        private void advance(long second) {
+            if (head == Long.MIN_VALUE || second - head >= CAPACITY) {
+                java.util.Arrays.fill(sums, 0);
+                java.util.Arrays.fill(counts, 0);
+                java.util.Arrays.fill(windowSums, 0);
+                java.util.Arrays.fill(windowCounts, 0);
+                head = second;
+                return;
+            }
+
+            for (long current = head + 1; current <= second; current++) {
+                for (int window = 0; window < WINDOWS.length; window++) {
+                    int leaving = bucket(current - WINDOWS[window]);
+                    if (counts[leaving] == 0) {
+                        continue;
+                    }
+                    windowCounts[window] -= counts[leaving];
+                    for (int field = 0; field < fields; field++) {
+                        // An empty window is reset, so rounding errors of the subtractions don't build up
+                        windowSums[window * fields + field] = windowCounts[window] == 0
+                                ? 0 : windowSums[window * fields + field] - sums[leaving * fields + field];
+                    }
+                }
+
+                // The bucket of the second which just left the longest window is reused
+                int reused = bucket(current);
+                counts[reused] = 0;
+                for (int field = 0; field < fields; field++) {
+                    sums[reused * fields + field] = 0;
+                }
+            }
+
+            if (second > head) {
+                head = second;
+            }
+        }
+
+        synchronized WindowData toWindowData() {
+            java.util.Map<String, WindowData.Window> windows = new java.util.LinkedHashMap<>();
+
+            for (int window = 0; window < WINDOWS.length; window++) {
+                long count = windowCounts[window];
+                java.util.Map<String, WindowData.FieldStatistics> statistics = new java.util.LinkedHashMap<>();
+
+                for (int field = 0; field < fields; field++) {
+                    double max = Double.NEGATIVE_INFINITY;
+                    double min = Double.POSITIVE_INFINITY;
+                    for (long second = head - WINDOWS[window] + 1; second <= head; second++) {
+                        int bucket = bucket(second);
+                        if (counts[bucket] == 0) {
+                            continue;
+                        }
+                        double value = sums[bucket * fields + field] / counts[bucket];
+                        max = Math.max(max, value);
+                        min = Math.min(min, value);
+                    }
+
+                    statistics.put(key.type.fields[field], count == 0
+                            ? new WindowData.FieldStatistics(0, 0, 0)
+                            : new WindowData.FieldStatistics(windowSums[window * fields + field] / count, max, min));
+                }
+
+                windows.put(WINDOW_NAMES[window], new WindowData.Window(WINDOWS[window], count, statistics));
+            }
+
+            return new WindowData(key.type.label, key.id, name, head * 1000, windows);
+        }
+
+        private static int bucket(long second) {
+            return (int) Math.floorMod(second, (long) CAPACITY);
+        }
+    }
+}
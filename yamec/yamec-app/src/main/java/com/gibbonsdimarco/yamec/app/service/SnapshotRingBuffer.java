@@ -0,0 +1,155 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSnapshot;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A bounded single-producer, single-consumer queue of collected snapshots waiting to be saved.</p>
+ * <p>All slots are allocated up front. The sampling thread publishes into the next free slot and
+ * the writer thread reads slots in place, releasing them only once they are saved, so the depth of
+ * the buffer includes the batch currently being written. When the buffer is full, new snapshots are
+ * dropped rather than blocking the sampling thread.</p>
+ */
+public class SnapshotRingBuffer {
+
+    /**
+     * A slot of the ring buffer holding a snapshot and the number of seconds it covers
+     */
+    public static final class Slot {
+        private MetricsSnapshot snapshot;
+        private int duration;
+
+        public MetricsSnapshot getSnapshot() {
+            return snapshot;
+        }
+
+        public int getDuration() {
+            return duration;
+        }
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+
+    // Index of the next slot to publish to (written only by the producer)
+    private final AtomicLong tail = new AtomicLong();
+    // Index of the oldest slot not yet released (written only by the consumer)
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Creates a ring buffer
+     *
+     * @param capacity The number of snapshots the buffer can hold, rounded up to a power of two
+     */
+    public SnapshotRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Ring buffer capacity must be positive");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Publishes a snapshot. Must only be called from the producer thread.
+     *
+     * @param snapshot The snapshot collected
+     * @param duration The number of seconds covered by the snapshot
+     * @return True if the snapshot was published, or false if the buffer is full and it was dropped
+     */
+    public boolean offer(MetricsSnapshot snapshot, int duration) {
+        long currentTail = tail.get();
+        if (currentTail - head.get() >= slots.length) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        Slot slot = slots[(int) (currentTail & mask)];
+        slot.snapshot = snapshot;
+        slot.duration = duration;
+
+        // The volatile write publishes the slot contents to the consumer
+        tail.set(currentTail + 1);
+        published.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Adds up to <code>maxBatchSize</code> of the oldest published slots to a batch without removing
+     * them. Must only be called from the consumer thread, and each batch must be released with
+     * {@link #release(int)} before the next one is taken.
+     *
+     * @param batch The list to add slots to
+     * @param maxBatchSize The maximum number of slots to add
+     * @return The number of slots added
+     */
+    public int peekBatch(java.util.List<Slot> batch, int maxBatchSize) {
+        long currentHead = head.get();
+        int count = (int) Math.min(tail.get() - currentHead, maxBatchSize);
+
+        for (int i = 0; i < count; i++) {
+            batch.add(slots[(int) ((currentHead + i) & mask)]);
+        }
+
+        return count;
+    }
+
+    /**
+     * Frees the oldest <code>count</code> slots so the producer can reuse them.
+     * Must only be called from the consumer thread.
+     */
+    public void release(int count) {
+        long currentHead = head.get();
+        for (int i = 0; i < count; i++) {
+            Slot slot = slots[(int) ((currentHead + i) & mask)];
+            slot.snapshot = null;
+        }
+        head.set(currentHead + count);
+    }
+
+    /**
+     * Returns the collection time in milliseconds of the oldest snapshot not yet released,
+     * or -1 if the buffer is empty
+     */
+    public long oldestCollectionTime() {
+        long currentHead = head.get();
+        if (tail.get() == currentHead) {
+            return -1;
+        }
+
+        MetricsSnapshot snapshot = slots[(int) (currentHead & mask)].snapshot;
+        return snapshot == null ? -1 : snapshot.getCollectionTime().getTime();
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    public int depth() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,247 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+/**
+ * <p>Tracks the keys with the largest total weight in a stream, in memory proportional to a fixed
+ * number of counters rather than to the number of distinct keys (the Space-Saving algorithm).</p>
+ * <p>While there are free counters, each new key gets its own. Once every counter is used, a new
+ * key takes over the counter with the smallest count, keeping that count as its possible error.
+ * The count of a key is therefore never less than its true total, and exceeds it by at most its
+ * error, which is at most the total weight divided by the number of counters. Any key whose total
+ * is larger than that bound is guaranteed to have a counter.</p>
+ * <p>The counters are kept in a min-heap by count, so each weight is added in
+ * <code>O(log capacity)</code> time.</p>
+ * <p>Not thread-safe.</p>
+ *
+ * @param <K> The type of the keys
+ */
+public final class SpaceSavingSketch<K> {
+
+    private final int capacity;
+    private final java.util.HashMap<K, Integer> positions;
+
+    // Min-heap of the counters by count
+    private final Object[] keys;
+    private final double[] counts;
+    private final double[] errors;
+    private int size;
+
+    private double totalWeight;
+
+    /**
+     * @param capacity The number of counters
+     */
+    public SpaceSavingSketch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be greater than 0");
+        }
+
+        this.capacity = capacity;
+        this.positions = new java.util.HashMap<>(capacity * 2);
+        this.keys = new Object[capacity];
+        this.counts = new double[capacity];
+        this.errors = new double[capacity];
+    }
+
+    /**
+     * Adds a weight to the total of a key. Weights which are not positive are ignored.
+     */
+    public void add(K key, double weight) {
+        if (!(weight > 0)) {
+            return;
+        }
+        totalWeight += weight;
+
+        Integer position = positions.get(key);
+        if (position != null) {
+            counts[position] += weight;
+            siftDown(position);
+        } else if (size < capacity) {
+            set(size, key, weight, 0);
+            size++;
+            siftUp(size - 1);
+        } else {
+            // The key takes over the smallest counter, whose count may all belong to other keys
+            positions.remove(keyAt(0));
+            set(0, key, counts[0] + weight, counts[0]);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Adds the counters of another sketch to this one, as if its stream had been added to this
+     * sketch's
+     *
+     * <p>A key without a counter in one of the sketches may still have had up to the smallest
+     * count of that sketch (if it was full), so that count is added to the key's count and error.
+     * The largest counters of the combined keys are kept.</p>
+     *
+     * @param other The sketch to merge, which is left unchanged
+     */
+    public void merge(SpaceSavingSketch<K> other) {
+        if (other.size == 0) {
+            return;
+        }
+
+        double thisMinimum = size < capacity ? 0 : counts[0];
+        double otherMinimum = other.size < other.capacity ? 0 : other.counts[0];
+
+        java.util.List<Counter<K>> combined = new java.util.ArrayList<>(size + other.size);
+        for (int i = 0; i < size; i++) {
+            K key = keyAt(i);
+            Integer otherPosition = other.positions.get(key);
+            combined.add(otherPosition == null
+                    ? new Counter<>(key, counts[i] + otherMinimum, errors[i] + otherMinimum)
+                    : new Counter<>(key, counts[i] + other.counts[otherPosition],
+                                    errors[i] + other.errors[otherPosition]));
+        }
+        for (int i = 0; i < other.size; i++) {
+            K key = other.keyAt(i);
+            if (!positions.containsKey(key)) {
+                combined.add(new Counter<>(key, other.counts[i] + thisMinimum, other.errors[i] + thisMinimum));
+            }
+        }
+
+        combined.sort(java.util.Comparator.comparingDouble(Counter<K>::getCount).reversed());
+
+        positions.clear();
+        size = 0;
+        for (Counter<K> counter : combined) {
+            if (size == capacity) {
+                break;
+            }
+            set(size, counter.getKey(), counter.getCount(), counter.getError());
+            size++;
+            siftUp(size - 1);
+        }
+        java.util.Arrays.fill(keys, size, capacity, null);
+
+        totalWeight += other.totalWeight;
+    }
+
+    /**
+     * Returns the counters with the largest counts, largest first
+     *
+     * @param limit The maximum number of counters returned
+     */
+    public java.util.List<Counter<K>> top(int limit) {
+        java.util.List<Counter<K>> counters = new java.util.ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            counters.add(new Counter<>(keyAt(i), counts[i], errors[i]));
+        }
+
+        counters.sort(java.util.Comparator.comparingDouble(Counter<K>::getCount).reversed());
+        return counters.size() > limit ? counters.subList(0, limit) : counters;
+    }
+
+    /**
+     * Returns whether a key has a counter
+     */
+    public boolean contains(K key) {
+        return positions.containsKey(key);
+    }
+
+    /**
+     * Removes every counter, so the sketch can be reused
+     */
+    public void clear() {
+        positions.clear();
+        java.util.Arrays.fill(keys, 0, size, null);
+        size = 0;
+        totalWeight = 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of counters used
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the sum of every weight added
+     */
+    public double getTotalWeight() {
+        return totalWeight;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K keyAt(int position) {
+        return (K) keys[position];
+    }
+
+    private void set(int position, K key, double count, double error) {
+        keys[position] = key;
+        counts[position] = count;
+        errors[position] = error;
+        positions.put(key, position);
+    }
+
+    private void swap(int first, int second) {
+        K firstKey = keyAt(first);
+        double firstCount = counts[first];
+        double firstError = errors[first];
+        set(first, keyAt(second), counts[second], errors[second]);
+        set(second, firstKey, firstCount, firstError);
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (counts[parent] <= counts[position]) {
+                return;
+            }
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < size && counts[left] < counts[smallest]) {
+                smallest = left;
+            }
+            if (right < size && counts[right] < counts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    /**
+     * The count of a key, which is at least its true total and at most <code>error</code> more
+     */
+    public static final class Counter<K> {
+        private final K key;
+        private final double count;
+        private final double error;
+
+        public Counter(K key, double count, double error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public double getCount() {
+            return count;
+        }
+
+        public double getError() {
+            return error;
+        }
+    }
+}
@@ -4,9 +4,10 @@ import com.gibbonsdimarco.yamec.app.data.*;
 import com.gibbonsdimarco.yamec.app.model.DiskData;
 import com.gibbonsdimarco.yamec.app.model.MetricsData;
 import com.gibbonsdimarco.yamec.app.model.NicData;
-import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.List;
 import java.util.Map;
@@ -21,32 +22,72 @@ public class SystemMetricsAdapter {
     private final MemoryHardwareInformationService memoryService;
     private final DiskHardwareInformationService diskService;
     private final NicHardwareInformationService nicService;
+    private final LatestMetricsCache latestMetricsCache;
+    private final TransactionTemplate transactionTemplate;
 
     @Autowired
     public SystemMetricsAdapter(CpuHardwareInformationService cpuService,
                                 MemoryHardwareInformationService memoryService,
                                 DiskHardwareInformationService diskService,
-                                NicHardwareInformationService nicService) {
+                                NicHardwareInformationService nicService,
+                                LatestMetricsCache latestMetricsCache,
+                                PlatformTransactionManager transactionManager) {
         this.cpuService = cpuService;
         this.memoryService = memoryService;
         this.diskService = diskService;
         this.nicService = nicService;
+        this.latestMetricsCache = latestMetricsCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     /**
      * Converts the real system metrics data to the format expected by the views
+     *
+     * <p>The metrics of the latest collection saved are served from the LatestMetricsCache. The
+     * database is only queried until the first collection after startup has been saved.</p>
+     *
      * @return MetricsData object with current system metrics
      */
-    @Transactional
     public MetricsData getCurrentMetrics() {
-        MetricsData metricsData = new MetricsData();
+        MetricsData cachedMetrics = latestMetricsCache.getSystemMetrics();
+        if (cachedMetrics != null) {
+            return cachedMetrics;
+        }
+
+        return transactionTemplate.execute(status -> getLatestStoredMetrics());
+    }
 
+    private MetricsData getLatestStoredMetrics() {
         // Get the latest metrics from the services
         SystemCpuMetric cpuMetric = cpuService.getLatestMetric();
         SystemMemoryMetric memoryMetric = memoryService.getLatestMetric();
         Map<DiskHardwareInformation, SystemDiskMetric> diskMetrics = diskService.getAllDisksWithLatestMetrics();
         Map<NicHardwareInformation, SystemNicMetric> nicMetrics = nicService.getAllNicsWithLatestMetrics();
 
+        return buildMetricsData(cpuMetric,
+                                memoryMetric,
+                                memoryMetric == null ? null : memoryMetric.getMemory(),
+                                diskMetrics,
+                                nicMetrics);
+    }
+
+    /**
+     * Converts system metrics to the format expected by the views
+     *
+     * @param cpuMetric The CPU metric, or null if there is none
+     * @param memoryMetric The memory metric, or null if there is none
+     * @param memoryInfo The memory the memory metric was collected from
+     * @param diskMetrics The metric of each disk
+     * @param nicMetrics The metric of each NIC
+     * @return MetricsData object with the metrics passed by parameter
+     */
+    public MetricsData buildMetricsData(SystemCpuMetric cpuMetric,
+                                        SystemMemoryMetric memoryMetric,
+                                        MemoryHardwareInformation memoryInfo,
+                                        Map<DiskHardwareInformation, SystemDiskMetric> diskMetrics,
+                                        Map<NicHardwareInformation, SystemNicMetric> nicMetrics) {
+        MetricsData metricsData = new MetricsData();
+
         // Set CPU usage
         if (cpuMetric != null) {
             metricsData.setCpuUsage(cpuMetric.getAverageUtilization());
@@ -54,8 +95,6 @@ public class SystemMetricsAdapter {
 
         // Set memory metric
         if (memoryMetric != null) {
-            MemoryHardwareInformation memoryInfo = memoryMetric.getMemory();
-
             if (memoryInfo != null) {
                 metricsData.setTotalMemory(memoryInfo.getCapacity());
                 metricsData.setUsedMemory(memoryMetric.getAveragePhysicalUtilization());
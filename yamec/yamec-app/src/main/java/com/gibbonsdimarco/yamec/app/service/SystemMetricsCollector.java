@@ -1,55 +1,88 @@
 package com.gibbonsdimarco.yamec.app.service;
 
 import com.gibbonsdimarco.yamec.app.data.*;
-import com.gibbonsdimarco.yamec.app.jni.SystemMonitorManagerJNI;
+import com.gibbonsdimarco.yamec.app.model.PipelineStatistics;
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSnapshot;
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.PessimisticLockingFailureException;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Service responsible for collecting system metrics at regular intervals
  * and saving them to the database
+ *
+ * <p>Collection and persistence run on separate threads. The scheduled task only collects a
+ * snapshot and publishes it to a bounded queue, and a dedicated writer thread drains the queue in
+ * batches. If the writer falls behind far enough to fill the queue, new snapshots are dropped.</p>
  */
 @Service
 public class SystemMetricsCollector {
     private static final Logger logger = LoggerFactory.getLogger(SystemMetricsCollector.class);
 
     // Services
-    private final ApplicationDataService applicationDataService;
+    private final MetricsPersistenceService metricsPersistenceService;
     private final CpuHardwareInformationService cpuHardwareService;
     private final MemoryHardwareInformationService memoryHardwareService;
     private final DiskHardwareInformationService diskHardwareService;
     private final NicHardwareInformationService nicHardwareService;
+    private final PipelineTimings pipelineTimings;
 
-    private final SystemMonitorManagerJNI monitor;
+    private final MetricsSource monitor;
     private CpuHardwareInformation cpuInfo;
     private MemoryHardwareInformation memoryInfo;
     private java.util.List<DiskHardwareInformation> diskInfo;
     private java.util.List<NicHardwareInformation> nicInfo;
 
+    private static final long COLLECTION_PERIOD_MILLIS = 1000L;
+
+    // Persistence stage
+    private static final int QUEUE_CAPACITY = 64;
+    private static final int MAX_BATCH_SIZE = 16;
+    private static final long WRITER_IDLE_NANOS = 500_000_000L;
+    private static final long WRITER_SHUTDOWN_TIMEOUT_MILLIS = 10_000L;
+    private static final int MAX_LOCK_ATTEMPTS = 5;
+    private static final long LOCK_RETRY_NANOS = 200_000_000L;
+
+    private final SnapshotRingBuffer snapshotQueue = new SnapshotRingBuffer(QUEUE_CAPACITY);
+    private final AtomicLong persistedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile Thread writerThread;
+    private volatile boolean running = true;
+    private volatile int lastBatchSize;
+    private volatile long lastBatchMillis;
+    private final int ticksPerTransaction;
+
     @Autowired
     public SystemMetricsCollector(
-            ApplicationDataService applicationDataService,
+            MetricsPersistenceService metricsPersistenceService,
             CpuHardwareInformationService cpuHardwareService,
             MemoryHardwareInformationService memoryHardwareService,
             DiskHardwareInformationService diskHardwareService,
             NicHardwareInformationService nicHardwareService,
-            SystemMonitorManagerJNI monitor) {
-        this.applicationDataService = applicationDataService;
+            MetricsSource monitor,
+            PipelineTimings pipelineTimings,
+            @Value("${yamec.persistence.ticks-per-transaction:1}") int ticksPerTransaction) {
+        this.metricsPersistenceService = metricsPersistenceService;
         this.cpuHardwareService = cpuHardwareService;
         this.memoryHardwareService = memoryHardwareService;
         this.diskHardwareService = diskHardwareService;
         this.nicHardwareService = nicHardwareService;
 
         this.monitor = monitor;
+        this.pipelineTimings = pipelineTimings;
+        this.ticksPerTransaction = Math.max(1, Math.min(ticksPerTransaction, MAX_BATCH_SIZE));
     }
 
     @PostConstruct
@@ -58,12 +91,15 @@ public class SystemMetricsCollector {
         try {
             // Don't create a new monitor instance, use the injected one
             if (monitor == null) {
-                logger.warn("No SystemMonitorManagerJNI instance available - metrics collection will be disabled");
+                logger.warn("No MetricsSource instance available - metrics collection will be disabled");
                 return;
             }
 
             updateHardwareInformation();
 
+            writerThread = new Thread(this::writeQueuedSnapshots, "metrics-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
 
         } catch (Exception e) {
             logger.error("Failed to initialize SystemMetricsCollector", e);
@@ -109,89 +145,168 @@ public class SystemMetricsCollector {
 
 
     /**
-     * Scheduled task that runs every 10 seconds to collect the latest system metrics
-     * and save them to the database
+     * Scheduled task that runs every second to collect the latest system metrics and publish them
+     * to the persistence queue. Saving is done by the writer thread, so a slow database does not
+     * delay the next collection.
+     * <p>The time the collection takes and how late it started are recorded in the
+     * PipelineTimings.</p>
      */
-    @Scheduled(fixedRate = 1000) // Run every 1 second
+    @Scheduled(fixedRate = COLLECTION_PERIOD_MILLIS) // Run every 1 second
     public void collectAndSaveMetrics() {
         if (monitor == null) {
-            logger.debug("SystemMonitorManagerJNI not available - skipping metrics collection");
+            logger.debug("MetricsSource not available - skipping metrics collection");
             return;
         }
 
+        long collectionStart = System.nanoTime();
+        pipelineTimings.recordCollectionStart(collectionStart, COLLECTION_PERIOD_MILLIS * 1_000_000L);
         try {
             logger.debug("Collecting system metrics...");
             long lastCollectionTime = monitor.getLastCollectionTime().getTime();
 
-            ArrayList<SystemCpuMetric> cpuMetrics = new ArrayList<>();
-            ArrayList<SystemMemoryMetric> memoryMetrics = new ArrayList<>();
-
             // Data collection point
-            monitor.collectCounterData();
-            ArrayList<ProcessMetric> processMetrics = monitor.getProcessMetrics();
-            SystemCpuMetric cpuMetric = monitor.getCpuMetrics();
-            SystemMemoryMetric memoryMetric = monitor.getMemoryMetrics();
-            ArrayList<SystemDiskMetric> diskMetrics = monitor.getDiskMetrics();
-            ArrayList<SystemNicMetric> nicMetrics = monitor.getNicMetrics();
-            Timestamp now = new Timestamp(System.currentTimeMillis());
+            MetricsSnapshot snapshot = monitor.collectSnapshot();
+            if (snapshot == null) {
+                logger.warn("Metrics snapshot could not be collected - skipping this collection");
+                return;
+            }
 
             // Calculate duration in seconds
-            int duration = (int)((now.getTime() - lastCollectionTime) / 1000);
+            int duration = (int)((snapshot.getCollectionTime().getTime() - lastCollectionTime) / 1000);
 
             // Avoid divide by zero error
             if (duration == 0) {
                 duration = 1;
             }
 
-            // Set timestamps on all metrics
-            if (processMetrics != null) {
-                for (ProcessMetric processMetric : processMetrics) {
-                    processMetric.setTimestamp(now);
-                }
-                applicationDataService.saveApplicationMetrics(processMetrics, now, duration);
+            if (!snapshotQueue.offer(snapshot, duration)) {
+                logger.warn("Metrics persistence queue is full - dropping the snapshot collected at {}",
+                        snapshot.getCollectionTime());
+                return;
             }
 
-            if (diskMetrics != null) {
-                for (SystemDiskMetric diskMetric : diskMetrics) {
-                    diskMetric.setTimestamp(now);
-                }
-                diskHardwareService.saveDiskMetrics(diskMetrics, now, duration, diskInfo);
+            Thread writer = writerThread;
+            if (writer != null) {
+                LockSupport.unpark(writer);
             }
+            logger.debug("System metrics collected and queued successfully");
 
-            if (nicMetrics != null) {
-                for (SystemNicMetric nicMetric : nicMetrics) {
-                    nicMetric.setTimestamp(now);
-                }
-                nicHardwareService.saveNicMetrics(nicMetrics, now, duration, nicInfo);
+        } catch (Exception e) {
+            logger.error("Failed to collect metrics", e);
+        } finally {
+            pipelineTimings.recordSince(PipelineTimings.Stage.COLLECTION, collectionStart);
+        }
+    }
+
+    /**
+     * Runs on the writer thread, saving queued snapshots in batches until the collector is stopped
+     * and the queue is empty. Each batch is saved in one transaction, and a batch is only taken once
+     * <code>ticksPerTransaction</code> snapshots are queued (or the oldest has waited that many
+     * seconds), so there is at most one commit per <code>ticksPerTransaction</code> collections.
+     */
+    private void writeQueuedSnapshots() {
+        java.util.List<SnapshotRingBuffer.Slot> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+        while (running || !snapshotQueue.isEmpty()) {
+            if (running && !isBatchReady()) {
+                // Woken up by the sampling thread when a snapshot is published
+                LockSupport.parkNanos(this, WRITER_IDLE_NANOS);
+                continue;
             }
 
-            if (cpuMetric != null) {
-                cpuMetric.setTimestamp(now);
-                if (cpuInfo != null) {
-                    cpuMetric.setCpu(cpuInfo);
-                    cpuMetrics.add(cpuMetric);
-                    cpuHardwareService.saveCpuMetrics(cpuMetrics, now, duration);
-                }
+            int count = snapshotQueue.peekBatch(batch, MAX_BATCH_SIZE);
+            if (count == 0) {
+                continue;
             }
 
-            if (memoryMetric != null) {
-                memoryMetric.setTimestamp(now);
-                if (memoryInfo != null) {
-                    memoryMetric.setMemory(memoryInfo);
-                    memoryMetrics.add(memoryMetric);
-                    memoryHardwareService.saveMemoryMetrics(memoryMetrics, now, duration);
-                }
+            long batchStart = System.nanoTime();
+            long batchStartMillis = System.currentTimeMillis();
+            for (SnapshotRingBuffer.Slot slot : batch) {
+                long queuedMillis = batchStartMillis - slot.getSnapshot().getCollectionTime().getTime();
+                pipelineTimings.record(PipelineTimings.Stage.QUEUE_WAIT, queuedMillis * 1_000_000L);
+            }
 
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    metricsPersistenceService.saveSnapshots(batch, cpuInfo, memoryInfo, diskInfo, nicInfo);
+                    persistedCount.addAndGet(count);
+                    break;
+                } catch (PessimisticLockingFailureException e) {
+                    // Another connection (such as the retention job) holds the SQLite write lock,
+                    // and the transaction was rolled back, so the whole batch can be tried again
+                    if (attempt < MAX_LOCK_ATTEMPTS) {
+                        logger.debug("Database was locked while saving metrics - retrying (attempt {})", attempt);
+                        LockSupport.parkNanos(LOCK_RETRY_NANOS);
+                        continue;
+                    }
+                    failedCount.addAndGet(count);
+                    logger.error("Failed to save the metrics of {} collections starting at {} after {} attempts",
+                            count, batch.getFirst().getSnapshot().getCollectionTime(), attempt, e);
+                    break;
+                } catch (Exception e) {
+                    failedCount.addAndGet(count);
+                    logger.error("Failed to save the metrics of {} collections starting at {}",
+                            count, batch.getFirst().getSnapshot().getCollectionTime(), e);
+                    break;
+                }
             }
-            logger.debug("System metrics collected and saved successfully");
+            long batchNanos = System.nanoTime() - batchStart;
+            pipelineTimings.record(PipelineTimings.Stage.SAVE_BATCH, batchNanos);
+            lastBatchMillis = batchNanos / 1_000_000;
+            lastBatchSize = count;
 
-        } catch (Exception e) {
-            logger.error("Failed to collect and save metrics", e);
+            batch.clear();
+            snapshotQueue.release(count);
+        }
+    }
+
+    private boolean isBatchReady() {
+        if (snapshotQueue.depth() >= ticksPerTransaction) {
+            return true;
         }
+
+        long oldestCollectionTime = snapshotQueue.oldestCollectionTime();
+        return oldestCollectionTime >= 0
+                && System.currentTimeMillis() - oldestCollectionTime >= ticksPerTransaction * 1000L;
+    }
+
+    /**
+     * Returns counters describing the persistence queue and writer thread
+     */
+    public PipelineStatistics getPipelineStatistics() {
+        long oldestCollectionTime = snapshotQueue.oldestCollectionTime();
+        long writerLag = oldestCollectionTime < 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldestCollectionTime);
+
+        return new PipelineStatistics(snapshotQueue.depth(),
+                                      snapshotQueue.capacity(),
+                                      snapshotQueue.getPublishedCount(),
+                                      snapshotQueue.getDroppedCount(),
+                                      persistedCount.get(),
+                                      failedCount.get(),
+                                      lastBatchSize,
+                                      lastBatchMillis,
+                                      writerLag);
     }
 
     @PreDestroy
     public void cleanup() {
         logger.info("SystemMetricsCollector cleanup - monitor will be closed by Spring context");
+
+        // Let the writer save what is already queued before the context shuts down
+        running = false;
+        Thread writer = writerThread;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+            try {
+                writer.join(WRITER_SHUTDOWN_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (writer.isAlive()) {
+                logger.warn("Metrics writer did not finish within {} ms - {} snapshots were not saved",
+                        WRITER_SHUTDOWN_TIMEOUT_MILLIS, snapshotQueue.depth());
+            }
+        }
     }
 }
\ No newline at end of file
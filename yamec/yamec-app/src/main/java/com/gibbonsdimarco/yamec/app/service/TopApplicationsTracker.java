@@ -0,0 +1,182 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.data.ApplicationMetric;
+import com.gibbonsdimarco.yamec.app.model.TopApplicationsData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.UUID;
+
+/**
+ * <p>Tracks the applications using the most CPU, physical memory and virtual memory over the last
+ * 1, 5 and 15 minutes, in memory bounded by the number of counters rather than by the number of
+ * applications.</p>
+ * <p>For each resource, the use of each application in each second is added to a
+ * SpaceSavingSketch of the current minute. The sketches of the last 15 minutes are kept in a
+ * ring, and the top applications of a window are read from the merged sketches of the minutes
+ * it covers: the current minute and the ones before it. Averages are over the seconds collected
+ * in those minutes. An application's estimated average may exceed its true average by at most
+ * its <code>maxError</code>, which is at most the average total use of all applications divided
+ * by the number of counters.</p>
+ * <p>Collections are recorded by the metrics writer thread once they are saved. Reads may
+ * happen on any thread.</p>
+ */
+@Service
+public class TopApplicationsTracker {
+
+    /**
+     * The resources applications are ranked by
+     */
+    public static final java.util.List<String> METRICS = java.util.List.of("cpu", "physicalMemory", "virtualMemory");
+
+    private static final int CPU = 0, PHYSICAL_MEMORY = 1, VIRTUAL_MEMORY = 2;
+
+    /**
+     * The windows which can be read, by name, with their number of minutes
+     */
+    private static final java.util.Map<String, Integer> WINDOWS = java.util.Map.of("1m", 1, "5m", 5, "15m", 15);
+
+    private static final int MINUTES = 15;
+
+    private final int capacity;
+
+    // sketches[metric][minute % MINUTES]
+    private final SpaceSavingSketch<UUID>[][] sketches;
+    // The minute each slot of the ring holds, and the number of seconds collected in it
+    private final long[] slotMinutes = new long[MINUTES];
+    private final int[] slotSeconds = new int[MINUTES];
+
+    // Names of the applications which may have a counter
+    private final java.util.HashMap<UUID, String> names = new java.util.HashMap<>();
+
+    private long currentMinute = Long.MIN_VALUE;
+
+    @Autowired
+    @SuppressWarnings("unchecked")
+    public TopApplicationsTracker(@Value("${yamec.applications.top-counters:64}") int capacity) {
+        this.capacity = capacity;
+        this.sketches = (SpaceSavingSketch<UUID>[][]) new SpaceSavingSketch<?>[METRICS.size()][MINUTES];
+        for (SpaceSavingSketch<UUID>[] metricSketches : sketches) {
+            for (int slot = 0; slot < MINUTES; slot++) {
+                metricSketches[slot] = new SpaceSavingSketch<>(capacity);
+            }
+        }
+        java.util.Arrays.fill(slotMinutes, Long.MIN_VALUE);
+    }
+
+    /**
+     * Records the application metrics of one collection. Collections older than the current
+     * minute are ignored.
+     *
+     * @param collectionTimeMillis The time of the collection, in milliseconds since the epoch
+     * @param applicationMetrics The metric of each application in the collection, each with its
+     *                           application name set
+     */
+    public synchronized void record(long collectionTimeMillis, java.util.List<ApplicationMetric> applicationMetrics) {
+        long minute = Math.floorDiv(collectionTimeMillis, 60_000L);
+        if (minute < currentMinute) {
+            return;
+        }
+        if (minute > currentMinute) {
+            startMinute(minute);
+        }
+
+        int slot = slot(minute);
+        slotSeconds[slot]++;
+
+        if (applicationMetrics == null) {
+            return;
+        }
+
+        for (ApplicationMetric metric : applicationMetrics) {
+            UUID applicationId = metric.getApplication().getId();
+            int duration = metric.getDuration() == null ? 1 : metric.getDuration();
+
+            // Totals over the seconds covered by the metric
+            sketches[CPU][slot].add(applicationId, metric.getAvgCpuUsage() * duration);
+            sketches[PHYSICAL_MEMORY][slot].add(applicationId, (double) metric.getAvgPhysicalMemoryUsed() * duration);
+            sketches[VIRTUAL_MEMORY][slot].add(applicationId, (double) metric.getAvgVirtualMemoryUsed() * duration);
+
+            if (metric.getApplicationName() != null) {
+                names.put(applicationId, metric.getApplicationName());
+            }
+        }
+    }
+
+    /**
+     * Returns the applications using the most of a resource on average over a window
+     *
+     * @param metric cpu, physicalMemory or virtualMemory
+     * @param window 1m, 5m or 15m
+     * @param limit The maximum number of applications returned, up to the number of counters
+     * @throws IllegalArgumentException If the metric or window is unknown
+     */
+    public synchronized TopApplicationsData getTopApplications(String metric, String window, int limit) {
+        int metricIndex = METRICS.indexOf(metric);
+        Integer minutes = WINDOWS.get(window);
+        if (metricIndex < 0) {
+            throw new IllegalArgumentException("Unknown metric: " + metric);
+        }
+        if (minutes == null) {
+            throw new IllegalArgumentException("Unknown window: " + window);
+        }
+
+        SpaceSavingSketch<UUID> merged = new SpaceSavingSketch<>(capacity);
+        long seconds = 0;
+        for (long minute = currentMinute - minutes + 1; minute <= currentMinute; minute++) {
+            int slot = slot(minute);
+            if (slotMinutes[slot] != minute) {
+                continue;
+            }
+            merged.merge(sketches[metricIndex][slot]);
+            seconds += slotSeconds[slot];
+        }
+
+        java.util.List<TopApplicationsData.TopApplication> applications = new java.util.ArrayList<>();
+        if (seconds > 0) {
+            for (SpaceSavingSketch.Counter<UUID> counter : merged.top(Math.max(0, limit))) {
+                applications.add(new TopApplicationsData.TopApplication(counter.getKey(),
+                        names.get(counter.getKey()),
+                        counter.getCount() / seconds,
+                        counter.getError() / seconds));
+            }
+        }
+
+        return new TopApplicationsData(metric, window, seconds, applications);
+    }
+
+    /**
+     * Clears the slots of the ring reused by a new minute, and forgets the names of applications
+     * which no longer have a counter
+     */
+    private void startMinute(long minute) {
+        long firstReused = currentMinute == Long.MIN_VALUE ? minute : Math.max(currentMinute + 1, minute - MINUTES + 1);
+        for (long reused = firstReused; reused <= minute; reused++) {
+            int slot = slot(reused);
+            for (SpaceSavingSketch<UUID>[] metricSketches : sketches) {
+                metricSketches[slot].clear();
+            }
+            slotMinutes[slot] = reused;
+            slotSeconds[slot] = 0;
+        }
+        currentMinute = minute;
+
+        names.keySet().removeIf(applicationId -> !hasCounter(applicationId));
+    }
+
+    private boolean hasCounter(UUID applicationId) {
+        for (SpaceSavingSketch<UUID>[] metricSketches : sketches) {
+            for (SpaceSavingSketch<UUID> sketch : metricSketches) {
+                if (sketch.contains(applicationId)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int slot(long minute) {
+        return (int) Math.floorMod(minute, (long) MINUTES);
+    }
+}
@@ -150,14 +150,103 @@ function fetchApplicationMetrics() {
         });
 }
 
+// Show the applications using the most of a resource, as returned by /api/applications/top
+function updateTopApplications(elementId, top, format) {
+    const list = document.getElementById(elementId);
+    list.innerHTML = '';
+
+    top.applications.forEach(app => {
+        const item = document.createElement('div');
+        item.className = 'metric';
+
+        const name = document.createElement('div');
+        name.className = 'metric-label';
+        name.textContent = app.applicationName;
+
+        const value = document.createElement('div');
+        value.className = 'metric-value';
+        value.textContent = format(app.average);
+
+        item.appendChild(name);
+        item.appendChild(value);
+        list.appendChild(item);
+    });
+}
+
+// Fetch the top applications by CPU and physical memory over the last 5 minutes
+function fetchTopApplications() {
+    fetch('/api/applications/top?metric=cpu&window=5m&limit=5')
+        .then(response => response.json())
+        .then(data => updateTopApplications('top-cpu', data, formatPercentage))
+        .catch(error => console.error('Error fetching top applications:', error));
+
+    fetch('/api/applications/top?metric=physicalMemory&window=5m&limit=5')
+        .then(response => response.json())
+        .then(data => updateTopApplications('top-physical-memory', data, formatBytes))
+        .catch(error => console.error('Error fetching top applications:', error));
+}
+
+// Apply a JSON merge patch (RFC 7396) to a document and return the patched document
+function applyMergePatch(target, patch) {
+    if (patch === null || typeof patch !== 'object' || Array.isArray(patch)) {
+        return patch;
+    }
+    if (target === null || typeof target !== 'object' || Array.isArray(target)) {
+        target = {};
+    }
+    Object.keys(patch).forEach(key => {
+        if (patch[key] === null) {
+            delete target[key];
+        } else {
+            target[key] = applyMergePatch(target[key], patch[key]);
+        }
+    });
+    return target;
+}
+
+// The streamed document keys applications by ID, so sort them as /api/applications does
+// (highest average CPU usage first)
+function toApplicationList(metrics) {
+    return Object.values(metrics.applications || {})
+        .sort((a, b) => b.avgCpuUsage - a.avgCpuUsage);
+}
+
+// Receive a snapshot of the application metrics, then patches of the applications which changed
+function streamApplicationMetrics() {
+    let latest = null;
+    const source = new EventSource('/api/stream/applications');
+
+    source.addEventListener('snapshot', event => {
+        latest = JSON.parse(event.data);
+        updateApplicationList(toApplicationList(latest));
+    });
+
+    source.addEventListener('patch', event => {
+        if (latest !== null) {
+            latest = applyMergePatch(latest, JSON.parse(event.data));
+            updateApplicationList(toApplicationList(latest));
+        }
+    });
+
+    source.onerror = function() {
+        // The browser reconnects by itself, and the server starts again with a snapshot
+        console.error('Application metrics stream interrupted, reconnecting');
+    };
+}
+
 // Initialize the dashboard
 document.addEventListener('DOMContentLoaded', function() {
     // Mark this as the initial load
     window.initialLoad = true;
 
-    // Initial fetch
-    fetchApplicationMetrics();
+    // The top applications change slowly, so they are refreshed every 5 seconds
+    setInterval(fetchTopApplications, 5000);
 
-    // Set up periodic updates (every second)
-    setInterval(fetchApplicationMetrics, 1000);
+    if (window.EventSource) {
+        streamApplicationMetrics();
+    } else {
+        // Fall back to polling (every second)
+        fetchApplicationMetrics();
+        setInterval(fetchApplicationMetrics, 1000);
+    }
 });
@@ -174,6 +174,32 @@ function updateDashboard(metrics) {
     document.getElementById('last-updated').textContent = new Date().toLocaleTimeString();
 }
 
+// Apply a JSON merge patch (RFC 7396) to a document and return the patched document
+function applyMergePatch(target, patch) {
+    if (patch === null || typeof patch !== 'object' || Array.isArray(patch)) {
+        return patch;
+    }
+    if (target === null || typeof target !== 'object' || Array.isArray(target)) {
+        target = {};
+    }
+    Object.keys(patch).forEach(key => {
+        if (patch[key] === null) {
+            delete target[key];
+        } else {
+            target[key] = applyMergePatch(target[key], patch[key]);
+        }
+    });
+    return target;
+}
+
+// The streamed document keys disks and NICs by device ID, while the dashboard expects arrays
+function toMetricsData(metrics) {
+    return Object.assign({}, metrics, {
+        disks: Object.values(metrics.disks || {}),
+        nics: Object.values(metrics.nics || {})
+    });
+}
+
 // Fetch metrics data from the API
 function fetchMetrics() {
     fetch('/api/metrics')
@@ -186,11 +212,36 @@ function fetchMetrics() {
         });
 }
 
+// Receive a snapshot of the metrics, then patches of the fields which changed, from the server
+function streamMetrics() {
+    let latest = null;
+    const source = new EventSource('/api/stream/metrics');
+
+    source.addEventListener('snapshot', event => {
+        latest = JSON.parse(event.data);
+        updateDashboard(toMetricsData(latest));
+    });
+
+    source.addEventListener('patch', event => {
+        if (latest !== null) {
+            latest = applyMergePatch(latest, JSON.parse(event.data));
+            updateDashboard(toMetricsData(latest));
+        }
+    });
+
+    source.onerror = function() {
+        // The browser reconnects by itself, and the server starts again with a snapshot
+        console.error('Metrics stream interrupted, reconnecting');
+    };
+}
+
 // Initialize the dashboard
 document.addEventListener('DOMContentLoaded', function() {
-    // Initial fetch
-    fetchMetrics();
-
-    // Set up periodic updates (every second)
-    setInterval(fetchMetrics, 1000);
-}); 
+    if (window.EventSource) {
+        streamMetrics();
+    } else {
+        // Fall back to polling (every second)
+        fetchMetrics();
+        setInterval(fetchMetrics, 1000);
+    }
+});
@@ -0,0 +1,335 @@
+package com.gibbonsdimarco.yamec.app.benchmark;
+
+import com.gibbonsdimarco.yamec.app.config.Granularity;
+import com.gibbonsdimarco.yamec.app.data.DiskHardwareInformation;
+import com.gibbonsdimarco.yamec.app.data.NicHardwareInformation;
+import com.gibbonsdimarco.yamec.app.data.SystemDiskMetric;
+import com.gibbonsdimarco.yamec.app.data.SystemNicMetric;
+import com.gibbonsdimarco.yamec.app.repository.DiskHardwareInformationRepository;
+import com.gibbonsdimarco.yamec.app.repository.GranularityRepository;
+import com.gibbonsdimarco.yamec.app.repository.NicHardwareInformationRepository;
+import com.gibbonsdimarco.yamec.app.service.DiskHardwareInformationService;
+import com.gibbonsdimarco.yamec.app.service.GranularityIdCache;
+import com.gibbonsdimarco.yamec.app.service.NicHardwareInformationService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * <p>Measures the aggregation of one hour of one second metrics from 64 disks and 32 NICs into one
+ * metric per device, as done when rolling metrics up.</p>
+ * <p>The <code>disks</code> and <code>nics</code> benchmarks call the metric services, which use
+ * MetricAggregator. The <code>*BoxedMaps</code> benchmarks run the previous implementation, which
+ * kept a HashMap of boxed values per field and a list of device IDs, for comparison.</p>
+ * <p>Run with the <code>main</code> method from the test classpath.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MetricAggregationBenchmark {
+
+    private static final int DISKS = 64;
+    private static final int NICS = 32;
+    private static final int DURATION = 3600;
+
+    private final Timestamp startTime = new Timestamp(1_700_000_000_000L);
+
+    private List<SystemDiskMetric> diskMetrics;
+    private List<SystemNicMetric> nicMetrics;
+    private DiskHardwareInformationService diskService;
+    private NicHardwareInformationService nicService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+
+        List<DiskHardwareInformation> disks = new ArrayList<>();
+        for (int i = 0; i < DISKS; i++) {
+            DiskHardwareInformation disk = new DiskHardwareInformation("Disk " + i, "disk-" + i, i, 4,
+                    1L << 40, false, new ArrayList<>());
+            disk.setId(UUID.randomUUID());
+            disks.add(disk);
+        }
+
+        List<NicHardwareInformation> nics = new ArrayList<>();
+        for (int i = 0; i < NICS; i++) {
+            NicHardwareInformation nic = new NicHardwareInformation("NIC " + i, "nic" + i, "nic-" + i, 6);
+            nic.setId(UUID.randomUUID());
+            nics.add(nic);
+        }
+
+        // Metrics arrive one second at a time, with every device in each second
+        diskMetrics = new ArrayList<>(DISKS * DURATION);
+        nicMetrics = new ArrayList<>(NICS * DURATION);
+        for (int second = 0; second < DURATION; second++) {
+            Timestamp timestamp = new Timestamp(startTime.getTime() + second * 1000L);
+
+            for (DiskHardwareInformation disk : disks) {
+                SystemDiskMetric metric = new SystemDiskMetric(disk.getFriendlyName(),
+                        random.nextDouble() * 100, random.nextLong(1L << 30), random.nextLong(1L << 30),
+                        random.nextDouble(), false, false);
+                metric.setTimestamp(timestamp);
+                metric.setDisk(disk);
+                diskMetrics.add(metric);
+            }
+
+            for (NicHardwareInformation nic : nics) {
+                SystemNicMetric metric = new SystemNicMetric(nic.getFriendlyName(), 1_000_000_000L,
+                        random.nextLong(1L << 27), random.nextLong(1L << 27), false, false, false);
+                metric.setTimestamp(timestamp);
+                metric.setNic(nic);
+                nicMetrics.add(metric);
+            }
+        }
+
+        GranularityRepository granularityRepository = mock(GranularityRepository.class);
+        when(granularityRepository.getByLabel(any())).thenReturn(new Granularity("LOW"));
+        DiskHardwareInformationRepository diskRepository = mock(DiskHardwareInformationRepository.class);
+        NicHardwareInformationRepository nicRepository = mock(NicHardwareInformationRepository.class);
+
+        diskService = new DiskHardwareInformationService(null, diskRepository, new GranularityIdCache(granularityRepository), null, null);
+        nicService = new NicHardwareInformationService(null, nicRepository, new GranularityIdCache(granularityRepository), null, null);
+    }
+
+    @Benchmark
+    public void disks(Blackhole blackhole) {
+        blackhole.consume(diskService.aggregateDiskMetrics(diskMetrics, startTime, DURATION, "LOW"));
+    }
+
+    @Benchmark
+    public void nics(Blackhole blackhole) {
+        blackhole.consume(nicService.aggregateNicMetrics(nicMetrics, startTime, DURATION, "LOW"));
+    }
+
+    @Benchmark
+    public void disksBoxedMaps(Blackhole blackhole) {
+        blackhole.consume(aggregateDisksWithBoxedMaps(diskMetrics, startTime, DURATION));
+    }
+
+    @Benchmark
+    public void nicsBoxedMaps(Blackhole blackhole) {
+        blackhole.consume(aggregateNicsWithBoxedMaps(nicMetrics, startTime, DURATION));
+    }
+
+    /**
+     * The previous aggregation of disk metrics, returning the aggregated values of each disk
+     */
+    private static List<Object[]> aggregateDisksWithBoxedMaps(List<SystemDiskMetric> diskMetrics,
+                                                               Timestamp startTime,
+                                                               int duration) {
+        long startTimeAsLong = startTime.getTime();
+
+        List<UUID> recordedDiskIds = new ArrayList<>();
+        HashMap<UUID, Integer> numValidDiskMetrics = new HashMap<>();
+        HashMap<UUID, double[]> utilizationTotalMap = new HashMap<>();
+        HashMap<UUID, Double> utilizationMaxMap = new HashMap<>();
+        HashMap<UUID, Double> utilizationMinMap = new HashMap<>();
+        HashMap<UUID, long[]> readBandwidthTotalMap = new HashMap<>();
+        HashMap<UUID, Long> readBandwidthMaxMap = new HashMap<>();
+        HashMap<UUID, Long> readBandwidthMinMap = new HashMap<>();
+        HashMap<UUID, Boolean> readBandwidthUnsignedMap = new HashMap<>();
+        HashMap<UUID, long[]> writeBandwidthTotalMap = new HashMap<>();
+        HashMap<UUID, Long> writeBandwidthMaxMap = new HashMap<>();
+        HashMap<UUID, Long> writeBandwidthMinMap = new HashMap<>();
+        HashMap<UUID, Boolean> writeBandwidthUnsignedMap = new HashMap<>();
+        HashMap<UUID, double[]> timeToTransferTotalMap = new HashMap<>();
+        HashMap<UUID, Double> timeToTransferMaxMap = new HashMap<>();
+        HashMap<UUID, Double> timeToTransferMinMap = new HashMap<>();
+
+        for (SystemDiskMetric currentMetric : diskMetrics) {
+            UUID diskId = currentMetric.getDisk().getId();
+            int secondsSinceStartTime = (int) ((currentMetric.getTimestamp().getTime() - startTimeAsLong) / 1000);
+            if (secondsSinceStartTime > duration - 1) {
+                continue;
+            }
+
+            if (!recordedDiskIds.contains(diskId)) {
+                recordedDiskIds.add(diskId);
+                numValidDiskMetrics.put(diskId, 0);
+                utilizationTotalMap.put(diskId, new double[duration]);
+                utilizationMaxMap.put(diskId, Double.MIN_VALUE);
+                utilizationMinMap.put(diskId, Double.MAX_VALUE);
+                readBandwidthTotalMap.put(diskId, new long[duration]);
+                readBandwidthMaxMap.put(diskId, Long.MIN_VALUE);
+                readBandwidthMinMap.put(diskId, Long.MAX_VALUE);
+                writeBandwidthTotalMap.put(diskId, new long[duration]);
+                writeBandwidthMaxMap.put(diskId, Long.MIN_VALUE);
+                writeBandwidthMinMap.put(diskId, Long.MAX_VALUE);
+                timeToTransferTotalMap.put(diskId, new double[duration]);
+                timeToTransferMaxMap.put(diskId, Double.MIN_VALUE);
+                timeToTransferMinMap.put(diskId, Double.MAX_VALUE);
+                readBandwidthUnsignedMap.put(diskId, false);
+                writeBandwidthUnsignedMap.put(diskId, false);
+            }
+
+            numValidDiskMetrics.put(diskId, numValidDiskMetrics.get(diskId) + 1);
+
+            utilizationTotalMap.get(diskId)[secondsSinceStartTime] = currentMetric.getAvgUtilization();
+            if (utilizationMaxMap.get(diskId) < currentMetric.getMaxUtilization()) {
+                utilizationMaxMap.put(diskId, currentMetric.getMaxUtilization());
+            }
+            if (utilizationMinMap.get(diskId) > currentMetric.getMinUtilization()) {
+                utilizationMinMap.put(diskId, currentMetric.getMinUtilization());
+            }
+            readBandwidthTotalMap.get(diskId)[secondsSinceStartTime] = currentMetric.getAvgReadBandwidth();
+            if (readBandwidthMaxMap.get(diskId) < currentMetric.getMaxReadBandwidth()) {
+                readBandwidthMaxMap.put(diskId, currentMetric.getMaxReadBandwidth());
+            }
+            if (readBandwidthMinMap.get(diskId) > currentMetric.getMinReadBandwidth()) {
+                readBandwidthMinMap.put(diskId, currentMetric.getMinReadBandwidth());
+            }
+            writeBandwidthTotalMap.get(diskId)[secondsSinceStartTime] = currentMetric.getAvgWriteBandwidth();
+            if (writeBandwidthMaxMap.get(diskId) < currentMetric.getMaxWriteBandwidth()) {
+                writeBandwidthMaxMap.put(diskId, currentMetric.getMaxWriteBandwidth());
+            }
+            if (writeBandwidthMinMap.get(diskId) > currentMetric.getMinWriteBandwidth()) {
+                writeBandwidthMinMap.put(diskId, currentMetric.getMinWriteBandwidth());
+            }
+            timeToTransferTotalMap.get(diskId)[secondsSinceStartTime] = currentMetric.getAvgTimeToTransfer();
+            if (timeToTransferMaxMap.get(diskId) < currentMetric.getMaxTimeToTransfer()) {
+                timeToTransferMaxMap.put(diskId, currentMetric.getMaxTimeToTransfer());
+            }
+            if (timeToTransferMinMap.get(diskId) > currentMetric.getMinTimeToTransfer()) {
+                timeToTransferMinMap.put(diskId, currentMetric.getMinTimeToTransfer());
+            }
+            if (currentMetric.isReadBandwidthUnsigned()) {
+                readBandwidthUnsignedMap.put(diskId, true);
+            }
+            if (currentMetric.isWriteBandwidthUnsigned()) {
+                writeBandwidthUnsignedMap.put(diskId, true);
+            }
+        }
+
+        List<Object[]> results = new ArrayList<>();
+        for (UUID diskId : recordedDiskIds) {
+            double averageUtilization = 0;
+            long averageReadBandwidth = 0;
+            long averageWriteBandwidth = 0;
+            double averageTimeToTransfer = 0;
+            int countMetrics = numValidDiskMetrics.get(diskId);
+
+            for (int secondNum = 0; secondNum < duration; secondNum++) {
+                averageUtilization += utilizationTotalMap.get(diskId)[secondNum];
+                averageReadBandwidth += readBandwidthTotalMap.get(diskId)[secondNum];
+                averageWriteBandwidth += writeBandwidthTotalMap.get(diskId)[secondNum];
+                averageTimeToTransfer += timeToTransferTotalMap.get(diskId)[secondNum];
+            }
+
+            results.add(new Object[] {diskId,
+                    averageUtilization / countMetrics, utilizationMaxMap.get(diskId), utilizationMinMap.get(diskId),
+                    averageReadBandwidth / countMetrics, readBandwidthMaxMap.get(diskId), readBandwidthMinMap.get(diskId),
+                    averageWriteBandwidth / countMetrics, writeBandwidthMaxMap.get(diskId), writeBandwidthMinMap.get(diskId),
+                    averageTimeToTransfer / countMetrics, timeToTransferMaxMap.get(diskId), timeToTransferMinMap.get(diskId),
+                    readBandwidthUnsignedMap.get(diskId), writeBandwidthUnsignedMap.get(diskId)});
+        }
+        return results;
+    }
+
+    /**
+     * The previous aggregation of NIC metrics, returning the aggregated values of each NIC
+     */
+    private static List<Object[]> aggregateNicsWithBoxedMaps(List<SystemNicMetric> nicMetrics,
+                                                              Timestamp startTime,
+                                                              int duration) {
+        long startTimeAsLong = startTime.getTime();
+
+        List<UUID> recordedNicIds = new ArrayList<>();
+        HashMap<UUID, Integer> numValidNicMetrics = new HashMap<>();
+        HashMap<UUID, long[]> sendBandwidthTotalMap = new HashMap<>();
+        HashMap<UUID, Long> sendBandwidthMaxMap = new HashMap<>();
+        HashMap<UUID, Long> sendBandwidthMinMap = new HashMap<>();
+        HashMap<UUID, Boolean> sendBandwidthUnsignedMap = new HashMap<>();
+        HashMap<UUID, long[]> receiveBandwidthTotalMap = new HashMap<>();
+        HashMap<UUID, Long> receiveBandwidthMaxMap = new HashMap<>();
+        HashMap<UUID, Long> receiveBandwidthMinMap = new HashMap<>();
+        HashMap<UUID, Boolean> receiveBandwidthUnsignedMap = new HashMap<>();
+
+        for (SystemNicMetric currentMetric : nicMetrics) {
+            UUID nicId = currentMetric.getNic().getId();
+            int secondsSinceStartTime = (int) ((currentMetric.getTimestamp().getTime() - startTimeAsLong) / 1000);
+            if (secondsSinceStartTime > duration - 1) {
+                continue;
+            }
+
+            if (!recordedNicIds.contains(nicId)) {
+                recordedNicIds.add(nicId);
+                numValidNicMetrics.put(nicId, 0);
+                sendBandwidthTotalMap.put(nicId, new long[duration]);
+                sendBandwidthMaxMap.put(nicId, Long.MIN_VALUE);
+                sendBandwidthMinMap.put(nicId, Long.MAX_VALUE);
+                receiveBandwidthTotalMap.put(nicId, new long[duration]);
+                receiveBandwidthMaxMap.put(nicId, Long.MIN_VALUE);
+                receiveBandwidthMinMap.put(nicId, Long.MAX_VALUE);
+                sendBandwidthUnsignedMap.put(nicId, false);
+                receiveBandwidthUnsignedMap.put(nicId, false);
+            }
+
+            numValidNicMetrics.put(nicId, numValidNicMetrics.get(nicId) + 1);
+
+            sendBandwidthTotalMap.get(nicId)[secondsSinceStartTime] = currentMetric.getAvgSendBandwidth();
+            if (sendBandwidthMaxMap.get(nicId) < currentMetric.getMaxSendBandwidth()) {
+                sendBandwidthMaxMap.put(nicId, currentMetric.getMaxSendBandwidth());
+            }
+            if (sendBandwidthMinMap.get(nicId) > currentMetric.getMinSendBandwidth()) {
+                sendBandwidthMinMap.put(nicId, currentMetric.getMinSendBandwidth());
+            }
+            receiveBandwidthTotalMap.get(nicId)[secondsSinceStartTime] = currentMetric.getAvgReceiveBandwidth();
+            if (receiveBandwidthMaxMap.get(nicId) < currentMetric.getMaxReceiveBandwidth()) {
+                receiveBandwidthMaxMap.put(nicId, currentMetric.getMaxReceiveBandwidth());
+            }
+            if (receiveBandwidthMinMap.get(nicId) > currentMetric.getMinReceiveBandwidth()) {
+                receiveBandwidthMinMap.put(nicId, currentMetric.getMinReceiveBandwidth());
+            }
+            if (currentMetric.isSendBandwidthUnsigned()) {
+                sendBandwidthUnsignedMap.put(nicId, true);
+            }
+            if (currentMetric.isReceiveBandwidthUnsigned()) {
+                receiveBandwidthUnsignedMap.put(nicId, true);
+            }
+        }
+
+        List<Object[]> results = new ArrayList<>();
+        for (UUID nicId : recordedNicIds) {
+            long averageSendBandwidth = 0;
+            long averageReceiveBandwidth = 0;
+            int countMetrics = numValidNicMetrics.get(nicId);
+
+            for (int secondNum = 0; secondNum < duration; secondNum++) {
+                averageSendBandwidth += sendBandwidthTotalMap.get(nicId)[secondNum];
+                averageReceiveBandwidth += receiveBandwidthTotalMap.get(nicId)[secondNum];
+            }
+
+            results.add(new Object[] {nicId,
+                    averageSendBandwidth / countMetrics, sendBandwidthMaxMap.get(nicId), sendBandwidthMinMap.get(nicId),
+                    averageReceiveBandwidth / countMetrics, receiveBandwidthMaxMap.get(nicId), receiveBandwidthMinMap.get(nicId),
+                    sendBandwidthUnsignedMap.get(nicId), receiveBandwidthUnsignedMap.get(nicId)});
+        }
+        return results;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MetricAggregationBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,202 @@
+package com.gibbonsdimarco.yamec.app.benchmark;
+
+import com.gibbonsdimarco.yamec.app.service.MetricTableMigration;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Compares the application metrics table keyed on a random UUID (a rowid table with an index
+ * on its primary key and indexes on <code>timestamp</code> and <code>application_id</code>) with
+ * the same table once the MetricTableMigration has keyed it on
+ * <code>(series_id, timestamp)</code>.</p>
+ * <p>Both tables are filled one collection at a time, as the collector does, and the size of the
+ * database per row is printed at the end of each trial. The benchmarks measure saving a
+ * collection, reading every metric of a five minute range, and reading the same range for one
+ * application (by its application_id, or by its series).</p>
+ * <p>Run with the <code>main</code> method from the test classpath.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class MetricTableLayoutBenchmark {
+
+    // Applications saved per collection for a typical desktop, and collections already saved
+    private static final int APPLICATIONS = 150;
+    private static final int INITIAL_COLLECTIONS = 2400;
+    private static final long SCAN_RANGE_MILLIS = 300_000;
+
+    @Param({"uuid", "series"})
+    public String layout;
+
+    private Path databaseFile;
+    private Connection connection;
+    private byte[][] applicationIds;
+    private long timestamp;
+    private long scanStart;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        databaseFile = Files.createTempFile("yamec-layout", ".sqlite");
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + databaseFile);
+
+        try (Connection setup = dataSource.getConnection();
+             Statement statement = setup.createStatement()) {
+            // As created by Hibernate before the metrics were keyed on their series
+            statement.execute("CREATE TABLE application_metrics (id blob not null, avg_cpu_usage float,"
+                    + " avg_physical_memory_used bigint, avg_virtual_memory_used bigint, duration integer not null,"
+                    + " max_cpu_usage float, max_physical_memory_used bigint, max_virtual_memory_used bigint,"
+                    + " min_cpu_usage float, min_physical_memory_used bigint, min_virtual_memory_used bigint,"
+                    + " timestamp timestamp not null, application_id blob not null, granularity_id blob,"
+                    + " primary key (id))");
+            statement.execute("CREATE INDEX idx_application_metrics_timestamp on application_metrics (timestamp)");
+            statement.execute("CREATE INDEX idx_application_metrics_application on application_metrics (application_id)");
+        }
+        if ("series".equals(layout)) {
+            MetricTableMigration migration = new MetricTableMigration(new JdbcTemplate(dataSource), 5000, 0, 200);
+            migration.convertTables();
+            migration.copyLegacyMetrics();
+        }
+
+        connection = dataSource.getConnection();
+        applicationIds = new byte[APPLICATIONS][];
+        for (int i = 0; i < APPLICATIONS; i++) {
+            applicationIds[i] = uuid();
+        }
+        for (int i = 0; i < INITIAL_COLLECTIONS; i++) {
+            saveCollection(timestamp += 1000);
+        }
+        scanStart = timestamp / 2;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT (SELECT COUNT(*) FROM application_metrics),"
+                     + " (SELECT page_count FROM pragma_page_count()) * (SELECT page_size FROM pragma_page_size())")) {
+            rs.next();
+            System.out.printf("%n%s layout: %d rows in %d KiB, %.1f bytes per row%n",
+                    layout, rs.getLong(1), rs.getLong(2) / 1024, (double) rs.getLong(2) / rs.getLong(1));
+        }
+        connection.close();
+        Files.deleteIfExists(databaseFile);
+    }
+
+    @Benchmark
+    public void saveCollection() throws SQLException {
+        saveCollection(timestamp += 1000);
+    }
+
+    @Benchmark
+    public void scanRange(Blackhole blackhole) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT application_id, avg_cpu_usage, avg_physical_memory_used FROM application_metrics"
+                        + " WHERE timestamp >= ? AND timestamp < ?")) {
+            query.setLong(1, scanStart);
+            query.setLong(2, scanStart + SCAN_RANGE_MILLIS);
+            try (ResultSet rs = query.executeQuery()) {
+                while (rs.next()) {
+                    blackhole.consume(rs.getDouble(2));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void scanApplicationRange(Blackhole blackhole) throws SQLException {
+        boolean series = "series".equals(layout);
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT avg_cpu_usage, avg_physical_memory_used FROM application_metrics WHERE "
+                        + (series ? "series_id" : "application_id") + " = ? AND timestamp >= ? AND timestamp < ?")) {
+            if (series) {
+                query.setLong(1, APPLICATIONS / 2 + 1);
+            } else {
+                query.setBytes(1, applicationIds[APPLICATIONS / 2]);
+            }
+            query.setLong(2, scanStart);
+            query.setLong(3, scanStart + SCAN_RANGE_MILLIS);
+            try (ResultSet rs = query.executeQuery()) {
+                while (rs.next()) {
+                    blackhole.consume(rs.getDouble(1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the metrics of every application for one collection in one transaction. The first
+     * column is the random id, or the series of the application.
+     */
+    private void saveCollection(long now) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO application_metrics VALUES (?, ?, ?, ?, 1, ?, ?, ?, ?, ?, ?, ?, ?, NULL)")) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < APPLICATIONS; i++) {
+                if ("series".equals(layout)) {
+                    insert.setLong(1, i + 1);
+                } else {
+                    insert.setBytes(1, uuid());
+                }
+                insert.setDouble(2, random.nextDouble(100));
+                insert.setLong(3, random.nextLong(1_000_000_000L));
+                insert.setLong(4, random.nextLong(1_000_000_000L));
+                insert.setDouble(5, random.nextDouble(100));
+                insert.setLong(6, random.nextLong(1_000_000_000L));
+                insert.setLong(7, random.nextLong(1_000_000_000L));
+                insert.setDouble(8, random.nextDouble(100));
+                insert.setLong(9, random.nextLong(1_000_000_000L));
+                insert.setLong(10, random.nextLong(1_000_000_000L));
+                insert.setLong(11, now);
+                insert.setBytes(12, applicationIds[i]);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static byte[] uuid() {
+        java.util.UUID uuid = java.util.UUID.randomUUID();
+        byte[] bytes = new byte[16];
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (most >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (least >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MetricTableLayoutBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,238 @@
+package com.gibbonsdimarco.yamec.app.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures how many metric rows per second can be written to SQLite when one collection is
+ * saved with one transaction per metric type (as the <code>save*Metrics</code> methods of the
+ * metric services do), with one transaction for the whole collection, and with one transaction
+ * for ten collections (as MetricsPersistenceService does).</p>
+ * <p>Rows are inserted with batched JDBC statements into tables shaped like the metric tables.
+ * Every commit of a rollback-journal SQLite database is synced to disk, so the <code>commits</code>
+ * counter is also the number of fsyncs per second. The database is created in the temporary
+ * directory, which should be on the same kind of disk the application runs on for the results to
+ * be meaningful.</p>
+ * <p>Run with the <code>main</code> method from the test classpath.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PersistenceBatchingBenchmark {
+
+    // Rows written per collection for a typical desktop
+    private static final int APPLICATIONS = 150;
+    private static final int DISKS = 2;
+    private static final int NICS = 3;
+    private static final int TICKS_PER_TRANSACTION = 10;
+
+    private Path databaseFile;
+    private Connection connection;
+    private PreparedStatement applicationInsert;
+    private PreparedStatement cpuInsert;
+    private PreparedStatement memoryInsert;
+    private PreparedStatement diskInsert;
+    private PreparedStatement nicInsert;
+    private long timestamp;
+
+    /**
+     * Rows and commits written, reported by JMH per second
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long rows;
+        public long commits;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        databaseFile = Files.createTempFile("yamec-batching", ".sqlite");
+        connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE application_metrics (id BLOB PRIMARY KEY, application_id BLOB,"
+                    + " timestamp INTEGER, duration INTEGER, avg_cpu_usage REAL, avg_physical_memory_used INTEGER,"
+                    + " avg_virtual_memory_used INTEGER, max_cpu_usage REAL, max_physical_memory_used INTEGER,"
+                    + " max_virtual_memory_used INTEGER, min_cpu_usage REAL, min_physical_memory_used INTEGER,"
+                    + " min_virtual_memory_used INTEGER)");
+            statement.execute("CREATE TABLE system_cpu_metrics (id BLOB PRIMARY KEY, cpu_id BLOB,"
+                    + " timestamp INTEGER, duration INTEGER, avg_usage REAL, max_usage REAL, min_usage REAL)");
+            statement.execute("CREATE TABLE system_memory_metrics (id BLOB PRIMARY KEY, memory_id BLOB,"
+                    + " timestamp INTEGER, duration INTEGER, avg_physical_used INTEGER, avg_virtual_used INTEGER,"
+                    + " max_physical_used INTEGER, max_virtual_used INTEGER)");
+            statement.execute("CREATE TABLE system_disk_metrics (id BLOB PRIMARY KEY, disk_id BLOB,"
+                    + " timestamp INTEGER, duration INTEGER, avg_utilization REAL, avg_read_bandwidth INTEGER,"
+                    + " avg_write_bandwidth INTEGER, avg_time_to_transfer REAL)");
+            statement.execute("CREATE TABLE system_nic_metrics (id BLOB PRIMARY KEY, nic_id BLOB,"
+                    + " timestamp INTEGER, duration INTEGER, avg_send_bandwidth INTEGER,"
+                    + " avg_receive_bandwidth INTEGER, operating_bandwidth INTEGER)");
+            statement.execute("CREATE INDEX idx_application_metrics_timestamp ON application_metrics (timestamp)");
+        }
+
+        connection.setAutoCommit(false);
+        applicationInsert = connection.prepareStatement(
+                "INSERT INTO application_metrics VALUES (?, ?, ?, 1, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        cpuInsert = connection.prepareStatement("INSERT INTO system_cpu_metrics VALUES (?, ?, ?, 1, ?, ?, ?)");
+        memoryInsert = connection.prepareStatement(
+                "INSERT INTO system_memory_metrics VALUES (?, ?, ?, 1, ?, ?, ?, ?)");
+        diskInsert = connection.prepareStatement("INSERT INTO system_disk_metrics VALUES (?, ?, ?, 1, ?, ?, ?, ?)");
+        nicInsert = connection.prepareStatement("INSERT INTO system_nic_metrics VALUES (?, ?, ?, 1, ?, ?, ?)");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException, IOException {
+        connection.close();
+        Files.deleteIfExists(databaseFile);
+    }
+
+    @Benchmark
+    public void transactionPerMetricType(Counters counters) throws SQLException {
+        long now = timestamp += 1000;
+        counters.rows += addApplicationRows(now);
+        commit(applicationInsert, counters);
+        counters.rows += addCpuRow(now);
+        commit(cpuInsert, counters);
+        counters.rows += addMemoryRow(now);
+        commit(memoryInsert, counters);
+        counters.rows += addDiskRows(now);
+        commit(diskInsert, counters);
+        counters.rows += addNicRows(now);
+        commit(nicInsert, counters);
+    }
+
+    @Benchmark
+    public void transactionPerCollection(Counters counters) throws SQLException {
+        counters.rows += addCollection(timestamp += 1000);
+        executeAll();
+        connection.commit();
+        counters.commits++;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS_PER_TRANSACTION)
+    public void transactionPerTenCollections(Counters counters) throws SQLException {
+        for (int i = 0; i < TICKS_PER_TRANSACTION; i++) {
+            counters.rows += addCollection(timestamp += 1000);
+        }
+        executeAll();
+        connection.commit();
+        counters.commits++;
+    }
+
+    private void commit(PreparedStatement insert, Counters counters) throws SQLException {
+        insert.executeBatch();
+        connection.commit();
+        counters.commits++;
+    }
+
+    private void executeAll() throws SQLException {
+        applicationInsert.executeBatch();
+        cpuInsert.executeBatch();
+        memoryInsert.executeBatch();
+        diskInsert.executeBatch();
+        nicInsert.executeBatch();
+    }
+
+    private int addCollection(long now) throws SQLException {
+        return addApplicationRows(now) + addCpuRow(now) + addMemoryRow(now) + addDiskRows(now) + addNicRows(now);
+    }
+
+    private int addApplicationRows(long now) throws SQLException {
+        for (int i = 0; i < APPLICATIONS; i++) {
+            applicationInsert.setBytes(1, uuid());
+            applicationInsert.setBytes(2, uuid());
+            applicationInsert.setLong(3, now);
+            for (int column = 4; column <= 12; column++) {
+                applicationInsert.setLong(column, column * 1024L + i);
+            }
+            applicationInsert.addBatch();
+        }
+        return APPLICATIONS;
+    }
+
+    private int addCpuRow(long now) throws SQLException {
+        cpuInsert.setBytes(1, uuid());
+        cpuInsert.setBytes(2, uuid());
+        cpuInsert.setLong(3, now);
+        cpuInsert.setDouble(4, 12.5);
+        cpuInsert.setDouble(5, 12.5);
+        cpuInsert.setDouble(6, 12.5);
+        cpuInsert.addBatch();
+        return 1;
+    }
+
+    private int addMemoryRow(long now) throws SQLException {
+        memoryInsert.setBytes(1, uuid());
+        memoryInsert.setBytes(2, uuid());
+        memoryInsert.setLong(3, now);
+        for (int column = 4; column <= 7; column++) {
+            memoryInsert.setLong(column, column * 1_000_000L);
+        }
+        memoryInsert.addBatch();
+        return 1;
+    }
+
+    private int addDiskRows(long now) throws SQLException {
+        for (int i = 0; i < DISKS; i++) {
+            diskInsert.setBytes(1, uuid());
+            diskInsert.setBytes(2, uuid());
+            diskInsert.setLong(3, now);
+            diskInsert.setDouble(4, 3.5);
+            diskInsert.setLong(5, 1_000_000L);
+            diskInsert.setLong(6, 2_000_000L);
+            diskInsert.setDouble(7, 0.001);
+            diskInsert.addBatch();
+        }
+        return DISKS;
+    }
+
+    private int addNicRows(long now) throws SQLException {
+        for (int i = 0; i < NICS; i++) {
+            nicInsert.setBytes(1, uuid());
+            nicInsert.setBytes(2, uuid());
+            nicInsert.setLong(3, now);
+            nicInsert.setLong(4, 8_000L);
+            nicInsert.setLong(5, 16_000L);
+            nicInsert.setLong(6, 1_000_000_000L);
+            nicInsert.addBatch();
+        }
+        return NICS;
+    }
+
+    private static byte[] uuid() {
+        UUID uuid = UUID.randomUUID();
+        byte[] bytes = new byte[16];
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (most >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (least >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PersistenceBatchingBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,84 @@
+package com.gibbonsdimarco.yamec.app.benchmark;
+
+import com.gibbonsdimarco.yamec.app.model.ApplicationMetricsData;
+import com.gibbonsdimarco.yamec.app.model.DiskData;
+import com.gibbonsdimarco.yamec.app.model.MetricsData;
+import com.gibbonsdimarco.yamec.app.model.NicData;
+import com.gibbonsdimarco.yamec.app.service.LatestMetricsCache;
+import com.gibbonsdimarco.yamec.app.service.PrometheusExporter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures a Prometheus scrape of a collection with 4 disks, 4 NICs and 2000 applications, as
+ * rendered by the PrometheusExporter into a stream which discards it.</p>
+ * <p>Run with the <code>main</code> method from the test classpath.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PrometheusExporterBenchmark {
+
+    private static final int APPLICATIONS = 2000;
+
+    private PrometheusExporter exporter;
+    private final OutputStream discard = OutputStream.nullOutputStream();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+
+        MetricsData system = new MetricsData();
+        system.setCpuUsage(37.5);
+        system.setTotalMemory(32L << 30);
+        system.setUsedMemory(12L << 30);
+        system.setFreeMemory(20L << 30);
+        for (int i = 0; i < 4; i++) {
+            system.addDisk(new DiskData(UUID.randomUUID(), "Disk " + i, i, List.of("/mnt/" + i), "SSD", 1L << 40,
+                    random.nextDouble() * 100, 100, 0, random.nextInt(1 << 30), 0, 0, random.nextInt(1 << 30), 0, 0,
+                    random.nextDouble() / 100, 0, 0));
+            system.addNic(new NicData(UUID.randomUUID(), "eth" + i, "eth" + i, "Ethernet",
+                    random.nextInt(1 << 30), random.nextInt(1 << 30), 0, 0, 0, 0));
+        }
+
+        ApplicationMetricsData.ApplicationMetricsDataList applications = new ApplicationMetricsData.ApplicationMetricsDataList();
+        for (int i = 0; i < APPLICATIONS; i++) {
+            long memory = random.nextInt(1 << 20) * 1024L;
+            double cpuUsage = random.nextDouble() * 10;
+            applications.addApplication(new ApplicationMetricsData(UUID.randomUUID(), "process-" + i + ".exe",
+                    cpuUsage, memory, memory * 4, cpuUsage, memory, memory * 4, cpuUsage, memory, memory * 4));
+        }
+
+        LatestMetricsCache cache = new LatestMetricsCache();
+        cache.publish(new Timestamp(System.currentTimeMillis()), system, applications);
+        exporter = new PrometheusExporter(cache);
+    }
+
+    @Benchmark
+    public PrometheusExporter scrape() throws IOException {
+        exporter.writeTo(discard);
+        return exporter;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PrometheusExporterBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,139 @@
+package com.gibbonsdimarco.yamec.app.benchmark;
+
+import com.gibbonsdimarco.yamec.app.service.QuantileSketch;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Compares estimating the p50, p95 and p99 of a device metric with QuantileSketch to sorting
+ * every value, over one day of one second values.</p>
+ * <p><code>exactSort</code> copies and sorts the 86400 values, as a range query over the one
+ * second metrics would. <code>sketchAdd</code> builds a sketch from the same values, and
+ * <code>sketchMerge</code> merges the 288 encoded five minute sketches a rolled up day is made of,
+ * as the percentile queries do. The relative error of the sketch against the exact percentiles is
+ * printed by <code>main</code> before the benchmarks run.</p>
+ * <p>Run with the <code>main</code> method from the test classpath.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class QuantileSketchBenchmark {
+
+    private static final int SECONDS = 86_400;
+    private static final int WINDOW = 300;
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private double[] values;
+    private byte[][] windowSketches;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        values = values(new Random(42));
+
+        windowSketches = new byte[SECONDS / WINDOW][];
+        for (int window = 0; window < windowSketches.length; window++) {
+            QuantileSketch sketch = new QuantileSketch();
+            for (int second = window * WINDOW; second < (window + 1) * WINDOW; second++) {
+                sketch.add(values[second]);
+            }
+            windowSketches[window] = sketch.toBytes();
+        }
+    }
+
+    /**
+     * Utilization-like values: mostly low, with bursts
+     */
+    private static double[] values(Random random) {
+        double[] values = new double[SECONDS];
+        for (int second = 0; second < SECONDS; second++) {
+            double base = 5 + 3 * Math.sin(second / 3600.0);
+            values[second] = random.nextInt(50) == 0
+                    ? 60 + random.nextDouble() * 40
+                    : Math.max(0, base + random.nextGaussian() * 2);
+        }
+        return values;
+    }
+
+    @Benchmark
+    public double exactSort() {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        double total = 0;
+        for (double quantile : QUANTILES) {
+            total += sorted[(int) Math.floor(quantile * (sorted.length - 1))];
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double sketchAdd() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (double value : values) {
+            sketch.add(value);
+        }
+
+        double total = 0;
+        for (double quantile : QUANTILES) {
+            total += sketch.quantile(quantile);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double sketchMerge() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (byte[] windowSketch : windowSketches) {
+            sketch.merge(windowSketch);
+        }
+
+        double total = 0;
+        for (double quantile : QUANTILES) {
+            total += sketch.quantile(quantile);
+        }
+        return total;
+    }
+
+    private static void printAccuracy() {
+        QuantileSketchBenchmark benchmark = new QuantileSketchBenchmark();
+        benchmark.setUp();
+
+        double[] sorted = benchmark.values.clone();
+        Arrays.sort(sorted);
+        QuantileSketch sketch = new QuantileSketch();
+        int sketchBytes = 0;
+        for (byte[] windowSketch : benchmark.windowSketches) {
+            sketch.merge(windowSketch);
+            sketchBytes += windowSketch.length;
+        }
+
+        System.out.printf("%d five minute sketches, %.1f bytes each on average%n",
+                benchmark.windowSketches.length, (double) sketchBytes / benchmark.windowSketches.length);
+        for (double quantile : QUANTILES) {
+            double exact = sorted[(int) Math.floor(quantile * (sorted.length - 1))];
+            double estimate = sketch.quantile(quantile);
+            System.out.printf("q=%.2f exact=%.4f sketch=%.4f relative error=%.4f%%%n",
+                    quantile, exact, estimate, Math.abs(estimate - exact) / exact * 100);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        printAccuracy();
+
+        Options options = new OptionsBuilder()
+                .include(QuantileSketchBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+}
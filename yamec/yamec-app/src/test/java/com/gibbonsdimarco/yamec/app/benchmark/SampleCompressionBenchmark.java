@@ -0,0 +1,175 @@
+package com.gibbonsdimarco.yamec.app.benchmark;
+
+import com.gibbonsdimarco.yamec.app.service.SampleSegmentStore;
+import com.gibbonsdimarco.yamec.app.service.SlidingWindowStore;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>Measures how well the SampleSegmentStore compresses the samples of a recorded capture, and
+ * how fast they are decoded.</p>
+ * <p>The capture in <code>{@value #CAPTURE}</code> was recorded by the collector on a Linux
+ * desktop: about 27 minutes of one second collections of a CPU, the memory, two disks, three
+ * NICs and the applications it was running, exported from the segments of the
+ * SampleSegmentStore. Each line is the time of a collection in milliseconds since the start of
+ * the capture, the type of a series, the index of the series among the series of its type and
+ * the values of its fields. The capture is replayed into a new store at the start of each trial,
+ * and the size of the segment files is printed and compared with the size of the timestamps and
+ * values themselves.</p>
+ * <p>The benchmarks read the CPU usage (XOR encoded once compressed) and the physical memory
+ * (varint deltas) of every application in the capture, from the segments as they are written or
+ * once they are compressed.</p>
+ * <p>Run with the <code>main</code> method from the test classpath.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = "-Xmx1g")
+public class SampleCompressionBenchmark {
+
+    private static final String CAPTURE = "/benchmark/sample-capture.csv.gz";
+    // Midnight
+    private static final long START = 1_699_920_000_000L;
+
+    @Param({"raw", "compressed"})
+    public String format;
+
+    private Path directory;
+    private SampleSegmentStore store;
+    private long end;
+    private long samples;
+    private long applicationSamples;
+    private long uncompressedBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("yamec-compression");
+        store = new SampleSegmentStore(directory.toString(), 3600);
+        replayCapture();
+        store.close();
+
+        if ("compressed".equals(format)) {
+            store.compressSegmentsEndedBefore(Long.MAX_VALUE);
+        }
+        long bytes = fileBytes();
+        System.out.printf("%n%s: %d samples (%d of applications) with %.1f MiB of timestamps and values in"
+                        + " %.1f MiB of segment files, %.2f bytes per sample, a compression ratio of %.1f%n",
+                format, samples, applicationSamples, uncompressedBytes / 1048576.0, bytes / 1048576.0,
+                (double) bytes / samples, (double) uncompressedBytes / bytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void decodeCapture(Blackhole blackhole) throws IOException {
+        store.scan(SlidingWindowStore.SeriesType.APPLICATION, null, 0, START, end,
+                (seriesId, timestamp, value) -> {
+                    blackhole.consume(timestamp);
+                    blackhole.consume(value);
+                });
+    }
+
+    @Benchmark
+    public void decodeCaptureMemory(Blackhole blackhole) throws IOException {
+        store.scan(SlidingWindowStore.SeriesType.APPLICATION, null, 1, START, end,
+                (seriesId, timestamp, value) -> {
+                    blackhole.consume(timestamp);
+                    blackhole.consume(value);
+                });
+    }
+
+    /**
+     * Records the collections of the capture, each series with a UUID made of its type and index
+     */
+    private void replayCapture() throws IOException {
+        InputStream capture = SampleCompressionBenchmark.class.getResourceAsStream(CAPTURE);
+        if (capture == null) {
+            throw new FileNotFoundException(CAPTURE);
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(capture),
+                StandardCharsets.UTF_8))) {
+            SlidingWindowStore.Tick tick = null;
+            long tickTime = Long.MIN_VALUE;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split(",");
+                long timestamp = START + Long.parseLong(columns[0]);
+                SlidingWindowStore.SeriesType type = SlidingWindowStore.SeriesType.fromLabel(columns[1]);
+                UUID id = new UUID(type.ordinal() + 1, Long.parseLong(columns[2]));
+                double[] values = new double[columns.length - 3];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Double.parseDouble(columns[i + 3]);
+                }
+
+                if (tick == null || tickTime != timestamp) {
+                    if (tick != null) {
+                        store.record(tick);
+                    }
+                    tick = new SlidingWindowStore.Tick(timestamp);
+                    tickTime = timestamp;
+                }
+                tick.add(type, id, type.getLabel(), values);
+
+                // Each sample is a timestamp and a value per field
+                samples++;
+                uncompressedBytes += 8L * (1 + values.length);
+                if (type == SlidingWindowStore.SeriesType.APPLICATION) {
+                    applicationSamples++;
+                }
+                end = timestamp + 1;
+            }
+            if (tick != null) {
+                store.record(tick);
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the segment files. Uncompressed segments include the space preallocated
+     * for two samples per second.
+     */
+    private long fileBytes() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            long bytes = 0;
+            for (Path path : paths.filter(Files::isRegularFile).toList()) {
+                bytes += Files.size(path);
+            }
+            return bytes;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SampleCompressionBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
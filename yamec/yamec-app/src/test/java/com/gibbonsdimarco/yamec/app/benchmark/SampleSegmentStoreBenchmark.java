@@ -0,0 +1,170 @@
+package com.gibbonsdimarco.yamec.app.benchmark;
+
+import com.gibbonsdimarco.yamec.app.service.SampleSegmentStore;
+import com.gibbonsdimarco.yamec.app.service.SlidingWindowStore;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * <p>Compares reading the one second CPU usage of an application over six hours from the
+ * application metrics table keyed on their series with reading it from the SampleSegmentStore.</p>
+ * <p>Both hold the same samples of {@value #APPLICATIONS} applications. The benchmarks measure
+ * reading every sample of the range from each, and reading the range from the segments for
+ * minimum and maximum downsampling to 500 points, which only reads the extremes of most
+ * blocks.</p>
+ * <p>Run with the <code>main</code> method from the test classpath.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class SampleSegmentStoreBenchmark {
+
+    private static final int APPLICATIONS = 20;
+    private static final int SECONDS = 6 * 3600;
+    private static final int POINTS = 500;
+    // A whole hour
+    private static final long START = 1_700_002_800_000L;
+    private static final long END = START + SECONDS * 1000L;
+
+    private Path directory;
+    private Path databaseFile;
+    private Connection connection;
+    private SampleSegmentStore store;
+    private UUID[] applicationIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        directory = Files.createTempDirectory("yamec-samples");
+        databaseFile = Files.createTempFile("yamec-samples", ".sqlite");
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + databaseFile);
+        connection = dataSource.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            // As left by the MetricTableMigration
+            statement.execute("CREATE TABLE application_metrics (series_id INTEGER NOT NULL, avg_cpu_usage float,"
+                    + " timestamp timestamp not null, application_id blob not null,"
+                    + " PRIMARY KEY (series_id, timestamp)) WITHOUT ROWID");
+            statement.execute("CREATE INDEX idx_application_metrics_application on application_metrics (application_id)");
+            statement.execute("CREATE INDEX idx_application_metrics_timestamp ON application_metrics (timestamp)");
+        }
+
+        store = new SampleSegmentStore(directory.toString(), 3600);
+        applicationIds = new UUID[APPLICATIONS];
+        for (int i = 0; i < APPLICATIONS; i++) {
+            applicationIds[i] = UUID.randomUUID();
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO application_metrics VALUES (?, ?, ?, ?)")) {
+            for (int second = 0; second < SECONDS; second++) {
+                long timestamp = START + second * 1000L;
+                SlidingWindowStore.Tick tick = new SlidingWindowStore.Tick(timestamp);
+                for (int i = 0; i < APPLICATIONS; i++) {
+                    double cpuUsage = random.nextDouble(100);
+                    tick.add(SlidingWindowStore.SeriesType.APPLICATION, applicationIds[i], "app", cpuUsage, 0, 0);
+
+                    insert.setLong(1, i + 1);
+                    insert.setDouble(2, cpuUsage);
+                    insert.setLong(3, timestamp);
+                    insert.setBytes(4, toBytes(applicationIds[i]));
+                    insert.addBatch();
+                }
+                store.record(tick);
+                if (second % 600 == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        store.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        connection.close();
+        Files.deleteIfExists(databaseFile);
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void readDatabase(Blackhole blackhole) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT timestamp, avg_cpu_usage FROM application_metrics"
+                        + " WHERE series_id = ? AND timestamp >= ? AND timestamp < ? ORDER BY timestamp")) {
+            query.setLong(1, APPLICATIONS / 2 + 1);
+            query.setLong(2, START);
+            query.setLong(3, END);
+            try (ResultSet rs = query.executeQuery()) {
+                while (rs.next()) {
+                    blackhole.consume(rs.getLong(1));
+                    blackhole.consume(rs.getDouble(2));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void readSegments(Blackhole blackhole) throws IOException {
+        store.scan(SlidingWindowStore.SeriesType.APPLICATION, applicationIds[APPLICATIONS / 2], 0, START, END,
+                (seriesId, timestamp, value) -> {
+                    blackhole.consume(timestamp);
+                    blackhole.consume(value);
+                });
+    }
+
+    @Benchmark
+    public void readSegmentExtremes(Blackhole blackhole) throws IOException {
+        store.scanExtremes(SlidingWindowStore.SeriesType.APPLICATION, applicationIds[APPLICATIONS / 2], 0,
+                START, END, START, (END - START) / (POINTS / 2),
+                (seriesId, timestamp, value) -> {
+                    blackhole.consume(timestamp);
+                    blackhole.consume(value);
+                });
+    }
+
+    private static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SampleSegmentStoreBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,64 @@
+package com.gibbonsdimarco.yamec.app.benchmark;
+
+import com.gibbonsdimarco.yamec.app.config.SystemMonitorConfig;
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSource;
+import com.gibbonsdimarco.yamec.app.service.PipelineTimings;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Compares the cost of one collection tick done the old way (collectCounterData followed by one
+ * call per subsystem) against a single collectSnapshot call.</p>
+ * <p>The MetricsSource of the current operating system is used, so on Windows this measures the
+ * JNI executor round-trips and native transitions, and on Linux the procfs source.</p>
+ * <p>Run with the <code>main</code> method from the test classpath.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SnapshotCollectionBenchmark {
+
+    private MetricsSource monitor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        monitor = new SystemMonitorConfig().systemMonitorManager(new PipelineTimings());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        monitor.close();
+    }
+
+    @Benchmark
+    public void perSubsystemCalls(Blackhole blackhole) {
+        blackhole.consume(monitor.collectCounterData());
+        blackhole.consume(monitor.getProcessMetrics());
+        blackhole.consume(monitor.getCpuMetrics());
+        blackhole.consume(monitor.getMemoryMetrics());
+        blackhole.consume(monitor.getDiskMetrics());
+        blackhole.consume(monitor.getNicMetrics());
+    }
+
+    @Benchmark
+    public void singleSnapshot(Blackhole blackhole) {
+        blackhole.consume(monitor.collectSnapshot());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SnapshotCollectionBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,191 @@
+package com.gibbonsdimarco.yamec.app.benchmark;
+
+import com.gibbonsdimarco.yamec.app.config.StorageConfig;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures how many metric rows per second can be written to SQLite while the dashboard reads
+ * them, and how long the reads take, with the default storage (a rollback journal, synchronous
+ * FULL and one pool for reads and writes) and with the <code>wal</code> storage profile of
+ * StorageConfig.</p>
+ * <p>One thread saves a collection of application metrics per transaction, as fast as it can,
+ * while two threads repeatedly read the averages of the last minute of metrics. In
+ * <code>thrpt</code> mode, the <code>rows</code> counter of the <code>write</code> method is the
+ * number of rows inserted per second. In <code>sample</code> mode, the percentiles of the
+ * <code>read</code> method are the latencies of reads while writes are running.</p>
+ * <p>The database is created in the temporary directory, which should be on the same kind of disk
+ * the application runs on for the results to be meaningful.</p>
+ * <p>Run with the <code>main</code> method from the test classpath.</p>
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class StorageTuningBenchmark {
+
+    // Applications saved per collection for a typical desktop, and collections already saved
+    private static final int APPLICATIONS = 150;
+    private static final int INITIAL_COLLECTIONS = 600;
+    private static final long READ_RANGE_MILLIS = 60_000;
+
+    @Param({"default", "wal"})
+    public String storage;
+
+    private Path databaseFile;
+    private HikariDataSource writeDataSource;
+    private HikariDataSource readDataSource;
+    private byte[][] applicationIds;
+    private volatile long timestamp;
+
+    /**
+     * Rows written, reported by JMH per unit of time in <code>thrpt</code> mode
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long rows;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        databaseFile = Files.createTempFile("yamec-storage", ".sqlite");
+        String url = "jdbc:sqlite:" + databaseFile;
+
+        if ("wal".equals(storage)) {
+            StorageConfig.Pragmas pragmas = new StorageConfig.Pragmas("NORMAL", 16384, 268435456L, 5000);
+            writeDataSource = StorageConfig.createWriteDataSource(url, pragmas);
+            readDataSource = StorageConfig.createReadOnlyDataSource(url, pragmas, 4);
+        } else {
+            // As configured in application.properties, with reads and writes sharing one pool
+            HikariConfig poolConfig = new HikariConfig();
+            poolConfig.setJdbcUrl(url);
+            poolConfig.setMaximumPoolSize(25);
+            writeDataSource = new HikariDataSource(poolConfig);
+            readDataSource = writeDataSource;
+        }
+
+        applicationIds = new byte[APPLICATIONS][];
+        for (int i = 0; i < APPLICATIONS; i++) {
+            applicationIds[i] = uuid();
+        }
+
+        try (Connection connection = writeDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE application_metrics (id BLOB PRIMARY KEY, application_id BLOB,"
+                    + " timestamp INTEGER, duration INTEGER, avg_cpu_usage REAL, avg_physical_memory_used INTEGER,"
+                    + " avg_virtual_memory_used INTEGER, max_cpu_usage REAL, max_physical_memory_used INTEGER,"
+                    + " max_virtual_memory_used INTEGER, min_cpu_usage REAL, min_physical_memory_used INTEGER,"
+                    + " min_virtual_memory_used INTEGER)");
+            statement.execute("CREATE INDEX idx_application_metrics_timestamp ON application_metrics (timestamp)");
+        }
+
+        for (int i = 0; i < INITIAL_COLLECTIONS; i++) {
+            saveCollection(timestamp += 1000);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (readDataSource != writeDataSource) {
+            readDataSource.close();
+        }
+        writeDataSource.close();
+        for (String suffix : new String[] {"", "-wal", "-shm", "-journal"}) {
+            Files.deleteIfExists(Path.of(databaseFile + suffix));
+        }
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public void write(Counters counters) throws SQLException {
+        counters.rows += saveCollection(timestamp + 1000);
+        timestamp += 1000;
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(2)
+    public void read(Blackhole blackhole) throws SQLException {
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement query = connection.prepareStatement(
+                     "SELECT application_id, AVG(avg_cpu_usage), MAX(max_physical_memory_used)"
+                             + " FROM application_metrics WHERE timestamp >= ? GROUP BY application_id")) {
+            query.setLong(1, timestamp - READ_RANGE_MILLIS);
+            try (ResultSet rs = query.executeQuery()) {
+                while (rs.next()) {
+                    blackhole.consume(rs.getDouble(2));
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the metrics of every application for one collection in one transaction
+     */
+    private int saveCollection(long now) throws SQLException {
+        try (Connection connection = writeDataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO application_metrics VALUES (?, ?, ?, 1, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (byte[] applicationId : applicationIds) {
+                    insert.setBytes(1, uuid());
+                    insert.setBytes(2, applicationId);
+                    insert.setLong(3, now);
+                    for (int column = 4; column <= 12; column++) {
+                        insert.setLong(column, random.nextLong(1_000_000L));
+                    }
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        return APPLICATIONS;
+    }
+
+    private static byte[] uuid() {
+        java.util.UUID uuid = java.util.UUID.randomUUID();
+        byte[] bytes = new byte[16];
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (most >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (least >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(StorageTuningBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
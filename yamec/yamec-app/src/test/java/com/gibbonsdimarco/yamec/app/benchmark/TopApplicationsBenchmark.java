@@ -0,0 +1,129 @@
+package com.gibbonsdimarco.yamec.app.benchmark;
+
+import com.gibbonsdimarco.yamec.app.data.Application;
+import com.gibbonsdimarco.yamec.app.data.ApplicationMetric;
+import com.gibbonsdimarco.yamec.app.model.TopApplicationsData;
+import com.gibbonsdimarco.yamec.app.service.TopApplicationsTracker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures the TopApplicationsTracker when tens of thousands of distinct applications have
+ * been seen, as on a build server where most processes are short-lived.</p>
+ * <p>Each collection has 500 applications: 50 long-running ones and 450 drawn from 50000
+ * short-lived names. <code>recordCollection</code> records one collection, and
+ * <code>topApplications</code> reads the top 10 by CPU over 15 minutes. <code>sortAll</code> is
+ * the previous approach of sorting the latest metric of every application ever seen (here
+ * 50050) by CPU, for comparison.</p>
+ * <p>Run with the <code>main</code> method from the test classpath.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TopApplicationsBenchmark {
+
+    private static final int LONG_RUNNING = 50;
+    private static final int SHORT_LIVED = 50_000;
+    private static final int PER_COLLECTION = 500;
+    private static final int COLLECTIONS = 64;
+
+    private final long start = 1_700_000_000_000L;
+
+    private TopApplicationsTracker tracker;
+    private List<List<ApplicationMetric>> collections;
+    private List<ApplicationMetric> latestOfEveryApplication;
+    private long second;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+
+        List<Application> longRunning = applications("service-", LONG_RUNNING);
+        List<Application> shortLived = applications("build-step-", SHORT_LIVED);
+
+        collections = new ArrayList<>(COLLECTIONS);
+        for (int collection = 0; collection < COLLECTIONS; collection++) {
+            List<ApplicationMetric> metrics = new ArrayList<>(PER_COLLECTION);
+            for (Application application : longRunning) {
+                metrics.add(metric(application, random.nextDouble() * 20, random));
+            }
+            for (int i = LONG_RUNNING; i < PER_COLLECTION; i++) {
+                metrics.add(metric(shortLived.get(random.nextInt(SHORT_LIVED)), random.nextDouble() * 5, random));
+            }
+            collections.add(metrics);
+        }
+
+        latestOfEveryApplication = new ArrayList<>(LONG_RUNNING + SHORT_LIVED);
+        for (Application application : longRunning) {
+            latestOfEveryApplication.add(metric(application, random.nextDouble() * 20, random));
+        }
+        for (Application application : shortLived) {
+            latestOfEveryApplication.add(metric(application, random.nextDouble() * 5, random));
+        }
+
+        // Fill 15 minutes of the tracker, so every sketch has been filled with short-lived names
+        tracker = new TopApplicationsTracker(64);
+        for (second = 0; second < 900; second++) {
+            tracker.record(start + second * 1000, collections.get((int) (second % COLLECTIONS)));
+        }
+    }
+
+    private static List<Application> applications(String prefix, int count) {
+        List<Application> applications = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Application application = new Application(prefix + i);
+            application.setId(UUID.randomUUID());
+            applications.add(application);
+        }
+        return applications;
+    }
+
+    private ApplicationMetric metric(Application application, double cpuUsage, Random random) {
+        long memory = random.nextInt(1 << 20) * 1024L;
+        ApplicationMetric metric = new ApplicationMetric(application, new Timestamp(start), 1,
+                cpuUsage, memory, memory * 2, cpuUsage, memory, memory * 2, cpuUsage, memory, memory * 2);
+        metric.setApplicationName(application.getApplicationName());
+        return metric;
+    }
+
+    @Benchmark
+    public TopApplicationsTracker recordCollection() {
+        tracker.record(start + second * 1000, collections.get((int) (second % COLLECTIONS)));
+        second++;
+        return tracker;
+    }
+
+    @Benchmark
+    public TopApplicationsData topApplications() {
+        return tracker.getTopApplications("cpu", "15m", 10);
+    }
+
+    @Benchmark
+    public List<ApplicationMetric> sortAll() {
+        List<ApplicationMetric> sorted = new ArrayList<>(latestOfEveryApplication);
+        sorted.sort(Comparator.comparingDouble(ApplicationMetric::getAvgCpuUsage).reversed());
+        return sorted.subList(0, 10);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TopApplicationsBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+}
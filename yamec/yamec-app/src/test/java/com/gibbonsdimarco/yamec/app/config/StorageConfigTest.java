@@ -0,0 +1,87 @@
+package com.gibbonsdimarco.yamec.app.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageConfigTest {
+
+    private Path databaseFile;
+    private HikariDataSource writeDataSource;
+    private HikariDataSource readOnlyDataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readWriteTransaction;
+    private TransactionTemplate readOnlyTransaction;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        databaseFile = Files.createTempFile("yamec-storage-test", ".sqlite");
+        String url = "jdbc:sqlite:" + databaseFile;
+        StorageConfig.Pragmas pragmas = new StorageConfig.Pragmas("NORMAL", 2048, 0, 1000);
+
+        writeDataSource = StorageConfig.createWriteDataSource(url, pragmas);
+        readOnlyDataSource = StorageConfig.createReadOnlyDataSource(url, pragmas, 2);
+        DataSource dataSource = StorageConfig.createRoutingDataSource(writeDataSource, readOnlyDataSource);
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readWriteTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+
+        jdbcTemplate.execute("CREATE TABLE metrics (timestamp INTEGER, value REAL)");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        readOnlyDataSource.close();
+        writeDataSource.close();
+        for (String suffix : new String[] {"", "-wal", "-shm"}) {
+            Files.deleteIfExists(Path.of(databaseFile + suffix));
+        }
+    }
+
+    @Test
+    void databaseIsInWalMode() {
+        assertEquals("wal", jdbcTemplate.queryForObject("PRAGMA journal_mode", String.class));
+    }
+
+    @Test
+    void readOnlyTransactionsUseTheReadOnlyConnections() {
+        readWriteTransaction.executeWithoutResult(status ->
+                jdbcTemplate.update("INSERT INTO metrics VALUES (?, ?)", 1000L, 12.5));
+
+        assertEquals(Integer.valueOf(1), readOnlyTransaction.execute(status ->
+                jdbcTemplate.queryForObject("SELECT COUNT(*) FROM metrics", Integer.class)));
+        assertThrows(DataAccessException.class, () -> readOnlyTransaction.executeWithoutResult(status ->
+                jdbcTemplate.update("INSERT INTO metrics VALUES (?, ?)", 2000L, 25.0)));
+    }
+
+    @Test
+    void readersSeeTheLastCommitWhileAWriteIsInProgress() {
+        readWriteTransaction.executeWithoutResult(status -> {
+            jdbcTemplate.update("INSERT INTO metrics VALUES (?, ?)", 1000L, 12.5);
+
+            // A read-only transaction started meanwhile neither waits for the writer nor sees its rows
+            TransactionTemplate concurrentRead = new TransactionTemplate(readOnlyTransaction.getTransactionManager());
+            concurrentRead.setReadOnly(true);
+            concurrentRead.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
+            assertEquals(Integer.valueOf(0), concurrentRead.execute(inner ->
+                    jdbcTemplate.queryForObject("SELECT COUNT(*) FROM metrics", Integer.class)));
+        });
+
+        assertEquals(Integer.valueOf(1), readOnlyTransaction.execute(status ->
+                jdbcTemplate.queryForObject("SELECT COUNT(*) FROM metrics", Integer.class)));
+    }
+}
@@ -0,0 +1,175 @@
+package com.gibbonsdimarco.yamec.app.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <p>Measures the latency of the dashboard endpoints when 100 dashboards poll them once a second,
+ * as the dashboard pages do.</p>
+ * <p>Only runs with <code>-Dyamec.loadtest=true</code>, since it takes about a minute and
+ * collects real metrics. It can also be run against an application which is already running with
+ * the <code>main</code> method, passing the base URL (<code>http://localhost:8084</code> by
+ * default).</p>
+ * <p>Each endpoint fails if its 99th percentile latency is above
+ * <code>-Dyamec.loadtest.max-p99-ms</code> (250 ms by default). Reading the endpoints from the
+ * database took seconds at 100 dashboards, while the cached views take tens of milliseconds.</p>
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@EnabledIfSystemProperty(named = "yamec.loadtest", matches = "true")
+class DashboardPollingLoadTest {
+
+    private static final int POLLERS = 100;
+    private static final Duration POLL_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration WARMUP = Duration.ofSeconds(5);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(20);
+    private static final double MAX_P99_MILLIS = Double.parseDouble(
+            System.getProperty("yamec.loadtest.max-p99-ms", "250"));
+
+    @LocalServerPort
+    private int port;
+
+    @Test
+    void metricsEndpoint() throws InterruptedException {
+        LatencySummary summary = poll(URI.create("http://localhost:" + port + "/api/metrics"));
+        System.out.println("/api/metrics " + summary);
+        assertLatency(summary);
+    }
+
+    @Test
+    void applicationsEndpoint() throws InterruptedException {
+        LatencySummary summary = poll(URI.create("http://localhost:" + port + "/api/applications"));
+        System.out.println("/api/applications " + summary);
+        assertLatency(summary);
+    }
+
+    private static void assertLatency(LatencySummary summary) {
+        assertEquals(0, summary.errors);
+        assertTrue(summary.sortedNanos.length > 0, "No requests were measured");
+        assertTrue(summary.percentileMillis(99) <= MAX_P99_MILLIS,
+                "The 99th percentile latency " + summary.percentileMillis(99) + " ms is above " + MAX_P99_MILLIS + " ms");
+    }
+
+    /**
+     * Polls an endpoint from <code>POLLERS</code> threads, each starting at a random point of the
+     * poll interval, and returns the latencies measured after the warmup
+     */
+    static LatencySummary poll(URI uri) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(10)).GET().build();
+
+        long measureFrom = System.nanoTime() + WARMUP.toNanos();
+        long measureUntil = measureFrom + MEASUREMENT.toNanos();
+        long intervalNanos = POLL_INTERVAL.toNanos();
+
+        List<long[]> latencies = new ArrayList<>();
+        AtomicLong errors = new AtomicLong();
+        List<Thread> pollers = new ArrayList<>();
+
+        for (int i = 0; i < POLLERS; i++) {
+            long[] pollerLatencies = new long[(int) (MEASUREMENT.toNanos() / intervalNanos) + 2];
+            latencies.add(pollerLatencies);
+
+            Thread poller = new Thread(() -> {
+                int count = 0;
+                long next = System.nanoTime() + ThreadLocalRandom.current().nextLong(intervalNanos);
+
+                while (next < measureUntil) {
+                    sleepUntil(next);
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                        if (response.statusCode() != 200) {
+                            errors.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long end = System.nanoTime();
+
+                    // The last element is kept for the count
+                    if (start >= measureFrom && count < pollerLatencies.length - 1) {
+                        pollerLatencies[count++] = end - start;
+                    }
+                    next += intervalNanos;
+                }
+                pollerLatencies[pollerLatencies.length - 1] = count;
+            }, "poller-" + i);
+            poller.start();
+            pollers.add(poller);
+        }
+
+        for (Thread poller : pollers) {
+            poller.join();
+        }
+
+        // The last element of each array holds the number of latencies recorded
+        long[] all = latencies.stream()
+                .flatMapToLong(pollerLatencies -> Arrays.stream(pollerLatencies, 0,
+                        (int) pollerLatencies[pollerLatencies.length - 1]))
+                .sorted()
+                .toArray();
+        return new LatencySummary(all, errors.get());
+    }
+
+    private static void sleepUntil(long nanoTime) {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    static class LatencySummary {
+        final long[] sortedNanos;
+        final long errors;
+
+        LatencySummary(long[] sortedNanos, long errors) {
+            this.sortedNanos = sortedNanos;
+            this.errors = errors;
+        }
+
+        double percentileMillis(double percentile) {
+            if (sortedNanos.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(percentile / 100 * sortedNanos.length) - 1);
+            return sortedNanos[Math.max(0, index)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d errors=%d p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                    sortedNanos.length, errors, percentileMillis(50), percentileMillis(90),
+                    percentileMillis(99), percentileMillis(100));
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8084";
+        System.out.println("/api/metrics " + poll(URI.create(baseUrl + "/api/metrics")));
+        System.out.println("/api/applications " + poll(URI.create(baseUrl + "/api/applications")));
+    }
+}
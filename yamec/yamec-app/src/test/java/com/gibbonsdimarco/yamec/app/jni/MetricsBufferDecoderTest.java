@@ -0,0 +1,181 @@
+package com.gibbonsdimarco.yamec.app.jni;
+
+import com.gibbonsdimarco.yamec.app.data.ProcessMetric;
+import com.gibbonsdimarco.yamec.app.data.SystemDiskMetric;
+import com.gibbonsdimarco.yamec.app.data.SystemNicMetric;
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the decoder against buffers filled by the Java reference encoder, so the transfer format
+ * can be checked without the native library.
+ */
+class MetricsBufferDecoderTest {
+
+    private static final long COLLECTION_TIME = 1_700_000_000_000L;
+
+    private final List<ProcessMetric> processes = List.of(
+            new ProcessMetric("java", 1234, 12.5, 512L * 1024 * 1024, 2048L * 1024 * 1024),
+            new ProcessMetric("Ünïcødé.exe", 42, 0.0, 4096, 8192),
+            new ProcessMetric("", 7, 100.0, 0, 0));
+    private final List<SystemDiskMetric> disks = List.of(
+            new SystemDiskMetric("0 C:", 35.0, 1_000_000L, 2_000_000L, 0.004, true, true),
+            new SystemDiskMetric("1", 0.5, 10L, 0L, 0.0, false, true));
+    private final List<SystemNicMetric> nics = List.of(
+            new SystemNicMetric("Ethernet", 1_000_000_000L, 8_000L, 16_000L, true, false, true));
+
+    @Test
+    void decodesEncodedMetrics() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        int length = MetricsBufferEncoder.encode(COLLECTION_TIME, processes, disks, nics, buffer);
+
+        assertTrue(length > MetricsBufferLayout.HEADER_SIZE);
+
+        MetricsBufferDecoder decoder = new MetricsBufferDecoder().wrap(buffer);
+        assertEquals(length, decoder.length());
+        assertEquals(COLLECTION_TIME, decoder.collectionTime());
+
+        assertEquals(processes.size(), decoder.processCount());
+        for (int i = 0; i < processes.size(); i++) {
+            ProcessMetric expected = processes.get(i);
+            assertEquals(expected.getProcessName(), decoder.processName(i));
+            assertEquals(expected.getProcessId(), decoder.processId(i));
+            assertEquals(expected.getCpuUsage(), decoder.processCpuUsage(i));
+            assertEquals(expected.getPhysicalMemoryUsage(), decoder.processPhysicalMemory(i));
+            assertEquals(expected.getVirtualMemoryUsage(), decoder.processVirtualMemory(i));
+        }
+
+        assertEquals(disks.size(), decoder.diskCount());
+        for (int i = 0; i < disks.size(); i++) {
+            SystemDiskMetric expected = disks.get(i);
+            assertEquals(expected.getDeviceName(), decoder.diskName(i));
+            assertEquals(expected.getAvgUtilization(), decoder.diskUtilization(i));
+            assertEquals(expected.getAvgReadBandwidth(), decoder.diskReadBandwidth(i));
+            assertEquals(expected.getAvgWriteBandwidth(), decoder.diskWriteBandwidth(i));
+            assertEquals(expected.getAvgTimeToTransfer(), decoder.diskAverageTimeToTransfer(i));
+            assertEquals(expected.isReadBandwidthUnsigned(), decoder.isDiskReadBandwidthUnsigned(i));
+            assertEquals(expected.isWriteBandwidthUnsigned(), decoder.isDiskWriteBandwidthUnsigned(i));
+        }
+
+        assertEquals(1, decoder.nicCount());
+        assertEquals("Ethernet", decoder.nicName(0));
+        assertEquals(1_000_000_000L, decoder.nicOperatingBandwidth(0));
+        assertEquals(8_000L, decoder.nicSendBandwidth(0));
+        assertEquals(16_000L, decoder.nicReceiveBandwidth(0));
+        assertTrue(decoder.isNicOperatingBandwidthUnsigned(0));
+        assertFalse(decoder.isNicSendBandwidthUnsigned(0));
+        assertTrue(decoder.isNicReceiveBandwidthUnsigned(0));
+    }
+
+    @Test
+    void decodesCpuAndMemoryFromTheHeader() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        MetricsBufferEncoder.encode(COLLECTION_TIME, 37.5,
+                new MetricsBufferEncoder.MemoryCounters(8L << 30, 16L << 30, 25.0),
+                processes, disks, nics, buffer);
+        MetricsBufferDecoder decoder = new MetricsBufferDecoder().wrap(buffer);
+
+        assertTrue(decoder.isCpuCollected());
+        assertEquals(37.5, decoder.cpuUtilization());
+        assertTrue(decoder.isMemoryCollected());
+        assertEquals(8L << 30, decoder.physicalMemoryUsed());
+        assertEquals(16L << 30, decoder.virtualMemoryCommitted());
+
+        MetricsSnapshot snapshot = decoder.toSnapshot("Test CPU");
+        assertEquals("Test CPU", snapshot.getCpuMetric().getDeviceName());
+        assertEquals(37.5, snapshot.getCpuMetric().getAverageUtilization());
+        assertEquals(8L << 30, snapshot.getMemoryMetric().getAveragePhysicalUtilization());
+        // A quarter of the committed virtual memory is in use
+        assertEquals(4L << 30, snapshot.getMemoryMetric().getAverageVirtualUtilization());
+        assertEquals(processes.size(), snapshot.getProcessMetrics().size());
+    }
+
+    @Test
+    void reportsRequiredLengthWhenBufferIsTooSmall() {
+        ByteBuffer large = ByteBuffer.allocateDirect(4096);
+        int required = MetricsBufferEncoder.encode(COLLECTION_TIME, processes, disks, nics, large);
+
+        ByteBuffer small = ByteBuffer.allocateDirect(MetricsBufferLayout.HEADER_SIZE + 8);
+        assertEquals(MetricsBufferLayout.STATUS_BUFFER_TOO_SMALL,
+                MetricsBufferEncoder.encode(COLLECTION_TIME, processes, disks, nics, small));
+        assertEquals(required, small.getInt(MetricsBufferLayout.LENGTH_OFFSET));
+
+        assertEquals(MetricsBufferLayout.STATUS_INVALID_BUFFER,
+                MetricsBufferEncoder.encode(COLLECTION_TIME, processes, disks, nics, ByteBuffer.allocateDirect(8)));
+    }
+
+    @Test
+    void rejectsInvalidBuffers() {
+        MetricsBufferDecoder decoder = new MetricsBufferDecoder();
+
+        assertThrows(IllegalArgumentException.class, () -> decoder.wrap(ByteBuffer.allocateDirect(8)));
+        assertThrows(IllegalArgumentException.class, () -> decoder.wrap(ByteBuffer.allocateDirect(4096)));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        MetricsBufferEncoder.encode(COLLECTION_TIME, processes, disks, nics, buffer);
+        decoder.wrap(buffer);
+        assertThrows(IndexOutOfBoundsException.class, () -> decoder.processId(processes.size()));
+        assertThrows(IndexOutOfBoundsException.class, () -> decoder.diskName(-1));
+    }
+
+    @Test
+    void copiesMetricsIntoASnapshot() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        MetricsBufferEncoder.encode(COLLECTION_TIME, processes, disks, nics, buffer);
+        MetricsSnapshot snapshot = new MetricsBufferDecoder().wrap(buffer).toSnapshot("Test CPU");
+
+        // The snapshot does not read the buffer once it is refilled
+        MetricsBufferEncoder.encode(COLLECTION_TIME + 1000, List.of(), List.of(), List.of(), buffer);
+
+        assertEquals(COLLECTION_TIME, snapshot.getCollectionTime().getTime());
+        // Neither was collected
+        assertNull(snapshot.getCpuMetric());
+        assertNull(snapshot.getMemoryMetric());
+        assertEquals(processes.size(), snapshot.getProcessMetrics().size());
+        for (int i = 0; i < processes.size(); i++) {
+            ProcessMetric expected = processes.get(i);
+            ProcessMetric actual = snapshot.getProcessMetrics().get(i);
+            assertEquals(expected.getProcessName(), actual.getProcessName());
+            assertEquals(expected.getProcessId(), actual.getProcessId());
+            assertEquals(expected.getCpuUsage(), actual.getCpuUsage());
+            assertEquals(expected.getPhysicalMemoryUsage(), actual.getPhysicalMemoryUsage());
+            assertEquals(expected.getVirtualMemoryUsage(), actual.getVirtualMemoryUsage());
+        }
+
+        assertEquals(disks.size(), snapshot.getDiskMetrics().size());
+        SystemDiskMetric disk = snapshot.getDiskMetrics().get(1);
+        assertEquals("1", disk.getDeviceName());
+        assertEquals(0.5, disk.getAvgUtilization());
+        assertEquals(10L, disk.getAvgReadBandwidth());
+        assertFalse(disk.isReadBandwidthUnsigned());
+        assertTrue(disk.isWriteBandwidthUnsigned());
+
+        SystemNicMetric nic = snapshot.getNicMetrics().getFirst();
+        assertEquals("Ethernet", nic.getDeviceName());
+        assertEquals(1_000_000_000L, nic.getOperatingBandwidth());
+        assertEquals(16_000L, nic.getAvgReceiveBandwidth());
+        assertTrue(nic.isOperatingBandwidthUnsigned());
+        assertFalse(nic.isSendBandwidthUnsigned());
+    }
+
+    @Test
+    void reusesDecoderAcrossRefills() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        MetricsBufferDecoder decoder = new MetricsBufferDecoder();
+
+        MetricsBufferEncoder.encode(COLLECTION_TIME, processes, disks, nics, buffer);
+        assertEquals(3, decoder.wrap(buffer).processCount());
+
+        MetricsBufferEncoder.encode(COLLECTION_TIME + 1000, processes.subList(0, 1), List.of(), List.of(), buffer);
+        decoder.wrap(buffer);
+        assertEquals(1, decoder.processCount());
+        assertEquals(0, decoder.diskCount());
+        assertEquals(COLLECTION_TIME + 1000, decoder.collectionTime());
+        assertEquals("java", decoder.processName(0));
+    }
+}
@@ -0,0 +1,186 @@
+package com.gibbonsdimarco.yamec.app.jni;
+
+import com.gibbonsdimarco.yamec.app.data.ProcessMetric;
+import com.gibbonsdimarco.yamec.app.data.SystemCpuMetric;
+import com.gibbonsdimarco.yamec.app.data.SystemDiskMetric;
+import com.gibbonsdimarco.yamec.app.data.SystemNicMetric;
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSnapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.gibbonsdimarco.yamec.app.jni.MetricsBufferLayout.*;
+
+/**
+ * <p>A Java implementation of the encoding done by <code>fillMetricsBuffer</code> in the native
+ * library.</p>
+ * <p>It serves as the reference for the {@link MetricsBufferLayout} format, so the decoder can be
+ * tested on any platform without the native library. Its return values follow the native
+ * function: the number of bytes written, or one of the <code>STATUS_*</code> codes of
+ * MetricsBufferLayout.</p>
+ */
+final class MetricsBufferEncoder {
+
+    private MetricsBufferEncoder() {}
+
+    /**
+     * The memory counters written to the header, as read by the native library
+     *
+     * @param physicalUsed The physical memory used in bytes
+     * @param virtualCommitted The committed virtual memory in bytes
+     * @param virtualUsage The percentage of the committed virtual memory in use
+     */
+    record MemoryCounters(long physicalUsed, long virtualCommitted, double virtualUsage) {}
+
+    /**
+     * Encodes the CPU, process, disk and NIC metrics of a snapshot into a buffer. Its memory
+     * metric cannot be turned back into the counters it was made from, so it is left out.
+     *
+     * @see #encode(long, Double, MemoryCounters, java.util.List, java.util.List, java.util.List, ByteBuffer)
+     */
+    static int encode(MetricsSnapshot snapshot, ByteBuffer buffer) {
+        SystemCpuMetric cpuMetric = snapshot.getCpuMetric();
+        return encode(snapshot.getCollectionTime().getTime(),
+                cpuMetric == null ? null : cpuMetric.getAverageUtilization(), null,
+                snapshot.getProcessMetrics(), snapshot.getDiskMetrics(), snapshot.getNicMetrics(), buffer);
+    }
+
+    /**
+     * Encodes metrics into a buffer without the CPU and memory metrics
+     *
+     * @see #encode(long, Double, MemoryCounters, java.util.List, java.util.List, java.util.List, ByteBuffer)
+     */
+    static int encode(long collectionTime,
+                      java.util.List<ProcessMetric> processMetrics,
+                      java.util.List<SystemDiskMetric> diskMetrics,
+                      java.util.List<SystemNicMetric> nicMetrics,
+                      ByteBuffer buffer) {
+        return encode(collectionTime, null, null, processMetrics, diskMetrics, nicMetrics, buffer);
+    }
+
+    /**
+     * Encodes metrics into a buffer starting at index 0. The position and limit of the buffer are
+     * not changed.
+     *
+     * @param collectionTime The collection time in milliseconds since the epoch
+     * @param cpuUtilization The CPU utilization, or null if it was not collected
+     * @param memory The memory counters, or null if they were not collected
+     * @param processMetrics The process metrics to encode
+     * @param diskMetrics The disk metrics to encode
+     * @param nicMetrics The NIC metrics to encode
+     * @param buffer The buffer to fill
+     * @return The number of bytes written. If the buffer is too small, only the header is written
+     * (with the required length) and this returns STATUS_BUFFER_TOO_SMALL. If the buffer cannot
+     * even hold the header, this returns STATUS_INVALID_BUFFER.
+     */
+    static int encode(long collectionTime,
+                      Double cpuUtilization,
+                      MemoryCounters memory,
+                      java.util.List<ProcessMetric> processMetrics,
+                      java.util.List<SystemDiskMetric> diskMetrics,
+                      java.util.List<SystemNicMetric> nicMetrics,
+                      ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE) {
+            return STATUS_INVALID_BUFFER;
+        }
+        buffer.order(BYTE_ORDER);
+
+        int processCount = processMetrics.size();
+        int diskCount = diskMetrics.size();
+        int nicCount = nicMetrics.size();
+
+        byte[][] processNames = new byte[processCount][];
+        byte[][] diskNames = new byte[diskCount][];
+        byte[][] nicNames = new byte[nicCount][];
+        int stringsLength = 0;
+        for (int i = 0; i < processCount; i++) {
+            processNames[i] = utf8(processMetrics.get(i).getProcessName());
+            stringsLength += processNames[i].length;
+        }
+        for (int i = 0; i < diskCount; i++) {
+            diskNames[i] = utf8(diskMetrics.get(i).getDeviceName());
+            stringsLength += diskNames[i].length;
+        }
+        for (int i = 0; i < nicCount; i++) {
+            nicNames[i] = utf8(nicMetrics.get(i).getDeviceName());
+            stringsLength += nicNames[i].length;
+        }
+
+        int stringsOffset = MetricsBufferLayout.stringsOffset(processCount, diskCount, nicCount);
+        int length = stringsOffset + stringsLength;
+
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(LENGTH_OFFSET, length);
+
+        if (length > buffer.capacity()) {
+            return STATUS_BUFFER_TOO_SMALL;
+        }
+
+        buffer.putInt(PROCESS_COUNT_OFFSET, processCount);
+        buffer.putInt(DISK_COUNT_OFFSET, diskCount);
+        buffer.putInt(NIC_COUNT_OFFSET, nicCount);
+        buffer.putInt(STRINGS_OFFSET_OFFSET, stringsOffset);
+        buffer.putInt(FLAGS_OFFSET, (cpuUtilization != null ? FLAG_CPU_COLLECTED : 0)
+                                    | (memory != null ? FLAG_MEMORY_COLLECTED : 0));
+        buffer.putLong(COLLECTION_TIME_OFFSET, collectionTime);
+        buffer.putDouble(CPU_UTILIZATION_OFFSET, cpuUtilization != null ? cpuUtilization : 0);
+        buffer.putLong(PHYSICAL_MEMORY_USED_OFFSET, memory != null ? memory.physicalUsed() : 0);
+        buffer.putLong(VIRTUAL_MEMORY_COMMITTED_OFFSET, memory != null ? memory.virtualCommitted() : 0);
+        buffer.putDouble(VIRTUAL_MEMORY_USAGE_OFFSET, memory != null ? memory.virtualUsage() : 0);
+
+        int nameOffset = 0;
+
+        int row = MetricsBufferLayout.processesOffset();
+        for (int i = 0; i < processCount; i++, row += PROCESS_ROW_SIZE) {
+            ProcessMetric metric = processMetrics.get(i);
+            buffer.putInt(row + PROCESS_ID_OFFSET, metric.getProcessId());
+            buffer.putInt(row + PROCESS_NAME_OFFSET, nameOffset);
+            buffer.putInt(row + PROCESS_NAME_LENGTH_OFFSET, processNames[i].length);
+            buffer.putInt(row + PROCESS_NAME_LENGTH_OFFSET + 4, 0);
+            buffer.putDouble(row + PROCESS_CPU_USAGE_OFFSET, metric.getCpuUsage());
+            buffer.putLong(row + PROCESS_PHYSICAL_MEMORY_OFFSET, metric.getPhysicalMemoryUsage());
+            buffer.putLong(row + PROCESS_VIRTUAL_MEMORY_OFFSET, metric.getVirtualMemoryUsage());
+            buffer.put(stringsOffset + nameOffset, processNames[i]);
+            nameOffset += processNames[i].length;
+        }
+
+        for (int i = 0; i < diskCount; i++, row += DISK_ROW_SIZE) {
+            SystemDiskMetric metric = diskMetrics.get(i);
+            int flags = (metric.isReadBandwidthUnsigned() ? FLAG_READ_UNSIGNED : 0)
+                        | (metric.isWriteBandwidthUnsigned() ? FLAG_WRITE_UNSIGNED : 0);
+            buffer.putInt(row + DISK_NAME_OFFSET, nameOffset);
+            buffer.putInt(row + DISK_NAME_LENGTH_OFFSET, diskNames[i].length);
+            buffer.putDouble(row + DISK_UTILIZATION_OFFSET, metric.getAvgUtilization());
+            buffer.putLong(row + DISK_READ_BANDWIDTH_OFFSET, metric.getAvgReadBandwidth());
+            buffer.putLong(row + DISK_WRITE_BANDWIDTH_OFFSET, metric.getAvgWriteBandwidth());
+            buffer.putDouble(row + DISK_TIME_TO_TRANSFER_OFFSET, metric.getAvgTimeToTransfer());
+            buffer.putInt(row + DISK_FLAGS_OFFSET, flags);
+            buffer.putInt(row + DISK_FLAGS_OFFSET + 4, 0);
+            buffer.put(stringsOffset + nameOffset, diskNames[i]);
+            nameOffset += diskNames[i].length;
+        }
+
+        for (int i = 0; i < nicCount; i++, row += NIC_ROW_SIZE) {
+            SystemNicMetric metric = nicMetrics.get(i);
+            int flags = (metric.isOperatingBandwidthUnsigned() ? FLAG_OPERATING_UNSIGNED : 0)
+                        | (metric.isSendBandwidthUnsigned() ? FLAG_SEND_UNSIGNED : 0)
+                        | (metric.isReceiveBandwidthUnsigned() ? FLAG_RECEIVE_UNSIGNED : 0);
+            buffer.putInt(row + NIC_NAME_OFFSET, nameOffset);
+            buffer.putInt(row + NIC_NAME_LENGTH_OFFSET, nicNames[i].length);
+            buffer.putLong(row + NIC_OPERATING_BANDWIDTH_OFFSET, metric.getOperatingBandwidth());
+            buffer.putLong(row + NIC_SEND_BANDWIDTH_OFFSET, metric.getAvgSendBandwidth());
+            buffer.putLong(row + NIC_RECEIVE_BANDWIDTH_OFFSET, metric.getAvgReceiveBandwidth());
+            buffer.putInt(row + NIC_FLAGS_OFFSET, flags);
+            buffer.putInt(row + NIC_FLAGS_OFFSET + 4, 0);
+            buffer.put(stringsOffset + nameOffset, nicNames[i]);
+            nameOffset += nicNames[i].length;
+        }
+
+        return length;
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,253 @@
+package com.gibbonsdimarco.yamec.app.monitor;
+
+import com.gibbonsdimarco.yamec.app.data.ProcessMetric;
+import com.gibbonsdimarco.yamec.app.data.SystemDiskMetric;
+import com.gibbonsdimarco.yamec.app.data.SystemMemoryMetric;
+import com.gibbonsdimarco.yamec.app.data.SystemNicMetric;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Parses procfs and sysfs files with known contents, written to a temporary directory in the
+ * formats of a Linux 6 kernel
+ */
+class LinuxProcMetricsSourceTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private Path root;
+    private Path proc;
+    private Path sys;
+    private LinuxProcMetricsSource source;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Files.createTempDirectory("yamec-procfs-test");
+        proc = root.resolve("proc");
+        sys = root.resolve("sys");
+
+        // 50 resident pages of 200 kB, so pages of 4 KiB
+        write(proc.resolve("self/statm"), "1000 50 20 5 0 300 0\n");
+        write(proc.resolve("self/status"), "Name:\tjava\nVmRSS:\t     200 kB\nThreads:\t12\n");
+        write(proc.resolve("cpuinfo"), "processor\t: 0\nvendor_id\t: GenuineIntel\nmodel name\t: Test CPU @ 3.00GHz\n\n");
+
+        // A disk, one of its partitions and a loop device, of which only the disk has a device
+        Files.createDirectories(sys.resolve("block/sda/device"));
+        Files.createDirectories(sys.resolve("block/sda/sda1"));
+        Files.createDirectories(sys.resolve("block/loop0"));
+        write(sys.resolve("class/net/eth0/type"), "1\n");
+        write(sys.resolve("class/net/eth0/speed"), "1000\n");
+        write(sys.resolve("class/net/lo/type"), "772\n");
+
+        writeStat(100, 0, 100, 800, 0);
+        writeMeminfo(4_000_000);
+        writeDiskstats(1000, 20_000, 1500, 500, 10_000, 700, 3000);
+        writeNetDev(1_000_000, 2_000_000);
+        writeProcessStat(1, "systemd", 50, 50, 10, 170_000_000, 3000);
+        writeProcessStat(4321, "Web Content", 100, 20, 5000, 2_500_000_000L, 50_000);
+        // The name of a process can contain spaces and parentheses
+        writeProcessStat(4400, "evil) S 1 (name", 10, 0, 6000, 1_000_000, 100);
+        // Entries of /proc which are not processes are skipped
+        write(proc.resolve("net/snmp"), "Ip: Forwarding\n");
+
+        source = new LinuxProcMetricsSource(proc, sys);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (source != null && source.isOpen()) {
+            source.close();
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    void readsTheCpuUsageSinceThePreviousCollection() throws IOException {
+        assertEquals(0, source.collectCounterData(0));
+        assertEquals("Test CPU @ 3.00GHz", source.getCpuMetrics().getDeviceName());
+        // There is no usage before a second sample
+        assertEquals(0, source.getCpuMetrics().getAverageUtilization(), 1e-9);
+
+        // 800 ticks, 600 of them idle or waiting for I/O; the guest ticks are already in the user ticks
+        writeStat(200, 0, 200, 1400, 100);
+        assertEquals(0, source.collectCounterData(SECOND));
+        assertEquals(25, source.getCpuMetrics().getAverageUtilization(), 1e-9);
+    }
+
+    @Test
+    void readsMemoryInUseAndCommitted() throws IOException {
+        assertEquals(0, source.collectCounterData(0));
+
+        SystemMemoryMetric memory = source.getMemoryMetrics();
+        // MemTotal - MemAvailable, and Committed_AS of CommitLimit
+        assertEquals((16_000_000L - 4_000_000L) * 1024, memory.getAveragePhysicalUtilization());
+        assertEquals(5_000_000L * 1024, memory.getAverageVirtualUtilization());
+
+        writeMeminfo(6_000_000);
+        assertEquals(0, source.collectCounterData(SECOND));
+        assertEquals((16_000_000L - 6_000_000L) * 1024, source.getMemoryMetrics().getAveragePhysicalUtilization());
+    }
+
+    @Test
+    void readsDiskRatesOfPhysicalDisksOnly() throws IOException {
+        assertEquals(0, source.collectCounterData(0));
+        List<SystemDiskMetric> disks = source.getDiskMetrics();
+        assertEquals(1, disks.size());
+        assertEquals("0", disks.get(0).getDeviceName());
+
+        // Over 2 seconds: 100 reads of 4000 sectors, 100 writes of 2000 sectors, 300 ms transferring
+        // and 500 ms busy
+        writeDiskstats(1100, 24_000, 1700, 600, 12_000, 800, 3500);
+        assertEquals(0, source.collectCounterData(2 * SECOND));
+
+        SystemDiskMetric disk = source.getDiskMetrics().get(0);
+        assertEquals(25, disk.getAvgUtilization(), 1e-9);
+        assertEquals(4000 * 512 / 2, disk.getAvgReadBandwidth());
+        assertEquals(2000 * 512 / 2, disk.getAvgWriteBandwidth());
+        assertEquals(0.3 / 200, disk.getAvgTimeToTransfer(), 1e-12);
+    }
+
+    @Test
+    void readsNetworkRatesWithoutTheLoopbackInterface() throws IOException {
+        assertEquals(0, source.collectCounterData(0));
+        List<SystemNicMetric> nics = source.getNicMetrics();
+        assertEquals(1, nics.size());
+        assertEquals("eth0", nics.get(0).getDeviceName());
+        assertEquals(1_000_000_000L, nics.get(0).getOperatingBandwidth());
+
+        writeNetDev(1_250_000, 2_100_000);
+        assertEquals(0, source.collectCounterData(2 * SECOND));
+
+        SystemNicMetric nic = source.getNicMetrics().get(0);
+        // In bits per second
+        assertEquals(250_000 * 8 / 2, nic.getAvgReceiveBandwidth());
+        assertEquals(100_000 * 8 / 2, nic.getAvgSendBandwidth());
+    }
+
+    @Test
+    void readsProcessesAndTheirCpuUsage() throws IOException {
+        assertEquals(0, source.collectCounterData(0));
+
+        Map<Integer, ProcessMetric> processes = processesById();
+        assertEquals(3, processes.size());
+        assertEquals("systemd", processes.get(1).getProcessName());
+        assertEquals("Web Content", processes.get(4321).getProcessName());
+        assertEquals("evil) S 1 (name", processes.get(4400).getProcessName());
+        assertEquals(2_500_000_000L, processes.get(4321).getVirtualMemoryUsage());
+        assertEquals(50_000L * 4096, processes.get(4321).getPhysicalMemoryUsage());
+        assertEquals(100L * 4096, processes.get(4400).getPhysicalMemoryUsage());
+
+        // 800 ticks of all processors, of which the process used 80 and the other 40
+        writeStat(200, 0, 200, 1400, 0);
+        writeProcessStat(4321, "Web Content", 160, 40, 5000, 2_500_000_000L, 60_000);
+        writeProcessStat(4400, "evil) S 1 (name", 50, 0, 6000, 1_000_000, 100);
+        assertEquals(0, source.collectCounterData(SECOND));
+
+        processes = processesById();
+        assertEquals(0, processes.get(1).getCpuUsage(), 1e-9);
+        assertEquals(10, processes.get(4321).getCpuUsage(), 1e-9);
+        assertEquals(5, processes.get(4400).getCpuUsage(), 1e-9);
+        assertEquals(60_000L * 4096, processes.get(4321).getPhysicalMemoryUsage());
+    }
+
+    @Test
+    void forgetsExitedProcessesAndReusedProcessIds() throws IOException {
+        assertEquals(0, source.collectCounterData(0));
+
+        // 4321 exits, and 4400 is reused by a new process with a later start time
+        deleteProcess(4321);
+        writeStat(200, 0, 200, 1400, 0);
+        writeProcessStat(4400, "bash", 70, 0, 9000, 2_000_000, 200);
+        assertEquals(0, source.collectCounterData(SECOND));
+
+        Map<Integer, ProcessMetric> processes = processesById();
+        assertEquals(2, processes.size());
+        assertNull(processes.get(4321));
+        assertEquals("bash", processes.get(4400).getProcessName());
+        // The ticks of the previous process are not counted for the new one
+        assertEquals(0, processes.get(4400).getCpuUsage(), 1e-9);
+    }
+
+    @Test
+    void closedSourcesDoNotCollect() {
+        source.close();
+        assertEquals(-1, source.collectCounterData(0));
+        assertNull(source.getProcessMetrics());
+    }
+
+    private Map<Integer, ProcessMetric> processesById() {
+        return source.getProcessMetrics().stream()
+                .collect(Collectors.toMap(ProcessMetric::getProcessId, Function.identity()));
+    }
+
+    private static void write(Path path, String contents) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, contents);
+    }
+
+    private void writeStat(long user, long nice, long system, long idle, long guest) throws IOException {
+        write(proc.resolve("stat"), String.format("cpu  %d %d %d %d 0 0 0 0 %d 0%n", user, nice, system, idle, guest)
+                + String.format("cpu0 %d %d %d %d 0 0 0 0 %d 0%n", user, nice, system, idle, guest)
+                + "intr 12345 0 9 0\nctxt 99999\nbtime 1700000000\nprocesses 5000\n"
+                + "procs_running 2\nprocs_blocked 0\n");
+    }
+
+    private void writeMeminfo(long availableKilobytes) throws IOException {
+        write(proc.resolve("meminfo"), "MemTotal:       16000000 kB\n"
+                + "MemFree:         1000000 kB\n"
+                + "MemAvailable:    " + availableKilobytes + " kB\n"
+                + "Buffers:          200000 kB\n"
+                + "SwapTotal:       4000000 kB\n"
+                + "CommitLimit:    20000000 kB\n"
+                + "Committed_AS:    5000000 kB\n"
+                + "VmallocTotal:   34359738367 kB\n");
+    }
+
+    private void writeDiskstats(long reads, long sectorsRead, long readMillis, long writes, long sectorsWritten,
+                                long writeMillis, long ioMillis) throws IOException {
+        write(proc.resolve("diskstats"),
+                "   7       0 loop0 12 0 100 3 0 0 0 0 0 4 3 0 0 0 0 0 0\n"
+                + String.format("   8       0 sda %d 50 %d %d %d 70 %d %d 0 %d 9000 0 0 0 0 10 20%n",
+                        reads, sectorsRead, readMillis, writes, sectorsWritten, writeMillis, ioMillis)
+                + "   8       1 sda1 900 40 18000 1400 450 60 9000 650 0 2800 2100 0 0 0 0 0 0\n");
+    }
+
+    private void writeNetDev(long received, long sent) throws IOException {
+        write(proc.resolve("net/dev"),
+                "Inter-|   Receive                                                |  Transmit\n"
+                + " face |bytes    packets errs drop fifo frame compressed multicast|bytes    packets errs drop fifo colls carrier compressed\n"
+                + "    lo:  123456     100    0    0    0     0          0         0   123456     100    0    0    0     0       0          0\n"
+                // Large counters are not separated from the colon
+                + String.format("  eth0:%d    5000    0    0    0     0          0        10 %d    4000    0    0    0     0       0          0%n",
+                        received, sent));
+    }
+
+    private void writeProcessStat(int processId, String name, long userTicks, long systemTicks, long startTime,
+                                  long virtualMemory, long residentPages) throws IOException {
+        write(proc.resolve(processId + "/stat"), String.format(
+                "%d (%s) S 1 %d %d 0 -1 4194560 1200 0 3 0 %d %d 0 0 20 0 4 0 %d %d %d 18446744073709551615 1 1 0 0 0 0 0 4096 0 0 0 0 17 2 0 0 0 0 0%n",
+                processId, name, processId, processId, userTicks, systemTicks, startTime, virtualMemory, residentPages));
+    }
+
+    private void deleteProcess(int processId) throws IOException {
+        Files.delete(proc.resolve(processId + "/stat"));
+        Files.delete(proc.resolve(Integer.toString(processId)));
+    }
+}
@@ -0,0 +1,60 @@
+package com.gibbonsdimarco.yamec.app.monitor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProcessIdMapTest {
+
+    @Test
+    void findsReplacesAndRemovesValues() {
+        ProcessIdMap<String> map = new ProcessIdMap<>(4);
+        map.put(0, "idle");
+        map.put(1, "init");
+        map.put(4321, "java");
+        map.put(1, "systemd");
+
+        assertEquals(3, map.size());
+        assertEquals("idle", map.get(0));
+        assertEquals("systemd", map.get(1));
+        assertEquals("java", map.get(4321));
+        assertNull(map.get(2));
+
+        map.removeIf(name -> name.startsWith("s"));
+        assertEquals(2, map.size());
+        assertNull(map.get(1));
+        assertEquals("java", map.get(4321));
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(-1, "negative"));
+    }
+
+    @Test
+    void staysConsistentAsProcessesComeAndGo() {
+        // Far more processes start and exit than the map is sized for, as on a build server
+        ProcessIdMap<Integer> map = new ProcessIdMap<>(16);
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+
+        for (int collection = 0; collection < 2000; collection++) {
+            for (int i = 0; i < 10; i++) {
+                int processId = random.nextInt(1 << 22);
+                map.put(processId, collection);
+                expected.put(processId, collection);
+            }
+            // Processes last up to 5 collections
+            int oldest = collection - 5;
+            map.removeIf(started -> started < oldest);
+            expected.values().removeIf(started -> started < oldest);
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        expected.forEach((processId, collection) -> assertEquals(collection, map.get(processId)));
+        int[] count = {0};
+        map.forEachValue(collection -> count[0]++);
+        assertEquals(expected.size(), count[0]);
+    }
+}
@@ -0,0 +1,83 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.model.ApplicationAdmissionStatistics;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ApplicationAdmissionGuardTest {
+
+    private static final long START = 1_700_000_000_000L;
+    private static final String OTHER = "[other]";
+
+    private final ApplicationNameCache nameCache = mock(ApplicationNameCache.class);
+
+    // Admits names using 10% of the CPU, 1 MB of memory or seen for 5 seconds, with up to 3 pending
+    // and the last 2 admitted remembered
+    private final ApplicationAdmissionGuard guard
+            = new ApplicationAdmissionGuard(nameCache, true, 10, 1 << 20, 5, 3, 2, OTHER);
+
+    @Test
+    void admitsNamesCrossingAThreshold() {
+        assertEquals(OTHER, guard.admit("cc1", 2, 1024, START));
+        assertEquals("cc1", guard.admit("cc1", 12, 1024, START + 1000));
+        // Admitted names stay admitted
+        assertEquals("cc1", guard.admit("cc1", 0, 0, START + 2000));
+
+        assertEquals("java", guard.admit("java", 0, 2 << 20, START));
+
+        assertEquals(OTHER, guard.admit("sleep", 0, 0, START));
+        assertEquals(OTHER, guard.admit("sleep", 0, 0, START + 4000));
+        assertEquals("sleep", guard.admit("sleep", 0, 0, START + 5000));
+
+        ApplicationAdmissionStatistics statistics = guard.getStatistics();
+        assertEquals(3, statistics.getAdmittedNames());
+        assertEquals(3, statistics.getFoldedSamples());
+        assertEquals(0, statistics.getPendingNames());
+    }
+
+    @Test
+    void admitsNamesWhichAlreadyHaveAnApplication() {
+        when(nameCache.isCached("systemd")).thenReturn(true);
+
+        assertEquals("systemd", guard.admit("systemd", 0, 0, START));
+        assertEquals(0, guard.getStatistics().getAdmittedNames());
+    }
+
+    @Test
+    void forgetsEndedNamesAndBoundsThePendingNames() {
+        assertEquals(OTHER, guard.admit("a", 0, 0, START));
+        assertEquals(OTHER, guard.admit("b", 0, 0, START));
+        assertEquals(OTHER, guard.admit("c", 0, 0, START));
+        // Too many names are pending to track another one
+        assertEquals(OTHER, guard.admit("d", 0, 0, START + 1000));
+        assertEquals(1, guard.getStatistics().getUntrackedSamples());
+
+        // a is still running, but b and c ended before being admitted
+        assertEquals(OTHER, guard.admit("a", 0, 0, START + 3000));
+        assertEquals(OTHER, guard.admit("e", 0, 0, START + 6000));
+
+        ApplicationAdmissionStatistics statistics = guard.getStatistics();
+        assertEquals(2, statistics.getFoldedNames());
+        assertEquals(2, statistics.getPendingNames());
+        assertEquals(0, statistics.getAdmittedNames());
+    }
+
+    @Test
+    void remembersOnlyTheNamesAdmittedMostRecently() {
+        assertEquals("a", guard.admit("a", 50, 0, START));
+        assertEquals("b", guard.admit("b", 50, 0, START));
+        // a was seen more recently than b, so b is forgotten when c is admitted
+        assertEquals("a", guard.admit("a", 0, 0, START + 1000));
+        assertEquals("c", guard.admit("c", 50, 0, START + 1000));
+
+        assertEquals("a", guard.admit("a", 0, 0, START + 2000));
+        assertEquals("c", guard.admit("c", 0, 0, START + 2000));
+        // b has to be admitted again, unless its Application has been cached
+        assertEquals(OTHER, guard.admit("b", 0, 0, START + 2000));
+        when(nameCache.isCached("b")).thenReturn(true);
+        assertEquals("b", guard.admit("b", 0, 0, START + 3000));
+    }
+}
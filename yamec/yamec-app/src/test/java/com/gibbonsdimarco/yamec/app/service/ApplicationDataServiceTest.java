@@ -0,0 +1,91 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.config.Granularity;
+import com.gibbonsdimarco.yamec.app.data.ApplicationMetric;
+import com.gibbonsdimarco.yamec.app.data.ProcessMetric;
+import com.gibbonsdimarco.yamec.app.repository.ApplicationRepository;
+import com.gibbonsdimarco.yamec.app.repository.GranularityRepository;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ApplicationDataServiceTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    private static ProcessMetric process(String name, int second, double cpuUsage, long physicalMemory) {
+        ProcessMetric metric = new ProcessMetric(name, 1, cpuUsage, physicalMemory, physicalMemory * 2);
+        metric.setTimestamp(new Timestamp(START + second * 1000L + 250));
+        return metric;
+    }
+
+    @Test
+    void combinesProcessesPerSecondAndCountsSecondsWithoutDataAsZero() {
+        UUID applicationId = UUID.randomUUID();
+        ApplicationNameCache nameCache = mock(ApplicationNameCache.class);
+        when(nameCache.getApplicationId("app")).thenReturn(applicationId);
+        GranularityRepository granularityRepository = mock(GranularityRepository.class);
+        when(granularityRepository.getByLabel("HIGH")).thenReturn(new Granularity("HIGH"));
+
+        ApplicationAdmissionGuard admissionGuard = new ApplicationAdmissionGuard(nameCache, false, 1, 1, 1, 1, 1, "[other]");
+        ApplicationDataService service = new ApplicationDataService(mock(ApplicationRepository.class),
+                null, nameCache, admissionGuard, new GranularityIdCache(granularityRepository), null, null);
+
+        // Second 1 has no data, and the processes of second 0 are not listed together
+        List<ProcessMetric> processes = List.of(
+                process("app", 0, 10, 100),
+                process("app", 2, 20, 400),
+                process("app", 0, 5, 50),
+                process("app", 3, 99, 999));
+
+        List<ApplicationMetric> metrics = service.buildApplicationMetrics(processes, new Timestamp(START), 3);
+
+        assertEquals(1, metrics.size());
+        ApplicationMetric metric = metrics.get(0);
+        assertEquals("app", metric.getApplicationName());
+        assertEquals(35.0 / 3, metric.getAvgCpuUsage(), 1e-9);
+        assertEquals(20, metric.getMaxCpuUsage(), 1e-9);
+        assertEquals(0, metric.getMinCpuUsage(), 1e-9);
+        assertEquals(550 / 3, metric.getAvgPhysicalMemoryUsed());
+        assertEquals(400, metric.getMaxPhysicalMemoryUsed());
+        assertEquals(0, metric.getMinPhysicalMemoryUsed());
+        assertEquals(1100 / 3, metric.getAvgVirtualMemoryUsed());
+    }
+
+    @Test
+    void foldsProcessesWhichAreNotAdmittedIntoOneApplication() {
+        UUID applicationId = UUID.randomUUID();
+        UUID otherId = UUID.randomUUID();
+        ApplicationNameCache nameCache = mock(ApplicationNameCache.class);
+        when(nameCache.getApplicationId("app")).thenReturn(applicationId);
+        when(nameCache.getApplicationId("[other]")).thenReturn(otherId);
+        GranularityRepository granularityRepository = mock(GranularityRepository.class);
+        when(granularityRepository.getByLabel("HIGH")).thenReturn(new Granularity("HIGH"));
+
+        ApplicationAdmissionGuard admissionGuard
+                = new ApplicationAdmissionGuard(nameCache, true, 50, 1 << 30, 60, 16, 16, "[other]");
+        ApplicationDataService service = new ApplicationDataService(mock(ApplicationRepository.class),
+                null, nameCache, admissionGuard, new GranularityIdCache(granularityRepository), null, null);
+
+        List<ProcessMetric> processes = List.of(
+                process("app", 0, 60, 100),
+                process("cc1", 0, 10, 200),
+                process("ld", 0, 5, 300));
+
+        List<ApplicationMetric> metrics = service.buildApplicationMetrics(processes, new Timestamp(START), 1);
+        metrics = metrics.stream().sorted(java.util.Comparator.comparing(ApplicationMetric::getApplicationName)).toList();
+
+        assertEquals(2, metrics.size());
+        assertEquals("[other]", metrics.get(0).getApplicationName());
+        assertEquals(15, metrics.get(0).getAvgCpuUsage(), 1e-9);
+        assertEquals(500, metrics.get(0).getAvgPhysicalMemoryUsed());
+        assertEquals("app", metrics.get(1).getApplicationName());
+        assertEquals(60, metrics.get(1).getAvgCpuUsage(), 1e-9);
+    }
+}
@@ -0,0 +1,168 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class HistoryServiceTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Path directory;
+    private SampleSegmentStore sampleSegmentStore;
+    private HistoryService historyService;
+
+    private static byte[] bytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource("jdbc:sqlite::memory:", true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE granularity (id blob not null, label varchar(255) not null, primary key (id))");
+        jdbcTemplate.execute("CREATE TABLE system_cpu_metrics (id blob not null, duration integer not null,"
+                + " granularity_id blob not null, timestamp timestamp not null, average_utilization float,"
+                + " max_utilization float, min_utilization float, cpu_id blob not null, primary key (id))");
+
+        byte[] high = bytes(UUID.randomUUID());
+        byte[] low = bytes(UUID.randomUUID());
+        jdbcTemplate.update("INSERT INTO granularity VALUES (?, 'HIGH')", (Object) high);
+        jdbcTemplate.update("INSERT INTO granularity VALUES (?, 'LOW')", (Object) low);
+
+        // Two CPUs per second, so every timestamp has a tie, and one LOW metric which is never read.
+        // The first three seconds were saved before the segments kept the samples, and the last two
+        // were saved in both until the segments replaced the database.
+        for (int second = 0; second < 5; second++) {
+            for (int cpu = 0; cpu < 2; cpu++) {
+                double utilization = second < 3 ? second * 10.0 + cpu : -1;
+                jdbcTemplate.update("INSERT INTO system_cpu_metrics VALUES (?, 1, ?, ?, ?, ?, ?, ?)",
+                        bytes(UUID.randomUUID()), high, START + second * 1000L, utilization,
+                        utilization, utilization, bytes(new UUID(0, cpu)));
+            }
+        }
+        jdbcTemplate.update("INSERT INTO system_cpu_metrics VALUES (?, 60, ?, ?, 1, 1, 1, ?)",
+                bytes(UUID.randomUUID()), low, START, bytes(new UUID(0, 0)));
+
+        directory = Files.createTempDirectory("yamec-history-test");
+        sampleSegmentStore = new SampleSegmentStore(directory.toString(), 3600);
+        sampleSegmentStore.findOldestSample();
+        for (int second = 3; second < 5; second++) {
+            // The second CPU is recorded first, so the samples are sorted by device
+            sampleSegmentStore.record(new SlidingWindowStore.Tick(START + second * 1000L)
+                    .add(SlidingWindowStore.SeriesType.CPU, new UUID(0, 1), "cpu1", second * 10.0 + 1)
+                    .add(SlidingWindowStore.SeriesType.CPU, new UUID(0, 0), "cpu0", second * 10.0));
+        }
+
+        MetricTierSelector tierSelector = mock(MetricTierSelector.class);
+        when(tierSelector.selectTiers(any(), any(), anyInt())).thenAnswer(invocation -> List.of(
+                new MetricTierSelector.TierRange("HIGH", invocation.getArgument(0), invocation.getArgument(1))));
+
+        // Chunks of 3 rows, so pages of 4 rows need more than one chunk
+        historyService = new HistoryService(jdbcTemplate, tierSelector, sampleSegmentStore, objectMapper,
+                new DataSourceTransactionManager(dataSource), 3, 4);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        sampleSegmentStore.close();
+        try (java.util.stream.Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(java.util.Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private JsonNode read(String cursor) throws Exception {
+        HistoryService.HistoryQuery query = historyService.prepare("cpu", new Timestamp(START),
+                new Timestamp(START + 5000), 1, cursor, null);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        historyService.write(query, outputStream);
+        return objectMapper.readTree(outputStream.toByteArray());
+    }
+
+    @Test
+    void pagesThroughEveryMetricOnceInOrder() throws Exception {
+        List<JsonNode> metrics = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            JsonNode page = read(cursor);
+            page.get("metrics").forEach(metrics::add);
+            cursor = page.get("nextCursor").isNull() ? null : page.get("nextCursor").asText();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(10, metrics.size());
+        // The CPUs of a second are ordered by ID, whether they were read from the database or the segments
+        for (int i = 0; i < metrics.size(); i++) {
+            JsonNode metric = metrics.get(i);
+            assertEquals(START + (i / 2) * 1000L, metric.get("timestamp").asLong());
+            assertEquals(new UUID(0, i % 2).toString(), metric.get("cpuId").asText());
+            assertEquals("HIGH", metric.get("granularity").asText());
+            assertEquals(1, metric.get("duration").asInt());
+            assertEquals((i / 2) * 10.0 + i % 2, metric.get("averageUtilization").asDouble(), 1e-9);
+            assertEquals((i / 2) * 10.0 + i % 2, metric.get("minUtilization").asDouble(), 1e-9);
+        }
+    }
+
+    @Test
+    void downsamplesEachDevice() throws Exception {
+        HistoryService.HistoryQuery query = historyService.prepareDownsampled("cpu", new Timestamp(START),
+                new Timestamp(START + 5000), 4, "minmax", "maxUtilization", null);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        historyService.write(query, outputStream);
+        JsonNode response = objectMapper.readTree(outputStream.toByteArray());
+
+        assertEquals("maxUtilization", response.get("field").asText());
+        JsonNode series = response.get("series");
+        assertEquals(2, series.size());
+        for (JsonNode device : series) {
+            int cpu = UUID.fromString(device.get("cpuId").asText()).equals(new UUID(0, 0)) ? 0 : 1;
+            JsonNode points = device.get("points");
+            assertEquals(4, points.size());
+            // The smallest and largest value of each half of the range
+            assertEquals(START, points.get(0).get(0).asLong());
+            assertEquals(cpu, points.get(0).get(1).asDouble(), 1e-9);
+            assertEquals(40 + cpu, points.get(3).get(1).asDouble(), 1e-9);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> historyService.prepareDownsampled("cpu",
+                new Timestamp(START), new Timestamp(START + 5000), 4, "lttb", "utilization", null));
+    }
+
+    @Test
+    void rejectsInvalidRequests() {
+        Timestamp start = new Timestamp(START);
+        Timestamp end = new Timestamp(START + 5000);
+        assertThrows(IllegalArgumentException.class, () -> historyService.prepare("gpu", start, end, 1, null, null));
+        assertThrows(IllegalArgumentException.class, () -> historyService.prepare("cpu", end, start, 1, null, null));
+        assertThrows(IllegalArgumentException.class, () -> historyService.prepare("cpu", start, end, 1, "cursor", null));
+        assertThrows(IllegalArgumentException.class, () -> historyService.prepare("cpu", start, end, 1, null, 0));
+    }
+}
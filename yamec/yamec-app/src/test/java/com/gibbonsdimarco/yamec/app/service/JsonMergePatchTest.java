@@ -0,0 +1,33 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonMergePatchTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ObjectNode json(String json) throws Exception {
+        return (ObjectNode) objectMapper.readTree(json.replace('\'', '"'));
+    }
+
+    @Test
+    void patchHoldsOnlyChangedFieldsOfNestedObjects() throws Exception {
+        ObjectNode previous = json("{'cpuUsage':10.5,'disks':{'a':{'usage':1,'name':'C'},'b':{'usage':2}},'tags':[1,2]}");
+        ObjectNode current = json("{'cpuUsage':10.5,'disks':{'a':{'usage':3,'name':'C'},'c':{'usage':4}},'tags':[1,3]}");
+
+        assertEquals(json("{'disks':{'a':{'usage':3},'b':null,'c':{'usage':4}},'tags':[1,3]}"),
+                JsonMergePatch.diff(previous, current));
+    }
+
+    @Test
+    void patchOfEqualDocumentsIsEmpty() throws Exception {
+        ObjectNode document = json("{'cpuUsage':10.5,'nics':{'a':{'sent':1}}}");
+
+        assertTrue(JsonMergePatch.diff(document, document.deepCopy()).isEmpty());
+    }
+}
@@ -0,0 +1,88 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsCoverEveryDurationInOrder() {
+        long[] values = {0, 1, 255, 256, 257, 511, 512, 1_000, 123_456, 1_000_000_000L, 1L << 40};
+        int previous = -1;
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket >= previous, "bucket of " + value);
+            assertTrue(LatencyHistogram.highestValueIn(bucket) >= value, "highest value in the bucket of " + value);
+            if (bucket > 0) {
+                assertTrue(LatencyHistogram.highestValueIn(bucket - 1) < value, "highest value before " + value);
+            }
+            previous = bucket;
+        }
+        assertEquals(LatencyHistogram.bucketOf(Long.MAX_VALUE), LatencyHistogram.bucketOf(1L << 50));
+    }
+
+    @Test
+    void percentilesAreWithinOnePercent() {
+        Random random = new Random(7);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-uniform between 1 µs and 1 s, like the durations of the stages
+            values[i] = (long) Math.pow(10, 3 + random.nextDouble() * 6);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        double[] quantiles = {0.5, 0.9, 0.99, 0.999};
+        long[] estimates = histogram.getValuesAtQuantiles(quantiles);
+        for (int i = 0; i < quantiles.length; i++) {
+            long exact = values[(int) Math.ceil(quantiles[i] * values.length) - 1];
+            assertEquals(exact, estimates[i], exact * 0.01, "quantile " + quantiles[i]);
+        }
+
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length - 1], histogram.getValueAtQuantile(1.0));
+        assertEquals(Arrays.stream(values).average().orElseThrow(), histogram.getMean(), 1e-6);
+    }
+
+    @Test
+    void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getValueAtQuantile(0.99));
+
+        histogram.record(-5);
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        assertEquals(1, histogram.getCount());
+    }
+
+    @Test
+    void collectionJitterIsMeasuredFromTheFixedRateSchedule() {
+        PipelineTimings timings = new PipelineTimings();
+        long period = 1_000_000_000L;
+
+        timings.recordCollectionStart(5 * period, period);
+        timings.recordCollectionStart(6 * period + 3_000_000L, period);
+        // The previous collection overran until 9.5 s, so the ones due at 7 s and 8 s run late
+        timings.recordCollectionStart(9 * period + 500_000_000L, period);
+        timings.recordCollectionStart(9 * period + 501_000_000L, period);
+        timings.recordCollectionStart(9 * period + 502_000_000L, period);
+        timings.recordCollectionStart(10 * period + 1_000L, period);
+        // Starting before the schedule moves it earlier
+        timings.recordCollectionStart(10 * period + 900_000_000L, period);
+        timings.recordCollectionStart(11 * period + 902_000_000L, period);
+
+        LatencyHistogram jitter = timings.getHistogram(PipelineTimings.Stage.COLLECTION_JITTER);
+        assertEquals(8, jitter.getCount());
+        assertEquals(2_500_000_000L, jitter.getMax());
+        assertEquals(2_000_000L, jitter.getValueAtQuantile(0.5), 2_000_000L * 0.01);
+        assertEquals(3_000_000L, jitter.getValueAtQuantile(0.6), 3_000_000L * 0.01);
+        assertEquals(502_000_000L, jitter.getValueAtQuantile(0.75), 502_000_000L * 0.01);
+    }
+}
@@ -0,0 +1,76 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricAggregatorTest {
+
+    @Test
+    void aggregatesEachKeyInTheOrderFirstSeen() {
+        MetricAggregator<String> aggregator = new MetricAggregator<>(1, 1, 1);
+
+        // More keys than the initial capacity, interleaved as devices are in a collection
+        for (int second = 0; second < 4; second++) {
+            for (int key = 0; key < 20; key++) {
+                int slot = aggregator.slot("device-" + key);
+                aggregator.countMetric(slot);
+                aggregator.recordDouble(slot, 0, key + second, key + second + 0.5, key + second - 0.5);
+                aggregator.recordLong(slot, 0, key * 10L + second, key * 10L + second + 1, key * 10L + second - 1);
+                aggregator.recordFlag(slot, 0, key == 3 && second == 2);
+            }
+        }
+
+        assertEquals(20, aggregator.size());
+        for (int slot = 0; slot < 20; slot++) {
+            assertEquals("device-" + slot, aggregator.key(slot));
+            assertEquals(4, aggregator.getCount(slot));
+            assertEquals(slot + 1.5, aggregator.doubleAverage(slot, 0), 1e-9);
+            assertEquals(slot + 3.5, aggregator.doubleMaximum(slot, 0), 1e-9);
+            assertEquals(slot - 0.5, aggregator.doubleMinimum(slot, 0), 1e-9);
+            assertEquals(slot * 10L + 1, aggregator.longAverage(slot, 0));
+            assertEquals(slot * 10L + 4, aggregator.longMaximum(slot, 0));
+            assertEquals(slot * 10L - 1, aggregator.longMinimum(slot, 0));
+            assertEquals(slot == 3, aggregator.flag(slot, 0));
+        }
+    }
+
+    @Test
+    void maximumOfZeroesIsZero() {
+        MetricAggregator<String> aggregator = new MetricAggregator<>(1, 0, 0);
+        int slot = aggregator.slot("disk");
+        aggregator.countMetric(slot);
+        aggregator.recordDouble(slot, 0, 0, 0, 0);
+
+        assertEquals(0.0, aggregator.doubleMaximum(slot, 0));
+    }
+
+    @Test
+    void sketchesAddValuesAndMergeTheSketchesOfLongerMetrics() {
+        MetricAggregator<String> aggregator = new MetricAggregator<>(0, 0, 0, 1);
+        QuantileSketch window = new QuantileSketch();
+        window.add(50, 299);
+
+        int slot = aggregator.slot("cpu");
+        aggregator.recordSketch(slot, 0, 10, null);
+        aggregator.recordSketch(slot, 0, 12, window.toBytes());
+
+        QuantileSketch sketch = QuantileSketch.fromBytes(aggregator.sketchBytes(slot, 0));
+        assertEquals(300, sketch.getCount());
+        assertEquals(10, sketch.getMin());
+        assertEquals(50, sketch.quantile(0.5), 0.5);
+        assertNull(new MetricAggregator<String>(0, 0, 0, 1).sketchBytes(0, 0));
+    }
+
+    @Test
+    void timespanIncludesItsStartAndExcludesItsEnd() {
+        long start = 1_000_000;
+
+        assertFalse(MetricAggregator.isInTimespan(new Timestamp(start - 1000), start, 60));
+        assertTrue(MetricAggregator.isInTimespan(new Timestamp(start), start, 60));
+        assertTrue(MetricAggregator.isInTimespan(new Timestamp(start + 59_999), start, 60));
+        assertFalse(MetricAggregator.isInTimespan(new Timestamp(start + 60_000), start, 60));
+    }
+}
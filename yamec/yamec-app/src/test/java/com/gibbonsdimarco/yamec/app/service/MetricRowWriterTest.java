@@ -0,0 +1,156 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.data.Application;
+import com.gibbonsdimarco.yamec.app.data.ApplicationMetric;
+import com.gibbonsdimarco.yamec.app.data.CpuHardwareInformation;
+import com.gibbonsdimarco.yamec.app.data.SystemCpuMetric;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricRowWriterTest {
+
+    private Path databaseFile;
+    private JdbcTemplate jdbcTemplate;
+    private MetricRowWriter writer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        databaseFile = Files.createTempFile("yamec-writer-test", ".sqlite");
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + databaseFile);
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        writer = new MetricRowWriter(jdbcTemplate, new MetricSeriesCache(jdbcTemplate));
+
+        // As created by Hibernate, then keyed on their series
+        jdbcTemplate.execute("CREATE TABLE system_cpu_metrics (series_id bigint not null, duration integer not null,"
+                + " granularity_id blob not null, timestamp timestamp not null, average_utilization float,"
+                + " max_utilization float, min_utilization float, cpu_id blob not null, utilization_sketch blob,"
+                + " primary key (series_id, timestamp))");
+        jdbcTemplate.execute("CREATE TABLE application_metrics (series_id bigint not null, avg_cpu_usage float,"
+                + " avg_physical_memory_used bigint, avg_virtual_memory_used bigint, duration integer not null,"
+                + " max_cpu_usage float, max_physical_memory_used bigint, max_virtual_memory_used bigint,"
+                + " min_cpu_usage float, min_physical_memory_used bigint, min_virtual_memory_used bigint,"
+                + " timestamp timestamp not null, application_id blob not null, granularity_id blob,"
+                + " cpu_usage_sketch blob, physical_memory_used_sketch blob, primary key (series_id, timestamp))");
+        MetricTableMigration migration = new MetricTableMigration(jdbcTemplate, 5000, 0, 200);
+        migration.convertTables();
+        migration.copyLegacyMetrics();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(databaseFile);
+    }
+
+    @Test
+    void rowsAreInsertedInFullAndPartialStatements() {
+        CpuHardwareInformation cpu = new CpuHardwareInformation("Test CPU", 8, 16, "x64", 1, 0, 0, 0, true);
+        cpu.setId(UUID.randomUUID());
+        UUID granularityId = UUID.randomUUID();
+
+        int count = MetricRowWriter.ROWS_PER_STATEMENT * 2 + 3;
+        java.util.List<SystemCpuMetric> metrics = new java.util.ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SystemCpuMetric metric = new SystemCpuMetric();
+            metric.setCpu(cpu);
+            metric.setTimestamp(new Timestamp(1_000_000L + i * 1000L));
+            metric.setDuration(1);
+            metric.setGranularityId(granularityId);
+            metric.setAverageUtilization((double) i);
+            metric.setMaxUtilization(i + 0.5);
+            metric.setMinUtilization(i == 0 ? null : i - 0.5);
+            metrics.add(metric);
+        }
+
+        assertEquals(count, writer.insertCpuMetrics(metrics));
+        assertEquals(Integer.valueOf(count), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM system_cpu_metrics", Integer.class));
+
+        // Every metric of the CPU at the granularity level is in one series
+        SystemCpuMetric last = metrics.getLast();
+        assertNotNull(last.getSeriesId());
+        assertEquals(last.getSeriesId(), metrics.getFirst().getSeriesId());
+        assertEquals(last.getSeriesId(), jdbcTemplate.queryForObject(
+                "SELECT id FROM metric_series WHERE device_id = ? AND granularity_id = ?", Long.class,
+                toBytes(cpu.getId()), toBytes(granularityId)));
+
+        Map<String, Object> row = jdbcTemplate.queryForMap(
+                "SELECT * FROM system_cpu_metrics WHERE series_id = ? AND timestamp = ?",
+                last.getSeriesId(), last.getTimestamp().getTime());
+        assertEquals(1, ((Number) row.get("duration")).intValue());
+        assertArrayEquals(toBytes(granularityId), (byte[]) row.get("granularity_id"));
+        assertArrayEquals(toBytes(cpu.getId()), (byte[]) row.get("cpu_id"));
+        assertEquals(count - 1.0, ((Number) row.get("average_utilization")).doubleValue());
+        assertEquals(count - 1.5, ((Number) row.get("min_utilization")).doubleValue());
+        assertNull(row.get("utilization_sketch"));
+
+        assertNull(jdbcTemplate.queryForObject(
+                "SELECT min_utilization FROM system_cpu_metrics WHERE series_id = ? AND timestamp = ?",
+                Double.class, last.getSeriesId(), metrics.getFirst().getTimestamp().getTime()));
+    }
+
+    @Test
+    void applicationMetricsWithoutGranularityHaveTheirOwnSeries() {
+        Application application = new Application("firefox.exe");
+        application.setId(UUID.randomUUID());
+        UUID granularityId = UUID.randomUUID();
+
+        ApplicationMetric metric = applicationMetric(application, null, 5_000L);
+        metric.setAvgCpuUsage(12.5);
+        metric.setAvgPhysicalMemoryUsed(4096L);
+        metric.setAvgVirtualMemoryUsed(8192L);
+        metric.setCpuUsageSketch(new byte[] {1, 2, 3});
+
+        assertEquals(1, writer.insertApplicationMetrics(java.util.List.of(metric)));
+        assertEquals(0, writer.insertApplicationMetrics(java.util.List.of()));
+
+        Map<String, Object> row = jdbcTemplate.queryForMap("SELECT * FROM application_metrics");
+        assertEquals(metric.getSeriesId(), ((Number) row.get("series_id")).longValue());
+        assertArrayEquals(toBytes(application.getId()), (byte[]) row.get("application_id"));
+        assertNull(row.get("granularity_id"));
+        assertEquals(4096L, ((Number) row.get("avg_physical_memory_used")).longValue());
+        assertNull(row.get("max_physical_memory_used"));
+        assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) row.get("cpu_usage_sketch"));
+
+        // The same timestamp at a granularity level is another series, and a new cache finds the
+        // series without a granularity level rather than adding it again
+        ApplicationMetric rolledUp = applicationMetric(application, granularityId, 5_000L);
+        ApplicationMetric later = applicationMetric(application, null, 6_000L);
+        MetricRowWriter restarted = new MetricRowWriter(jdbcTemplate, new MetricSeriesCache(jdbcTemplate));
+        assertEquals(2, restarted.insertApplicationMetrics(java.util.List.of(rolledUp, later)));
+
+        assertNotEquals(metric.getSeriesId(), rolledUp.getSeriesId());
+        assertEquals(metric.getSeriesId(), later.getSeriesId());
+        assertEquals(Integer.valueOf(2), jdbcTemplate.queryForObject("SELECT COUNT(*) FROM metric_series",
+                Integer.class));
+    }
+
+    private static ApplicationMetric applicationMetric(Application application, UUID granularityId, long timestamp) {
+        ApplicationMetric metric = new ApplicationMetric();
+        metric.setApplication(application);
+        metric.setGranularityId(granularityId);
+        metric.setTimestamp(new Timestamp(timestamp));
+        metric.setDuration(10);
+        return metric;
+    }
+
+    private static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+}
@@ -0,0 +1,130 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricTableMigrationTest {
+
+    private static final int BATCH_SIZE = 30;
+
+    private Path databaseFile;
+    private JdbcTemplate jdbcTemplate;
+    private MetricTableMigration migration;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        databaseFile = Files.createTempFile("yamec-migration-test", ".sqlite");
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + databaseFile);
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        migration = new MetricTableMigration(jdbcTemplate, BATCH_SIZE, 0, 2);
+
+        // As clustered on the timestamp by an earlier version, with the constraints Hibernate adds
+        jdbcTemplate.execute("CREATE TABLE application_metrics (id blob not null, avg_cpu_usage float,"
+                + " duration integer not null check (duration > 0), timestamp timestamp not null,"
+                + " application_id blob not null, granularity_id blob,"
+                + " constraint fk_application foreign key (application_id) references application,"
+                + " primary key (timestamp, application_id, id)) WITHOUT ROWID");
+        jdbcTemplate.execute("CREATE INDEX idx_application_metrics_application on application_metrics (application_id)");
+        for (int i = 0; i < 100; i++) {
+            jdbcTemplate.update("INSERT INTO application_metrics VALUES (?, ?, 1, ?, ?, NULL)",
+                    new byte[] {(byte) (100 - i)}, i * 0.5, 1000L * (i / 4), new byte[] {(byte) (i % 4)});
+        }
+        // A metric saved twice
+        jdbcTemplate.update("INSERT INTO application_metrics VALUES (?, -1, 1, 24000, ?, NULL)",
+                new byte[] {127}, new byte[] {3});
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(databaseFile);
+    }
+
+    @Test
+    void tableIsKeyedOnItsSeriesWithItsConstraints() {
+        migration.convertTables();
+
+        String sql = jdbcTemplate.queryForObject(
+                "SELECT sql FROM sqlite_master WHERE type = 'table' AND name = 'application_metrics'", String.class);
+        assertTrue(sql.startsWith("CREATE TABLE application_metrics (series_id INTEGER NOT NULL, avg_cpu_usage float"),
+                sql);
+        assertTrue(sql.endsWith("PRIMARY KEY (series_id, timestamp)) WITHOUT ROWID"), sql);
+        assertTrue(sql.contains("duration integer not null check (duration > 0)"), sql);
+        assertTrue(sql.contains("constraint fk_application foreign key (application_id) references application"), sql);
+        assertFalse(sql.contains(" id blob"), sql);
+
+        assertEquals(java.util.List.of("idx_application_metrics_application", "idx_application_metrics_timestamp"),
+                jdbcTemplate.queryForList("SELECT name FROM sqlite_master WHERE type = 'index'"
+                        + " AND tbl_name = 'application_metrics' AND sql IS NOT NULL ORDER BY name", String.class));
+
+        // The metrics are left to copy
+        assertTrue(migration.isCopying());
+        assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM application_metrics", Integer.class));
+        assertEquals(Integer.valueOf(101), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM application_metrics_legacy", Integer.class));
+    }
+
+    @Test
+    void metricsAreCopiedInBatchesUntilTheLegacyTableIsDropped() {
+        migration.convertTables();
+
+        // Two batches per run
+        migration.copyLegacyMetrics();
+        assertTrue(migration.isCopying());
+        assertEquals(Integer.valueOf(2 * BATCH_SIZE), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM application_metrics", Integer.class));
+        assertEquals(Integer.valueOf(101 - 2 * BATCH_SIZE), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM application_metrics_legacy", Integer.class));
+
+        migration.copyLegacyMetrics();
+        assertFalse(migration.isCopying());
+        assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM sqlite_master WHERE name = 'application_metrics_legacy'", Integer.class));
+
+        // One series per application, and the metric saved twice is only copied once
+        assertEquals(Integer.valueOf(4), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM metric_series WHERE granularity_id IS NULL", Integer.class));
+        assertEquals(Integer.valueOf(100), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM application_metrics", Integer.class));
+        assertEquals(Integer.valueOf(25), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM application_metrics m JOIN metric_series s ON s.id = m.series_id"
+                        + " WHERE s.device_id = ?", Integer.class, (Object) new byte[] {3}));
+        assertEquals(Double.valueOf(49.5), jdbcTemplate.queryForObject(
+                "SELECT avg_cpu_usage FROM application_metrics WHERE timestamp = 24000 AND application_id = ?",
+                Double.class, (Object) new byte[] {3}));
+
+        String seriesPlan = jdbcTemplate.queryForObject(
+                "EXPLAIN QUERY PLAN SELECT * FROM application_metrics WHERE series_id = 1"
+                        + " AND timestamp >= 10000 AND timestamp < 20000",
+                (rs, row) -> rs.getString("detail"));
+        assertTrue(seriesPlan.contains("PRIMARY KEY (series_id=? AND timestamp>? AND timestamp<?)"), seriesPlan);
+        String rangePlan = jdbcTemplate.queryForObject(
+                "EXPLAIN QUERY PLAN SELECT * FROM application_metrics WHERE timestamp >= 10000 AND timestamp < 20000",
+                (rs, row) -> rs.getString("detail"));
+        assertTrue(rangePlan.contains("idx_application_metrics_timestamp"), rangePlan);
+    }
+
+    @Test
+    void migrationOnlyRunsOnce() {
+        migration.convertTables();
+        migration.copyLegacyMetrics();
+        migration.copyLegacyMetrics();
+
+        migration.convertTables();
+        assertFalse(migration.convertTable("application_metrics"));
+        assertFalse(migration.convertTable("system_cpu_metrics"));
+        assertFalse(migration.isCopying());
+        assertEquals(Integer.valueOf(100), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM application_metrics", Integer.class));
+    }
+}
@@ -0,0 +1,74 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.config.GranularityConfig;
+import com.gibbonsdimarco.yamec.app.data.RollupWatermark;
+import com.gibbonsdimarco.yamec.app.repository.GranularityConfigRepository;
+import com.gibbonsdimarco.yamec.app.repository.RollupWatermarkRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MetricTierSelectorTest {
+
+    private static final UUID LOW_ID = UUID.randomUUID();
+
+    private RollupWatermarkRepository watermarkRepository;
+    private MetricTierSelector selector;
+
+    @BeforeEach
+    void setUp() {
+        GranularityConfig lowConfig = new GranularityConfig();
+        lowConfig.setGranularityId(LOW_ID);
+        lowConfig.setRecordTimespan(300);
+
+        GranularityConfigRepository configRepository = mock(GranularityConfigRepository.class);
+        when(configRepository.findByGranularityLabel("LOW")).thenReturn(lowConfig);
+        watermarkRepository = mock(RollupWatermarkRepository.class);
+
+        selector = new MetricTierSelector(configRepository, watermarkRepository);
+    }
+
+    @Test
+    void readsRolledUpPartFromLowAndTheRestFromHigh() {
+        when(watermarkRepository.findByGranularityId(LOW_ID))
+                .thenReturn(new RollupWatermark(LOW_ID, new Timestamp(6_000_000)));
+
+        List<MetricTierSelector.TierRange> ranges
+                = selector.selectTiers(new Timestamp(0), new Timestamp(9_000_000), 600);
+
+        assertEquals(2, ranges.size());
+        assertEquals("LOW", ranges.get(0).getGranularityLabel());
+        assertEquals(0, ranges.get(0).getStart().getTime());
+        assertEquals(6_000_000, ranges.get(0).getEnd().getTime());
+        assertEquals("HIGH", ranges.get(1).getGranularityLabel());
+        assertEquals(6_000_000, ranges.get(1).getStart().getTime());
+        assertEquals(9_000_000, ranges.get(1).getEnd().getTime());
+    }
+
+    @Test
+    void readsHighWhenResolutionIsFinerThanLowOrNothingIsRolledUp() {
+        when(watermarkRepository.findByGranularityId(LOW_ID))
+                .thenReturn(new RollupWatermark(LOW_ID, new Timestamp(6_000_000)));
+
+        List<MetricTierSelector.TierRange> fine = selector.selectTiers(new Timestamp(0), new Timestamp(9_000_000), 60);
+        assertEquals(1, fine.size());
+        assertEquals("HIGH", fine.get(0).getGranularityLabel());
+
+        // Entirely rolled up
+        List<MetricTierSelector.TierRange> old = selector.selectTiers(new Timestamp(0), new Timestamp(3_000_000), 300);
+        assertEquals(1, old.size());
+        assertEquals("LOW", old.get(0).getGranularityLabel());
+
+        when(watermarkRepository.findByGranularityId(LOW_ID)).thenReturn(null);
+        List<MetricTierSelector.TierRange> none = selector.selectTiers(new Timestamp(0), new Timestamp(9_000_000), 300);
+        assertEquals(1, none.size());
+        assertEquals("HIGH", none.get(0).getGranularityLabel());
+    }
+}
@@ -0,0 +1,235 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gibbonsdimarco.yamec.app.model.MetricsData;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class MetricsStreamServiceTest {
+
+    private static final int BUFFER_SIZE = 2;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ManualExecutor publisher = new ManualExecutor();
+    private final ManualExecutor senders = new ManualExecutor();
+    private final MetricsStreamService service = new MetricsStreamService(mock(LatestMetricsCache.class),
+            objectMapper, 60_000, BUFFER_SIZE, publisher, senders);
+
+    private void publish(long collection) {
+        MetricsData systemMetrics = new MetricsData();
+        systemMetrics.setCpuUsage(collection);
+        service.onPublish(new Timestamp(collection * 1000), systemMetrics, null);
+    }
+
+    private double cpuUsage(Event event) throws IOException {
+        return objectMapper.readTree(event.data()).get("cpuUsage").asDouble();
+    }
+
+    @Test
+    void buildsDocumentsOnThePublisherAndOnlyTheLatestWaiting() throws IOException {
+        RecordingEmitter client = new RecordingEmitter();
+        service.subscribeToSystemMetrics(client);
+
+        publish(1);
+        publish(2);
+        publish(3);
+        // Nothing is serialized on the thread which published
+        assertEquals(1, publisher.size());
+        assertTrue(client.events.isEmpty());
+
+        publisher.runAll();
+        senders.runAll();
+
+        assertEquals(1, client.events.size());
+        assertEquals(MetricsStreamService.SNAPSHOT_EVENT, client.events.getFirst().name());
+        assertEquals(3, cpuUsage(client.events.getFirst()));
+    }
+
+    @Test
+    void sendsPatchesAfterTheFirstSnapshot() throws IOException {
+        RecordingEmitter client = new RecordingEmitter();
+        service.subscribeToSystemMetrics(client);
+
+        publish(1);
+        publisher.runAll();
+        publish(2);
+        publisher.runAll();
+        // Nothing changed, so there is nothing to send
+        publish(2);
+        publisher.runAll();
+        senders.runAll();
+
+        assertEquals(2, client.events.size());
+        assertEquals(MetricsStreamService.SNAPSHOT_EVENT, client.events.get(0).name());
+        assertEquals(MetricsStreamService.PATCH_EVENT, client.events.get(1).name());
+        assertEquals(2, cpuUsage(client.events.get(1)));
+        // The patch only holds the fields which changed
+        assertEquals(2, objectMapper.readTree(client.events.get(1).data()).size());
+    }
+
+    @Test
+    void clientJoiningMidStreamStartsWithTheLatestSnapshot() throws IOException {
+        RecordingEmitter first = new RecordingEmitter();
+        service.subscribeToSystemMetrics(first);
+        publish(1);
+        publisher.runAll();
+        senders.runAll();
+        publish(2);
+        publisher.runAll();
+        senders.runAll();
+
+        RecordingEmitter second = new RecordingEmitter();
+        service.subscribeToSystemMetrics(second);
+        publish(3);
+        publisher.runAll();
+        senders.runAll();
+
+        assertEquals(java.util.List.of(MetricsStreamService.SNAPSHOT_EVENT, MetricsStreamService.PATCH_EVENT,
+                MetricsStreamService.PATCH_EVENT), first.names());
+        assertEquals(java.util.List.of(MetricsStreamService.SNAPSHOT_EVENT, MetricsStreamService.PATCH_EVENT),
+                second.names());
+        assertEquals(2, cpuUsage(second.events.get(0)));
+        assertEquals(3, cpuUsage(second.events.get(1)));
+    }
+
+    @Test
+    void slowClientSkipsToASnapshotWhenItsBufferOverflows() throws IOException {
+        RecordingEmitter slow = new RecordingEmitter();
+        service.subscribeToSystemMetrics(slow);
+
+        // The client is not sent anything while the collections are published
+        for (int collection = 1; collection <= 5; collection++) {
+            publish(collection);
+            publisher.runAll();
+        }
+        senders.runAll();
+
+        // Snapshot 1 and patch 2 filled the buffer, so 3 replaced them with a snapshot, then patch
+        // 4 filled it again and 5 replaced them with a snapshot
+        assertEquals(1, slow.events.size());
+        assertEquals(MetricsStreamService.SNAPSHOT_EVENT, slow.events.getFirst().name());
+        assertEquals(5, cpuUsage(slow.events.getFirst()));
+
+        // The client is back in sync and receives patches again
+        publish(6);
+        publisher.runAll();
+        senders.runAll();
+        assertEquals(MetricsStreamService.PATCH_EVENT, slow.events.get(1).name());
+        assertEquals(6, cpuUsage(slow.events.get(1)));
+    }
+
+    @Test
+    void schedulesOneDrainAtATimeAndAnotherOnceItFinishes() {
+        RecordingEmitter client = new RecordingEmitter();
+        service.subscribeToSystemMetrics(client);
+
+        publish(1);
+        publisher.runAll();
+        publish(2);
+        publisher.runAll();
+        assertEquals(1, senders.size());
+
+        // Events buffered while the client is sent the others go out in the same drain
+        client.onSend = () -> {
+            if (client.events.size() == 1) {
+                publish(3);
+                publisher.runAll();
+            }
+        };
+        senders.runAll();
+        assertEquals(3, client.events.size());
+        assertEquals(0, senders.size());
+
+        client.onSend = () -> {};
+        publish(4);
+        publisher.runAll();
+        assertEquals(1, senders.size());
+        senders.runAll();
+        assertEquals(4, client.events.size());
+    }
+
+    @Test
+    void dropsClientsWhichDisconnected() {
+        RecordingEmitter client = new RecordingEmitter();
+        service.subscribeToSystemMetrics(client);
+        client.onSend = () -> {
+            throw new IllegalStateException("Disconnected");
+        };
+
+        publish(1);
+        publisher.runAll();
+        senders.runAll();
+        client.onSend = () -> {};
+        publish(2);
+        publisher.runAll();
+
+        assertEquals(0, senders.size());
+        assertTrue(client.events.isEmpty());
+    }
+
+    private record Event(String name, String data) {
+    }
+
+    /**
+     * Records the events sent instead of writing them to a response
+     */
+    private static class RecordingEmitter extends SseEmitter {
+        private final java.util.List<Event> events = new java.util.ArrayList<>();
+        private Runnable onSend = () -> {};
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            StringBuilder text = new StringBuilder();
+            for (DataWithMediaType item : builder.build()) {
+                text.append(item.getData());
+            }
+
+            String name = null;
+            String data = null;
+            for (String line : text.toString().split("\n")) {
+                if (line.startsWith("event:")) {
+                    name = line.substring("event:".length());
+                } else if (line.startsWith("data:")) {
+                    data = line.substring("data:".length());
+                }
+            }
+            onSend.run();
+            events.add(new Event(name, data));
+        }
+
+        java.util.List<String> names() {
+            return events.stream().map(Event::name).toList();
+        }
+    }
+
+    /**
+     * Runs the tasks submitted only when asked to
+     */
+    private static class ManualExecutor implements Executor {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        int size() {
+            return tasks.size();
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
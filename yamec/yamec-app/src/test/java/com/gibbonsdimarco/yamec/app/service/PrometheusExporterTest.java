@@ -0,0 +1,93 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.model.ApplicationMetricsData;
+import com.gibbonsdimarco.yamec.app.model.DiskData;
+import com.gibbonsdimarco.yamec.app.model.MetricsData;
+import com.gibbonsdimarco.yamec.app.model.NicData;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrometheusExporterTest {
+
+    private final LatestMetricsCache cache = new LatestMetricsCache();
+    private final PrometheusExporter exporter = new PrometheusExporter(cache);
+
+    private String scrape() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        exporter.writeTo(outputStream);
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+    private static ApplicationMetricsData application(UUID id, String name, double cpuUsage) {
+        return new ApplicationMetricsData(id, name, cpuUsage, 2048, 4096, cpuUsage, 2048, 4096, cpuUsage, 2048, 4096);
+    }
+
+    @Test
+    void rendersTheLatestCollection() throws Exception {
+        MetricsData system = new MetricsData();
+        system.setCpuUsage(12.5);
+        system.setTotalMemory(16L << 30);
+        system.setUsedMemory(4L << 30);
+        UUID diskId = UUID.randomUUID();
+        system.addDisk(new DiskData(diskId, "Disk \"0\" C:\\", 0, List.of("C:"), "SSD", 1L << 40,
+                3, 3, 3, 1000, 1000, 1000, 2000, 2000, 2000, 0.25, 0.25, 0.25));
+        UUID nicId = UUID.randomUUID();
+        system.addNic(new NicData(nicId, "eth0", "eth0", "Ethernet", 800, 1600, 800, 800, 1600, 1600));
+
+        UUID applicationId = UUID.randomUUID();
+        ApplicationMetricsData.ApplicationMetricsDataList applications = new ApplicationMetricsData.ApplicationMetricsDataList();
+        applications.addApplication(application(applicationId, "line\nbreak", 1.5));
+
+        cache.publish(new Timestamp(1_700_000_000_000L), system, applications);
+        String text = scrape();
+
+        assertTrue(text.contains("# TYPE yamec_cpu_usage_percent gauge\nyamec_cpu_usage_percent 12.5\n"));
+        assertTrue(text.contains("\nyamec_memory_total_bytes 17179869184\n"));
+        assertTrue(text.contains("\nyamec_last_collection_timestamp_seconds 1700000000\n"));
+        assertTrue(text.contains("\nyamec_disk_read_bytes_per_second{id=\"" + diskId
+                + "\",disk=\"Disk \\\"0\\\" C:\\\\\"} 1000\n"));
+        assertTrue(text.contains("\nyamec_disk_transfer_time_seconds{id=\"" + diskId + "\","));
+        assertTrue(text.contains("\nyamec_nic_received_bits_per_second{id=\"" + nicId + "\",nic=\"eth0\"} 1600\n"));
+        assertTrue(text.contains("\nyamec_application_cpu_usage_percent{id=\"" + applicationId
+                + "\",application=\"line\\nbreak\"} 1.5\n"));
+        assertTrue(text.contains("\nyamec_application_virtual_memory_bytes{id=\"" + applicationId
+                + "\",application=\"line\\nbreak\"} 4096\n"));
+
+        // Every line is a comment or a sample
+        for (String line : text.split("\n")) {
+            assertTrue(line.startsWith("# ") || line.matches("yamec_[a-z_]+(\\{.*})? \\S+"), line);
+        }
+    }
+
+    @Test
+    void reusesTheBufferAcrossScrapes() throws Exception {
+        ApplicationMetricsData.ApplicationMetricsDataList first = new ApplicationMetricsData.ApplicationMetricsDataList();
+        for (int i = 0; i < 5000; i++) {
+            first.addApplication(application(UUID.randomUUID(), "app-" + i, i));
+        }
+        cache.publish(new Timestamp(1_700_000_000_000L), new MetricsData(), first);
+        assertTrue(scrape().contains("application=\"app-4999\"} 4999\n"));
+
+        // A smaller collection is not followed by what was left in the buffer
+        ApplicationMetricsData.ApplicationMetricsDataList second = new ApplicationMetricsData.ApplicationMetricsDataList();
+        second.addApplication(application(UUID.randomUUID(), "only", 1));
+        cache.publish(new Timestamp(1_700_000_001_000L), new MetricsData(), second);
+        String text = scrape();
+        assertFalse(text.contains("app-"));
+        assertTrue(text.endsWith("application=\"only\"} 4096\n"));
+    }
+
+    @Test
+    void rendersOnlyHeadersBeforeTheFirstCollection() throws Exception {
+        for (String line : scrape().split("\n")) {
+            assertTrue(line.startsWith("# "), line);
+        }
+    }
+}
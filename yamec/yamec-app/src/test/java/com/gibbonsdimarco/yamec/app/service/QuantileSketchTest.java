@@ -0,0 +1,100 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999, 1};
+
+    private static double exactQuantile(double[] sorted, double quantile) {
+        return sorted[(int) Math.floor(quantile * (sorted.length - 1))];
+    }
+
+    private static void assertWithinRelativeAccuracy(double[] values, QuantileSketch sketch) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        for (double quantile : QUANTILES) {
+            double exact = exactQuantile(sorted, quantile);
+            assertEquals(exact, sketch.quantile(quantile), exact * QuantileSketch.RELATIVE_ACCURACY + 1e-9,
+                    "quantile " + quantile);
+        }
+    }
+
+    @Test
+    void estimatesQuantilesWithinOnePercent() {
+        Random random = new Random(7);
+        double[] values = new double[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Long tailed, like bandwidth, with some idle seconds
+            values[i] = i % 10 == 0 ? 0 : Math.exp(random.nextGaussian() * 2 + 10);
+        }
+
+        QuantileSketch sketch = new QuantileSketch();
+        for (double value : values) {
+            sketch.add(value);
+        }
+
+        assertEquals(values.length, sketch.getCount());
+        assertWithinRelativeAccuracy(values, sketch);
+    }
+
+    @Test
+    void mergingWindowsEqualsAddingEveryValue() {
+        Random random = new Random(11);
+        double[] values = new double[3600];
+        QuantileSketch all = new QuantileSketch();
+        QuantileSketch merged = new QuantileSketch();
+
+        // Twelve five minute windows, merged as when rolling up
+        for (int window = 0; window < 12; window++) {
+            QuantileSketch windowSketch = new QuantileSketch();
+            for (int second = 0; second < 300; second++) {
+                double value = random.nextDouble() * 100 * (window + 1);
+                values[window * 300 + second] = value;
+                all.add(value);
+                windowSketch.add(value);
+            }
+            merged.merge(windowSketch);
+        }
+
+        assertEquals(all.getCount(), merged.getCount());
+        for (double quantile : QUANTILES) {
+            assertEquals(all.quantile(quantile), merged.quantile(quantile));
+        }
+        assertWithinRelativeAccuracy(values, merged);
+    }
+
+    @Test
+    void bytesRoundTrip() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < 300; i++) {
+            sketch.add(i % 7 == 0 ? 0 : 20 + Math.sin(i) * 15);
+        }
+
+        byte[] bytes = sketch.toBytes();
+        QuantileSketch decoded = QuantileSketch.fromBytes(bytes);
+
+        assertEquals(sketch.getCount(), decoded.getCount());
+        assertEquals(sketch.getMin(), decoded.getMin());
+        assertEquals(sketch.getMax(), decoded.getMax());
+        for (double quantile : QUANTILES) {
+            assertEquals(sketch.quantile(quantile), decoded.quantile(quantile));
+        }
+        assertArrayEquals(bytes, decoded.toBytes());
+
+        assertEquals(0, QuantileSketch.fromBytes(new QuantileSketch().toBytes()).getCount());
+        assertThrows(IllegalArgumentException.class,
+                () -> QuantileSketch.fromBytes(Arrays.copyOf(bytes, bytes.length - 1)));
+    }
+
+    @Test
+    void emptySketchHasNoQuantiles() {
+        assertTrue(Double.isNaN(new QuantileSketch().quantile(0.5)));
+    }
+}
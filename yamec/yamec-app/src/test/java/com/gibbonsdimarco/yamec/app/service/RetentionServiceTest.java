@@ -0,0 +1,214 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.config.Granularity;
+import com.gibbonsdimarco.yamec.app.config.GranularityConfig;
+import com.gibbonsdimarco.yamec.app.repository.GranularityConfigRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class RetentionServiceTest {
+
+    private static final int CHUNK_SIZE = 10;
+    private static final UUID HIGH_ID = UUID.randomUUID();
+    private static final UUID LOW_ID = UUID.randomUUID();
+    // HIGH metrics are kept for an hour, LOW metrics for a day
+    private static final int HIGH_TIME_TO_AGE = 3600;
+    private static final int LOW_TIME_TO_AGE = 86400;
+
+    private Path databaseFile;
+    private JdbcTemplate jdbcTemplate;
+    private MetricSeriesCache seriesCache;
+    private RollupService rollupService;
+    private SampleSegmentStore sampleSegmentStore;
+    private GranularityConfigRepository configRepository;
+    private long now;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        databaseFile = Files.createTempFile("yamec-retention-test", ".sqlite");
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + databaseFile);
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        seriesCache = new MetricSeriesCache(jdbcTemplate);
+        now = System.currentTimeMillis();
+
+        jdbcTemplate.execute("CREATE TABLE granularity (id blob not null primary key, label varchar(255) not null)");
+        jdbcTemplate.update("INSERT INTO granularity VALUES (?, 'HIGH')", (Object) MetricSeriesCache.toBytes(HIGH_ID));
+        jdbcTemplate.update("INSERT INTO granularity VALUES (?, 'LOW')", (Object) MetricSeriesCache.toBytes(LOW_ID));
+
+        // As created by Hibernate, then keyed on their series
+        for (Map.Entry<String, String> table : MetricTableMigration.DEVICE_COLUMNS.entrySet()) {
+            String deviceColumn = table.getValue().startsWith("X'") ? "" : table.getValue() + " blob not null, ";
+            jdbcTemplate.execute("CREATE TABLE " + table.getKey() + " (series_id bigint not null, duration integer,"
+                    + " granularity_id blob, timestamp timestamp not null, " + deviceColumn
+                    + "primary key (series_id, timestamp))");
+        }
+        MetricTableMigration migration = new MetricTableMigration(jdbcTemplate, 5000, 0, 200);
+        migration.convertTables();
+        migration.copyLegacyMetrics();
+
+        configRepository = mock(GranularityConfigRepository.class);
+        when(configRepository.findAll()).thenReturn(List.of(
+                config(HIGH_ID, "HIGH", HIGH_TIME_TO_AGE), config(LOW_ID, "LOW", LOW_TIME_TO_AGE)));
+
+        // Everything has been rolled up
+        rollupService = mock(RollupService.class);
+        when(rollupService.limitRetentionCutoff(anyString(), any(Timestamp.class)))
+                .thenAnswer(invocation -> invocation.getArgument(1));
+        sampleSegmentStore = mock(SampleSegmentStore.class);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(databaseFile);
+    }
+
+    @Test
+    void expiredMetricsAreDeletedInChunksForEachSeriesOfTheirGranularity() {
+        UUID cpu = UUID.randomUUID();
+        UUID otherCpu = UUID.randomUUID();
+        // 25 and 7 HIGH metrics older than an hour, which take several chunks
+        insert("system_cpu_metrics", cpu, HIGH_ID, now - 7_200_000, 25);
+        insert("system_cpu_metrics", otherCpu, HIGH_ID, now - 7_200_000, 7);
+        // 5 recent HIGH metrics, and LOW metrics of the same age as the expired HIGH metrics
+        insert("system_cpu_metrics", cpu, HIGH_ID, now - 60_000, 5);
+        insert("system_cpu_metrics", cpu, LOW_ID, now - 7_200_000, 12);
+
+        service(200).enforceRetention();
+
+        assertEquals(5, count("system_cpu_metrics", cpu, HIGH_ID));
+        assertEquals(0, count("system_cpu_metrics", otherCpu, HIGH_ID));
+        assertEquals(12, count("system_cpu_metrics", cpu, LOW_ID));
+        assertEquals(Integer.valueOf(5), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM system_cpu_metrics WHERE timestamp >= ?", Integer.class,
+                new Timestamp(now - 60_000)));
+
+        // The raw samples are deleted with the same cutoff
+        verify(sampleSegmentStore).deleteSegmentsBefore(longThat(cutoff ->
+                Math.abs(cutoff - (now - HIGH_TIME_TO_AGE * 1000L)) < 60_000));
+        verify(sampleSegmentStore, times(1)).deleteSegmentsBefore(anyLong());
+    }
+
+    @Test
+    void runsStopAfterTheirChunksAndTheRestIsDeletedOnTheNextRun() {
+        UUID cpu = UUID.randomUUID();
+        UUID memory = UUID.randomUUID();
+        UUID nic = UUID.randomUUID();
+        // Three chunks of CPU metrics, the last one partial, then two of memory metrics
+        insert("system_cpu_metrics", cpu, HIGH_ID, now - 7_200_000, 2 * CHUNK_SIZE + 5);
+        insert("system_memory_metrics", memory, HIGH_ID, now - 7_200_000, 2 * CHUNK_SIZE);
+        insert("system_nic_metrics", nic, HIGH_ID, now - 7_200_000, 3);
+
+        RetentionService service = service(4);
+        service.enforceRetention();
+
+        // The partial chunk of CPU metrics counts as a whole chunk, leaving one for memory
+        assertEquals(0, count("system_cpu_metrics", cpu, HIGH_ID));
+        assertEquals(CHUNK_SIZE, count("system_memory_metrics", memory, HIGH_ID));
+        assertEquals(3, count("system_nic_metrics", nic, HIGH_ID));
+
+        service.enforceRetention();
+
+        assertEquals(0, count("system_memory_metrics", memory, HIGH_ID));
+        assertEquals(0, count("system_nic_metrics", nic, HIGH_ID));
+    }
+
+    @Test
+    void applicationMetricsWithoutGranularityAgeAsHigh() {
+        UUID application = UUID.randomUUID();
+        UUID otherApplication = UUID.randomUUID();
+        insert("application_metrics", application, null, now - 7_200_000, 15);
+        insert("application_metrics", application, null, now - 60_000, 2);
+        insert("application_metrics", otherApplication, LOW_ID, now - 7_200_000, 4);
+
+        service(200).enforceRetention();
+
+        assertEquals(2, count("application_metrics", application, null));
+        assertEquals(4, count("application_metrics", otherApplication, LOW_ID));
+    }
+
+    @Test
+    void highMetricsAreKeptUntilTheyAreRolledUp() {
+        UUID cpu = UUID.randomUUID();
+        insert("system_cpu_metrics", cpu, HIGH_ID, now - 7_200_000, 20);
+        // Rolled up until 10 seconds into the expired metrics
+        Timestamp rolledUpUntil = new Timestamp(now - 7_200_000 + 10_000);
+        when(rollupService.limitRetentionCutoff(eq("HIGH"), any(Timestamp.class))).thenReturn(rolledUpUntil);
+
+        service(200).enforceRetention();
+
+        assertEquals(10, count("system_cpu_metrics", cpu, HIGH_ID));
+        assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM system_cpu_metrics WHERE timestamp < ?", Integer.class, rolledUpUntil));
+        verify(sampleSegmentStore).deleteSegmentsBefore(rolledUpUntil.getTime());
+    }
+
+    @Test
+    void expiredMetricsAreFoundThroughTheKeyOfTheirSeries() {
+        String plan = String.join("\n", jdbcTemplate.query("EXPLAIN QUERY PLAN SELECT series_id, timestamp"
+                        + " FROM system_cpu_metrics WHERE series_id IN (SELECT id FROM metric_series"
+                        + " WHERE granularity_id IN (SELECT id FROM granularity WHERE label = 'HIGH'))"
+                        + " AND timestamp < 1000 LIMIT 10",
+                (rs, row) -> rs.getString("detail")));
+
+        assertTrue(plan.contains("USING PRIMARY KEY (series_id=? AND timestamp<?)"), plan);
+    }
+
+    private RetentionService service(int maxChunksPerRun) {
+        return new RetentionService(jdbcTemplate, configRepository, rollupService, sampleSegmentStore, true,
+                CHUNK_SIZE, 0, maxChunksPerRun, 256, false);
+    }
+
+    private static GranularityConfig config(UUID id, String label, int timeToAge) {
+        Granularity granularity = new Granularity(label);
+        granularity.setId(id);
+        GranularityConfig config = new GranularityConfig();
+        config.setGranularityId(id);
+        config.setGranularity(granularity);
+        config.setTimeToAge(timeToAge);
+        return config;
+    }
+
+    /**
+     * Inserts one metric per second of a series, starting at a time
+     */
+    private void insert(String table, UUID deviceId, UUID granularityId, long start, int count) {
+        String deviceColumn = MetricTableMigration.DEVICE_COLUMNS.get(table);
+        long seriesId = seriesCache.getId(deviceId, granularityId);
+        byte[] granularity = granularityId == null ? null : MetricSeriesCache.toBytes(granularityId);
+        for (int i = 0; i < count; i++) {
+            Timestamp timestamp = new Timestamp(start + i * 1000L);
+            if (deviceColumn.startsWith("X'")) {
+                jdbcTemplate.update("INSERT INTO " + table + " (series_id, duration, granularity_id, timestamp)"
+                        + " VALUES (?, 1, ?, ?)", seriesId, granularity, timestamp);
+            } else {
+                jdbcTemplate.update("INSERT INTO " + table + " (series_id, duration, granularity_id, timestamp, "
+                        + deviceColumn + ") VALUES (?, 1, ?, ?, ?)", seriesId, granularity, timestamp,
+                        MetricSeriesCache.toBytes(deviceId));
+            }
+        }
+    }
+
+    private int count(String table, UUID deviceId, UUID granularityId) {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table + " WHERE series_id = ?",
+                Integer.class, seriesCache.getId(deviceId, granularityId));
+        return count == null ? 0 : count;
+    }
+}
@@ -0,0 +1,276 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.config.GranularityConfig;
+import com.gibbonsdimarco.yamec.app.data.Application;
+import com.gibbonsdimarco.yamec.app.data.CpuHardwareInformation;
+import com.gibbonsdimarco.yamec.app.data.RollupWatermark;
+import com.gibbonsdimarco.yamec.app.repository.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class RollupServiceTest {
+
+    private static final UUID HIGH_ID = UUID.randomUUID();
+    private static final UUID LOW_ID = UUID.randomUUID();
+    // Windows of five minutes, as the LOW granularity level is configured by default
+    private static final int WINDOW_SECONDS = 300;
+    private static final long WINDOW = WINDOW_SECONDS * 1000L;
+    private static final int MAX_WINDOWS_PER_RUN = 4;
+
+    private Path databaseFile;
+    private Path sampleDirectory;
+    private JdbcTemplate jdbcTemplate;
+    private SampleSegmentStore sampleSegmentStore;
+    private MetricTableMigration metricTableMigration;
+    private final Map<UUID, RollupWatermark> watermarks = new ConcurrentHashMap<>();
+    private RollupService rollupService;
+
+    private final CpuHardwareInformation cpu = new CpuHardwareInformation("Test CPU", 8, 16, "x64", 1, 0, 0, 0, true);
+    private final Application application = new Application("test.exe");
+
+    @BeforeEach
+    void setUp() throws Exception {
+        databaseFile = Files.createTempFile("yamec-rollup-test", ".sqlite");
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + databaseFile);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        jdbcTemplate.execute("CREATE TABLE granularity (id blob not null primary key, label varchar(255) not null)");
+        jdbcTemplate.update("INSERT INTO granularity VALUES (?, 'HIGH')", (Object) MetricSeriesCache.toBytes(HIGH_ID));
+        jdbcTemplate.update("INSERT INTO granularity VALUES (?, 'LOW')", (Object) MetricSeriesCache.toBytes(LOW_ID));
+
+        // As created by Hibernate, then keyed on their series
+        jdbcTemplate.execute("CREATE TABLE system_cpu_metrics (series_id bigint not null, duration integer not null,"
+                + " granularity_id blob not null, timestamp timestamp not null, average_utilization float,"
+                + " max_utilization float, min_utilization float, cpu_id blob not null, utilization_sketch blob,"
+                + " primary key (series_id, timestamp))");
+        jdbcTemplate.execute("CREATE TABLE application_metrics (series_id bigint not null, avg_cpu_usage float,"
+                + " avg_physical_memory_used bigint, avg_virtual_memory_used bigint, duration integer not null,"
+                + " max_cpu_usage float, max_physical_memory_used bigint, max_virtual_memory_used bigint,"
+                + " min_cpu_usage float, min_physical_memory_used bigint, min_virtual_memory_used bigint,"
+                + " timestamp timestamp not null, application_id blob not null, granularity_id blob,"
+                + " cpu_usage_sketch blob, physical_memory_used_sketch blob, primary key (series_id, timestamp))");
+        for (String table : List.of("system_memory_metrics", "system_disk_metrics", "system_nic_metrics")) {
+            jdbcTemplate.execute("CREATE TABLE " + table + " (series_id bigint not null, duration integer not null,"
+                    + " granularity_id blob not null, timestamp timestamp not null, "
+                    + MetricTableMigration.DEVICE_COLUMNS.get(table) + " blob not null,"
+                    + " primary key (series_id, timestamp))");
+        }
+        MetricTableMigration migration = new MetricTableMigration(jdbcTemplate, 5000, 0, 200);
+        migration.convertTables();
+        migration.copyLegacyMetrics();
+
+        sampleDirectory = Files.createTempDirectory("yamec-rollup-samples");
+        sampleSegmentStore = new SampleSegmentStore(sampleDirectory.toString(), 3600);
+        sampleSegmentStore.findOldestSample();
+
+        cpu.setId(UUID.randomUUID());
+        application.setId(UUID.randomUUID());
+
+        GranularityIdCache granularityIdCache = mock(GranularityIdCache.class);
+        when(granularityIdCache.getId("HIGH")).thenReturn(HIGH_ID);
+        when(granularityIdCache.getId("LOW")).thenReturn(LOW_ID);
+        CpuHardwareInformationRepository cpuRepository = mock(CpuHardwareInformationRepository.class);
+        when(cpuRepository.findById(cpu.getId())).thenReturn(Optional.of(cpu));
+        when(cpuRepository.getReferenceById(cpu.getId())).thenReturn(cpu);
+        ApplicationRepository applicationRepository = mock(ApplicationRepository.class);
+        when(applicationRepository.findById(application.getId())).thenReturn(Optional.of(application));
+        when(applicationRepository.getReferenceById(application.getId())).thenReturn(application);
+
+        // No metrics were saved in the database before the segments kept the samples
+        RawMetricReader rawMetricReader = new RawMetricReader(sampleSegmentStore, granularityIdCache, cpuRepository,
+                mock(MemoryHardwareInformationRepository.class), mock(DiskHardwareInformationRepository.class),
+                mock(NicHardwareInformationRepository.class), applicationRepository,
+                mock(SystemCpuMetricRepository.class), mock(SystemMemoryMetricRepository.class),
+                mock(SystemDiskMetricRepository.class), mock(SystemNicMetricRepository.class),
+                mock(ApplicationMetricRepository.class));
+
+        GranularityConfig lowConfig = new GranularityConfig();
+        lowConfig.setGranularityId(LOW_ID);
+        lowConfig.setRecordTimespan(WINDOW_SECONDS);
+        GranularityConfigRepository configRepository = mock(GranularityConfigRepository.class);
+        when(configRepository.findByGranularityLabel("LOW")).thenReturn(lowConfig);
+
+        RollupWatermarkRepository watermarkRepository = mock(RollupWatermarkRepository.class);
+        when(watermarkRepository.findByGranularityId(any(UUID.class)))
+                .thenAnswer(invocation -> watermarks.get((UUID) invocation.getArgument(0)));
+        when(watermarkRepository.save(any(RollupWatermark.class))).thenAnswer(invocation -> {
+            RollupWatermark watermark = invocation.getArgument(0);
+            watermarks.put(watermark.getGranularityId(), watermark);
+            return watermark;
+        });
+
+        metricTableMigration = mock(MetricTableMigration.class);
+        when(metricTableMigration.isCopying()).thenReturn(false);
+
+        MetricTierSelector tierSelector = mock(MetricTierSelector.class);
+        rollupService = new RollupService(
+                new ApplicationDataService(applicationRepository, mock(ApplicationMetricRepository.class),
+                        mock(ApplicationNameCache.class), mock(ApplicationAdmissionGuard.class), granularityIdCache,
+                        tierSelector, rawMetricReader),
+                new CpuHardwareInformationService(cpuRepository, granularityIdCache,
+                        mock(SystemCpuMetricRepository.class), tierSelector, rawMetricReader),
+                new MemoryHardwareInformationService(mock(SystemMemoryMetricRepository.class),
+                        mock(MemoryHardwareInformationRepository.class), granularityIdCache, tierSelector,
+                        rawMetricReader),
+                new DiskHardwareInformationService(mock(SystemDiskMetricRepository.class),
+                        mock(DiskHardwareInformationRepository.class), granularityIdCache, tierSelector,
+                        rawMetricReader),
+                new NicHardwareInformationService(mock(SystemNicMetricRepository.class),
+                        mock(NicHardwareInformationRepository.class), granularityIdCache, tierSelector,
+                        rawMetricReader),
+                rawMetricReader, sampleSegmentStore, metricTableMigration, configRepository, watermarkRepository,
+                new MetricRowWriter(jdbcTemplate, new MetricSeriesCache(jdbcTemplate)), jdbcTemplate,
+                new DataSourceTransactionManager(dataSource), new PipelineTimings(),
+                true, 60_000, MAX_WINDOWS_PER_RUN, 0);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        sampleSegmentStore.close();
+        try (Stream<Path> paths = Files.walk(sampleDirectory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.deleteIfExists(databaseFile);
+    }
+
+    @Test
+    void windowsWithSamplesAreRolledUpAcrossGapsUntilTheSettledWindows() {
+        long now = System.currentTimeMillis();
+        long completeBefore = Math.floorDiv(now - 60_000, WINDOW) * WINDOW;
+        long first = Math.floorDiv(now, WINDOW) * WINDOW - 12 * WINDOW;
+
+        // Ten samples in the first window
+        for (int i = 0; i < 10; i++) {
+            record(first + 5000 + i * 1000L, 10 + i);
+        }
+        // The last second of the second window, and the first of the third
+        record(first + 2 * WINDOW - 1000, 50);
+        record(first + 2 * WINDOW, 70);
+        // Six windows without samples, then two samples in the tenth window
+        record(first + 9 * WINDOW + 120_000, 30);
+        record(first + 9 * WINDOW + 121_000, 40);
+        // A window which has not settled yet
+        record(now - 1000, 90);
+
+        rollupService.rollUp();
+
+        // One run rolls up the four windows with samples, without counting the empty windows
+        assertEquals(first + 10 * WINDOW, watermark());
+        java.util.List<Map<String, Object>> rows = lowCpuMetrics();
+        assertEquals(List.of(first, first + WINDOW, first + 2 * WINDOW, first + 9 * WINDOW),
+                rows.stream().map(row -> ((Number) row.get("timestamp")).longValue()).toList());
+        for (Map<String, Object> row : rows) {
+            assertEquals(WINDOW_SECONDS, ((Number) row.get("duration")).intValue());
+        }
+        assertCpuMetric(rows.get(0), 14.5, 19, 10);
+        assertCpuMetric(rows.get(1), 50, 50, 50);
+        assertCpuMetric(rows.get(2), 70, 70, 70);
+        assertCpuMetric(rows.get(3), 35, 40, 30);
+
+        java.util.List<Map<String, Object>> applicationRows = jdbcTemplate.queryForList(
+                "SELECT m.* FROM application_metrics m JOIN metric_series s ON s.id = m.series_id"
+                        + " WHERE s.granularity_id = ? ORDER BY m.timestamp", (Object) MetricSeriesCache.toBytes(LOW_ID));
+        assertEquals(4, applicationRows.size());
+        assertEquals(first, ((Number) applicationRows.get(0).get("timestamp")).longValue());
+        assertEquals(1.45, ((Number) applicationRows.get(0).get("avg_cpu_usage")).doubleValue(), 1e-9);
+
+        // The next run moves the watermark to the settled windows, without rolling up the samples after it
+        rollupService.rollUp();
+
+        assertEquals(completeBefore, watermark());
+        assertEquals(4, lowCpuMetrics().size());
+    }
+
+    @Test
+    void windowsAreOnlyRolledUpOnce() {
+        long first = Math.floorDiv(System.currentTimeMillis(), WINDOW) * WINDOW - 3 * WINDOW;
+        record(first + 1000, 20);
+
+        rollupService.rollUp();
+        long watermark = watermark();
+        rollupService.rollUp();
+
+        assertEquals(watermark, watermark());
+        assertEquals(1, lowCpuMetrics().size());
+    }
+
+    @Test
+    void rollupWaitsForTheLegacyMetricsToBeCopied() {
+        record(Math.floorDiv(System.currentTimeMillis(), WINDOW) * WINDOW - 3 * WINDOW, 20);
+        when(metricTableMigration.isCopying()).thenReturn(true);
+
+        rollupService.rollUp();
+
+        assertNull(watermarks.get(LOW_ID));
+        assertTrue(lowCpuMetrics().isEmpty());
+    }
+
+    @Test
+    void retentionOfHighMetricsStopsAtTheWatermark() {
+        long first = Math.floorDiv(System.currentTimeMillis(), WINDOW) * WINDOW - 6 * WINDOW;
+        Timestamp cutoff = new Timestamp(first + 3 * WINDOW);
+
+        // Nothing is deleted before the first rollup
+        assertEquals(0, rollupService.limitRetentionCutoff("HIGH", cutoff).getTime());
+
+        record(first + 1000, 20);
+        record(first + WINDOW + 1000, 20);
+        rollupService.rollUp();
+        long watermark = watermark();
+        assertTrue(watermark > cutoff.getTime());
+
+        assertEquals(cutoff, rollupService.limitRetentionCutoff("HIGH", cutoff));
+        Timestamp laterCutoff = new Timestamp(watermark + WINDOW);
+        assertEquals(watermark, rollupService.limitRetentionCutoff("HIGH", laterCutoff).getTime());
+        // LOW metrics are not rolled up any further
+        assertEquals(laterCutoff, rollupService.limitRetentionCutoff("LOW", laterCutoff));
+    }
+
+    private void record(long timestamp, double cpuUsage) {
+        SlidingWindowStore.Tick tick = new SlidingWindowStore.Tick(timestamp);
+        tick.add(SlidingWindowStore.SeriesType.CPU, cpu.getId(), "CPU", cpuUsage);
+        tick.add(SlidingWindowStore.SeriesType.APPLICATION, application.getId(), "test.exe", cpuUsage / 10,
+                100, 200);
+        sampleSegmentStore.record(tick);
+    }
+
+    private long watermark() {
+        RollupWatermark watermark = watermarks.get(LOW_ID);
+        assertNotNull(watermark);
+        return watermark.getRolledUpUntil().getTime();
+    }
+
+    private java.util.List<Map<String, Object>> lowCpuMetrics() {
+        return jdbcTemplate.queryForList("SELECT m.* FROM system_cpu_metrics m JOIN metric_series s"
+                        + " ON s.id = m.series_id WHERE s.granularity_id = ? AND s.device_id = ? ORDER BY m.timestamp",
+                MetricSeriesCache.toBytes(LOW_ID), MetricSeriesCache.toBytes(cpu.getId()));
+    }
+
+    private static void assertCpuMetric(Map<String, Object> row, double average, double maximum, double minimum) {
+        assertEquals(average, ((Number) row.get("average_utilization")).doubleValue(), 1e-9);
+        assertEquals(maximum, ((Number) row.get("max_utilization")).doubleValue(), 1e-9);
+        assertEquals(minimum, ((Number) row.get("min_utilization")).doubleValue(), 1e-9);
+    }
+}
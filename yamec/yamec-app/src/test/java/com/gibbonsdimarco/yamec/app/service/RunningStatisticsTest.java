@@ -0,0 +1,70 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RunningStatisticsTest {
+
+    @Test
+    void matchesTheTwoPassResult() {
+        double[] values = {4, 7, 13, 16, 1e9 + 4, 1e9 + 7};
+        RunningStatistics statistics = new RunningStatistics();
+        for (double value : values) {
+            statistics.add(value);
+        }
+
+        double mean = 0;
+        for (double value : values) {
+            mean += value / values.length;
+        }
+        double variance = 0;
+        for (double value : values) {
+            variance += (value - mean) * (value - mean) / values.length;
+        }
+
+        assertEquals(values.length, statistics.getCount());
+        assertEquals(mean, statistics.getMean(), 1e-6);
+        assertEquals(variance, statistics.getVariance(), variance * 1e-12);
+        assertEquals(4, statistics.getMin());
+        assertEquals(1e9 + 7, statistics.getMax());
+    }
+
+    @Test
+    void mergingWindowsEqualsAddingEveryValue() {
+        RunningStatistics all = new RunningStatistics();
+        RunningStatistics first = new RunningStatistics();
+        RunningStatistics second = new RunningStatistics();
+
+        for (int i = 0; i < 100; i++) {
+            double value = Math.sin(i) * 50 + 50;
+            all.add(value);
+            (i < 30 ? first : second).add(value);
+        }
+        first.merge(second);
+
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getMean(), first.getMean(), 1e-9);
+        assertEquals(all.getVariance(), first.getVariance(), 1e-9);
+        assertEquals(all.getMin(), first.getMin());
+        assertEquals(all.getMax(), first.getMax());
+    }
+
+    @Test
+    void addRepeatedEqualsAddingInALoop() {
+        RunningStatistics repeated = new RunningStatistics();
+        RunningStatistics looped = new RunningStatistics();
+        repeated.add(10);
+        looped.add(10);
+
+        repeated.addRepeated(0, 3);
+        for (int i = 0; i < 3; i++) {
+            looped.add(0);
+        }
+
+        assertEquals(looped.getCount(), repeated.getCount());
+        assertEquals(looped.getMean(), repeated.getMean(), 1e-12);
+        assertEquals(looped.getVariance(), repeated.getVariance(), 1e-12);
+        assertEquals(0, repeated.getMin());
+    }
+}
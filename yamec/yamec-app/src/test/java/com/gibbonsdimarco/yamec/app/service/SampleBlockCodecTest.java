@@ -0,0 +1,110 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SampleBlockCodecTest {
+
+    private record Encoded(ByteBuffer buffer, int valuesOffset) {
+        int timestampBytes() {
+            return valuesOffset - 1;
+        }
+
+        int valueBytes() {
+            return buffer.capacity() - valuesOffset;
+        }
+    }
+
+    private static Encoded encode(long[] timestamps, double[] values) {
+        SampleBlockCodec.BitOutput out = new SampleBlockCodec.BitOutput();
+        // Starts the columns after a byte, as they start after the block index in a segment file
+        out.write(0xAB, 8);
+        SampleBlockCodec.encodeTimestamps(timestamps, timestamps.length, out);
+        out.alignToByte();
+        int valuesOffset = out.size();
+        SampleBlockCodec.encodeValues(values, values.length, out);
+        out.alignToByte();
+        return new Encoded(ByteBuffer.wrap(java.util.Arrays.copyOf(out.bytes(), out.size())), valuesOffset);
+    }
+
+    private static Encoded assertRoundTrip(long[] timestamps, double[] values) {
+        Encoded encoded = encode(timestamps, values);
+
+        SampleBlockCodec.TimestampDecoder timestampDecoder = new SampleBlockCodec.TimestampDecoder(encoded.buffer(), 1);
+        for (long timestamp : timestamps) {
+            assertEquals(timestamp, timestampDecoder.next());
+        }
+
+        SampleBlockCodec.ValueDecoder valueDecoder =
+                new SampleBlockCodec.ValueDecoder(encoded.buffer(), encoded.valuesOffset());
+        for (double value : values) {
+            assertEquals(Double.doubleToRawLongBits(value), Double.doubleToRawLongBits(valueDecoder.next()));
+        }
+        return encoded;
+    }
+
+    @Test
+    void regularTimestampsAndRepeatedValuesTakeABitEach() {
+        long[] timestamps = new long[64];
+        double[] values = new double[64];
+        for (int i = 0; i < 64; i++) {
+            timestamps[i] = 1_700_000_000_000L + i * 1000L;
+            values[i] = 12.5;
+        }
+
+        Encoded encoded = assertRoundTrip(timestamps, values);
+        // The first timestamp, the first delta in 16 bits, then a bit per timestamp
+        assertEquals((64 + 16 + 62 + 7) / 8, encoded.timestampBytes());
+        // The encoding, the first value, then a bit per value
+        assertEquals((8 + 64 + 63 + 7) / 8, encoded.valueBytes());
+    }
+
+    @Test
+    void jitteredTimestampsAndNoisyValuesRoundTrip() {
+        java.util.Random random = new java.util.Random(42);
+        long[] timestamps = new long[64];
+        double[] values = new double[64];
+        long timestamp = 1_700_000_000_000L;
+        for (int i = 0; i < 64; i++) {
+            // Collections a few milliseconds early or late, some seconds apart and one much later
+            timestamp += 1000 + random.nextInt(21) - 10 + (i % 17 == 0 ? 5000 : 0) + (i == 40 ? 10_000_000 : 0);
+            timestamps[i] = timestamp;
+            values[i] = i % 9 == 0 && i > 0 ? values[i - 1] : random.nextDouble() * 100;
+        }
+        values[5] = Double.NaN;
+        values[6] = -0.0;
+        values[7] = Double.NEGATIVE_INFINITY;
+        values[8] = Double.MIN_VALUE;
+
+        assertRoundTrip(timestamps, values);
+    }
+
+    @Test
+    void wholeNumbersAreStoredAsVarintDeltas() {
+        long[] timestamps = new long[64];
+        double[] counters = new double[64];
+        double[] large = new double[64];
+        for (int i = 0; i < 64; i++) {
+            timestamps[i] = i * 1000L;
+            counters[i] = 4_000_000_000L + i * 4096L * (i % 2 == 0 ? 1 : -1);
+            large[i] = i == 10 ? 9.0E15 : i;
+        }
+
+        // The encoding, a first value of 5 bytes, then deltas of 3 bytes or less
+        assertTrue(assertRoundTrip(timestamps, counters).valueBytes() <= 1 + 5 + 63 * 3);
+        assertRoundTrip(timestamps, large);
+
+        // Too large to convert to a long and back exactly, so XOR encoded
+        large[20] = 1.0E300;
+        assertRoundTrip(timestamps, large);
+    }
+
+    @Test
+    void oneSampleBlocksRoundTrip() {
+        assertRoundTrip(new long[] {-5}, new double[] {-3.25});
+        assertRoundTrip(new long[] {Long.MAX_VALUE}, new double[] {-7});
+    }
+}
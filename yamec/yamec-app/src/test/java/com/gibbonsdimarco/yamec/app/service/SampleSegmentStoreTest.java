@@ -0,0 +1,320 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SampleSegmentStoreTest {
+
+    // A whole hour, so segments start here
+    private static final long START = 1_700_002_800_000L;
+    private static final UUID APPLICATION = new UUID(0, 1);
+    private static final UUID OTHER_APPLICATION = new UUID(0, 2);
+
+    private Path directory;
+    private SampleSegmentStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        directory = Files.createTempDirectory("yamec-samples-test");
+        // Segments of 100 seconds, with room for 200 samples
+        store = new SampleSegmentStore(directory.toString(), 100);
+        store.findOldestSample();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        store.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private void record(long second, double cpuUsage) {
+        store.record(new SlidingWindowStore.Tick(START + second * 1000)
+                .add(SlidingWindowStore.SeriesType.APPLICATION, APPLICATION, "app", cpuUsage, second, 0)
+                .add(SlidingWindowStore.SeriesType.APPLICATION, OTHER_APPLICATION, "other", -cpuUsage, 0, 0));
+    }
+
+    private java.util.List<double[]> scan(UUID id, int field, long fromSecond, long toSecond) throws Exception {
+        java.util.List<double[]> samples = new java.util.ArrayList<>();
+        store.scan(SlidingWindowStore.SeriesType.APPLICATION, id, field,
+                START + fromSecond * 1000, START + toSecond * 1000,
+                (seriesId, timestamp, value) -> samples.add(new double[] {(timestamp - START) / 1000.0, value}));
+        return samples;
+    }
+
+    @Test
+    void rangesAreReadAcrossSegments() throws Exception {
+        assertEquals(Long.MAX_VALUE, store.getOldestSample());
+        for (int second = 0; second < 250; second++) {
+            record(second, second * 0.5);
+        }
+        assertEquals(START, store.getOldestSample());
+
+        java.util.List<double[]> samples = scan(APPLICATION, 0, 70, 130);
+        assertEquals(60, samples.size());
+        assertArrayEquals(new double[] {70, 35}, samples.getFirst());
+        assertArrayEquals(new double[] {129, 64.5}, samples.getLast());
+        assertArrayEquals(new double[] {100, 100}, scan(APPLICATION, 1, 100, 101).getFirst());
+
+        // Older samples are ignored
+        record(10, 99);
+        assertEquals(1, scan(APPLICATION, 0, 10, 11).size());
+        assertEquals(5.0, scan(APPLICATION, 0, 10, 11).getFirst()[1]);
+
+        java.util.Set<UUID> series = new java.util.HashSet<>();
+        store.scan(SlidingWindowStore.SeriesType.APPLICATION, null, 0, START, START + 250_000,
+                (seriesId, timestamp, value) -> series.add(seriesId));
+        assertEquals(java.util.Set.of(APPLICATION, OTHER_APPLICATION), series);
+        assertTrue(scan(APPLICATION, 0, 250, 300).isEmpty());
+    }
+
+    @Test
+    void segmentsAreReadAfterARestart() throws Exception {
+        for (int second = 0; second < 150; second++) {
+            record(second, second);
+        }
+        store.close();
+
+        store = new SampleSegmentStore(directory.toString(), 100);
+        store.findOldestSample();
+        assertEquals(START, store.getOldestSample());
+        assertEquals(150, scan(APPLICATION, 0, 0, 150).size());
+
+        // The open segment is appended to
+        record(150, 150);
+        assertEquals(51, scan(APPLICATION, 0, 100, 200).size());
+    }
+
+    @Test
+    void wholeBlocksWithinABucketOnlyReadTheirExtremes() throws Exception {
+        // A sawtooth, so every block has a different minimum and maximum
+        for (int second = 0; second < 200; second++) {
+            record(second, (second * 7) % 50);
+        }
+
+        // Blocks of 64 samples from the start of each 100 second segment, in buckets of 100 seconds:
+        // the block from 100 to 164 is within one bucket, the blocks from 64 and 164 are not whole
+        java.util.List<double[]> samples = new java.util.ArrayList<>();
+        store.scanExtremes(SlidingWindowStore.SeriesType.APPLICATION, APPLICATION, 0,
+                START + 64_000, START + 200_000, START, 100_000,
+                (seriesId, timestamp, value) -> samples.add(new double[] {(timestamp - START) / 1000.0, value}));
+
+        java.util.List<Double> seconds = samples.stream().map(sample -> sample[0]).toList();
+        assertEquals(36 + 2 + 36, samples.size());
+        assertEquals(seconds.stream().sorted().toList(), seconds);
+
+        // The first smallest and largest values of the block, in the order they were recorded
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        int minSecond = 0;
+        int maxSecond = 0;
+        for (int second = 100; second < 164; second++) {
+            double value = (second * 7) % 50;
+            if (value < min) {
+                min = value;
+                minSecond = second;
+            }
+            if (value > max) {
+                max = value;
+                maxSecond = second;
+            }
+        }
+        assertArrayEquals(new double[] {Math.min(minSecond, maxSecond), minSecond < maxSecond ? min : max},
+                samples.get(36));
+        assertArrayEquals(new double[] {Math.max(minSecond, maxSecond), minSecond < maxSecond ? max : min},
+                samples.get(37));
+    }
+
+    @Test
+    void compressedSegmentsReadTheSameSamples() throws Exception {
+        java.util.Random random = new java.util.Random(7);
+        for (int second = 0; second < 250; second++) {
+            record(second, random.nextInt(4) == 0 ? Math.round(random.nextDouble() * 1000) / 10.0 : second);
+        }
+
+        java.util.List<double[]> samples = scan(APPLICATION, 0, 30, 240);
+        java.util.List<double[]> memory = scan(APPLICATION, 1, 30, 240);
+        java.util.List<double[]> extremes = new java.util.ArrayList<>();
+        store.scanExtremes(SlidingWindowStore.SeriesType.APPLICATION, APPLICATION, 0,
+                START + 30_000, START + 240_000, START, 100_000,
+                (seriesId, timestamp, value) -> extremes.add(new double[] {timestamp, value}));
+
+        // The open segment is not compressed
+        assertEquals(4, store.compressSegmentsEndedBefore(START + 250_000));
+        assertEquals(0, store.compressSegmentsEndedBefore(START + 250_000));
+        Path seriesDirectory = directory.resolve("applications").resolve(APPLICATION.toString());
+        assertTrue(Files.exists(seriesDirectory.resolve((START + 100_000) + ".segz")));
+        assertFalse(Files.exists(seriesDirectory.resolve((START + 100_000) + ".seg")));
+        assertTrue(Files.size(seriesDirectory.resolve((START + 100_000) + ".segz"))
+                < SampleSegmentStore.Segment.fileSize(3, 200) / 4);
+
+        assertArrayEquals(samples.toArray(), scan(APPLICATION, 0, 30, 240).toArray());
+        assertArrayEquals(memory.toArray(), scan(APPLICATION, 1, 30, 240).toArray());
+        java.util.List<double[]> compressedExtremes = new java.util.ArrayList<>();
+        store.scanExtremes(SlidingWindowStore.SeriesType.APPLICATION, APPLICATION, 0,
+                START + 30_000, START + 240_000, START, 100_000,
+                (seriesId, timestamp, value) -> compressedExtremes.add(new double[] {timestamp, value}));
+        assertArrayEquals(extremes.toArray(), compressedExtremes.toArray());
+
+        // Compressed segments are not written to again
+        record(150, 999);
+        assertEquals(samples.get(120)[1], scan(APPLICATION, 0, 150, 151).getFirst()[1]);
+
+        // Or after a restart
+        store.close();
+        store = new SampleSegmentStore(directory.toString(), 100);
+        store.findOldestSample();
+        assertEquals(START, store.getOldestSample());
+        assertEquals(250, scan(APPLICATION, 0, 0, 250).size());
+    }
+
+    @Test
+    void droppedSamplesAreSkipped() throws Exception {
+        for (int second = 0; second < 50; second++) {
+            record(second, second);
+        }
+
+        // Out of order
+        record(20, 99);
+        assertEquals(20.0, scan(APPLICATION, 0, 20, 21).getFirst()[1]);
+
+        // More samples than the segment has room for
+        for (int i = 0; i < 200; i++) {
+            store.record(new SlidingWindowStore.Tick(START + 60_000 + i)
+                    .add(SlidingWindowStore.SeriesType.APPLICATION, APPLICATION, "app", i, 0, 0));
+        }
+        java.util.List<double[]> samples = scan(APPLICATION, 0, 0, 100);
+        assertEquals(200, samples.size());
+        assertEquals(149, samples.getLast()[1]);
+
+        store.close();
+        store = new SampleSegmentStore(directory.toString(), 100);
+        store.findOldestSample();
+        assertEquals(START, store.getOldestSample());
+        assertEquals(200, scan(APPLICATION, 0, 0, 100).size());
+    }
+
+    @Test
+    void rowsAreReadWithEveryFieldAndTheNextSampleIsFound() throws Exception {
+        for (int second = 0; second < 150; second++) {
+            record(second, second * 0.5);
+        }
+        // The rows span a compressed segment and the open one
+        assertEquals(2, store.compressSegmentsEndedBefore(START + 100_000));
+
+        java.util.List<double[]> rows = new java.util.ArrayList<>();
+        store.scanRows(SlidingWindowStore.SeriesType.APPLICATION, APPLICATION, START + 90_000, START + 110_000,
+                (seriesId, timestamp, values) -> rows.add(new double[] {(timestamp - START) / 1000.0,
+                        values[0], values[1], values[2]}));
+        assertEquals(20, rows.size());
+        assertArrayEquals(new double[] {90, 45, 90, 0}, rows.getFirst());
+        assertArrayEquals(new double[] {109, 54.5, 109, 0}, rows.getLast());
+
+        assertEquals(START, store.findNextSample(START - 50_000));
+        assertEquals(START + 99_000, store.findNextSample(START + 98_500));
+        assertEquals(START + 100_000, store.findNextSample(START + 99_500));
+        assertNull(store.findNextSample(START + 150_000));
+    }
+
+    @Test
+    void mappingsAreKeptUntilTheirFilesAreReplaced() throws Exception {
+        for (int second = 0; second < 250; second++) {
+            record(second, second);
+        }
+        Path seriesDirectory = directory.resolve("applications").resolve(APPLICATION.toString());
+        Path otherDirectory = directory.resolve("applications").resolve(OTHER_APPLICATION.toString());
+
+        // The segments which ended are kept mapped, and reading them again does not map them again
+        java.util.Set<Path> ended = java.util.Set.of(seriesDirectory.resolve(START + ".seg"),
+                seriesDirectory.resolve((START + 100_000) + ".seg"),
+                otherDirectory.resolve(START + ".seg"),
+                otherDirectory.resolve((START + 100_000) + ".seg"));
+        assertEquals(ended, store.mappedFiles());
+        assertEquals(250, scan(APPLICATION, 0, 0, 250).size());
+        assertEquals(250, scan(OTHER_APPLICATION, 0, 0, 250).size());
+        assertEquals(ended, store.mappedFiles());
+
+        // Compressed segments are unmapped before they are deleted
+        assertEquals(4, store.compressSegmentsEndedBefore(START + 250_000));
+        assertTrue(store.mappedFiles().isEmpty());
+        assertEquals(250, scan(APPLICATION, 0, 0, 250).size());
+        assertEquals(java.util.Set.of(seriesDirectory.resolve(START + ".segz"),
+                seriesDirectory.resolve((START + 100_000) + ".segz")), store.mappedFiles());
+
+        // As are expired segments
+        assertEquals(4, store.deleteSegmentsBefore(START + 200_000));
+        assertTrue(store.mappedFiles().isEmpty());
+        assertEquals(50, scan(APPLICATION, 0, 0, 250).size());
+    }
+
+    @Test
+    void segmentsAreNotUnmappedWhileTheyAreRead() throws Exception {
+        for (int second = 0; second < 150; second++) {
+            record(second, second);
+        }
+
+        java.util.concurrent.CountDownLatch reading = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.CountDownLatch resume = new java.util.concurrent.CountDownLatch(1);
+        java.util.List<Double> values = new java.util.concurrent.CopyOnWriteArrayList<>();
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(2);
+        try {
+            java.util.concurrent.Future<?> scan = executor.submit(() -> {
+                store.scan(SlidingWindowStore.SeriesType.APPLICATION, APPLICATION, 0, START, START + 100_000,
+                        (seriesId, timestamp, value) -> {
+                            if (values.isEmpty()) {
+                                reading.countDown();
+                                try {
+                                    resume.await();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                            values.add(value);
+                        });
+                return null;
+            });
+            assertTrue(reading.await(10, java.util.concurrent.TimeUnit.SECONDS));
+
+            java.util.concurrent.Future<Integer> deleted = executor.submit(() -> store.deleteSegmentsBefore(START + 100_000));
+            Thread.sleep(200);
+            assertFalse(deleted.isDone());
+
+            resume.countDown();
+            scan.get(10, java.util.concurrent.TimeUnit.SECONDS);
+            assertEquals(2, deleted.get(10, java.util.concurrent.TimeUnit.SECONDS));
+            assertEquals(100, values.size());
+            assertTrue(scan(APPLICATION, 0, 0, 100).isEmpty());
+        } finally {
+            resume.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void expiredSegmentsAreDeleted() throws Exception {
+        for (int second = 0; second < 250; second++) {
+            record(second, second);
+        }
+
+        assertEquals(2, store.deleteSegmentsBefore(START + 100_000));
+        assertTrue(scan(APPLICATION, 0, 0, 100).isEmpty());
+        assertEquals(150, scan(APPLICATION, 0, 0, 250).size());
+        assertEquals(START + 100_000, store.getOldestSample());
+
+        // The open segment is kept until it ends
+        assertEquals(2, store.deleteSegmentsBefore(START + 250_000));
+        assertEquals(50, scan(APPLICATION, 0, 0, 250).size());
+    }
+}
@@ -0,0 +1,90 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeriesDownsamplerTest {
+
+    private static final long START = 1_700_000_000_000L;
+    private static final int SECONDS = 86_400;
+
+    /**
+     * A day of one second values of a sine wave, with one spike
+     */
+    private static SeriesDownsampler downsample(String method, int points) {
+        SeriesDownsampler downsampler = SeriesDownsampler.create(method, START, START + SECONDS * 1000L, points);
+        for (int second = 0; second < SECONDS; second++) {
+            double value = second == 50_000 ? 1000 : 10 * Math.sin(second / 3600.0);
+            downsampler.add(START + second * 1000L, value);
+        }
+        downsampler.finish();
+        return downsampler;
+    }
+
+    private static void assertInOrder(SeriesDownsampler downsampler) {
+        for (int point = 1; point < downsampler.size(); point++) {
+            assertTrue(downsampler.timestamp(point - 1) < downsampler.timestamp(point));
+        }
+    }
+
+    private static boolean keeps(SeriesDownsampler downsampler, long timestamp, double value) {
+        for (int point = 0; point < downsampler.size(); point++) {
+            if (downsampler.timestamp(point) == timestamp && downsampler.value(point) == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    void lttbKeepsTheEndsAndTheSpike() {
+        SeriesDownsampler downsampler = downsample("lttb", 500);
+
+        assertEquals(500, downsampler.size());
+        assertInOrder(downsampler);
+        assertEquals(START, downsampler.timestamp(0));
+        assertEquals(START + (SECONDS - 1) * 1000L, downsampler.timestamp(downsampler.size() - 1));
+        assertTrue(keeps(downsampler, START + 50_000_000L, 1000));
+    }
+
+    @Test
+    void minMaxKeepsTheExtremesOfEachBucket() {
+        SeriesDownsampler downsampler = downsample("minmax", 500);
+
+        assertTrue(downsampler.size() <= 500);
+        assertInOrder(downsampler);
+        assertTrue(keeps(downsampler, START + 50_000_000L, 1000));
+
+        double min = Double.MAX_VALUE;
+        for (int point = 0; point < downsampler.size(); point++) {
+            min = Math.min(min, downsampler.value(point));
+        }
+        assertEquals(-10, min, 1e-3);
+    }
+
+    @Test
+    void shortSeriesAreKeptWhole() {
+        for (String method : SeriesDownsampler.METHODS) {
+            SeriesDownsampler downsampler = SeriesDownsampler.create(method, START, START + 10_000, 100);
+            downsampler.add(START, 1);
+            downsampler.add(START + 5_000, 3);
+            downsampler.add(START + 9_000, 2);
+            downsampler.finish();
+
+            assertEquals(3, downsampler.size(), method);
+            assertEquals(3, downsampler.value(1), method);
+        }
+
+        SeriesDownsampler single = SeriesDownsampler.create("lttb", START, START + 10_000, 100);
+        single.add(START, 1);
+        single.finish();
+        assertEquals(1, single.size());
+    }
+
+    @Test
+    void rejectsInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> SeriesDownsampler.create("average", START, START + 1, 10));
+        assertThrows(IllegalArgumentException.class, () -> SeriesDownsampler.create("lttb", START, START + 1, 2));
+    }
+}
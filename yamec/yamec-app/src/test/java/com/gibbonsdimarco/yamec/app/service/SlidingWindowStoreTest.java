@@ -0,0 +1,92 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.model.WindowData;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlidingWindowStoreTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    private static SlidingWindowStore.Tick tick(int second) {
+        return new SlidingWindowStore.Tick(START + second * 1000L + 300);
+    }
+
+    @Test
+    void windowsMatchTheValuesOfTheirLastSeconds() {
+        SlidingWindowStore store = new SlidingWindowStore(16);
+        UUID cpu = UUID.randomUUID();
+
+        // Ten minutes of values, with a gap
+        for (int second = 0; second < 600; second++) {
+            if (second >= 100 && second < 130) {
+                store.record(tick(second));
+                continue;
+            }
+            store.record(tick(second).add(SlidingWindowStore.SeriesType.CPU, cpu, "CPU", second % 100));
+        }
+
+        WindowData data = store.getWindows(SlidingWindowStore.SeriesType.CPU).get(0);
+        assertEquals("CPU", data.getName());
+        assertEquals(START + 599_000, data.getLatestTime());
+
+        // Seconds 540 to 599
+        WindowData.Window minute = data.getWindows().get("1m");
+        assertEquals(60, minute.getCount());
+        assertEquals(69.5, minute.getFields().get("utilization").getAvg(), 1e-9);
+        assertEquals(99, minute.getFields().get("utilization").getMax());
+        assertEquals(40, minute.getFields().get("utilization").getMin());
+
+        // Seconds 300 to 599
+        WindowData.Window fiveMinutes = data.getWindows().get("5m");
+        assertEquals(300, fiveMinutes.getCount());
+        assertEquals(49.5, fiveMinutes.getFields().get("utilization").getAvg(), 1e-9);
+
+        // Every second except the 30 of the gap
+        WindowData.Window fifteenMinutes = data.getWindows().get("15m");
+        assertEquals(570, fifteenMinutes.getCount());
+        double sum = 0;
+        for (int second = 0; second < 600; second++) {
+            sum += second >= 100 && second < 130 ? 0 : second % 100;
+        }
+        assertEquals(sum / 570, fifteenMinutes.getFields().get("utilization").getAvg(), 1e-9);
+    }
+
+    @Test
+    void seriesWithoutValuesForTheLongestWindowAreEvicted() {
+        SlidingWindowStore store = new SlidingWindowStore(16);
+        UUID cpu = UUID.randomUUID();
+        UUID application = UUID.randomUUID();
+
+        store.record(tick(0).add(SlidingWindowStore.SeriesType.APPLICATION, application, "app", 5, 100, 200)
+                .add(SlidingWindowStore.SeriesType.CPU, cpu, "CPU", 10));
+        for (int second = 1; second < 900; second++) {
+            store.record(tick(second).add(SlidingWindowStore.SeriesType.CPU, cpu, "CPU", 10));
+        }
+
+        WindowData applicationData = store.getWindows(SlidingWindowStore.SeriesType.APPLICATION).get(0);
+        assertEquals(0, applicationData.getWindows().get("1m").getCount());
+        assertEquals(1, applicationData.getWindows().get("15m").getCount());
+
+        store.record(tick(900).add(SlidingWindowStore.SeriesType.CPU, cpu, "CPU", 10));
+
+        assertTrue(store.getWindows(SlidingWindowStore.SeriesType.APPLICATION).isEmpty());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void newSeriesAreIgnoredOnceTheLimitIsReached() {
+        SlidingWindowStore store = new SlidingWindowStore(2);
+
+        SlidingWindowStore.Tick tick = tick(0);
+        for (int i = 0; i < 3; i++) {
+            tick.add(SlidingWindowStore.SeriesType.NIC, UUID.randomUUID(), "nic" + i, 1, 2);
+        }
+        store.record(tick);
+
+        assertEquals(2, store.size());
+    }
+}
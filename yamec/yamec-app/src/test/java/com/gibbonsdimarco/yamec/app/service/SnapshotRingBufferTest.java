@@ -0,0 +1,82 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import com.gibbonsdimarco.yamec.app.monitor.MetricsSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotRingBufferTest {
+
+    private static MetricsSnapshot snapshot(long collectionTime) {
+        return new MetricsSnapshot(collectionTime, null, null, List.of(), List.of(), List.of());
+    }
+
+    @Test
+    void dropsNewestWhenFullAndKeepsSlotsUntilReleased() {
+        SnapshotRingBuffer buffer = new SnapshotRingBuffer(3); // Rounded up to 4
+
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(snapshot(1000L * i), 1));
+        }
+        assertFalse(buffer.offer(snapshot(5000L), 1));
+        assertEquals(1, buffer.getDroppedCount());
+        assertEquals(4, buffer.getPublishedCount());
+
+        List<SnapshotRingBuffer.Slot> batch = new ArrayList<>();
+        assertEquals(2, buffer.peekBatch(batch, 2));
+        assertEquals(0L, batch.get(0).getSnapshot().getCollectionTime().getTime());
+        assertEquals(1000L, batch.get(1).getSnapshot().getCollectionTime().getTime());
+
+        // Slots being written still count towards the depth
+        assertEquals(4, buffer.depth());
+        assertFalse(buffer.offer(snapshot(6000L), 1));
+
+        buffer.release(2);
+        assertEquals(2, buffer.depth());
+        assertEquals(2000L, buffer.oldestCollectionTime());
+        assertTrue(buffer.offer(snapshot(7000L), 2));
+
+        batch.clear();
+        assertEquals(3, buffer.peekBatch(batch, 16));
+        assertEquals(7000L, batch.get(2).getSnapshot().getCollectionTime().getTime());
+        assertEquals(2, batch.get(2).getDuration());
+        buffer.release(3);
+
+        assertTrue(buffer.isEmpty());
+        assertEquals(-1, buffer.oldestCollectionTime());
+    }
+
+    @Test
+    void deliversEverySnapshotInOrderAcrossThreads() throws InterruptedException {
+        SnapshotRingBuffer buffer = new SnapshotRingBuffer(8);
+        int total = 100_000;
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < total; i++) {
+                while (!buffer.offer(snapshot(i), 1)) {
+                    Thread.onSpinWait();
+                }
+            }
+        });
+        producer.start();
+
+        List<SnapshotRingBuffer.Slot> batch = new ArrayList<>();
+        long expected = 0;
+        while (expected < total) {
+            int count = buffer.peekBatch(batch, 5);
+            for (SnapshotRingBuffer.Slot slot : batch) {
+                assertEquals(expected++, slot.getSnapshot().getCollectionTime().getTime());
+            }
+            batch.clear();
+            buffer.release(count);
+        }
+
+        producer.join();
+        assertEquals(total, buffer.getPublishedCount());
+        assertTrue(buffer.isEmpty());
+    }
+}
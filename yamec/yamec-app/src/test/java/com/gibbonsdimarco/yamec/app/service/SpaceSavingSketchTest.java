@@ -0,0 +1,92 @@
+package com.gibbonsdimarco.yamec.app.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpaceSavingSketchTest {
+
+    /**
+     * A few heavy keys among many light ones, each seen once, in a random order
+     */
+    private static Map<Integer, Double> addStream(SpaceSavingSketch<Integer> sketch, Random random, int keyOffset) {
+        Map<Integer, Double> totals = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            int key;
+            double weight;
+            if (random.nextInt(4) == 0) {
+                key = keyOffset + random.nextInt(5);
+                weight = 10 + key % 5;
+            } else {
+                key = keyOffset + 1000 + i;
+                weight = random.nextDouble();
+            }
+            sketch.add(key, weight);
+            totals.merge(key, weight, Double::sum);
+        }
+        return totals;
+    }
+
+    private static void assertCountsAreBounded(SpaceSavingSketch<Integer> sketch, Map<Integer, Double> totals) {
+        double totalWeight = totals.values().stream().mapToDouble(Double::doubleValue).sum();
+        assertEquals(totalWeight, sketch.getTotalWeight(), 1e-6);
+
+        for (SpaceSavingSketch.Counter<Integer> counter : sketch.top(sketch.getCapacity())) {
+            double total = totals.get(counter.getKey());
+            assertTrue(counter.getCount() >= total - 1e-6);
+            assertTrue(counter.getCount() - counter.getError() <= total + 1e-6);
+            assertTrue(counter.getError() <= totalWeight / sketch.getCapacity() + 1e-6);
+        }
+    }
+
+    @Test
+    void findsTheHeavyKeysWithBoundedCounts() {
+        SpaceSavingSketch<Integer> sketch = new SpaceSavingSketch<>(32);
+        Map<Integer, Double> totals = addStream(sketch, new Random(3), 0);
+
+        List<SpaceSavingSketch.Counter<Integer>> top = sketch.top(5);
+        assertEquals(5, top.size());
+        // Heavier keys have larger weights, so they come first
+        for (int rank = 0; rank < 5; rank++) {
+            assertEquals(4 - rank, top.get(rank).getKey());
+        }
+        assertCountsAreBounded(sketch, totals);
+    }
+
+    @Test
+    void mergedSketchesKeepTheBounds() {
+        Random random = new Random(5);
+        SpaceSavingSketch<Integer> first = new SpaceSavingSketch<>(32);
+        SpaceSavingSketch<Integer> second = new SpaceSavingSketch<>(32);
+        Map<Integer, Double> totals = addStream(first, random, 0);
+        addStream(second, random, 2).forEach((key, total) -> totals.merge(key, total, Double::sum));
+
+        first.merge(second);
+
+        assertTrue(first.size() <= 32);
+        List<SpaceSavingSketch.Counter<Integer>> top = first.top(3);
+        // Keys 2 to 4 are heavy in both streams
+        assertEquals(List.of(4, 3, 2), top.stream().map(SpaceSavingSketch.Counter::getKey).toList());
+        assertCountsAreBounded(first, totals);
+    }
+
+    @Test
+    void countsAreExactWhileThereAreFreeCounters() {
+        SpaceSavingSketch<String> sketch = new SpaceSavingSketch<>(4);
+        sketch.add("a", 1);
+        sketch.add("b", 5);
+        sketch.add("a", 2);
+        sketch.add("c", 0);
+
+        List<SpaceSavingSketch.Counter<String>> top = sketch.top(10);
+        assertEquals(2, top.size());
+        assertEquals("b", top.get(0).getKey());
+        assertEquals(3, top.get(1).getCount());
+        assertEquals(0, top.get(1).getError());
+    }
+}
@@ -1,6 +1,8 @@
 #include "com_gibbonsdimarco_yamec_app_jni_SystemMonitorManagerJNI.h"
 #include "Logger.h"
 #include "SystemMonitorManager.h"
+#include <chrono>
+#include <cstring>
 #include <iostream>
 /* com_gibbonsdimarco_yamec_app_jni_SystemMonitorManagerJNI */
 
@@ -1006,6 +1008,284 @@ JNIEXPORT jobject JNICALL Java_com_gibbonsdimarco_yamec_app_jni_SystemMonitorMan
 
 }
 
+// Layout of the metrics buffer. Must be kept in sync with MetricsBufferLayout.java
+namespace MetricsBuffer
+{
+    constexpr jint MAGIC = 0x31434D59; // "YMC1"
+    constexpr jint VERSION = 2;
+
+    constexpr size_t HEADER_SIZE = 72;
+    constexpr size_t PROCESS_ROW_SIZE = 40;
+    constexpr size_t DISK_ROW_SIZE = 48;
+    constexpr size_t NIC_ROW_SIZE = 40;
+
+    constexpr jint FLAG_CPU_COLLECTED = 1;
+    constexpr jint FLAG_MEMORY_COLLECTED = 1 << 1;
+
+    constexpr jint FLAG_READ_UNSIGNED = 1;
+    constexpr jint FLAG_WRITE_UNSIGNED = 1 << 1;
+    constexpr jint FLAG_OPERATING_UNSIGNED = 1;
+    constexpr jint FLAG_SEND_UNSIGNED = 1 << 1;
+    constexpr jint FLAG_RECEIVE_UNSIGNED = 1 << 2;
+
+    constexpr jint STATUS_BUFFER_TOO_SMALL = -3;
+    constexpr jint STATUS_INVALID_BUFFER = -2;
+    constexpr jint STATUS_COLLECTION_FAILED = -1;
+
+    // Windows only runs little-endian on x64, so values can be copied as they are
+    template <typename T>
+    void put(char *buffer, const size_t offset, const T value)
+    {
+        std::memcpy(buffer + offset, &value, sizeof(T));
+    }
+}
+
+// The time of the last collection made by fillMetricsBuffer, reused when the buffer is
+// refilled from the same collection
+static jlong metricsBufferCollectionTime = 0;
+
+JNIEXPORT jint JNICALL Java_com_gibbonsdimarco_yamec_app_jni_SystemMonitorManagerJNI_fillMetricsBuffer
+                            (JNIEnv *env, jobject obj, const jlong monitorPtr, jobject buffer, jboolean collect)
+{
+    using namespace MetricsBuffer;
+
+    auto *data = static_cast<char *>(env->GetDirectBufferAddress(buffer));
+    const jlong capacity = env->GetDirectBufferCapacity(buffer);
+
+    if (data == nullptr || capacity < static_cast<jlong>(HEADER_SIZE))
+    {
+        const std::string message("System Monitor Native - Metrics buffer fill failed because the "
+                                    + std::string("buffer is not a direct buffer or is too small for the header. "));
+        Logger::log(Logger::Level::ERR, message);
+        return STATUS_INVALID_BUFFER;
+    }
+
+    if (collect)
+    {
+        if (const jint status = Java_com_gibbonsdimarco_yamec_app_jni_SystemMonitorManagerJNI_collectCounterData(
+                                                                            env, obj, monitorPtr);
+            0 != status)
+        {
+            return STATUS_COLLECTION_FAILED;
+        }
+
+        metricsBufferCollectionTime = std::chrono::duration_cast<std::chrono::milliseconds>(
+                                        std::chrono::system_clock::now().time_since_epoch()).count();
+    }
+
+    const auto *monitor = reinterpret_cast<SystemMonitorManager *>(monitorPtr); // Access the SystemMonitorManager
+
+    // The CPU and memory metrics go in the header, so Java does not call getCpuMetrics and
+    // getMemoryMetrics for each collection. Either can fail without failing the whole collection,
+    // as those calls did.
+    jint headerFlags = 0;
+    double cpuUsage = 0;
+    unsigned long long physicalMemoryAvailable = 0;
+    unsigned long long virtualMemoryCommitted = 0;
+    double committedVirtualMemoryUsage = 0;
+    unsigned long long systemPhysicalMemoryUsedBytes = 0;
+
+    try
+    {
+        if (const int status = monitor->getCpuUsage(&cpuUsage); 0 == status)
+        {
+            headerFlags |= FLAG_CPU_COLLECTED;
+        }
+        else
+        {
+            const std::string message("System Monitor Native - Metrics buffer CPU counter retrieval "
+                                        + std::string("failed with error code: ") + std::to_string(status));
+            Logger::log(Logger::Level::ERR, message);
+        }
+
+        if (const int status = monitor->getMemoryCounters(&physicalMemoryAvailable,
+                                                          &virtualMemoryCommitted,
+                                                          &committedVirtualMemoryUsage);
+                                                          0 == status)
+        {
+            // Total memory is in KiB
+            systemPhysicalMemoryUsedBytes = monitor->getPhysicalMemory() * 1024 - physicalMemoryAvailable;
+            headerFlags |= FLAG_MEMORY_COLLECTED;
+        }
+        else
+        {
+            const std::string message("System Monitor Native - Metrics buffer memory counter retrieval "
+                                        + std::string("failed with error code: ") + std::to_string(status));
+            Logger::log(Logger::Level::ERR, message);
+        }
+    }
+    catch (std::exception &e)
+    {
+        const std::string message("System Monitor Native - Metrics buffer CPU or memory counter retrieval "
+                                    + std::string("failed due to an exception: "));
+        Logger::log(Logger::Level::ERR, message, e);
+    }
+
+    std::vector<std::wstring> processNames;
+    std::vector<int> processIds;
+    std::vector<double> cpuUsages;
+    std::vector<long long> physicalMemoryUsedBytes;
+    std::vector<long long> virtualMemoryUsedBytes;
+
+    std::vector<std::wstring> diskInstanceNames;
+    std::vector<double> diskInstancesUsage;
+    std::vector<unsigned long long> diskInstancesReadBandwidth;
+    std::vector<unsigned long long> diskInstancesWriteBandwidth;
+    std::vector<double> diskInstancesAvgTimeToTransfer;
+
+    std::vector<std::wstring> nicInstanceNames;
+    std::vector<unsigned long long> nicInstancesBandwidth;
+    std::vector<unsigned long long> nicInstancesBytesSent;
+    std::vector<unsigned long long> nicInstancesBytesReceived;
+
+    try
+    {
+        if (const int status = monitor->getApplicationCounters(&processNames,
+                                                                &processIds,
+                                                                &cpuUsages,
+                                                                &physicalMemoryUsedBytes,
+                                                                &virtualMemoryUsedBytes);
+                                                                0 != status)
+        {
+            const std::string message("System Monitor Native - Metrics buffer application counter retrieval "
+                                        + std::string("failed with error code: ") + std::to_string(status));
+            Logger::log(Logger::Level::ERR, message);
+            return STATUS_COLLECTION_FAILED;
+        }
+
+        if (const int status = monitor->getDiskCounters(&diskInstanceNames,
+                                                        &diskInstancesUsage,
+                                                        &diskInstancesReadBandwidth,
+                                                        &diskInstancesWriteBandwidth,
+                                                        &diskInstancesAvgTimeToTransfer);
+                                                        0 != status)
+        {
+            const std::string message("System Monitor Native - Metrics buffer disk counter retrieval "
+                                        + std::string("failed with error code: ") + std::to_string(status));
+            Logger::log(Logger::Level::ERR, message);
+            return STATUS_COLLECTION_FAILED;
+        }
+
+        if (const int status = monitor->getNicCounters(&nicInstanceNames,
+                                                        &nicInstancesBandwidth,
+                                                        &nicInstancesBytesSent,
+                                                        &nicInstancesBytesReceived);
+                                                        0 != status)
+        {
+            const std::string message("System Monitor Native - Metrics buffer NIC counter retrieval "
+                                        + std::string("failed with error code: ") + std::to_string(status));
+            Logger::log(Logger::Level::ERR, message);
+            return STATUS_COLLECTION_FAILED;
+        }
+    }
+    catch (std::exception &e)
+    {
+        const std::string message("System Monitor Native - Metrics buffer fill failed"
+                                    + std::string(" due to an exception: "));
+        Logger::log(Logger::Level::ERR, message, e);
+        return STATUS_COLLECTION_FAILED;
+    }
+
+    // Convert every name to UTF-8 first so the total length is known before anything is written
+    std::vector<std::string> names;
+    names.reserve(processNames.size() + diskInstanceNames.size() + nicInstanceNames.size());
+    size_t stringsLength = 0;
+
+    for (const auto *wideNames : {&processNames, &diskInstanceNames, &nicInstanceNames})
+    {
+        for (const std::wstring &wideName : *wideNames)
+        {
+            std::string utf8Name;
+            if (convertFromWideStrToStr(utf8Name, wideName) != 0)
+            {
+                utf8Name.clear(); // Keep the row, but without a name
+            }
+            stringsLength += utf8Name.size();
+            names.push_back(std::move(utf8Name));
+        }
+    }
+
+    const size_t processCount = processNames.size();
+    const size_t diskCount = diskInstanceNames.size();
+    const size_t nicCount = nicInstanceNames.size();
+
+    const size_t disksOffset = HEADER_SIZE + processCount * PROCESS_ROW_SIZE;
+    const size_t nicsOffset = disksOffset + diskCount * DISK_ROW_SIZE;
+    const size_t stringsOffset = nicsOffset + nicCount * NIC_ROW_SIZE;
+    const size_t length = stringsOffset + stringsLength;
+
+    put<jint>(data, 0, MAGIC);
+    put<jint>(data, 4, VERSION);
+    put<jint>(data, 8, static_cast<jint>(length));
+
+    if (static_cast<jlong>(length) > capacity)
+    {
+        // Java grows the buffer to the length in the header and calls again without collecting
+        return STATUS_BUFFER_TOO_SMALL;
+    }
+
+    put<jint>(data, 12, static_cast<jint>(processCount));
+    put<jint>(data, 16, static_cast<jint>(diskCount));
+    put<jint>(data, 20, static_cast<jint>(nicCount));
+    put<jint>(data, 24, static_cast<jint>(stringsOffset));
+    put<jint>(data, 28, headerFlags);
+    put<jlong>(data, 32, metricsBufferCollectionTime);
+    put<jdouble>(data, 40, cpuUsage);
+    put<jlong>(data, 48, static_cast<jlong>(systemPhysicalMemoryUsedBytes));
+    put<jlong>(data, 56, static_cast<jlong>(virtualMemoryCommitted));
+    put<jdouble>(data, 64, committedVirtualMemoryUsage);
+
+    size_t nameIndex = 0;
+    size_t nameOffset = 0;
+
+    // Writes the name at nameIndex into the string area and its offset and length into a row
+    auto putName = [&](const size_t row)
+    {
+        const std::string &name = names[nameIndex++];
+        put<jint>(data, row, static_cast<jint>(nameOffset));
+        put<jint>(data, row + 4, static_cast<jint>(name.size()));
+        std::memcpy(data + stringsOffset + nameOffset, name.data(), name.size());
+        nameOffset += name.size();
+    };
+
+    for (size_t i = 0; i < processCount; i++)
+    {
+        const size_t row = HEADER_SIZE + i * PROCESS_ROW_SIZE;
+        put<jint>(data, row, static_cast<jint>(processIds[i]));
+        putName(row + 4);
+        put<jint>(data, row + 12, 0);
+        put<jdouble>(data, row + 16, cpuUsages[i]);
+        put<jlong>(data, row + 24, physicalMemoryUsedBytes[i]);
+        put<jlong>(data, row + 32, virtualMemoryUsedBytes[i]);
+    }
+
+    for (size_t i = 0; i < diskCount; i++)
+    {
+        const size_t row = disksOffset + i * DISK_ROW_SIZE;
+        putName(row);
+        put<jdouble>(data, row + 8, diskInstancesUsage[i]);
+        put<jlong>(data, row + 16, static_cast<jlong>(diskInstancesReadBandwidth[i]));
+        put<jlong>(data, row + 24, static_cast<jlong>(diskInstancesWriteBandwidth[i]));
+        put<jdouble>(data, row + 32, diskInstancesAvgTimeToTransfer[i]);
+        put<jint>(data, row + 40, FLAG_READ_UNSIGNED | FLAG_WRITE_UNSIGNED);
+        put<jint>(data, row + 44, 0);
+    }
+
+    for (size_t i = 0; i < nicCount; i++)
+    {
+        const size_t row = nicsOffset + i * NIC_ROW_SIZE;
+        putName(row);
+        // Convert bandwidth sent/received to bits from bytes, as getNicMetrics does
+        put<jlong>(data, row + 8, static_cast<jlong>(nicInstancesBandwidth[i]));
+        put<jlong>(data, row + 16, static_cast<jlong>(nicInstancesBytesSent[i] * 8));
+        put<jlong>(data, row + 24, static_cast<jlong>(nicInstancesBytesReceived[i] * 8));
+        put<jint>(data, row + 32, FLAG_OPERATING_UNSIGNED | FLAG_SEND_UNSIGNED | FLAG_RECEIVE_UNSIGNED);
+        put<jint>(data, row + 36, 0);
+    }
+
+    return static_cast<jint>(length);
+}
+
 JNIEXPORT jboolean JNICALL Java_com_gibbonsdimarco_yamec_app_jni_SystemMonitorManagerJNI_release
                             (JNIEnv *env, jobject obj, const jlong monitorPtr)
 {
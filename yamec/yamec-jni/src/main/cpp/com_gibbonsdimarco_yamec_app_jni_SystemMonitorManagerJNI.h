@@ -119,6 +119,14 @@ JNIEXPORT jobject JNICALL Java_com_gibbonsdimarco_yamec_app_jni_SystemMonitorMan
 JNIEXPORT jobject JNICALL Java_com_gibbonsdimarco_yamec_app_jni_SystemMonitorManagerJNI_getProcessMetrics
                                     (JNIEnv *, jobject, const jlong);
 
+/*
+* Class:     com_gibbonsdimarco_yamec_app_jni_SystemMonitorManagerJNI
+* Method:    fillMetricsBuffer
+* Signature: (JLjava/nio/ByteBuffer;Z)I
+*/
+JNIEXPORT jint JNICALL Java_com_gibbonsdimarco_yamec_app_jni_SystemMonitorManagerJNI_fillMetricsBuffer
+                                    (JNIEnv *, jobject, const jlong, jobject, jboolean);
+
 /*
  * Class:     com_gibbonsdimarco_yamec_app_jni_SystemMonitorManagerJNI
  * Method:    release